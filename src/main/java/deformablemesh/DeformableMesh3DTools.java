@@ -29,6 +29,7 @@ import deformablemesh.geometry.*;
 import deformablemesh.io.MeshReader;
 import deformablemesh.io.MeshWriter;
 import deformablemesh.track.Track;
+import deformablemesh.util.MeshRasterizer;
 import deformablemesh.util.Vector3DOps;
 import deformablemesh.util.astar.*;
 import ij.ImageJ;
@@ -1372,7 +1373,6 @@ public class DeformableMesh3DTools {
         ImageStack colorStack = new ImageStack(w, h);
         double[] xdirection = {1,0,0};
         double[] center = {0,0,0};
-        InterceptingMesh3D picker = new InterceptingMesh3D(mesh);
         int slices = stack.getNSlices();
         for(int slice = 0; slice<slices; slice++){
             int[] pixels = new int[w*h];
@@ -1427,11 +1427,13 @@ public class DeformableMesh3DTools {
             for(int j = 0; j<n; j++){
                 out.addSlice(new ColorProcessor(w, h));
             }
+            MeshRasterizer rasterizer = new MeshRasterizer(stack);
             for(Track t: allMeshTracks){
                 if(t.containsKey(i)){
-                    mosaicBinary(stack, out, t.getMesh(i), t.getColor().getRGB());
+                    rasterizer.add(t.getMesh(i), t.getColor().getRGB());
                 }
             }
+            rasterizer.rasterize(out);
 
             for(int j = 1; j<= n; j++){
 
@@ -1469,23 +1471,18 @@ public class DeformableMesh3DTools {
             int id = 1;
             ImageStack out = new ImageStack(w, h);
             for(int j = 0; j<n; j++){
-                out.addSlice(new ColorProcessor(w, h));
+                out.addSlice(new ShortProcessor(w, h));
             }
+            MeshRasterizer rasterizer = new MeshRasterizer(stack);
             for(Track t: allMeshTracks){
                 if(t.containsKey(i)){
-                    mosaicBinary(stack, out, t.getMesh(i), id++);
+                    rasterizer.add(t.getMesh(i), id++);
                 }
             }
-
+            rasterizer.rasterize(out);
 
             for(int j = 1; j<= n; j++){
-                int[] px = (int[])out.getProcessor(j).getPixels();
-                ImageProcessor proc = new ShortProcessor(out.getWidth(), out.getHeight());
-                short[] px2 = (short[])proc.getPixels();
-                for(int k = 0; k<px2.length; k++){
-                    px2[k] = (short)px[k];
-                }
-                timeStack.addSlice(proc);
+                timeStack.addSlice(out.getProcessor(j));
             }
         }
         plus.setStack(timeStack, 1, n, frames.size());
@@ -1704,182 +1701,19 @@ public class DeformableMesh3DTools {
         return contained;
     }
 
+    /**
+     * Draws the mesh into the image stack, every voxel inside of the mesh is set to the provided value.
+     *
+     * @see MeshRasterizer
+     * @param stack geometry of the image
+     * @param out stack that will be drawn to.
+     * @param mesh closed mesh
+     * @param rgb value of the voxels inside of the mesh.
+     */
     public static void mosaicBinary(MeshImageStack stack, ImageStack out, DeformableMesh3D mesh, int rgb){
-        Box3D box = mesh.getBoundingBox();
-        double[] lowI = stack.getImageCoordinates(box.low);
-        double[] highI = stack.getImageCoordinates(box.high);
-
-        InterceptingMesh3D picker = new InterceptingMesh3D(mesh);
-        double[] xdirection = {1,0,0};
-
-        int slices = out.getSize();
-        int w = out.getWidth();
-        int h = out.getHeight();
-        double center[] = new double[3];
-
-        int sliceLow = (int)lowI[2];
-        int sliceHigh = (int)highI[2];
-        //verify
-        sliceLow = sliceLow < 0 ? 0 : sliceLow;
-        sliceHigh = sliceHigh <= out.getSize() ? sliceHigh : out.getSize();
-
-        int jlo = (int)lowI[1];
-        int jhi = (int)highI[1];
-        jlo = jlo < 0 ? 0 : jlo;
-        jhi = jhi <= h ? jhi : h;
-
-        int xlo = (int)lowI[0];
-        int xhi = (int)highI[0];
-        xlo = xlo < 0 ? 0: xlo;
-        xhi = xhi > w ? w : xhi;
-
-        for(int slice = sliceLow; slice<sliceHigh; slice++){
-
-            int[] pixels = (int[])(out.getProcessor(slice+1).getPixels());
-            center[2] = slice;
-
-
-            for(int j = jlo; j<jhi; j++){
-
-                int offset = j*w;
-                center[1] = j;
-
-                List<Intersection> sections = picker.getIntersections(stack.getNormalizedCoordinate(center), xdirection);
-                scanDirty(sections);
-                if(sections.size() % 2 != 0) {
-                    for (int zeta = 0; zeta < 3; zeta+=2) {
-                        center[1] = j - 0.1 + zeta * 0.1;
-                        sections = picker.getIntersections(stack.getNormalizedCoordinate(center), xdirection);
-                        scanDirty(sections);
-                        if(sections.size() % 2 == 0){
-                            break;
-                        }
-                    }
-                }
-
-                if(sections.size()==0){
-                    //No intersections. No points inside.
-                    continue;
-                }
-
-
-                sections.sort((a,b)->Double.compare(a.location[0], b.location[0]));
-
-                boolean startInside = false;
-                double count = 0;
-                double[] boundaries = new double[sections.size()+1];
-
-                //the number of boundaries that switch the state from inside to outside.
-                int valid = 0;
-                double lowestEntry = Double.MAX_VALUE;
-                double highestExit = -Double.MAX_VALUE;
-
-                for(int k = 0; k<sections.size(); k++){
-
-                    double bound = stack.getImageCoordinates(sections.get(k).location)[0];
-
-                    boolean facingLeft = sections.get(k).surfaceNormal[0]<0;
-                    boolean facingRight = !facingLeft;
-                    //going through all interfaces, and either going further in
-                    //or back out.
-                    if(facingLeft){
-                        count++;
-                        if(bound < lowestEntry){
-                            lowestEntry = bound;
-                        }
-                    } else{
-                        count--;
-                        if(bound > highestExit){
-                            highestExit = bound;
-                        }
-                    }
-                    if(bound>0) {
-                        //check if it is actually a boundary
-                        if ( count==1 && facingLeft ) {
-                            //boundary entering region.
-                            if( valid == 0){
-                                startInside = false;
-                            }
-                            boundaries[valid] = bound;
-                            valid++;
-                        } else if (count==0 && facingRight) {
-                            //stepped out.
-                            if( valid == 0){
-                                startInside = true;
-                            }
-                            boundaries[valid] = bound;
-                            valid++;
-                        }
-
-                    }
-                }
-
-                boolean inside = startInside;
-
-
-                if(lowestEntry < lowI[0]){
-                    System.out.println("Topo Error: lowest entry is less than bounding box!");
-                }
-                if( (int)highestExit > highI[0] ){
-                    System.out.println("Topo Error: highest exit is outside of bounding box!");
-                }
-
-                if(startInside && lowestEntry>0){
-                    System.out.println("Topo Error: Lower bound above zero but mesh starts inside.");
-                }
-
-                boundaries[valid] = w;
-
-                //This isn't necessarily true.
-                //lowestIntersection >= lowI[0] and highestIntersection <= highI[0]
-                boolean finishesOutsideImage = lowestEntry <= (w-1) && highestExit >= (w - 1) ;
-
-                int current = 0;
-
-
-                for(int p = 0; p<w; p++){
-                    if(p>boundaries[current]){
-                        //switch.
-                        current++;
-                        inside = !inside;
-                    }
-                    if(inside && p <= xhi){
-                        pixels[p + offset] = rgb;
-                    }
-                    if( p > xhi && inside){
-                        /*
-                        //System.out.println("truncating scan, beyond bounding box.");
-
-                        double min = Double.MAX_VALUE;
-                        Node3D minNode = null;
-                        for(Node3D node: mesh.nodes){
-                            double[] pt = stack.getImageCoordinates(node.getCoordinates());
-                            double dy = pt[1] - j;
-                            double dz = pt[2] - slice;
-                            double d = Math.sqrt(dy*dy + dz*dz);
-                            if(d < min){
-                                min = d;
-                                minNode = node;
-                            }
-                        }
-                        //double[] mcn = stack.getImageCoordinates(minNode.getCoordinates());
-                        //System.out.println(min + " " + minNode.index);
-                         */
-                    }
-                }
-                if(finishesOutsideImage && !inside){
-                    System.out.println("topography warning: bounds outside image, but not inside the shape at end");
-                }
-                
-                if(!finishesOutsideImage && inside){
-                    System.out.println("Inconsistent bounding box: End of image is out of bounds, but state is inside the shape");
-                    System.out.println( "slice: " + slice + ", y: " + j);
-                    System.out.println(Arrays.toString(lowI) + " [~] " + Arrays.toString(highI));
-                }
-
-            }
-
-        }
+        MeshRasterizer rasterizer = new MeshRasterizer(stack);
+        rasterizer.add(mesh, rgb);
+        rasterizer.rasterize(out);
     }
 
     public static DeformableMesh3D copyOf(DeformableMesh3D mesh) {
@@ -29,7 +29,7 @@ import deformablemesh.geometry.Box3D;
 import deformablemesh.geometry.DeformableMesh3D;
 import deformablemesh.geometry.RayCastMesh;
 import deformablemesh.simulations.FillingBinaryImage;
-import deformablemesh.util.connectedcomponents.ConnectedComponents3D;
+import deformablemesh.util.connectedcomponents.LabelledVolume;
 import deformablemesh.util.connectedcomponents.Region;
 import deformablemesh.util.connectedcomponents.RegionGrowing;
 import ij.ImagePlus;
@@ -70,69 +70,63 @@ public class MeshDetector {
         end = System.currentTimeMillis();
         System.out.println("prepared binary image: " + (end - start)/1000);
         start = System.currentTimeMillis();
-        List<Region> regions = ConnectedComponents3D.getRegions(threshed);
+        LabelledVolume labelled = LabelledVolume.label(threshed);
         end = System.currentTimeMillis();
-        System.out.println(regions.size() + " regions detected in " + (end - start)/1000);
+        System.out.println(labelled.getRegionCount() + " regions detected in " + (end - start)/1000);
 
-        Integer biggest = -1;
+        int biggest = -1;
         int size = 0;
-        List<Region> toRemove = new ArrayList<>();
         int small = 0;
 
         start = System.currentTimeMillis();
 
-        short[][] pixels = new short[threshed.getSize()][];
-        for(int i = 0; i<threshed.getSize(); i++){
-            pixels[i] = (short[])threshed.getPixels(i+1);
-        }
-
-        for (Region region : regions) {
-            Integer key = region.getLabel();
-            List<int[]> points = region.getPoints();
-
-            int width = threshed.getWidth();
-
-            if (points.size() < minSize) {
+        //only the voxels of regions that are kept are listed.
+        List<Region> regions = new ArrayList<>();
+        boolean[] keep = new boolean[labelled.getRegionCount() + 1];
+        for(int key = 1; key<=labelled.getRegionCount(); key++){
+            int count = labelled.getVoxelCount(key);
+            if (count > size) {
+                size = count;
+                biggest = key;
+            }
+            if (count < minSize) {
                 small++;
-                toRemove.add(region);
-                for (int[] pt : points) {
-                    pixels[pt[2] - 1][pt[0] + pt[1]*width] = 0;
-                    //threshed.getProcessor(pt[2]).set(pt[0], pt[1], 0);
-                }
-            } else {
-                double[] rmin = mis.getNormalizedCoordinate(region.getLowCorner());
-                double[] rmax = mis.getNormalizedCoordinate(region.getHighCorner());
-
-                Box3D candidate = new Box3D(rmin[0], rmin[1], rmin[2], rmax[0], rmax[1], rmax[2]);
-                double cv = candidate.getVolume();
-                boolean obstructed = false;
-                for(Box3D box: current){
-                    Box3D intersection = box.getIntersectingBox(candidate);
-                    double bv = box.getVolume();
-                    double iv = intersection.getVolume();
-                    if((iv/cv > max_overlap) || (iv/bv > max_overlap)){
-                        toRemove.add(region);
-                        for (int[] pt : points) {
-                            pixels[pt[2] - 1][pt[0] + pt[1]*width] = 0;
-                            //threshed.getProcessor(pt[2]).set(pt[0], pt[1], 0);
-                        }
-
-                    }
-                }
-                for (int[] pt : points) {
-                    pixels[pt[2] - 1][pt[0] + pt[1]*width] = (short)key.shortValue();
-                    //threshed.getProcessor(pt[2]).set(pt[0], pt[1], key);
+                continue;
+            }
+            int[] low = labelled.getLowCorner(key);
+            int[] high = labelled.getHighCorner(key);
+            double[] rmin = mis.getNormalizedCoordinate(new double[]{low[0], low[1], low[2]});
+            double[] rmax = mis.getNormalizedCoordinate(new double[]{high[0] + 1, high[1] + 1, high[2] + 1});
+
+            Box3D candidate = new Box3D(rmin[0], rmin[1], rmin[2], rmax[0], rmax[1], rmax[2]);
+            double cv = candidate.getVolume();
+            boolean obstructed = false;
+            for(Box3D box: current){
+                Box3D intersection = box.getIntersectingBox(candidate);
+                double bv = box.getVolume();
+                double iv = intersection.getVolume();
+                if((iv/cv > max_overlap) || (iv/bv > max_overlap)){
+                    obstructed = true;
+                    break;
                 }
             }
-            if (points.size() > size) {
-                size = points.size();
-                biggest = key;
+            if(!obstructed){
+                keep[key] = true;
+                regions.add(labelled.getRegion(key));
             }
-
         }
         System.out.println(small + " to small. Biggest: " + biggest + " size of: " + size);
-        for (Region region : toRemove) {
-            regions.remove(region);
+
+        int width = threshed.getWidth();
+        int height = threshed.getHeight();
+        for(int i = 0; i<threshed.getSize(); i++){
+            short[] pixels = (short[])threshed.getPixels(i+1);
+            for(int y = 0; y<height; y++){
+                for(int x = 0; x<width; x++){
+                    int key = labelled.getLabel(x, y, i + 1);
+                    pixels[x + y*width] = keep[key] ? (short)key : 0;
+                }
+            }
         }
         end = System.currentTimeMillis();
         System.out.println( "removed small in: " + (end - start)/1000);
@@ -27,7 +27,14 @@ package deformablemesh;
 
 import deformablemesh.geometry.Box3D;
 import deformablemesh.geometry.Furrow3D;
+import deformablemesh.io.MappedHyperstack;
 import deformablemesh.ringdetection.FurrowTransformer;
+import deformablemesh.util.FrameCache;
+import deformablemesh.volume.FloatVolume;
+import deformablemesh.volume.MappedVolume;
+import deformablemesh.volume.UnsignedShortVolume;
+import deformablemesh.volume.VolumeStorage;
+import deformablemesh.volume.VoxelVolume;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.io.FileInfo;
@@ -36,7 +43,11 @@ import ij.process.ImageProcessor;
 
 import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
 
 import static deformablemesh.geometry.DeformableMesh3D.ORIGIN;
 
@@ -48,7 +59,17 @@ import static deformablemesh.geometry.DeformableMesh3D.ORIGIN;
  * Date: 7/3/13
  */
 public class MeshImageStack {
-    public double[][][] data;
+    private static VolumeStorage defaultStorage = VolumeStorage.Automatic;
+    private static FrameCache.Budget cacheBudget = new FrameCache.Budget(Runtime.getRuntime().maxMemory()/4);
+    VoxelVolume volume;
+    VoxelVolume copied;
+    MappedHyperstack mapped;
+    FrameCache<Frame> frames;
+    final Map<Long, Frame> substituted = new HashMap<>();
+    VolumeStorage storage;
+    boolean lossless16;
+    boolean prefetch;
+    int direction = 1;
 
     public double SCALE;
     public double[] scale_values;
@@ -74,13 +95,59 @@ public class MeshImageStack {
         offsets=new double[]{0,0,0};
         pixel_dimensions=new double[]{1,1,1};
         PX=1;
-        data = new double[1][1][1];
+        volume = new FloatVolume(1, 1, 1);
         max_dex = new int[3];
         FRAMES = 999;
     }
 
     /**
-     * Creates a mesh image stack and sets the backing data to the corresponding time frame and channel.
+     * Creates a stack backed by the volume, without an image. The pixels are unit sized and the normalized
+     * coordinates are the same as the image coordinates.
+     *
+     * @param volume the data of the stack, used directly.
+     */
+    public MeshImageStack(VoxelVolume volume){
+        SCALE=1;
+        CHANNELS = 1;
+        FRAMES = 1;
+        SLICES = volume.getDepth();
+        scale_values=new double[]{1,1,1};
+        offsets=new double[]{0,0,0};
+        pixel_dimensions=new double[]{1,1,1};
+        PX=1;
+        this.volume = volume;
+        max_dex = new int[]{volume.getWidth() - 1, volume.getHeight() - 1, volume.getDepth() - 1};
+    }
+
+    /**
+     * A stack with the same normalized coordinates as the source, backed by a volume with larger pixels.
+     *
+     * @param source stack whose geometry is used.
+     * @param volume the data, each voxel covers factors voxels of the source.
+     * @param factors ratio of the new pixel size to the source pixel size, x, y and z.
+     */
+    private MeshImageStack(MeshImageStack source, VoxelVolume volume, int[] factors){
+        SCALE = source.SCALE;
+        CHANNELS = 1;
+        FRAMES = 1;
+        SLICES = volume.getDepth();
+        offsets = source.offsets.clone();
+        pixel_dimensions = new double[3];
+        scale_values = new double[3];
+        for(int i = 0; i<3; i++){
+            pixel_dimensions[i] = source.pixel_dimensions[i]*factors[i];
+            scale_values[i] = source.scale_values[i]/factors[i];
+        }
+        double[] nPx = scaleToNormalizedLength(new double[]{1,1,1});
+        PX = Math.min(nPx[0], Math.min(nPx[1], nPx[2]));
+        this.volume = volume;
+        max_dex = new int[]{volume.getWidth() - 1, volume.getHeight() - 1, volume.getDepth() - 1};
+    }
+
+    /**
+     * Creates a mesh image stack and sets the backing data to the corresponding time frame and channel. When the
+     * image is a virtual stack of an uncompressed TIFF or raw file, the voxels are read through a memory mapped file
+     * instead of being copied.
      * @param original image needs to be viewable as a hyperstack in image.
      * @param frame 0-th index time frame eg 2 time points valid values are 0, 1.
      * @param channel 0 index channel. eg 3 channels values 0, 1, 2 are valid.
@@ -96,7 +163,25 @@ public class MeshImageStack {
         int py = original.getHeight();
         int px = original.getWidth();
 
-        data = new double[SLICES][py][px];
+        if(original.getStack().isVirtual()){
+            try{
+                mapped = MappedHyperstack.open(original);
+            } catch(IOException e){
+                System.out.println("Copying values, could not map " + original.getTitle() + ": " + e.getMessage());
+            }
+        }
+        if(mapped == null){
+            int bits = original.getBitDepth();
+            lossless16 = (bits == 8 || bits == 16) && !original.getCalibration().calibrated();
+            storage = defaultStorage;
+            //virtual stacks that are not mapped read their slices through the image, which isn't thread safe.
+            prefetch = !original.getStack().isVirtual();
+            if(cacheBudget.getBytes() > 0){
+                frames = new FrameCache<>(cacheBudget, this::loadFrame, f -> f.volume.getSizeInBytes());
+            } else{
+                copied = storage.create(px, py, SLICES, lossless16);
+            }
+        }
 
         max_dex = new int[]{px-1, py-1, SLICES-1};
 
@@ -141,7 +226,7 @@ public class MeshImageStack {
                 nPx[0] < nPx[2] ? nPx[0] : nPx[2] :
                 nPx[1] < nPx[2] ? nPx[1] : nPx[2];
 
-        copyValues();
+        updateVolume();
     }
 
     public MeshImageStack(ImagePlus original){
@@ -223,21 +308,24 @@ public class MeshImageStack {
     public void nextFrame(){
         if(CURRENT+1<FRAMES){
             CURRENT+=1;
-            copyValues();
+            direction = 1;
+            updateVolume();
         }
     }
 
     public void previousFrame(){
         if(CURRENT>0){
             CURRENT--;
-            copyValues();
+            direction = -1;
+            updateVolume();
         }
     }
 
     public void setFrame(int i){
         if(i!=CURRENT&&i<FRAMES&&i>=0){
+            direction = i > CURRENT ? 1 : -1;
             CURRENT=i;
-            copyValues();
+            updateVolume();
         }
     }
 
@@ -245,7 +333,7 @@ public class MeshImageStack {
         if(c >= 0 && c < CHANNELS ){
             if(channel != c){
                 channel = c;
-                copyValues();
+                updateVolume();
             }
         } else{
             System.out.println("Channel " + c + " specified is out of range [0, " + ( CHANNELS - 1 ) +" ]");
@@ -253,133 +341,339 @@ public class MeshImageStack {
     }
 
     /**
-     * Copies the image data from the image stack to the double[][] backing the
-     * image data that is used for obtaining values.
+     * Sets the storage used by stacks created after this call.
+     *
+     * @param storage how the voxels are stored, the default is {@link VolumeStorage#Automatic}.
+     */
+    public static void setDefaultStorage(VolumeStorage storage){
+        defaultStorage = storage;
+    }
+
+    public static VolumeStorage getDefaultStorage(){
+        return defaultStorage;
+    }
+
+    /**
+     * Sets the memory budget of the frame caches for stacks created after this call, the budget is shared by all of
+     * those stacks. Decoded frames are kept until the budget is exceeded, and the next frame in the direction of
+     * travel is loaded in the background.
+     *
+     * @param bytes maximum bytes of cached frames, 0 disables caching and the current frame is copied into a single
+     *              reused volume. The default is a quarter of the maximum heap.
+     */
+    public static void setDefaultCacheBudget(long bytes){
+        cacheBudget = new FrameCache.Budget(bytes);
+    }
+
+    public static long getDefaultCacheBudget(){
+        return cacheBudget.getBytes();
+    }
+
+    /**
+     * @return the cache of decoded frames, null if caching is disabled or the stack is mapped.
+     */
+    public FrameCache<?> getFrameCache(){
+        return frames;
+    }
+
+    /**
+     * A decoded frame and channel.
+     */
+    static class Frame{
+        final VoxelVolume volume;
+        final double min, max;
+        Frame(VoxelVolume volume, double min, double max){
+            this.volume = volume;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /**
+     * Sets the volume to the current frame and channel, from the cache if possible, and prefetches the next frame in
+     * the direction of travel. Only in memory stacks are prefetched, a virtual stack is only read on the calling
+     * thread.
+     */
+    void updateVolume(){
+        if(frames == null){
+            copyValues();
+            return;
+        }
+        Frame frame = substituted.get(key(CURRENT, channel));
+        if(frame == null){
+            frame = frames.get(CURRENT, channel);
+        }
+        volume = frame.volume;
+        MIN_VALUE = frame.min;
+        MAX_VALUE = frame.max;
+        int next = CURRENT + direction;
+        if(prefetch && next >= 0 && next < FRAMES){
+            frames.prefetch(next, channel);
+        }
+    }
+
+    Frame loadFrame(int frame, int channel){
+        VoxelVolume loaded = storage.create(original.getWidth(), original.getHeight(), SLICES, lossless16);
+        double[] range = copyValues(loaded, frame, channel);
+        return new Frame(loaded, range[0], range[1]);
+    }
+
+    /**
+     * @return the volume backing the current frame and channel.
+     */
+    public VoxelVolume getVolume(){
+        return volume;
+    }
+
+    /**
+     * @return true if the voxels are read from a memory mapped file.
+     */
+    public boolean isMapped(){
+        return mapped != null;
+    }
+
+    /**
+     * Copies the image data from the image stack to the volume backing the
+     * image data that is used for obtaining values. Mapped stacks only map the
+     * current frame and channel, and the min and max values are not calculated.
+     * Cached stacks discard the cached copy of the current frame and channel. Frames that have been substituted,
+     * {@link #copyValues(MeshImageStack)}, keep the substituted values.
      *
      */
     public void copyValues(){
         if(original == null){
             return;
         }
+        Frame frame = substituted.get(key(CURRENT, channel));
+        if(frame != null){
+            volume = frame.volume;
+            MIN_VALUE = frame.min;
+            MAX_VALUE = frame.max;
+            return;
+        }
+        if(mapped != null){
+            try{
+                volume = mapped.getVolume(CURRENT, channel);
+            } catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+            MIN_VALUE = Double.NaN;
+            MAX_VALUE = Double.NaN;
+            return;
+        }
+        if(frames != null){
+            frames.invalidate(CURRENT, channel);
+            updateVolume();
+            return;
+        }
+        volume = copied;
+        double[] range = copyValues(volume, CURRENT, channel);
+        MIN_VALUE = range[0];
+        MAX_VALUE = range[1];
+    }
+
+    static long key(int frame, int channel){
+        return (((long)frame) << 32) | (channel & 0xffffffffL);
+    }
+
+    /**
+     * Copies a frame and channel into the destination.
+     *
+     * @return min and max value.
+     */
+    double[] copyValues(VoxelVolume destination, int frame, int channel){
         int slices = original.getNSlices();
         int py = original.getHeight();
         int px = original.getWidth();
 
-        MIN_VALUE=Double.MAX_VALUE;
-        MAX_VALUE=-MIN_VALUE;
+        double min=Double.MAX_VALUE;
+        double max=-min;
 
         for(int i = 0;i<slices; i++){
             //int N = z*channels + i * channels * slices + c;
-            int n = i * CHANNELS + CURRENT*CHANNELS*slices + channel + 1;
+            int n = i * CHANNELS + frame*CHANNELS*slices + channel + 1;
             ImageProcessor proc = original.getStack().getProcessor( n );
             for(int j = 0; j<py; j++){
                 for(int k = 0; k<px; k++){
                     double v = proc.getPixelValue(k,j);
-                    if(v<MIN_VALUE) MIN_VALUE=v;
-                    else if(v>MAX_VALUE) MAX_VALUE=v;
-                    data[i][j][k] = v;
+                    if(v<min) min=v;
+                    else if(v>max) max=v;
+                    destination.setValue(k, j, i, v);
                 }
             }
         }
-
+        return new double[]{min, max};
     }
 
     /**
      * For creating a backing double array of another ImagePlus that uses the same geometry as the original image
-     * plus.
+     * plus. Values are only copied into the current volume when they are 16 bit integers and the volume is writable,
+     * otherwise the volume is replaced by a copy, floats unless the values are 16 bit integers, so values such as
+     * probabilities are not rounded and memory mapped stacks are not written to.
+     *
+     * Stacks of an image always use a new volume, which is kept for the current frame and channel outside of the
+     * frame cache, so the values are not replaced by the original image when the frame is reloaded.
      *
      * @param other
      */
     public void copyValues(MeshImageStack other){
-        if(other.data.length != data.length
-                || other.data[0].length != data[0].length
-                || other.data[0][0].length != data[0][0].length ){
+        if(!volume.sameDimensions(other.volume)){
             return;
         }
-        for(int i = 0; i<data.length; i++){
-            double[][] dest = data[i];
-            double[][] src = other.data[i];
-            for(int j = 0; j<dest.length; j++){
-                double[] line = dest[j];
-                double[] sline = src[j];
-                for(int k = 0; k<line.length; k++){
-                    line[k] = sline[k];
-                }
-            }
+        boolean integers = other.isLossless16();
+        if(!integers || !volume.isWritable() || original != null){
+            volume = VolumeStorage.Automatic.create(volume.getWidth(), volume.getHeight(), volume.getDepth(), integers);
+        }
+        volume.copy(other.volume);
+        if(original != null){
+            substituted.put(key(CURRENT, channel), new Frame(volume, MIN_VALUE, MAX_VALUE));
         }
+    }
 
+    /**
+     * @return true if the values of the current volume are integers that fit in 16 bits.
+     */
+    boolean isLossless16(){
+        if(volume instanceof MappedVolume){
+            return ((MappedVolume)volume).getType() != MappedVolume.Type.Float;
+        }
+        return volume instanceof UnsignedShortVolume || lossless16;
     }
 
     public double getInterpolatedValue(double x, double y, double z){
-        return getInterpolatedValue(new double[]{x,y,z});
+        final VoxelVolume data = volume;
+        double nx = SCALE*(x + offsets[0])*scale_values[0];
+        double ny = SCALE*(y + offsets[1])*scale_values[1];
+        double nz = SCALE*(z + offsets[2])*scale_values[2];
+        int bx = clampBase(nx, max_dex[0]);
+        int by = clampBase(ny, max_dex[1]);
+        int bz = clampBase(nz, max_dex[2]);
+        double fx = bx==max_dex[0]?0:nx - bx;
+        double fy = by==max_dex[1]?0:ny - by;
+        double fz = bz==max_dex[2]?0:nz - bz;
+        return interpolate(data, bx, by, bz, fx, fy, fz);
     }
 
     final static double min_interp_value=1e-4;
     public double getInterpolatedValue(double[] xyz){
-        double[] ndex = new double[3];
-        int[] base = new int[3];
-        double[] f = new double[3];
-        for(int i = 0; i<3; i++){
-            ndex[i] = SCALE*(xyz[i] + offsets[i])*scale_values[i];
-            base[i] = (int)ndex[i];
-
-            //outside of image is the same as the edge value.
-            if(base[i]<0){
-                base[i] = 0;
-            } else if(base[i]>max_dex[i]){
-                base[i] = max_dex[i];
-            }
-            /*
-            outside of image is zero.
-            if(base[i]<0||base[i]>max_dex[i]){
-                //out of range
-                return 0;
-            }
-            */
+        return getInterpolatedValue(xyz[0], xyz[1], xyz[2]);
+    }
 
+    /**
+     * Samples the image at many points, without allocating. Values are identical to
+     * {@link #getInterpolatedValue(double, double, double)}.
+     *
+     * @param points x, y, z normalized coordinates of each point.
+     * @param count number of points to sample.
+     * @param values where the values are placed, length of at least count.
+     * @param gradients if not null, the gradient of the interpolation with respect to normalized coordinates is placed
+     *                  here, 3 values per point. The gradient is 0 along directions outside of the image.
+     */
+    public void getInterpolatedValues(double[] points, int count, double[] values, double[] gradients){
+        final VoxelVolume data = volume;
+        final double sx = SCALE*scale_values[0];
+        final double sy = SCALE*scale_values[1];
+        final double sz = SCALE*scale_values[2];
+        final int mx = max_dex[0];
+        final int my = max_dex[1];
+        final int mz = max_dex[2];
+        for(int i = 0; i<count; i++){
+            double nx = SCALE*(points[3*i] + offsets[0])*scale_values[0];
+            double ny = SCALE*(points[3*i + 1] + offsets[1])*scale_values[1];
+            double nz = SCALE*(points[3*i + 2] + offsets[2])*scale_values[2];
+            int bx = clampBase(nx, mx);
+            int by = clampBase(ny, my);
+            int bz = clampBase(nz, mz);
+            double fx = bx==mx?0:nx - bx;
+            double fy = by==my?0:ny - by;
+            double fz = bz==mz?0:nz - bz;
+            values[i] = interpolate(data, bx, by, bz, fx, fy, fz);
+
+            if(gradients != null){
+                //fractions within the cell, 0 where the point is outside of the image.
+                boolean inX = nx >= 0 && bx < mx;
+                boolean inY = ny >= 0 && by < my;
+                boolean inZ = nz >= 0 && bz < mz;
+                int dx = inX ? 1 : 0;
+                int dy = inY ? 1 : 0;
+                int dz = inZ ? 1 : 0;
+                double gx = inX ? fx : 0;
+                double gy = inY ? fy : 0;
+                double gz = inZ ? fz : 0;
+                double v000 = data.getValue(bx, by, bz);
+                double v100 = data.getValue(bx + dx, by, bz);
+                double v010 = data.getValue(bx, by + dy, bz);
+                double v110 = data.getValue(bx + dx, by + dy, bz);
+                double v001 = data.getValue(bx, by, bz + dz);
+                double v101 = data.getValue(bx + dx, by, bz + dz);
+                double v011 = data.getValue(bx, by + dy, bz + dz);
+                double v111 = data.getValue(bx + dx, by + dy, bz + dz);
+
+                double ddx = (1 - gy)*(1 - gz)*(v100 - v000) + gy*(1 - gz)*(v110 - v010)
+                        + (1 - gy)*gz*(v101 - v001) + gy*gz*(v111 - v011);
+                double ddy = (1 - gx)*(1 - gz)*(v010 - v000) + gx*(1 - gz)*(v110 - v100)
+                        + (1 - gx)*gz*(v011 - v001) + gx*gz*(v111 - v101);
+                double ddz = (1 - gx)*(1 - gy)*(v001 - v000) + gx*(1 - gy)*(v101 - v100)
+                        + (1 - gx)*gy*(v011 - v010) + gx*gy*(v111 - v110);
+                gradients[3*i] = ddx*sx;
+                gradients[3*i + 1] = ddy*sy;
+                gradients[3*i + 2] = ddz*sz;
+            }
+        }
+    }
 
-            f[i] = base[i]==max_dex[i]?0:ndex[i] - base[i];
+    /**
+     * Outside of the image is the same as the edge value.
+     */
+    private static int clampBase(double ndex, int max){
+        int base = (int)ndex;
+        if(base<0){
+            return 0;
+        } else if(base>max){
+            return max;
         }
+        return base;
+    }
 
-        double a = getValue(base[0],base[1], base[2]);
+    private static double interpolate(VoxelVolume data, int bx, int by, int bz, double fx, double fy, double fz){
+        double a = data.getValue(bx, by, bz);
 
-        
-        if(f[0]>min_interp_value){
-            double b = getValue(base[0]+1, base[1], base[2]);
-            a = a + (b-a)*f[0];
+        if(fx>min_interp_value){
+            double b = data.getValue(bx+1, by, bz);
+            a = a + (b-a)*fx;
         }
 
-        if(f[1]>min_interp_value){
-            double c = getValue(base[0],base[1]+1, base[2]);
+        if(fy>min_interp_value){
+            double c = data.getValue(bx, by+1, bz);
 
-            if(f[0]>min_interp_value){
-                double d = getValue(base[0]+1, base[1]+1, base[2]);
-                c = c + (d-c)*f[0];
+            if(fx>min_interp_value){
+                double d = data.getValue(bx+1, by+1, bz);
+                c = c + (d-c)*fx;
             }
-            a = a + (c-a)*f[1]; //first plane.
+            a = a + (c-a)*fy; //first plane.
         }
 
         double v = a;
-        if(f[2]>min_interp_value){
+        if(fz>min_interp_value){
 
-            a = getValue(base[0],base[1], base[2]+1);
+            a = data.getValue(bx, by, bz+1);
 
-            if(f[0]>min_interp_value){
-                double b = getValue(base[0]+1, base[1], base[2]+1);
-                a = a + (b-a)*f[0];
+            if(fx>min_interp_value){
+                double b = data.getValue(bx+1, by, bz+1);
+                a = a + (b-a)*fx;
             }
 
-            if(f[1]>min_interp_value){
-                double c = getValue(base[0],base[1]+1, base[2]+1);
+            if(fy>min_interp_value){
+                double c = data.getValue(bx, by+1, bz+1);
 
-                if(f[0]>min_interp_value){
-                    double d = getValue(base[0]+1, base[1]+1, base[2]+1);
-                    c = c + (d-c)*f[0];
+                if(fx>min_interp_value){
+                    double d = data.getValue(bx+1, by+1, bz+1);
+                    c = c + (d-c)*fx;
                 }
-                a = a + (c-a)*f[1];
+                a = a + (c-a)*fy;
             }
 
-            v = v + (a-v)*f[2];
+            v = v + (a-v)*fz;
         }
 
         return v;
@@ -391,10 +685,10 @@ public class MeshImageStack {
      * @param x pixel loc
      * @param y pixel loc
      * @param z slice
-     * @return the backing double
+     * @return the backing value
      */
     public double getValue(int x, int y, int z){
-        return data[z][y][x];
+        return volume.getValue(x, y, z);
 
     }
 
@@ -476,9 +770,9 @@ public class MeshImageStack {
         double sumy = 0;
         double sumz = 0;
         double[] r = new double[3];
-        for(int i = 0; i<data[0][0].length; i++){
-            for(int j = 0; j<data[0].length; j++){
-                for(int k = 0; k<data.length; k++){
+        for(int i = 0; i<volume.getWidth(); i++){
+            for(int j = 0; j<volume.getHeight(); j++){
+                for(int k = 0; k<volume.getDepth(); k++){
                     r[0] = i;
                     r[1] = j;
                     r[2] = k;
@@ -536,6 +830,102 @@ public class MeshImageStack {
         return new MeshImageSubStack(box, this, plus);
     }
 
+    /**
+     * Creates a lower resolution copy of the current frame and channel, for deforming at a coarser scale. The copy
+     * uses the same normalized coordinates, the target pixel size is factor times the smallest pixel dimension and
+     * each axis is reduced by the closest whole number, so thick slices are reduced less or not at all. Values are
+     * averaged with a tent filter before they are decimated.
+     *
+     * @param factor how much larger the smallest pixel dimension becomes.
+     * @return a stack that only has the one frame, or this stack if the factor is less than 2.
+     */
+    public MeshImageStack createDownsampled(int factor){
+        if(factor < 2){
+            return this;
+        }
+        double smallest = Math.min(pixel_dimensions[0], Math.min(pixel_dimensions[1], pixel_dimensions[2]));
+        int[] factors = new int[3];
+        for(int i = 0; i<3; i++){
+            int f = (int)Math.round(factor*smallest/pixel_dimensions[i]);
+            factors[i] = Math.max(1, Math.min(f, max_dex[i]));
+        }
+        VoxelVolume source = volume;
+        int[] dims = {source.getWidth(), source.getHeight(), source.getDepth()};
+        float[] data = new float[dims[0]*dims[1]*dims[2]];
+        int dex = 0;
+        for(int z = 0; z<dims[2]; z++){
+            for(int y = 0; y<dims[1]; y++){
+                for(int x = 0; x<dims[0]; x++){
+                    data[dex++] = (float)source.getValue(x, y, z);
+                }
+            }
+        }
+        for(int axis = 0; axis<3; axis++){
+            data = decimate(data, dims, axis, factors[axis]);
+        }
+
+        FloatVolume reduced = new FloatVolume(dims[0], dims[1], dims[2]);
+        double min = Double.MAX_VALUE;
+        double max = -min;
+        dex = 0;
+        for(int z = 0; z<dims[2]; z++){
+            for(int y = 0; y<dims[1]; y++){
+                for(int x = 0; x<dims[0]; x++){
+                    float v = data[dex++];
+                    reduced.setValue(x, y, z, v);
+                    if(v < min) min = v;
+                    if(v > max) max = v;
+                }
+            }
+        }
+        MeshImageStack stack = new MeshImageStack(this, reduced, factors);
+        stack.MIN_VALUE = min;
+        stack.MAX_VALUE = max;
+        return stack;
+    }
+
+    /**
+     * Keeps every f'th sample along one axis, averaged with its neighbors weighted by f - |d|. Sample j is at
+     * sample f*j of the input so the positions don't shift.
+     *
+     * @param data x fastest, then y then z.
+     * @param dims size of the data, the axis is updated to the new size.
+     * @param axis 0, 1 or 2.
+     * @param f reduction factor.
+     * @return the reduced data.
+     */
+    static float[] decimate(float[] data, int[] dims, int axis, int f){
+        if(f < 2){
+            return data;
+        }
+        int n = dims[axis];
+        int m = (n - 1)/f + 1;
+        int stride = axis == 0 ? 1 : axis == 1 ? dims[0] : dims[0]*dims[1];
+        int outer = data.length/(n*stride);
+        float[] reduced = new float[outer*m*stride];
+        for(int o = 0; o<outer; o++){
+            int in = o*n*stride;
+            int out = o*m*stride;
+            for(int j = 0; j<m; j++){
+                int center = f*j;
+                for(int s = 0; s<stride; s++){
+                    double sum = 0;
+                    double weight = 0;
+                    for(int d = 1 - f; d<f; d++){
+                        int k = center + d;
+                        k = k < 0 ? 0 : k >= n ? n - 1 : k;
+                        double w = f - Math.abs(d);
+                        sum += w*data[in + k*stride + s];
+                        weight += w;
+                    }
+                    reduced[out + j*stride + s] = (float)(sum/weight);
+                }
+            }
+        }
+        dims[axis] = m;
+        return reduced;
+    }
+
     public ImagePlus samplePlus(Box3D box){
         ImagePlus sample = original.createImagePlus();
         //ret[i] = (r[i] + offsets[i])*SCALE/pixel_dimensions[i];
@@ -589,13 +979,16 @@ public class MeshImageStack {
     }
 
     public double[] getIntensityValues() {
-        double[] n = new double[data.length*data[0].length*data[0][0].length];
-        final int row = data[0][0].length;
-        final int frame = data[0].length*row;
-
-        for(int slice = 0; slice<data.length; slice++){
-            for(int line = 0; line<data[0].length; line++){
-                System.arraycopy(data[slice][line], 0, n,slice*frame + line*row,  row);
+        final int row = volume.getWidth();
+        final int frame = volume.getHeight()*row;
+        double[] n = new double[volume.getDepth()*frame];
+
+        for(int slice = 0; slice<volume.getDepth(); slice++){
+            for(int line = 0; line<volume.getHeight(); line++){
+                int offset = slice*frame + line*row;
+                for(int k = 0; k<row; k++){
+                    n[offset + k] = volume.getValue(k, line, slice);
+                }
             }
         }
         return n;
@@ -608,5 +1001,12 @@ public class MeshImageStack {
     public int getNChannels() {
         return CHANNELS;
     }
+
+    /**
+     * @return the channel currently backing the data.
+     */
+    public int getChannel() {
+        return channel;
+    }
 }
 
@@ -29,6 +29,7 @@ import Jama.LUDecomposition;
 import Jama.Matrix;
 import deformablemesh.externalenergies.ImageEnergyType;
 import deformablemesh.geometry.*;
+import deformablemesh.geometry.solvers.SolverType;
 import deformablemesh.gui.FrameListener;
 import deformablemesh.gui.GuiTools;
 import deformablemesh.gui.PropertySaver;
@@ -36,6 +37,7 @@ import deformablemesh.gui.RingController;
 import deformablemesh.gui.Slice3DView;
 import deformablemesh.gui.render2d.RenderFrame2D;
 import deformablemesh.io.ImportType;
+import deformablemesh.io.IndexedMeshReader;
 import deformablemesh.io.MeshReader;
 import deformablemesh.io.MeshWriter;
 import deformablemesh.io.TrackMateAdapter;
@@ -91,6 +93,12 @@ public class SegmentationController {
     ExceptionThrowingService main = new ExceptionThrowingService();
     private double minConnectionLength = 0.01;
     private double maxConnectionLength = 0.02;
+    /**
+     * Number of meshes each track keeps inflated when the meshes are loaded lazily.
+     */
+    public static final int LAZY_INFLATED_MESHES = 4;
+    private int lazyInflated = 0;
+    private final List<IndexedMeshReader> meshReaders = new ArrayList<>();
 
     /**
      * Creates a controller for the supplied model.
@@ -131,6 +139,60 @@ public class SegmentationController {
         model.setAlpha(d);
     }
 
+    /**
+     * Selects how the stiffness matrix is solved when deforming. The sparse solver scales to large meshes, the
+     * dense solver is the original implementation.
+     *
+     * @param type solver backend.
+     */
+    public void setSolverType(SolverType type){
+        model.setSolverType(type);
+    }
+
+    public SolverType getSolverType(){
+        return model.getSolverType();
+    }
+
+    /**
+     * Controls the conjugate gradient solver.
+     *
+     * @param tolerance relative residual where the solve is considered converged.
+     * @param maxIterations maximum number of iterations per solve.
+     */
+    public void setIterativeSolverParameters(double tolerance, int maxIterations){
+        model.setIterativeSolverParameters(tolerance, maxIterations);
+    }
+
+    public double getSolverTolerance(){
+        return model.getSolverTolerance();
+    }
+
+    public int getSolverMaxIterations(){
+        return model.getSolverMaxIterations();
+    }
+
+    /**
+     * Number of threads used when deforming all of the meshes in a frame.
+     *
+     * @param threads values less than 1 use one thread per processor.
+     */
+    public void setDeformationThreads(int threads){
+        model.setDeformationThreads(threads);
+    }
+
+    public int getDeformationThreads(){
+        return model.getDeformationThreads();
+    }
+
+    /**
+     * Residual of the most recent deformation step when the conjugate gradient solver is used.
+     *
+     * @return relative residual.
+     */
+    public double getLastSolverResidual(){
+        return model.getLastSolverResidual();
+    }
+
     /**
      * For shrinking or growing a mesh.
      *
@@ -151,6 +213,34 @@ public class SegmentationController {
         model.setStericNeighborWeight(d);
     }
 
+    /**
+     * When deforming many meshes, neighbors can be represented by a signed distance field that is only recalculated
+     * after the neighbor has moved, instead of ray casting against the neighbor every step.
+     *
+     * @param distanceField true to use distance fields for steric forces.
+     */
+    public void setStericDistanceField(boolean distanceField){
+        model.setStericDistanceField(distanceField);
+    }
+
+    public boolean isStericDistanceField(){
+        return model.isStericDistanceField();
+    }
+
+    /**
+     * The image energies can sample a gradient field that is calculated once per frame and channel, instead of
+     * applying the derivative kernel along the normal of every node at every step.
+     *
+     * @param cached true to use cached gradient fields.
+     */
+    public void setCachedImageEnergy(boolean cached){
+        model.setCachedImageEnergy(cached);
+    }
+
+    public boolean isCachedImageEnergy(){
+        return model.isCachedImageEnergy();
+    }
+
     /**
      * Sets the magnitude of force the image causes on the mesh.
      *
@@ -523,10 +613,7 @@ public class SegmentationController {
             getMeshImageStack().setFrame(i);
             ImagePlus frame = getMeshImageStack().getCurrentFrame();
             DistanceTransformMosaicImage dtmi = new DistanceTransformMosaicImage(frame);
-            dtmi.findBlobs();
-            //dtmi.createGrowingCascades();
-            dtmi.createCascades();
-            ImageStack frames = dtmi.createLabeledImage().getStack();
+            ImageStack frames = dtmi.createDistanceImage().getStack();
             for(int j = 1; j<=frames.getSize(); j++){
                 result.addSlice(frames.getSliceLabel(j), frames.getProcessor(j));
             }
@@ -2332,6 +2419,20 @@ public class SegmentationController {
         return actionStack.getCurrentState();
     }
 
+    /**
+     * When enabled, mesh files are opened with an {@link IndexedMeshReader} and each mesh is only read when it is
+     * used, see {@link deformablemesh.track.LazyMeshMap}. The file stays open while the meshes are in use.
+     *
+     * @param inflated number of meshes each track keeps inflated, 0 to read the whole file when it is loaded.
+     */
+    public void setLazyMeshLoading(int inflated){
+        lazyInflated = inflated;
+    }
+
+    public int getLazyMeshLoading(){
+        return lazyInflated;
+    }
+
     /**
      * Loads meshes and replaces the current meshes.
      *
@@ -2339,7 +2440,14 @@ public class SegmentationController {
      */
     public void loadMeshes(File f) {
         submit(()->{
-            List<Track> replacements = MeshReader.loadMeshes(f);
+            List<Track> replacements;
+            if(lazyInflated > 0){
+                IndexedMeshReader reader = new IndexedMeshReader(f);
+                meshReaders.add(reader);
+                replacements = reader.loadLazyTracks(lazyInflated);
+            } else{
+                replacements = MeshReader.loadMeshes(f);
+            }
             actionStack.postAction(new UndoableActions(){
                 final List<Track> old = new ArrayList<>(model.getAllTracks());
                 @Override
@@ -3421,7 +3529,13 @@ public class SegmentationController {
     }
 
     public void shutdown(){
-        main.submit(main::shutdown);
+        main.submit(()->{
+            for(IndexedMeshReader reader: meshReaders){
+                reader.close();
+            }
+            meshReaders.clear();
+            main.shutdown();
+        });
     }
 }
 
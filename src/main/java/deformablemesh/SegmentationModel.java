@@ -27,6 +27,9 @@ package deformablemesh;
 
 import deformablemesh.externalenergies.*;
 import deformablemesh.geometry.*;
+import deformablemesh.geometry.solvers.ConjugateGradientSolver;
+import deformablemesh.geometry.solvers.SolverType;
+import deformablemesh.geometry.solvers.StiffnessSolver;
 import deformablemesh.gui.FrameListener;
 import deformablemesh.gui.GuiTools;
 import deformablemesh.gui.RingController;
@@ -34,6 +37,8 @@ import deformablemesh.io.FurrowWriter;
 import deformablemesh.io.MeshWriter;
 import deformablemesh.track.MeshTracker;
 import deformablemesh.track.Track;
+import deformablemesh.util.ConvergenceMonitor;
+import deformablemesh.util.DeformationScheduler;
 import deformablemesh.util.IntensitySurfacePlot;
 import deformablemesh.util.MeshAnalysis;
 import deformablemesh.util.MeshFaceObscuring;
@@ -51,6 +56,7 @@ import java.io.IOException;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  *
@@ -61,6 +67,9 @@ public class SegmentationModel {
     double BETA = 0.0;
     double pressure = 0.0;
     double stericNeighborWeight;
+    boolean stericDistanceField = false;
+    boolean cachedImageEnergy = false;
+    final ImageGradientFieldCache gradientFields = new ImageGradientFieldCache(2);
 
     private double cortex_thickness = 0.3;
 
@@ -87,6 +96,22 @@ public class SegmentationModel {
     private double normalize;
     private File lastSavedFile;
     private boolean hardBoundaries = false;
+    private SolverType solverType = SolverType.Sparse;
+    private double solverTolerance = ConjugateGradientSolver.DEFAULT_TOLERANCE;
+    private int solverMaxIterations = ConjugateGradientSolver.DEFAULT_MAX_ITERATIONS;
+    private volatile double solverResidual;
+    private volatile int solverIterations;
+    private volatile long solverIterationCount;
+    private double convergenceMax = 0;
+    private double convergenceRms = 0;
+    private double convergenceEnergy = 0;
+    private int convergenceWindow = ConvergenceMonitor.DEFAULT_WINDOW;
+    private volatile ConvergenceMonitor convergence;
+    private final Map<DeformableMesh3D, Integer> meshSteps = new IdentityHashMap<>();
+    /**
+     * The stack the most recent pass of deformMeshes was deformed against.
+     */
+    MeshImageStack lastSource;
 
     public SegmentationModel(){
 
@@ -104,7 +129,8 @@ public class SegmentationModel {
         if(selectedMesh==null){
             GuiTools.errorMessage("No mesh selected to deform!");
         }
-        if(selectedMesh.ALPHA!=ALPHA || selectedMesh.BETA!=BETA || selectedMesh.GAMMA!=GAMMA){
+        if(selectedMesh.ALPHA!=ALPHA || selectedMesh.BETA!=BETA || selectedMesh.GAMMA!=GAMMA
+                || selectedMesh.getSolverType()!=solverType){
             reshape = true;
         }
 
@@ -114,47 +140,132 @@ public class SegmentationModel {
             selectedMesh.ALPHA=ALPHA;
             selectedMesh.GAMMA=GAMMA;
             selectedMesh.BETA=BETA;
+            selectedMesh.setSolverType(solverType);
+            selectedMesh.setIterativeSolverParameters(solverTolerance, solverMaxIterations);
             selectedMesh.reshape();
             reshape=false;
         }
         deformations = 0;
+        solverIterationCount = 0;
         if(count<0){
             count = Integer.MAX_VALUE;
         }
+        ConvergenceMonitor monitor = startConvergence(Collections.singletonList(selectedMesh));
         while(!stop&&deformations<count){
             selectedMesh.update();
+            recordSolverStatistics(selectedMesh);
             if(hardBoundaries){
                 selectedMesh.confine(getBounds());
             }
             deformations++;
+            if(monitor != null && monitor.update(selectedMesh)){
+                break;
+            }
         }
 
     }
 
     /**
-     * A generic method for deforming all of the meshes provided.
+     * A generic method for deforming all of the meshes provided. The meshes are deformed concurrently using the
+     * shared {@link DeformationScheduler}, each step is calculated for all meshes before any of them move.
+     *
+     * When convergence criteria are set, see {@link #setConvergenceCriteria(double, double, double)}, each mesh stops
+     * being deformed once it has converged, and the deformation finishes when all of them have.
+     *
      * @param meshes
      */
     public void deformMeshes(List<DeformableMesh3D> meshes, int steps){
-        if(steps<0){
-            steps = Integer.MAX_VALUE;
-        }
         stop = false;
         deformations = 0;
-        Map<DeformableMesh3D, List<StericMesh>> stericEnergies = new HashMap<>();
+        solverIterationCount = 0;
+        meshSteps.clear();
+        deformMeshes(meshes, steps, stack);
+    }
 
-        if(stericNeighborWeight != 0){
+    /**
+     * Deforms the meshes coarse to fine. The meshes are first deformed against a downsampled copy of the image, see
+     * {@link MeshImageStack#createDownsampled(int)}, then subdivided and deformed against the next level, with half
+     * the pixel size, until the last pass is performed on the full resolution image. The coarse levels are cheap, so
+     * a mesh can travel a long distance before the fine pass, which only needs to settle the details.
+     *
+     * A mesh is only subdivided when its mean connection length is at least twice the smallest pixel of the next
+     * level. Subdividing modifies the meshes in place. The convergence criteria apply to every level.
+     *
+     * @param meshes meshes to be deformed.
+     * @param levels number of resolution levels, 1 is the same as {@link #deformMeshes(List, int)}.
+     * @param coarseSteps maximum number of steps for each of the downsampled levels.
+     * @param fineSteps maximum number of steps at full resolution.
+     */
+    public void deformMeshesMultiresolution(List<DeformableMesh3D> meshes, int levels, int coarseSteps, int fineSteps){
+        stop = false;
+        deformations = 0;
+        solverIterationCount = 0;
+        meshSteps.clear();
+        for(int level = levels - 1; level > 0 && !stop; level--){
+            MeshImageStack coarse = stack.createDownsampled(1 << level);
+            deformMeshes(meshes, coarseSteps, coarse);
+            if(stop){
+                break;
+            }
+            double nextPx = level == 1 ? stack.getMinPx() : coarse.getMinPx()/2;
             for(DeformableMesh3D mesh: meshes){
-                stericEnergies.put(mesh, generateStericEnergies( mesh ) );
+                if(needsSubdivision(mesh, nextPx)){
+                    RayCastMesh.subDivideMesh(mesh);
+                }
             }
         }
+        if(!stop){
+            deformMeshes(meshes, fineSteps, stack);
+        }
+    }
+
+    /**
+     * @return true if the connections of the mesh are long enough to be subdivided for a level with the pixel size.
+     */
+    static boolean needsSubdivision(DeformableMesh3D mesh, double nextPx){
+        return meanConnectionLength(mesh) >= 2*nextPx;
+    }
+
+    /**
+     * @return number of steps the mesh was deformed by the most recent {@link #deformMeshes(List, int)} or
+     * {@link #deformMeshesMultiresolution(List, int, int, int)}, including all of the levels.
+     */
+    public int getMeshSteps(DeformableMesh3D mesh){
+        return meshSteps.getOrDefault(mesh, 0);
+    }
+
+    static double meanConnectionLength(DeformableMesh3D mesh){
+        double sum = 0;
+        for(Connection3D con: mesh.connections){
+            double[] a = con.A.getCoordinates();
+            double[] b = con.B.getCoordinates();
+            sum += Vector3DOps.distance(a, b);
+        }
+        return mesh.connections.isEmpty() ? 0 : sum/mesh.connections.size();
+    }
+
+    /**
+     * Deforms the meshes using image energies derived from the source, the counters are not reset.
+     */
+    private void deformMeshes(List<DeformableMesh3D> meshes, int steps, MeshImageStack source){
+        if(steps<0){
+            steps = Integer.MAX_VALUE;
+        }
+        StericBroadPhase steric = null;
+
+        if(stericNeighborWeight != 0){
+            List<DeformableMesh3D> neighbors = tracker.getAllMeshTracks().stream().filter(
+                    t -> t.containsKey(stack.CURRENT)
+            ).map(t -> t.getMesh(stack.CURRENT)).collect(Collectors.toList());
+            steric = new StericBroadPhase(meshes, neighbors, stericNeighborWeight, 0, stericDistanceField);
+        }
 
         //apply energies
         for(DeformableMesh3D mesh: meshes){
             mesh.clearEnergies();
 
             //mesh.PRESSURE = pressure;
-            ExternalEnergy erg = generateImageEnergy(mesh);
+            ExternalEnergy erg = generateImageEnergy(mesh, source);
             mesh.addExternalEnergy(erg);
 
             if(pressure!=0){
@@ -162,42 +273,47 @@ public class SegmentationModel {
             }
 
             if(normalize!=0){
-                mesh.addExternalEnergy(new TriangleAreaDistributor(stack, mesh, normalize));
+                mesh.addExternalEnergy(new TriangleAreaDistributor(source, mesh, normalize));
             }
 
-            if(stericNeighborWeight!=0){
-                for(ExternalEnergy eg: stericEnergies.get(mesh)){
-                    mesh.addExternalEnergy(eg);
-                }
+            if(steric != null){
+                mesh.addExternalEnergy(steric.getEnergy(mesh));
             }
 
             mesh.ALPHA=ALPHA;
             mesh.GAMMA=GAMMA;
             mesh.BETA=BETA;
+            mesh.setSolverType(solverType);
+            mesh.setIterativeSolverParameters(solverTolerance, solverMaxIterations);
             mesh.reshape();
         }
 
+        DeformationScheduler scheduler = DeformationScheduler.getShared();
+        ConvergenceMonitor monitor = startConvergence(meshes);
+        List<DeformableMesh3D> active = new ArrayList<>(meshes);
+        lastSource = source;
+        int taken = 0;
         while(!stop){
-            for(DeformableMesh3D mesh: meshes){
-
-                mesh.update();
+            if(!scheduler.step(active, ()->stop)){
+                break;
+            }
+            for(DeformableMesh3D mesh: active){
+                meshSteps.merge(mesh, 1, Integer::sum);
+                recordSolverStatistics(mesh);
                 if(hardBoundaries){
                     mesh.confine(getBounds());
                 }
-                if(stop){
-                    break;
-                }
             }
             deformations++;
-            if(deformations >= steps){
+            taken++;
+            if(monitor != null){
+                active.removeIf(monitor::update);
+            }
+            if(taken >= steps || active.isEmpty()){
                 break;
             }
-            if(stericNeighborWeight!=0) {
-                for (DeformableMesh3D mesh : meshes) {
-                    for (StericMesh sm : stericEnergies.get(mesh)) {
-                        sm.update();
-                    }
-                }
+            if(steric != null) {
+                steric.update(scheduler);
             }
         }
 
@@ -224,20 +340,90 @@ public class SegmentationModel {
         mesh.ALPHA=ALPHA;
         mesh.GAMMA=GAMMA;
         mesh.BETA=BETA;
+        mesh.setSolverType(solverType);
+        mesh.setIterativeSolverParameters(solverTolerance, solverMaxIterations);
         mesh.reshape();
         deformations = 0;
+        solverIterationCount = 0;
         int count = maxDeformations < 0 ? Integer.MAX_VALUE : maxDeformations;
 
+        ConvergenceMonitor monitor = startConvergence(Collections.singletonList(mesh));
         while(!stop&&deformations<count){
             mesh.update();
+            recordSolverStatistics(mesh);
             if(hardBoundaries){
                 mesh.confine(getBounds());
             }
             deformations++;
+            if(monitor != null && monitor.update(mesh)){
+                break;
+            }
         }
 
     }
 
+    /**
+     * Creates the monitor for a new deformation, null if no convergence criteria are set.
+     */
+    private ConvergenceMonitor startConvergence(List<DeformableMesh3D> meshes){
+        ConvergenceMonitor monitor = new ConvergenceMonitor(
+                convergenceMax, convergenceRms, convergenceEnergy, convergenceWindow
+        );
+        if(!monitor.isEnabled()){
+            convergence = null;
+            return null;
+        }
+        meshes.forEach(monitor::start);
+        convergence = monitor;
+        return monitor;
+    }
+
+    /**
+     * Stops deforming a mesh once its steps are small enough, the criteria are measured in the normalized units of
+     * the mesh. A criterion is disabled by setting it to 0, and with all of them disabled the meshes are deformed for
+     * the requested number of steps.
+     *
+     * @param maxDisplacement largest distance a node can move in a step.
+     * @param rmsDisplacement root mean square distance the nodes can move in a step.
+     * @param energyChange relative change of the total external energy in a step.
+     */
+    public void setConvergenceCriteria(double maxDisplacement, double rmsDisplacement, double energyChange){
+        convergenceMax = maxDisplacement;
+        convergenceRms = rmsDisplacement;
+        convergenceEnergy = energyChange;
+    }
+
+    /**
+     * @param window number of consecutive steps that need to satisfy the criteria before a mesh has converged.
+     */
+    public void setConvergenceWindow(int window){
+        convergenceWindow = window;
+    }
+
+    public double getConvergenceMaxDisplacement(){
+        return convergenceMax;
+    }
+
+    public double getConvergenceRmsDisplacement(){
+        return convergenceRms;
+    }
+
+    public double getConvergenceEnergyChange(){
+        return convergenceEnergy;
+    }
+
+    public int getConvergenceWindow(){
+        return convergenceWindow;
+    }
+
+    /**
+     * @return the monitor of the most recent deformation, with the number of steps each mesh used, or null if
+     * no convergence criteria were set.
+     */
+    public ConvergenceMonitor getConvergence(){
+        return convergence;
+    }
+
     public void stopRunning(){
         stop = true;
     }
@@ -273,6 +459,90 @@ public class SegmentationModel {
         return BETA;
     }
 
+    /**
+     * Sets the backend used to solve the stiffness matrix of meshes being deformed.
+     *
+     * @param type
+     */
+    public void setSolverType(SolverType type){
+        if(solverType!=type){
+            reshape=true;
+            solverType=type;
+        }
+    }
+
+    public SolverType getSolverType(){
+        return solverType;
+    }
+
+    /**
+     * Parameters for the iterative solver.
+     *
+     * @param tolerance relative residual that a solve needs to reach.
+     * @param maxIterations maximum number of iterations for each solve.
+     */
+    public void setIterativeSolverParameters(double tolerance, int maxIterations){
+        if(solverTolerance!=tolerance || solverMaxIterations!=maxIterations){
+            reshape=true;
+            solverTolerance = tolerance;
+            solverMaxIterations = maxIterations;
+        }
+    }
+
+    public double getSolverTolerance(){
+        return solverTolerance;
+    }
+
+    public int getSolverMaxIterations(){
+        return solverMaxIterations;
+    }
+
+    private void recordSolverStatistics(DeformableMesh3D mesh){
+        StiffnessSolver solver = mesh.getSolver();
+        if(solver instanceof ConjugateGradientSolver){
+            ConjugateGradientSolver cg = (ConjugateGradientSolver)solver;
+            solverResidual = cg.getStepResidual();
+            solverIterations = cg.getStepIterations();
+            solverIterationCount += solverIterations;
+        }
+    }
+
+    /**
+     * Sets the number of threads used for deforming meshes.
+     *
+     * @param threads number of threads, values less than 1 will use the number of available processors.
+     */
+    public void setDeformationThreads(int threads){
+        DeformationScheduler.setParallelism(threads);
+    }
+
+    public int getDeformationThreads(){
+        return DeformationScheduler.getShared().getParallelism();
+    }
+
+    /**
+     * When using an iterative solver this is the relative residual of the most recent deformation step.
+     *
+     * @return largest residual of the x, y and z solves.
+     */
+    public double getLastSolverResidual(){
+        return solverResidual;
+    }
+
+    /**
+     * @return number of iterations used by the iterative solver during the most recent deformation step.
+     */
+    public int getLastSolverIterations(){
+        return solverIterations;
+    }
+
+    /**
+     * @return total number of iterations used by the iterative solver since the most recent deformation started.
+     */
+    public long getSolverIterationCount(){
+        return solverIterationCount;
+    }
+
 
 
     public double getGamma() {
@@ -374,6 +644,25 @@ public class SegmentationModel {
     public double getStericNeighborWeight(){
         return stericNeighborWeight;
     }
+
+    public void setStericDistanceField(boolean distanceField){
+        stericDistanceField = distanceField;
+    }
+
+    public boolean isStericDistanceField(){
+        return stericDistanceField;
+    }
+
+    public void setCachedImageEnergy(boolean cached){
+        cachedImageEnergy = cached;
+        if(!cached){
+            gradientFields.clear();
+        }
+    }
+
+    public boolean isCachedImageEnergy(){
+        return cachedImageEnergy;
+    }
     public void saveMeshes(final File f) throws IOException {
         lastSavedFile = null;
         MeshWriter.saveMeshes(f, tracker);
@@ -499,13 +788,31 @@ public class SegmentationModel {
     }
 
     public ExternalEnergy generateImageEnergy(DeformableMesh3D mesh){
+        return generateImageEnergy(mesh, stack);
+    }
+
+    /**
+     * The cached gradient fields are only used for the full resolution stack.
+     */
+    private ExternalEnergy generateImageEnergy(DeformableMesh3D mesh, MeshImageStack source){
         ExternalEnergy erg;
+        boolean cached = cachedImageEnergy && source == stack;
         switch(energyType){
             case PerpendicularIntensity:
-                erg = new PerpendicularIntensityEnergy(stack, mesh, getImageWeight());
+                if(cached){
+                    ImageGradientField field = gradientFields.getField(source, ImageGradientField.DEFAULT_SIGMA);
+                    erg = new PerpendicularIntensityEnergy(source, mesh, getImageWeight(), field);
+                } else{
+                    erg = new PerpendicularIntensityEnergy(source, mesh, getImageWeight());
+                }
                 break;
             case PerpendicularGradient:
-                erg = new PerpendicularGradientEnergy(stack, mesh, getImageWeight());
+                if(cached){
+                    ImageGradientField field = gradientFields.getField(source, ImageGradientField.DEFAULT_SIGMA);
+                    erg = new PerpendicularGradientEnergy(source, mesh, getImageWeight(), field);
+                } else{
+                    erg = new PerpendicularGradientEnergy(source, mesh, getImageWeight());
+                }
                 break;
             case SmoothingForce:
                 erg = new SmoothingForce(mesh, getImageWeight());
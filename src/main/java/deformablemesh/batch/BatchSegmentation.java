@@ -0,0 +1,453 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.batch;
+
+import deformablemesh.DeformableMesh3DTools;
+import deformablemesh.MeshImageStack;
+import deformablemesh.SegmentationModel;
+import deformablemesh.externalenergies.ImageEnergyType;
+import deformablemesh.geometry.ConnectionRemesher;
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.gui.PropertySaver;
+import deformablemesh.io.MeshReader;
+import deformablemesh.io.MeshWriter;
+import deformablemesh.track.FrameToFrameDisplacement;
+import deformablemesh.track.Track;
+import deformablemesh.util.ConvergenceMonitor;
+import deformablemesh.volume.VolumeStorage;
+import ij.IJ;
+import ij.ImagePlus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Segments and tracks a whole time lapse without a gui. Starting from the meshes of an initial mesh file, the meshes
+ * of each frame are deformed with a fixed set of parameters, remeshed, and then linked to the previous frame using
+ * {@link FrameToFrameDisplacement}. The meshes are then copied forward as the starting point of the next frame.
+ *
+ * Usage:
+ *
+ * java -Djava.awt.headless=true deformablemesh.batch.BatchSegmentation image.tif initial.bmf output.bmf [options]
+ *
+ * see {@link #USAGE} for the options.
+ */
+public class BatchSegmentation {
+    public static final String USAGE = String.join("\n",
+            "usage: BatchSegmentation image initial.bmf output.bmf [options]",
+            "  --parameters file    constants saved from the control frame.",
+            "  --steps n            deformation steps for each frame, default 100.",
+            "  --converge max rms   stop deforming a mesh once the largest and root mean square node displacement",
+            "                       of a step are below these values, in normalized units. 0 disables either.",
+            "  --pyramid levels n   deform up to n steps on each of levels - 1 downsampled copies of the image,",
+            "                       subdividing in between, before the full resolution steps. Default 1 level.",
+            "  --channel c          image channel, default 0.",
+            "  --energy type        image energy, one of " + energyTypes() + ", default PerpendicularIntensity.",
+            "  --remesh min max     connection lengths used to remesh, 0 0 disables remeshing, default 0.01 0.02.",
+            "  --frames first last  frames to segment, default from the first mesh until the last frame.",
+            "  --threads n          deformation threads, default number of processors.",
+            "  --storage type       voxel storage, one of " + storageTypes() + ", default Automatic.",
+            "  --mapped             open the image as a virtual stack, uncompressed TIFF and raw files are read",
+            "                       through a memory mapped file instead of being loaded.",
+            "  --shard              start from copies of the meshes closest to the first frame, and only write",
+            "                       the frames that are processed. Requires --frames."
+    );
+
+    final SegmentationModel model;
+    int steps = 100;
+    int levels = 1;
+    int coarseSteps = 0;
+    double minConnectionLength = 0.01;
+    double maxConnectionLength = 0.02;
+    int firstFrame = -1;
+    int lastFrame = -1;
+    PrintStream log = System.out;
+    List<FrameReport> reports = new ArrayList<>();
+
+    /**
+     * Statistics recorded after each frame has been processed.
+     */
+    public static class FrameReport{
+        public static final String HEADER =
+                "#frame\tmeshes\tsteps\tconverged\tmean mesh steps\tsolver iterations\tlinked\tseconds";
+        public final int frame;
+        public final int meshes;
+        /**
+         * Steps performed over all of the resolution levels.
+         */
+        public final int steps;
+        /**
+         * Number of meshes that converged before the step limit.
+         */
+        public final int converged;
+        /**
+         * Steps used by each mesh over all of the resolution levels, in the order the meshes were deformed.
+         */
+        public final int[] meshSteps;
+        public final long solverIterations;
+        public final int linked;
+        public final double seconds;
+
+        FrameReport(int frame, int meshes, int steps, int converged, int[] meshSteps, long solverIterations,
+                    int linked, double seconds){
+            this.frame = frame;
+            this.meshes = meshes;
+            this.steps = steps;
+            this.converged = converged;
+            this.meshSteps = meshSteps;
+            this.solverIterations = solverIterations;
+            this.linked = linked;
+            this.seconds = seconds;
+        }
+
+        @Override
+        public String toString(){
+            double mean = 0;
+            for(int s: meshSteps){
+                mean += s;
+            }
+            mean = meshSteps.length > 0 ? mean/meshSteps.length : 0;
+            return String.format(
+                    "%d\t%d\t%d\t%d\t%.1f\t%d\t%d\t%.3f",
+                    frame, meshes, steps, converged, mean, solverIterations, linked, seconds
+            );
+        }
+    }
+
+    /**
+     * @param model the model that holds the constants used for deforming.
+     */
+    public BatchSegmentation(SegmentationModel model){
+        this.model = model;
+    }
+
+    /**
+     * @param steps number of deformation steps for each frame.
+     */
+    public void setDeformationSteps(int steps){
+        this.steps = steps;
+    }
+
+    /**
+     * Deforms each frame coarse to fine, see {@link SegmentationModel#deformMeshesMultiresolution(List, int, int, int)}.
+     *
+     * @param levels number of resolution levels, 1 only deforms at full resolution.
+     * @param coarseSteps maximum number of steps for each downsampled level.
+     */
+    public void setPyramid(int levels, int coarseSteps){
+        this.levels = levels;
+        this.coarseSteps = coarseSteps;
+    }
+
+    /**
+     * Connection lengths used for remeshing after each frame has been deformed.
+     *
+     * @param min connections shorter than this are removed.
+     * @param max connections longer than this are split, if max is not greater than 0 remeshing is disabled.
+     */
+    public void setRemeshLengths(double min, double max){
+        if(min > max){
+            throw new IllegalArgumentException("Minimum connection length should be less than max connection length");
+        }
+        minConnectionLength = min;
+        maxConnectionLength = max;
+    }
+
+    /**
+     * Limits the frames that are processed.
+     *
+     * @param first first frame, -1 to start at the first frame with a mesh.
+     * @param last last frame, -1 to continue until the last frame of the image.
+     */
+    public void setFrameRange(int first, int last){
+        firstFrame = first;
+        lastFrame = last;
+    }
+
+    /**
+     * Where progress is written, null for no output.
+     *
+     * @param log
+     */
+    public void setLog(PrintStream log){
+        this.log = log;
+    }
+
+    /**
+     * @return the statistics for each frame processed by the most recent run.
+     */
+    public List<FrameReport> getReports(){
+        return Collections.unmodifiableList(reports);
+    }
+
+    /**
+     * Deforms, remeshes and tracks the initial meshes over all of the frames.
+     *
+     * @param plus image that is segmented.
+     * @param channel channel of the image used for the image energy.
+     * @param initial starting meshes, these tracks are modified.
+     * @return the resulting tracks.
+     */
+    public List<Track> run(ImagePlus plus, int channel, List<Track> initial){
+        reports.clear();
+        List<Track> tracks = new ArrayList<>(initial);
+        if(tracks.isEmpty()){
+            return tracks;
+        }
+
+        int first = firstFrame >= 0 ? firstFrame : tracks.stream().mapToInt(Track::getFirstFrame).min().getAsInt();
+        int last = lastFrame >= 0 ? Math.min(lastFrame, plus.getNFrames() - 1) : plus.getNFrames() - 1;
+
+        model.setMeshes(tracks);
+        model.setOriginalPlus(plus, first, channel);
+
+        if(log != null){
+            log.println(FrameReport.HEADER);
+        }
+
+        for(int frame = first; frame <= last; frame++){
+            long start = System.nanoTime();
+            final int f = frame;
+            model.setFrame(frame);
+
+            List<Track> current = tracks.stream().filter(t -> t.containsKey(f)).collect(Collectors.toList());
+            if(current.isEmpty()){
+                if(log != null){
+                    log.println("no meshes in frame " + frame + ", stopping.");
+                }
+                break;
+            }
+
+            List<DeformableMesh3D> meshes = current.stream().map(t -> t.getMesh(f)).collect(Collectors.toList());
+            if(levels > 1){
+                model.deformMeshesMultiresolution(meshes, levels, coarseSteps, steps);
+            } else{
+                model.deformMeshes(meshes, steps);
+            }
+            int deformations = (int)model.getDeformationCount();
+            long solverIterations = model.getSolverIterationCount();
+            ConvergenceMonitor convergence = model.getConvergence();
+            int converged = 0;
+            int[] meshSteps = new int[meshes.size()];
+            for(int i = 0; i<meshes.size(); i++){
+                DeformableMesh3D mesh = meshes.get(i);
+                if(convergence != null && convergence.isConverged(mesh)){
+                    converged++;
+                }
+                meshSteps[i] = model.getMeshSteps(mesh);
+            }
+
+            if(maxConnectionLength > 0){
+                ConnectionRemesher remesher = new ConnectionRemesher();
+                remesher.setMinAndMaxLengths(minConnectionLength, maxConnectionLength);
+                for(Track track: current){
+                    track.addMesh(frame, remesher.remesh(track.getMesh(frame)));
+                }
+            }
+
+            int linked = 0;
+            if(frame > first){
+                int before = tracks.size();
+                tracks = FrameToFrameDisplacement.trackFrameForward(tracks, frame - 1);
+                linked = before - tracks.size();
+                model.setMeshes(tracks);
+            }
+
+            if(frame < last){
+                List<Track> continuing = new ArrayList<>();
+                for(Track track: tracks){
+                    if(track.getLastFrame() == frame){
+                        continuing.add(track);
+                    }
+                }
+                for(Track track: continuing){
+                    Track next = model.startEmptyTrack();
+                    next.addMesh(frame + 1, DeformableMesh3DTools.copyOf(track.getMesh(frame)));
+                    model.addMeshTrack(next);
+                    tracks.add(next);
+                }
+            }
+
+            FrameReport report = new FrameReport(
+                    frame, meshes.size(), deformations, converged, meshSteps, solverIterations, linked,
+                    (System.nanoTime() - start)*1e-9
+            );
+            reports.add(report);
+            if(log != null){
+                log.println(report);
+            }
+        }
+
+        return tracks;
+    }
+
+    /**
+     * Prepares tracks for starting part way through a time lapse. The meshes of the closest frame, at or before the
+     * provided frame, are copied into new tracks at the provided frame. The new tracks keep the name and color
+     * of the track they were copied from.
+     *
+     * @param initial tracks the meshes are copied from, these are not modified.
+     * @param frame the frame the new tracks start at.
+     * @return tracks that only contain a mesh at the provided frame, empty if there are no meshes before the frame.
+     */
+    public static List<Track> startingTracks(List<Track> initial, int frame){
+        int closest = -1;
+        for(Track track: initial){
+            for(Integer i: track.getTrack().keySet()){
+                if(i <= frame && i > closest){
+                    closest = i;
+                }
+            }
+        }
+        List<Track> starting = new ArrayList<>();
+        if(closest < 0){
+            return starting;
+        }
+        for(Track track: initial){
+            if(track.containsKey(closest)){
+                Track copy = new Track(track.getName(), track.getColor());
+                copy.addMesh(frame, DeformableMesh3DTools.copyOf(track.getMesh(closest)));
+                starting.add(copy);
+            }
+        }
+        return starting;
+    }
+
+    static String energyTypes(){
+        List<String> names = new ArrayList<>();
+        for(ImageEnergyType type: ImageEnergyType.values()){
+            names.add(type.name());
+        }
+        return String.join(", ", names);
+    }
+
+    static String storageTypes(){
+        List<String> names = new ArrayList<>();
+        for(VolumeStorage storage: VolumeStorage.values()){
+            names.add(storage.name());
+        }
+        return String.join(", ", names);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 3){
+            System.out.println(USAGE);
+            return;
+        }
+        if(System.getProperty("java.awt.headless") == null){
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        File imageFile = new File(args[0]);
+        File meshFile = new File(args[1]);
+        File output = new File(args[2]);
+
+        SegmentationModel model = new SegmentationModel();
+        model.setImageEnergyType(ImageEnergyType.PerpendicularIntensity);
+        BatchSegmentation batch = new BatchSegmentation(model);
+        int channel = 0;
+        int first = -1;
+        boolean shard = false;
+        boolean mapped = false;
+
+        for(int i = 3; i < args.length; i++){
+            switch(args[i]){
+                case "--parameters":
+                    PropertySaver.loadProperties(model, new File(args[++i]));
+                    break;
+                case "--steps":
+                    batch.setDeformationSteps(Integer.parseInt(args[++i]));
+                    break;
+                case "--converge":
+                    double maxDisplacement = Double.parseDouble(args[++i]);
+                    double rmsDisplacement = Double.parseDouble(args[++i]);
+                    model.setConvergenceCriteria(maxDisplacement, rmsDisplacement, 0);
+                    break;
+                case "--pyramid":
+                    int levels = Integer.parseInt(args[++i]);
+                    int coarseSteps = Integer.parseInt(args[++i]);
+                    batch.setPyramid(levels, coarseSteps);
+                    break;
+                case "--channel":
+                    channel = Integer.parseInt(args[++i]);
+                    break;
+                case "--energy":
+                    model.setImageEnergyType(ImageEnergyType.valueOf(args[++i]));
+                    break;
+                case "--remesh":
+                    double min = Double.parseDouble(args[++i]);
+                    double max = Double.parseDouble(args[++i]);
+                    batch.setRemeshLengths(min, max);
+                    break;
+                case "--frames":
+                    first = Integer.parseInt(args[++i]);
+                    int last = Integer.parseInt(args[++i]);
+                    batch.setFrameRange(first, last);
+                    break;
+                case "--threads":
+                    model.setDeformationThreads(Integer.parseInt(args[++i]));
+                    break;
+                case "--storage":
+                    MeshImageStack.setDefaultStorage(VolumeStorage.valueOf(args[++i]));
+                    break;
+                case "--shard":
+                    shard = true;
+                    break;
+                case "--mapped":
+                    mapped = true;
+                    break;
+                default:
+                    System.out.println("unknown option: " + args[i]);
+                    System.out.println(USAGE);
+                    System.exit(1);
+            }
+        }
+
+        ImagePlus plus = mapped ?
+                IJ.openVirtual(imageFile.getAbsolutePath()) :
+                new ImagePlus(imageFile.getAbsolutePath());
+        if(plus == null || plus.getWidth() == 0){
+            throw new IOException("Could not open image: " + imageFile);
+        }
+        List<Track> tracks = MeshReader.loadMeshes(meshFile);
+        if(shard){
+            if(first < 0){
+                throw new IllegalArgumentException("--shard requires the frames to be set with --frames");
+            }
+            tracks = startingTracks(tracks, first);
+        }
+
+        long start = System.nanoTime();
+        List<Track> results = batch.run(plus, channel, tracks);
+        MeshWriter.saveMeshes(output, results);
+        System.out.printf("%d tracks written to %s in %.1f s%n", results.size(), output, (System.nanoTime() - start)*1e-9);
+    }
+}
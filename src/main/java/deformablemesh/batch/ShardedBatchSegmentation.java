@@ -0,0 +1,419 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.batch;
+
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.io.MeshReader;
+import deformablemesh.io.MeshWriter;
+import deformablemesh.track.FrameToFrameDisplacement;
+import deformablemesh.track.Track;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a time lapse into frame ranges, shards, that are segmented independently by {@link BatchSegmentation} and
+ * then merged into a single set of tracks. Consecutive shards overlap by one frame. When merging, the meshes of the
+ * shared frame are matched using {@link FrameToFrameDisplacement#jaccardIndexMatrix(List, List)}, and the tracks of
+ * the later shard are appended to the tracks they match. The merge only depends on the contents of the shard files,
+ * so it gives the same result regardless of where, or in which order, the shards were processed.
+ *
+ * Each shard starts from copies of the initial meshes at its first frame. The shards are processed at the same time,
+ * so a shard cannot start from the result of the previous shard, instead the initial mesh file needs to contain a
+ * mesh at the first frame of every shard for each track that starts before it, see
+ * {@link #checkCoverage(List, List)}. Otherwise the result would differ from segmenting the frames in one run, and
+ * the shards are not started.
+ *
+ * Usage, processing the shards as local processes:
+ *
+ * ShardedBatchSegmentation image.tif initial.bmf output.bmf --frames first last --shards n [options]
+ *
+ * Usage, merging shards that were processed elsewhere using BatchSegmentation with the --shard option:
+ *
+ * ShardedBatchSegmentation --merge output.bmf shard-0.bmf shard-1.bmf ...
+ */
+public class ShardedBatchSegmentation {
+    public static final String USAGE = String.join("\n",
+            "usage: ShardedBatchSegmentation image initial.bmf output.bmf --frames first last --shards n [options]",
+            "       ShardedBatchSegmentation --merge output.bmf shard.bmf ...",
+            "  --shards n           number of frame ranges.",
+            "  --workers w          number of processes running at the same time, default n.",
+            "  --memory m           maximum heap of each process, eg 8g.",
+            "  all other options are passed to BatchSegmentation.",
+            "",
+            BatchSegmentation.USAGE
+    );
+
+    /**
+     * Meshes in the shared frame with a lower jaccard index are not considered to be the same object.
+     */
+    public static final double MINIMUM_JACCARD_INDEX = 0.1;
+
+    /**
+     * Divides the frames into ranges that overlap by one frame.
+     *
+     * @param first first frame.
+     * @param last last frame, inclusive.
+     * @param shards number of ranges.
+     * @return {first, last} for each shard, in order.
+     */
+    public static List<int[]> planShards(int first, int last, int shards){
+        int frames = last - first + 1;
+        shards = Math.max(1, Math.min(shards, frames - 1));
+        List<int[]> ranges = new ArrayList<>(shards);
+        for(int i = 0; i < shards; i++){
+            int start = first + (int)((long)(frames - 1)*i/shards);
+            int end = first + (int)((long)(frames - 1)*(i + 1)/shards);
+            ranges.add(new int[]{start, Math.max(start, end)});
+        }
+        return ranges;
+    }
+
+    /**
+     * Checks that the initial meshes can start every shard the same way a single run would reach it. Each track that
+     * starts before the first frame of a shard needs a mesh at that frame.
+     *
+     * @param initial tracks of the initial mesh file.
+     * @param ranges shards from {@link #planShards(int, int, int)}.
+     * @return a description of each missing mesh, empty if all of the shards are covered.
+     */
+    public static List<String> checkCoverage(List<Track> initial, List<int[]> ranges){
+        List<String> missing = new ArrayList<>();
+        for(int i = 1; i < ranges.size(); i++){
+            int start = ranges.get(i)[0];
+            for(Track track: initial){
+                if(!track.isEmpty() && track.getFirstFrame() < start && !track.containsKey(start)){
+                    missing.add("shard " + i + ": track " + track.getName() + " has no mesh at frame " + start);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Merges the tracks of independently processed shards. The shards are ordered by their first frame, then each
+     * shard is stitched onto the tracks merged so far. Meshes in the first frame of the shard are matched to the
+     * merged meshes of the same frame, or of the previous frame if the shards do not overlap. Pairs are accepted
+     * in order of decreasing jaccard index, ties are broken by position, so the result is deterministic. A matched
+     * track keeps its existing mesh at the shared frame and the remaining meshes of the shard track are appended.
+     * Tracks that are not matched are added as new tracks, renamed if the name is already used.
+     *
+     * @param shards tracks of each shard, these tracks are modified.
+     * @return the merged tracks.
+     */
+    public static List<Track> merge(List<List<Track>> shards){
+        List<List<Track>> ordered = new ArrayList<>();
+        for(List<Track> shard: shards){
+            if(!shard.isEmpty()){
+                ordered.add(shard);
+            }
+        }
+        ordered.sort(Comparator.comparingInt(ShardedBatchSegmentation::firstFrame));
+
+        List<Track> merged = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for(List<Track> shard: ordered){
+            int boundary = firstFrame(shard);
+            int previous = boundary;
+            List<Track> ending = tracksAt(merged, boundary);
+            if(ending.isEmpty()){
+                previous = boundary - 1;
+                ending = tracksAt(merged, previous);
+            }
+            List<Track> starting = tracksAt(shard, boundary);
+
+            boolean[] matched = new boolean[shard.size()];
+            for(int[] pair: matchTracks(ending, starting, previous, boundary)){
+                Track destination = ending.get(pair[0]);
+                Track origin = starting.get(pair[1]);
+                Map<Integer, DeformableMesh3D> meshes = origin.getTrack();
+                for(Integer frame: meshes.keySet()){
+                    if(frame > previous){
+                        destination.addMesh(frame, meshes.get(frame));
+                    }
+                }
+                matched[shard.indexOf(origin)] = true;
+            }
+
+            for(int i = 0; i < shard.size(); i++){
+                if(matched[i]){
+                    continue;
+                }
+                Track track = shard.get(i);
+                String name = track.getName();
+                int id = 0;
+                while(names.contains(name)){
+                    id++;
+                    name = track.getName() + "-" + id;
+                }
+                track.setName(name);
+                names.add(name);
+                merged.add(track);
+            }
+        }
+
+        for(Track track: merged){
+            //the jaccard index calculation changes the mesh colors.
+            track.setData(track.getTrack());
+        }
+        return merged;
+    }
+
+    /**
+     * Greedy one to one matching of the meshes by jaccard index.
+     *
+     * @return pairs of {index in a, index in b}.
+     */
+    static List<int[]> matchTracks(List<Track> a, List<Track> b, int frameA, int frameB){
+        List<int[]> pairs = new ArrayList<>();
+        if(a.isEmpty() || b.isEmpty()){
+            return pairs;
+        }
+        List<DeformableMesh3D> meshesA = new ArrayList<>(a.size());
+        for(Track t: a){
+            meshesA.add(t.getMesh(frameA));
+        }
+        List<DeformableMesh3D> meshesB = new ArrayList<>(b.size());
+        for(Track t: b){
+            meshesB.add(t.getMesh(frameB));
+        }
+
+        double[][] ji = FrameToFrameDisplacement.jaccardIndexMatrix(meshesA, meshesB);
+        List<int[]> candidates = new ArrayList<>();
+        for(int i = 0; i < ji.length; i++){
+            for(int j = 0; j < ji[i].length; j++){
+                if(ji[i][j] >= MINIMUM_JACCARD_INDEX){
+                    candidates.add(new int[]{i, j});
+                }
+            }
+        }
+        candidates.sort((p, q) -> {
+            int c = Double.compare(ji[q[0]][q[1]], ji[p[0]][p[1]]);
+            if(c == 0){
+                c = Integer.compare(p[0], q[0]);
+            }
+            if(c == 0){
+                c = Integer.compare(p[1], q[1]);
+            }
+            return c;
+        });
+
+        boolean[] takenA = new boolean[a.size()];
+        boolean[] takenB = new boolean[b.size()];
+        for(int[] candidate: candidates){
+            if(takenA[candidate[0]] || takenB[candidate[1]]){
+                continue;
+            }
+            takenA[candidate[0]] = true;
+            takenB[candidate[1]] = true;
+            pairs.add(candidate);
+        }
+        return pairs;
+    }
+
+    static int firstFrame(List<Track> tracks){
+        int first = Integer.MAX_VALUE;
+        for(Track track: tracks){
+            first = Math.min(first, track.getFirstFrame());
+        }
+        return first;
+    }
+
+    static List<Track> tracksAt(List<Track> tracks, int frame){
+        List<Track> present = new ArrayList<>();
+        for(Track track: tracks){
+            if(track.containsKey(frame)){
+                present.add(track);
+            }
+        }
+        return present;
+    }
+
+    /**
+     * Runs each shard in a separate jvm, using the classpath of this jvm, and waits for all of them to finish.
+     *
+     * @param shardCommands arguments for BatchSegmentation, one list per shard.
+     * @param logs where the output of each process is written.
+     * @param workers number of processes that run at the same time.
+     * @param memory maximum heap for each process, eg "8g", or null to use the default.
+     * @throws IOException if a process could not be started, or finished with an error.
+     */
+    static void runProcesses(List<List<String>> shardCommands, List<File> logs, int workers, String memory) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ExecutorService service = Executors.newFixedThreadPool(workers);
+        List<Future<Integer>> results = new ArrayList<>();
+        for(int i = 0; i < shardCommands.size(); i++){
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.add("-Djava.awt.headless=true");
+            if(memory != null){
+                command.add("-Xmx" + memory);
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(BatchSegmentation.class.getName());
+            command.addAll(shardCommands.get(i));
+            File log = logs.get(i);
+            results.add(service.submit(() -> {
+                Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+                return process.waitFor();
+            }));
+        }
+        service.shutdown();
+
+        List<String> failures = new ArrayList<>();
+        for(int i = 0; i < results.size(); i++){
+            try{
+                int status = results.get(i).get();
+                if(status != 0){
+                    failures.add("shard " + i + " exited with " + status + ", see " + logs.get(i));
+                }
+            } catch(InterruptedException | ExecutionException e){
+                failures.add("shard " + i + " failed: " + e.getMessage());
+            }
+        }
+        if(!failures.isEmpty()){
+            throw new IOException(String.join("\n", failures));
+        }
+    }
+
+    static File shardFile(File output, int shard, String extension){
+        String name = output.getName().replaceAll("\\.bmf$", "");
+        return new File(output.getAbsoluteFile().getParentFile(), name + ".shard-" + shard + extension);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length > 0 && args[0].equals("--merge")){
+            if(args.length < 3){
+                System.out.println(USAGE);
+                System.exit(1);
+            }
+            List<List<Track>> shards = new ArrayList<>();
+            for(int i = 2; i < args.length; i++){
+                shards.add(MeshReader.loadMeshes(new File(args[i])));
+            }
+            List<Track> merged = merge(shards);
+            MeshWriter.saveMeshes(new File(args[1]), merged);
+            System.out.println(merged.size() + " tracks written to " + args[1]);
+            return;
+        }
+        if(args.length < 3){
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+
+        File output = new File(args[2]);
+        int first = -1;
+        int last = -1;
+        int shards = 1;
+        int workers = -1;
+        String memory = null;
+        boolean threads = false;
+        List<String> passed = new ArrayList<>();
+        for(int i = 3; i < args.length; i++){
+            switch(args[i]){
+                case "--frames":
+                    first = Integer.parseInt(args[++i]);
+                    last = Integer.parseInt(args[++i]);
+                    break;
+                case "--shards":
+                    shards = Integer.parseInt(args[++i]);
+                    break;
+                case "--workers":
+                    workers = Integer.parseInt(args[++i]);
+                    break;
+                case "--memory":
+                    memory = args[++i];
+                    break;
+                case "--threads":
+                    threads = true;
+                    passed.add(args[i]);
+                    break;
+                default:
+                    passed.add(args[i]);
+            }
+        }
+        if(first < 0 || last < first){
+            System.out.println("the frames to process need to be set with --frames first last");
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+
+        List<int[]> ranges = planShards(first, last, shards);
+        List<String> missing = checkCoverage(MeshReader.loadMeshes(new File(args[1])), ranges);
+        if(!missing.isEmpty()){
+            System.out.println("The initial meshes do not cover the start of every shard:");
+            missing.forEach(System.out::println);
+            System.out.println("Add meshes at those frames, use fewer shards, or use BatchSegmentation.");
+            System.exit(1);
+        }
+        workers = workers < 1 ? ranges.size() : Math.min(workers, ranges.size());
+        if(!threads){
+            passed.add("--threads");
+            passed.add("" + Math.max(1, Runtime.getRuntime().availableProcessors()/workers));
+        }
+
+        List<List<String>> commands = new ArrayList<>();
+        List<File> logs = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        for(int i = 0; i < ranges.size(); i++){
+            int[] range = ranges.get(i);
+            File shardOutput = shardFile(output, i, ".bmf");
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    args[0], args[1], shardOutput.getAbsolutePath(),
+                    "--frames", "" + range[0], "" + range[1], "--shard"
+            ));
+            command.addAll(passed);
+            commands.add(command);
+            logs.add(shardFile(output, i, ".log"));
+            files.add(shardOutput);
+            System.out.println("shard " + i + ": frames " + range[0] + " to " + range[1]);
+        }
+
+        long start = System.nanoTime();
+        runProcesses(commands, logs, workers, memory);
+
+        List<List<Track>> results = new ArrayList<>();
+        for(File file: files){
+            results.add(MeshReader.loadMeshes(file));
+        }
+        List<Track> merged = merge(results);
+        MeshWriter.saveMeshes(output, merged);
+        System.out.printf("%d tracks written to %s in %.1f s%n", merged.size(), output, (System.nanoTime() - start)*1e-9);
+    }
+}
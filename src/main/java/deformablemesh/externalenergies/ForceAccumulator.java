@@ -0,0 +1,201 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.externalenergies;
+
+import deformablemesh.util.DeformationScheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Applies the external energies of a mesh. Energies implementing {@link ParallelExternalEnergy} have their items split
+ * into one range per worker, each worker adds its forces into its own arrays and the arrays are summed into the
+ * result at the end, always in the same order so the result doesn't depend on the scheduling. Other energies are
+ * applied directly on the calling thread.
+ *
+ * Energies with few items are evaluated on the calling thread, because starting the tasks costs more than the
+ * forces. When the calling thread is already a fork join worker, eg. one of many meshes being deformed by the
+ * {@link DeformationScheduler}, everything is evaluated on the calling thread too. The worker arrays are borrowed
+ * from a pool shared by all of the accumulators, so they are not kept for each mesh.
+ */
+public class ForceAccumulator {
+    /**
+     * Minimum number of items of a single energy for each task.
+     */
+    public static final int MIN_ITEMS = 8192;
+
+    private static final ConcurrentLinkedQueue<Buffers> buffers = new ConcurrentLinkedQueue<>();
+
+    final DeformationScheduler scheduler;
+
+    /**
+     * Force arrays for each task.
+     */
+    static class Buffers{
+        final double[][] x;
+        final double[][] y;
+        final double[][] z;
+
+        Buffers(int tasks, int n){
+            x = new double[tasks][n];
+            y = new double[tasks][n];
+            z = new double[tasks][n];
+        }
+
+        boolean fits(int tasks, int n){
+            return x.length >= tasks && x[0].length == n;
+        }
+
+        void clear(int tasks){
+            for(int t = 0; t<tasks; t++){
+                Arrays.fill(x[t], 0);
+                Arrays.fill(y[t], 0);
+                Arrays.fill(z[t], 0);
+            }
+        }
+    }
+
+    /**
+     * Uses the shared scheduler, {@link DeformationScheduler#getShared()}.
+     */
+    public ForceAccumulator(){
+        this(null);
+    }
+
+    /**
+     * @param scheduler where the ranges are evaluated, null for the shared scheduler.
+     */
+    public ForceAccumulator(DeformationScheduler scheduler){
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Adds the forces of all of the energies.
+     *
+     * @param energies energies to apply.
+     * @param positions current node positions.
+     * @param fx force accumulator, indexed by node.
+     * @param fy force accumulator, indexed by node.
+     * @param fz force accumulator, indexed by node.
+     */
+    public void apply(List<ExternalEnergy> energies, double[] positions, double[] fx, double[] fy, double[] fz){
+        List<ParallelExternalEnergy> parallel = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        int largest = 0;
+        for(ExternalEnergy energy: energies){
+            if(energy instanceof ParallelExternalEnergy){
+                ParallelExternalEnergy pe = (ParallelExternalEnergy)energy;
+                int items = pe.prepare(positions);
+                parallel.add(pe);
+                sizes.add(items);
+                largest = Math.max(largest, items);
+            } else{
+                energy.updateForces(positions, fx, fy, fz);
+            }
+        }
+
+        DeformationScheduler scheduler = this.scheduler == null ? DeformationScheduler.getShared() : this.scheduler;
+        int tasks = Math.min(scheduler.getParallelism(), largest/MIN_ITEMS);
+        if(tasks < 2 || ForkJoinTask.inForkJoinPool()){
+            for(int i = 0; i<parallel.size(); i++){
+                parallel.get(i).updateForces(positions, 0, sizes.get(i), fx, fy, fz);
+            }
+            return;
+        }
+
+        int n = fx.length;
+        Buffers b = borrow(tasks, n);
+        boolean reduced = false;
+        try{
+            List<Runnable> work = new ArrayList<>(tasks);
+            for(int t = 0; t<tasks; t++){
+                final int task = t;
+                final int count = tasks;
+                work.add(() -> {
+                    for(int i = 0; i<parallel.size(); i++){
+                        long size = sizes.get(i);
+                        int start = (int)(size*task/count);
+                        int end = (int)(size*(task + 1)/count);
+                        parallel.get(i).updateForces(positions, start, end, b.x[task], b.y[task], b.z[task]);
+                    }
+                });
+            }
+            scheduler.invokeAll(work);
+
+            work.clear();
+            for(int t = 0; t<tasks; t++){
+                final int start = (int)((long)n*t/tasks);
+                final int end = (int)((long)n*(t + 1)/tasks);
+                final int count = tasks;
+                work.add(() -> reduce(b, count, start, end, fx, fy, fz));
+            }
+            scheduler.invokeAll(work);
+            reduced = true;
+        } finally{
+            if(!reduced){
+                //an energy failed, the partial forces cannot be left for the next step.
+                b.clear(tasks);
+            }
+            buffers.offer(b);
+        }
+    }
+
+    /**
+     * Adds the worker forces for the nodes from start to end and clears them for the next step.
+     */
+    static void reduce(Buffers b, int tasks, int start, int end, double[] fx, double[] fy, double[] fz){
+        for(int t = 0; t<tasks; t++){
+            double[] x = b.x[t];
+            double[] y = b.y[t];
+            double[] z = b.z[t];
+            for(int i = start; i<end; i++){
+                fx[i] += x[i];
+                fy[i] += y[i];
+                fz[i] += z[i];
+                x[i] = 0;
+                y[i] = 0;
+                z[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Takes cleared arrays for at least the number of tasks and exactly n nodes from the pool. Arrays that don't fit
+     * are dropped, so only the arrays of the most recent meshes are kept.
+     */
+    static Buffers borrow(int tasks, int n){
+        Buffers b;
+        while((b = buffers.poll()) != null){
+            if(b.fits(tasks, n)){
+                return b;
+            }
+        }
+        return new Buffers(tasks, n);
+    }
+}
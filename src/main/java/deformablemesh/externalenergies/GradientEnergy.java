@@ -40,6 +40,7 @@ public class GradientEnergy implements ExternalEnergy {
     MeshImageStack stack;
     double weight;
     double dr;
+    ImageGradientField field;
 
     public GradientEnergy(MeshImageStack stack, double image_weight){
         this.stack = stack;
@@ -49,6 +50,19 @@ public class GradientEnergy implements ExternalEnergy {
 
         weight = image_weight;
     }
+
+    /**
+     * Uses a precalculated central difference for the first derivative.
+     *
+     * @param stack image the energy is derived from.
+     * @param image_weight strength of the force.
+     * @param field gradient of the stack calculated with a sigma of 0.
+     */
+    public GradientEnergy(MeshImageStack stack, double image_weight, ImageGradientField field){
+        this(stack, image_weight);
+        this.field = field;
+    }
+
     @Override
     public void updateForces(double[] positions, double[] fx, double[] fy, double[] fz) {
         double[] working = new double[3];
@@ -81,6 +95,11 @@ public class GradientEnergy implements ExternalEnergy {
         double x = xyz[0];
         double y = xyz[1];
         double z = xyz[2];
+        if(field != null){
+            double[] g = new double[3];
+            field.getGradient(x, y, z, g);
+            return abs(g[0]) + abs(g[1]) + abs(g[2]);
+        }
         double dx = 0;
         double dy = 0;
         double dz = 0;
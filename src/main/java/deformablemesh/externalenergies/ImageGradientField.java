@@ -0,0 +1,227 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.externalenergies;
+
+import deformablemesh.MeshImageStack;
+import deformablemesh.util.DeformationScheduler;
+import deformablemesh.util.GaussianKernels;
+import deformablemesh.volume.VoxelVolume;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The smoothed gradient of one frame and channel of an image, calculated once for every voxel and stored as float
+ * volumes. Each component is the derivative of gaussian kernel used by the perpendicular energies applied along an
+ * axis, so sampling the field and projecting it onto a normal replaces a kernel length of interpolated lookups with a
+ * single trilinear lookup. The two agree where the image is close to linear over the width of the kernel.
+ *
+ * The field is a snapshot of the stack data when it was created.
+ */
+public class ImageGradientField {
+    /**
+     * Width of the kernel used by {@link PerpendicularIntensityEnergy} and {@link PerpendicularGradientEnergy}, in
+     * units of the smallest pixel.
+     */
+    public static final double DEFAULT_SIGMA = 2;
+
+    final int frame;
+    final int channel;
+    final double sigma;
+    final double ds;
+
+    final int nx, ny, nz;
+    final float[] gx, gy, gz;
+
+    private final double[] offsets;
+    private final double[] scale;
+
+    /**
+     * Calculates the field for the current frame and channel of the stack.
+     *
+     * @param stack source of the image data and geometry.
+     * @param sigma width of the derivative of gaussian in units of {@link MeshImageStack#getMinPx()}, 0 uses a central
+     *              difference, I(x + ds) - I(x - ds).
+     */
+    public ImageGradientField(MeshImageStack stack, double sigma){
+        this.frame = stack.CURRENT;
+        this.channel = stack.getChannel();
+        this.sigma = sigma;
+        this.ds = stack.getMinPx();
+        VoxelVolume data = stack.getVolume();
+        nz = data.getDepth();
+        ny = data.getHeight();
+        nx = data.getWidth();
+        offsets = new double[3];
+        scale = new double[3];
+        for(int i = 0; i<3; i++){
+            offsets[i] = stack.offsets[i];
+            scale[i] = stack.SCALE*stack.scale_values[i];
+        }
+
+        double[] kernel;
+        if(sigma > 0){
+            kernel = GaussianKernels.firstDerivative1DKernel(sigma, (int)Math.ceil(2.5*sigma));
+        } else{
+            kernel = new double[]{-1, 0, 1};
+        }
+
+        int total = nx*ny*nz;
+        gx = new float[total];
+        gy = new float[total];
+        gz = new float[total];
+
+        List<Runnable> slices = new ArrayList<>(nz);
+        for(int k = 0; k<nz; k++){
+            final int z = k;
+            slices.add(() -> calculateSlice(data, kernel, z));
+        }
+        DeformationScheduler.getShared().invokeAll(slices);
+    }
+
+    private void calculateSlice(VoxelVolume data, double[] kernel, int z){
+        int w = kernel.length/2;
+        double stepX = ds*scale[0];
+        double stepY = ds*scale[1];
+        double stepZ = ds*scale[2];
+        for(int y = 0; y<ny; y++){
+            int offset = (z*ny + y)*nx;
+            for(int x = 0; x<nx; x++){
+                double sx = 0;
+                double sy = 0;
+                double sz = 0;
+                for(int i = 0; i<kernel.length; i++){
+                    double t = i - w;
+                    sx += kernel[i]*interpolateX(data, x + t*stepX, y, z);
+                    sy += kernel[i]*interpolateY(data, x, y + t*stepY, z);
+                    sz += kernel[i]*interpolateZ(data, x, y, z + t*stepZ);
+                }
+                gx[offset + x] = (float)sx;
+                gy[offset + x] = (float)sy;
+                gz[offset + x] = (float)sz;
+            }
+        }
+    }
+
+    /**
+     * Linear interpolation along x, values outside of the image are the same as the edge.
+     */
+    private double interpolateX(VoxelVolume data, double d, int y, int z){
+        if(d <= 0){
+            return data.getValue(0, y, z);
+        }
+        if(d >= nx - 1){
+            return data.getValue(nx - 1, y, z);
+        }
+        int b = (int)d;
+        double f = d - b;
+        double v = data.getValue(b, y, z);
+        return v + (data.getValue(b + 1, y, z) - v)*f;
+    }
+
+    private double interpolateY(VoxelVolume data, int x, double d, int z){
+        if(d <= 0){
+            return data.getValue(x, 0, z);
+        }
+        if(d >= ny - 1){
+            return data.getValue(x, ny - 1, z);
+        }
+        int b = (int)d;
+        double f = d - b;
+        double v = data.getValue(x, b, z);
+        return v + (data.getValue(x, b + 1, z) - v)*f;
+    }
+
+    private double interpolateZ(VoxelVolume data, int x, int y, double d){
+        if(d <= 0){
+            return data.getValue(x, y, 0);
+        }
+        if(d >= nz - 1){
+            return data.getValue(x, y, nz - 1);
+        }
+        int b = (int)d;
+        double f = d - b;
+        double v = data.getValue(x, y, b);
+        return v + (data.getValue(x, y, b + 1) - v)*f;
+    }
+
+    /**
+     * Trilinear interpolation of the gradient at a point, points outside of the image use the value at the edge.
+     *
+     * @param x normalized coordinate.
+     * @param y normalized coordinate.
+     * @param z normalized coordinate.
+     * @param result where the gradient is placed, length 3.
+     */
+    public void getGradient(double x, double y, double z, double[] result){
+        double ix = clamp((x + offsets[0])*scale[0], nx);
+        double iy = clamp((y + offsets[1])*scale[1], ny);
+        double iz = clamp((z + offsets[2])*scale[2], nz);
+        int bx = Math.min((int)ix, nx - 2 < 0 ? 0 : nx - 2);
+        int by = Math.min((int)iy, ny - 2 < 0 ? 0 : ny - 2);
+        int bz = Math.min((int)iz, nz - 2 < 0 ? 0 : nz - 2);
+        double fx = ix - bx;
+        double fy = iy - by;
+        double fz = iz - bz;
+        int dx = nx > 1 ? 1 : 0;
+        int dy = ny > 1 ? nx : 0;
+        int dz = nz > 1 ? nx*ny : 0;
+
+        int i000 = (bz*ny + by)*nx + bx;
+        result[0] = trilinear(gx, i000, dx, dy, dz, fx, fy, fz);
+        result[1] = trilinear(gy, i000, dx, dy, dz, fx, fy, fz);
+        result[2] = trilinear(gz, i000, dx, dy, dz, fx, fy, fz);
+    }
+
+    static double clamp(double d, int n){
+        if(d <= 0){
+            return 0;
+        }
+        return d >= n - 1 ? n - 1 : d;
+    }
+
+    static double trilinear(float[] v, int i, int dx, int dy, int dz, double fx, double fy, double fz){
+        double c00 = v[i] + (v[i + dx] - v[i])*fx;
+        double c10 = v[i + dy] + (v[i + dy + dx] - v[i + dy])*fx;
+        double c01 = v[i + dz] + (v[i + dz + dx] - v[i + dz])*fx;
+        double c11 = v[i + dz + dy] + (v[i + dz + dy + dx] - v[i + dz + dy])*fx;
+        double c0 = c00 + (c10 - c00)*fy;
+        double c1 = c01 + (c11 - c01)*fy;
+        return c0 + (c1 - c0)*fz;
+    }
+
+    public int getFrame(){
+        return frame;
+    }
+
+    public int getChannel(){
+        return channel;
+    }
+
+    public double getSigma(){
+        return sigma;
+    }
+}
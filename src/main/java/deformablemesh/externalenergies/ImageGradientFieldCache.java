@@ -0,0 +1,119 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.externalenergies;
+
+import deformablemesh.MeshImageStack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the most recently used {@link ImageGradientField}s of a stack, keyed by frame, channel and sigma, so repeated
+ * deformations of the same frame only calculate the field once. The cache is cleared when it is used with a different
+ * stack.
+ */
+public class ImageGradientFieldCache {
+    private final int capacity;
+    private MeshImageStack stack;
+    private int calculations = 0;
+    private final Map<Key, ImageGradientField> fields = new LinkedHashMap<Key, ImageGradientField>(16, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, ImageGradientField> eldest){
+            return size() > capacity;
+        }
+    };
+
+    /**
+     * @param capacity maximum number of fields kept, each field uses three floats per voxel.
+     */
+    public ImageGradientFieldCache(int capacity){
+        this.capacity = capacity;
+    }
+
+    /**
+     * Gets the field for the current frame and channel of the stack, calculating it if it isn't cached.
+     *
+     * @param stack source of the image data.
+     * @param sigma width of the kernel, see {@link ImageGradientField#ImageGradientField(MeshImageStack, double)}.
+     * @return the field.
+     */
+    public synchronized ImageGradientField getField(MeshImageStack stack, double sigma){
+        if(this.stack != stack){
+            fields.clear();
+            this.stack = stack;
+        }
+        Key key = new Key(stack.CURRENT, stack.getChannel(), sigma);
+        ImageGradientField field = fields.get(key);
+        if(field == null){
+            field = new ImageGradientField(stack, sigma);
+            calculations++;
+            fields.put(key, field);
+        }
+        return field;
+    }
+
+    /**
+     * Removes all of the fields, for when the image data has been modified.
+     */
+    public synchronized void clear(){
+        fields.clear();
+        stack = null;
+    }
+
+    /**
+     * @return number of fields that have been calculated.
+     */
+    public synchronized int getCalculationCount(){
+        return calculations;
+    }
+
+    static class Key{
+        final int frame;
+        final int channel;
+        final double sigma;
+
+        Key(int frame, int channel, double sigma){
+            this.frame = frame;
+            this.channel = channel;
+            this.sigma = sigma;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key other = (Key)o;
+            return frame == other.frame && channel == other.channel && Double.compare(sigma, other.sigma) == 0;
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(frame, channel, sigma);
+        }
+    }
+}
@@ -52,25 +52,34 @@ public class IntensityEnergy implements ExternalEnergy {
 
         weight = image_weight;
     }
+    double[] points = new double[0];
+    double[] values = new double[0];
+
     @Override
     public void updateForces(double[] positions, double[] fx, double[] fy, double[] fz) {
-        double[] working = new double[3];
-        for(int i = 0; i<positions.length/3; i++){
-
-            double x = positions[3*i + 0];
-            double y = positions[3*i + 1];
-            double z = positions[3*i + 2];
-            working[0] = x;
-            working[1] = y;
-            working[2] = z;
-
-
-
-            fx[i] += getGradient(working, 0)*weight;
-            fy[i] += getGradient(working, 1)*weight;
-            fz[i] += getGradient(working, 2)*weight;
-
-
+        int n = positions.length/3;
+        if(values.length < 6*n){
+            points = new double[18*n];
+            values = new double[6*n];
+        }
+        //+dr and -dr along each axis for every node, sampled in one pass.
+        for(int i = 0; i<n; i++){
+            for(int direction = 0; direction<3; direction++){
+                int forward = 3*(6*i + 2*direction);
+                int backward = forward + 3;
+                for(int k = 0; k<3; k++){
+                    points[forward + k] = positions[3*i + k];
+                    points[backward + k] = positions[3*i + k];
+                }
+                points[forward + direction] += dr;
+                points[backward + direction] = positions[3*i + direction] - dr;
+            }
+        }
+        stack.getInterpolatedValues(points, 6*n, values, null);
+        for(int i = 0; i<n; i++){
+            fx[i] += (values[6*i] - values[6*i + 1])*weight;
+            fy[i] += (values[6*i + 2] - values[6*i + 3])*weight;
+            fz[i] += (values[6*i + 4] - values[6*i + 5])*weight;
         }
     }
 
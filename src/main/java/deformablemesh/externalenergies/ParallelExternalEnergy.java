@@ -0,0 +1,63 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.externalenergies;
+
+/**
+ * An external energy whose forces can be calculated in independent pieces. The work is divided into items, usually
+ * the nodes or the triangles of the mesh, and ranges of items are evaluated concurrently by
+ * {@link ForceAccumulator}. Each range is given its own force arrays, so an item can add force to any node.
+ *
+ * Energies that only implement {@link ExternalEnergy} are still applied, on the calling thread.
+ */
+public interface ParallelExternalEnergy extends ExternalEnergy {
+
+    /**
+     * Called once per step, on the calling thread, before any of the ranges are evaluated.
+     *
+     * @param positions current node positions.
+     * @return number of work items for this step.
+     */
+    int prepare(double[] positions);
+
+    /**
+     * Adds the forces for the items from start to end. Called concurrently with other ranges of the same step, so
+     * implementations should only read shared state that was set in {@link #prepare(double[])}.
+     *
+     * @param positions current node positions.
+     * @param start first item.
+     * @param end one past the last item.
+     * @param fx force accumulator, indexed by node.
+     * @param fy force accumulator, indexed by node.
+     * @param fz force accumulator, indexed by node.
+     */
+    void updateForces(double[] positions, int start, int end, double[] fx, double[] fy, double[] fz);
+
+    @Override
+    default void updateForces(double[] positions, double[] fx, double[] fy, double[] fz){
+        int items = prepare(positions);
+        updateForces(positions, 0, items, fx, fy, fz);
+    }
+}
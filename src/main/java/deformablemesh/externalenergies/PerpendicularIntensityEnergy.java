@@ -27,63 +27,135 @@ package deformablemesh.externalenergies;
 
 import deformablemesh.MeshImageStack;
 import deformablemesh.geometry.DeformableMesh3D;
-import deformablemesh.geometry.Triangle3D;
+import deformablemesh.geometry.MeshGeometry;
 import deformablemesh.util.GaussianKernels;
-import deformablemesh.util.Vector3DOps;
-
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * Created by msmith on 2/10/16.
  */
-public class PerpendicularIntensityEnergy implements ExternalEnergy {
-    Map<Integer, Set<Triangle3D>> map = new HashMap<>();
+public class PerpendicularIntensityEnergy implements ParallelExternalEnergy {
+    MeshGeometry geometry;
     MeshImageStack stack;
     double ds;
     double[] kernel = GaussianKernels.firstDerivative1DKernel();
     double weight;
     DeformableMesh3D mesh;
+    ImageGradientField field;
     public PerpendicularIntensityEnergy(MeshImageStack stack, DeformableMesh3D mesh, double weight){
-        for(Triangle3D t: mesh.triangles){
-            int[] dexs = t.getIndices();
-            for(Integer i: dexs){
-                if(!map.containsKey(i)){
-                    map.put(i, new HashSet<>());
-                }
-                map.get(i).add(t);
-            }
-        }
         ds = stack.getMinPx();
         this.stack = stack;
         this.weight = weight;
         this.mesh = mesh;
     }
 
+    /**
+     * Samples a precalculated gradient field instead of applying the kernel along the normal at each node.
+     *
+     * @param stack image the energy is derived from.
+     * @param mesh mesh the forces are applied to.
+     * @param weight strength of the force.
+     * @param field gradient of the stack, should be calculated with {@link ImageGradientField#DEFAULT_SIGMA}.
+     */
+    public PerpendicularIntensityEnergy(MeshImageStack stack, DeformableMesh3D mesh, double weight, ImageGradientField field){
+        this(stack, mesh, weight);
+        this.field = field;
+    }
+
+    /**
+     * The items are the nodes.
+     */
     @Override
-    public void updateForces(double[] positions, double[] fx, double[] fy, double[] fz) {
-        mesh.triangles.forEach(Triangle3D::update);
-        int n = positions.length/3;
-        double[] normal = new double[3];
-        for(int i = 0; i<n; i++){
+    public int prepare(double[] positions){
+        geometry = mesh.getGeometry();
+        return positions.length/3;
+    }
 
+    @Override
+    public void updateForces(double[] positions, int start, int end, double[] fx, double[] fy, double[] fz) {
+        if(field != null){
+            double[] normal = new double[3];
+            for(int i = start; i<end; i++){
+
+                double norm = getNormal(i, normal);
+                if(norm==0){
+                    continue;
+                }
+                int dex = i*3;
+                double f = getForce(positions[dex], positions[dex+1], positions[dex + 2], normal)*weight;
+                fx[i] += f*normal[0];
+                fy[i] += f*normal[1];
+                fz[i] += f*normal[2];
+
+
+            }
+            return;
+        }
+        PerpendicularGradientEnergy.Samples samples = PerpendicularGradientEnergy.Samples.borrow();
+        try{
+            sampleAlongNormals(positions, start, end, samples);
+            int k = kernel.length;
+            double[] values = samples.values;
+            double[] normals = samples.normals;
+            for(int j = 0; j<samples.sampled; j++){
+                int i = samples.nodes[j];
+                double f = 0;
+                for(int s = 0; s<k; s++){
+                    f += values[j*k + s]*kernel[s];
+                }
+                f = f*weight;
+                fx[i] += f*normals[3*j];
+                fy[i] += f*normals[3*j + 1];
+                fz[i] += f*normals[3*j + 2];
+            }
+        } finally{
+            samples.release();
+        }
+    }
+
+    /**
+     * Places the kernel sample points of every node with a normal into the reused buffers and samples them in one
+     * pass.
+     */
+    void sampleAlongNormals(double[] positions, int first, int last, PerpendicularGradientEnergy.Samples buffers){
+        int k = kernel.length;
+        int n = last - first;
+        buffers.ensure(n, k);
+        int[] nodes = buffers.nodes;
+        double[] normals = buffers.normals;
+        double[] points = buffers.points;
+        double width = k/2;
+        double[] normal = new double[3];
+        int sampled = 0;
+        for(int i = first; i<last; i++){
             double norm = getNormal(i, normal);
             if(norm==0){
                 continue;
             }
-            int dex = i*3;
-            double f = getForce(positions[dex], positions[dex+1], positions[dex + 2], normal)*weight;
-            fx[i] += f*normal[0];
-            fy[i] += f*normal[1];
-            fz[i] += f*normal[2];
-
-
+            int j = sampled++;
+            nodes[j] = i;
+            normals[3*j] = normal[0];
+            normals[3*j + 1] = normal[1];
+            normals[3*j + 2] = normal[2];
+            double x = positions[3*i];
+            double y = positions[3*i + 1];
+            double z = positions[3*i + 2];
+            for(int s = 0; s<k; s++){
+                int p = 3*(j*k + s);
+                points[p] = (s - width)*ds*normal[0] + x;
+                points[p + 1] = (s - width)*ds*normal[1] + y;
+                points[p + 2] = (s - width)*ds*normal[2] + z;
+            }
         }
+        buffers.sampled = sampled;
+        stack.getInterpolatedValues(points, sampled*k, buffers.values, null);
     }
 
     public double getForce(double x, double y, double z, double[] direction){
+        if(field != null){
+            double[] g = new double[3];
+            field.getGradient(x, y, z, g);
+            return g[0]*direction[0] + g[1]*direction[1] + g[2]*direction[2];
+        }
         double width = kernel.length/2;
         double m = 0;
         double[] pos = new double[3];
@@ -98,29 +170,10 @@ public class PerpendicularIntensityEnergy implements ExternalEnergy {
 
 
     public double getNormal(Integer i, double[] result){
-        result[0] = 0;
-        result[1] = 0;
-        result[2] = 0;
-        Set<Triangle3D> triangles = map.get(i);
-        for(Triangle3D t: triangles){
-            result[0] += t.normal[0];
-            result[1] += t.normal[1];
-            result[2] += t.normal[2];
+        if(geometry == null){
+            geometry = mesh.getGeometry();
         }
-        double n = 1.0/triangles.size();
-        result[0] *= n;
-        result[1] *= n;
-        result[2] *= n;
-        double norm = Vector3DOps.normalize(result);
-
-        if(norm==0){
-            result[0] = 0;
-            result[1] = 0;
-            result[2] = 0;
-        }
-
-        return norm;
-
+        return geometry.getNodeNormal(i, result);
     }
     @Override
     public double getEnergy(double[] pos) {
@@ -42,6 +42,14 @@ public class SofterStericMesh extends StericMesh {
         curve = new CurvatureCalculator(id);
     }
 
+    /**
+     * For sharing one curvature calculator between all of the neighbors of a mesh.
+     */
+    SofterStericMesh(DeformableMesh3D id, DeformableMesh3D neighbor, double weight, CurvatureCalculator curve){
+        super(id, neighbor, weight);
+        this.curve = curve;
+    }
+
     public double[] getNormal(Integer i) {
         double[] n = curve.getNormal(i);
 
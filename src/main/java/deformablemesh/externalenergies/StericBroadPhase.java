@@ -0,0 +1,308 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.externalenergies;
+
+import deformablemesh.geometry.Box3D;
+import deformablemesh.geometry.CurvatureCalculator;
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.geometry.InterceptingMesh3D;
+import deformablemesh.geometry.SignedDistanceField;
+import deformablemesh.util.DeformationScheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Broad phase for steric interactions between many meshes. Instead of attaching a {@link SofterStericMesh} for every
+ * other mesh in the frame, interactions are only created for pairs of meshes whose bounding boxes, expanded by a
+ * margin, overlap. The candidate pairs are found by sorting the boxes along x and sweeping, the order is kept between
+ * updates so re-sorting meshes that have moved a little is nearly linear.
+ *
+ * A steric force is only applied to nodes that are inside of the bounding box of the neighbor, so with a margin of
+ * 0 the culled pairs would not have contributed any force. Each neighbor is ray cast using a single
+ * {@link InterceptingMesh3D} that is shared by all of the meshes it interacts with, or when using distance fields,
+ * a single {@link SignedDistanceField} that is only recalculated when the neighbor has moved.
+ */
+public class StericBroadPhase {
+    final List<DeformableMesh3D> meshes;
+    final double weight;
+    final double margin;
+    final boolean[] deforming;
+    final Map<DeformableMesh3D, StericNeighbors> energies = new HashMap<>();
+    final CurvatureCalculator[] curvatures;
+    final boolean distanceField;
+    final SignedDistanceField[] fields;
+
+    final double[] low;
+    final double[] high;
+    final int[] order;
+    Set<Long> pairs = new HashSet<>();
+
+    /**
+     * @param deforming meshes that steric forces are applied to.
+     * @param all every mesh that can exert a steric force, should include all of the deforming meshes.
+     * @param weight strength of the steric force.
+     * @param margin distance the bounding boxes are expanded by.
+     */
+    public StericBroadPhase(List<DeformableMesh3D> deforming, List<DeformableMesh3D> all, double weight, double margin){
+        this(deforming, all, weight, margin, false);
+    }
+
+    /**
+     * @param deforming meshes that steric forces are applied to.
+     * @param all every mesh that can exert a steric force, should include all of the deforming meshes.
+     * @param weight strength of the steric force.
+     * @param margin distance the bounding boxes are expanded by.
+     * @param distanceField use {@link DistanceFieldStericMesh} interactions instead of {@link SofterStericMesh}.
+     */
+    public StericBroadPhase(List<DeformableMesh3D> deforming, List<DeformableMesh3D> all, double weight, double margin, boolean distanceField){
+        this.distanceField = distanceField;
+        meshes = new ArrayList<>(all);
+        for(DeformableMesh3D mesh: deforming){
+            if(!meshes.contains(mesh)){
+                meshes.add(mesh);
+            }
+        }
+        this.weight = weight;
+        this.margin = margin;
+        int n = meshes.size();
+        this.deforming = new boolean[n];
+        curvatures = new CurvatureCalculator[n];
+        fields = new SignedDistanceField[n];
+        low = new double[3*n];
+        high = new double[3*n];
+        order = new int[n];
+        for(int i = 0; i<n; i++){
+            order[i] = i;
+            DeformableMesh3D mesh = meshes.get(i);
+            if(deforming.contains(mesh)){
+                this.deforming[i] = true;
+                energies.put(mesh, new StericNeighbors());
+            }
+        }
+        update();
+    }
+
+    /**
+     * The energy that applies the steric forces of all the overlapping neighbors.
+     *
+     * @param mesh one of the deforming meshes.
+     * @return the energy to be added to the mesh.
+     */
+    public ExternalEnergy getEnergy(DeformableMesh3D mesh){
+        return energies.get(mesh);
+    }
+
+    /**
+     * @return number of pairs of meshes with overlapping bounds.
+     */
+    public int getPairCount(){
+        return pairs.size();
+    }
+
+    /**
+     * Finds the overlapping pairs for the current mesh positions, creates and removes interactions and updates the
+     * neighbor shapes. The neighbor shapes are updated serially.
+     */
+    public void update(){
+        for(Runnable r: prepareUpdate()){
+            r.run();
+        }
+    }
+
+    /**
+     * Same as {@link #update()} except the neighbor shapes are updated on the scheduler.
+     *
+     * @param scheduler
+     */
+    public void update(DeformationScheduler scheduler){
+        scheduler.invokeAll(prepareUpdate());
+    }
+
+    private List<Runnable> prepareUpdate(){
+        int n = meshes.size();
+        for(int i = 0; i<n; i++){
+            Box3D box = meshes.get(i).getBoundingBox();
+            for(int k = 0; k<3; k++){
+                low[3*i + k] = box.low[k] - margin;
+                high[3*i + k] = box.high[k] + margin;
+            }
+        }
+
+        //insertion sort, meshes only move a little each step so the previous order is nearly sorted.
+        for(int i = 1; i<n; i++){
+            int m = order[i];
+            double x = low[3*m];
+            int j = i - 1;
+            while(j >= 0 && low[3*order[j]] > x){
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = m;
+        }
+
+        Set<Long> current = new HashSet<>();
+        for(int i = 0; i<n; i++){
+            int a = order[i];
+            for(int j = i + 1; j<n; j++){
+                int b = order[j];
+                if(low[3*b] > high[3*a]){
+                    break;
+                }
+                if(overlaps(a, b)){
+                    current.add(key(Math.min(a, b), Math.max(a, b)));
+                }
+            }
+        }
+
+        for(Long pair: pairs){
+            if(!current.contains(pair)){
+                int a = (int)(pair/n);
+                int b = (int)(pair%n);
+                removeInteraction(a, b);
+                removeInteraction(b, a);
+            }
+        }
+        //for each neighbor, the deforming meshes it acts on.
+        List<List<Integer>> targets = new ArrayList<>(n);
+        for(int i = 0; i<n; i++){
+            targets.add(new ArrayList<>());
+        }
+        for(Long pair: current){
+            int a = (int)(pair/n);
+            int b = (int)(pair%n);
+            if(!pairs.contains(pair)){
+                addInteraction(a, b);
+                addInteraction(b, a);
+            }
+            if(deforming[a]){
+                targets.get(b).add(a);
+            }
+            if(deforming[b]){
+                targets.get(a).add(b);
+            }
+        }
+        pairs = current;
+
+        List<Runnable> tasks = new ArrayList<>();
+        for(int i = 0; i<n; i++){
+            if(!targets.get(i).isEmpty()){
+                final int index = i;
+                tasks.add(() -> shareShape(index, targets.get(index)));
+            }
+        }
+        return tasks;
+    }
+
+    boolean overlaps(int a, int b){
+        for(int k = 1; k<3; k++){
+            if(low[3*a + k] > high[3*b + k] || low[3*b + k] > high[3*a + k]){
+                return false;
+            }
+        }
+        return low[3*a] <= high[3*b] && low[3*b] <= high[3*a];
+    }
+
+    long key(int a, int b){
+        return ((long)a)*meshes.size() + b;
+    }
+
+    /**
+     * Creates the interaction of the neighbor acting on the deforming mesh.
+     */
+    void addInteraction(int target, int neighbor){
+        if(!deforming[target]){
+            return;
+        }
+        DeformableMesh3D mesh = meshes.get(target);
+        ExternalEnergy interaction;
+        if(distanceField){
+            interaction = new DistanceFieldStericMesh(mesh, meshes.get(neighbor), weight, null);
+        } else{
+            if(curvatures[target] == null){
+                curvatures[target] = new CurvatureCalculator(mesh);
+            }
+            interaction = new SofterStericMesh(mesh, meshes.get(neighbor), weight, curvatures[target]);
+        }
+        energies.get(mesh).interactions.put(neighbor, interaction);
+    }
+
+    void removeInteraction(int target, int neighbor){
+        if(deforming[target]){
+            energies.get(meshes.get(target)).interactions.remove(neighbor);
+        }
+    }
+
+    /**
+     * Prepares a single shape for the neighbor and shares it with all of the interactions it is part of.
+     */
+    void shareShape(int neighbor, List<Integer> targets){
+        if(distanceField){
+            if(fields[neighbor] == null){
+                fields[neighbor] = new SignedDistanceField(meshes.get(neighbor));
+            } else{
+                fields[neighbor].update();
+            }
+            for(Integer target: targets){
+                ((DistanceFieldStericMesh)energies.get(meshes.get(target)).interactions.get(neighbor)).field = fields[neighbor];
+            }
+            return;
+        }
+        InterceptingMesh3D intercepting = new InterceptingMesh3D(meshes.get(neighbor));
+        for(Integer target: targets){
+            ((StericMesh)energies.get(meshes.get(target)).interactions.get(neighbor)).mesh = intercepting;
+        }
+    }
+
+    /**
+     * All of the steric interactions acting on a single mesh, ordered by the index of the neighbor so the forces are
+     * always summed in the same order.
+     */
+    static class StericNeighbors implements ExternalEnergy{
+        final Map<Integer, ExternalEnergy> interactions = new TreeMap<>();
+
+        @Override
+        public void updateForces(double[] positions, double[] fx, double[] fy, double[] fz) {
+            for(ExternalEnergy interaction: interactions.values()){
+                interaction.updateForces(positions, fx, fy, fz);
+            }
+        }
+
+        @Override
+        public double getEnergy(double[] pos) {
+            double sum = 0;
+            for(ExternalEnergy interaction: interactions.values()){
+                sum += interaction.getEnergy(pos);
+            }
+            return sum;
+        }
+    }
+}
@@ -27,24 +27,18 @@ package deformablemesh.externalenergies;
 
 import deformablemesh.geometry.DeformableMesh3D;
 import deformablemesh.geometry.InterceptingMesh3D;
-import deformablemesh.geometry.Triangle3D;
-import deformablemesh.util.Vector3DOps;
-
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import deformablemesh.geometry.MeshGeometry;
 
 /**
  * Class used for calculating steric forces between meshes.
  */
-public class StericMesh implements ExternalEnergy{
+public class StericMesh implements ParallelExternalEnergy{
     InterceptingMesh3D mesh;
     final DeformableMesh3D deformableMesh;
     final DeformableMesh3D id;
     final double weight;
     boolean staticShape = true;
-    Map<Integer, Set<Triangle3D>> map = new HashMap<>();
+    MeshGeometry geometry;
     public StericMesh(DeformableMesh3D id, DeformableMesh3D neighbor, double weight){
         //mesh = new InterceptingMesh3D(a);
         deformableMesh = neighbor;
@@ -53,31 +47,29 @@ public class StericMesh implements ExternalEnergy{
         if(id.triangles==null){
             System.out.println(id.positions.length + ", " + id.connection_index.length + ", " + id.triangle_index.length);
         }
-        for(Triangle3D t: id.triangles){
-            int[] dexs = t.getIndices();
-            for(Integer i: dexs){
-                if(!map.containsKey(i)){
-                    map.put(i, new HashSet<>());
-                }
-                map.get(i).add(t);
-            }
-        }
     }
     public void update(){
         mesh = new InterceptingMesh3D(deformableMesh);
     }
 
 
+    /**
+     * Creates the neighbor shape if needed, the items are the nodes.
+     */
     @Override
-    public void updateForces(double[] positions, double[] fx, double[] fy, double[] fz) {
+    public int prepare(double[] positions){
+        geometry = id.getGeometry();
         if(!staticShape || mesh==null) {
             mesh = new InterceptingMesh3D(deformableMesh);
         }
+        return positions.length/3;
+    }
 
-
+    @Override
+    public void updateForces(double[] positions, int start, int end, double[] fx, double[] fy, double[] fz) {
         double[] pt = new double[3];
         double[] center = mesh.getCenter();
-        for(int i = 0; i<fx.length; i++){
+        for(int i = start; i<end; i++){
             pt[0] = positions[3*i];
             pt[1] = positions[3*i + 1];
             pt[2] = positions[3*i + 2];
@@ -113,29 +105,10 @@ public class StericMesh implements ExternalEnergy{
      * @return the magnitude of the summed normal.
      */
     public double getNormal(Integer i, double[] result){
-        result[0] = 0;
-        result[1] = 0;
-        result[2] = 0;
-        Set<Triangle3D> triangles = map.get(i);
-        for(Triangle3D t: triangles){
-            result[0] += t.normal[0];
-            result[1] += t.normal[1];
-            result[2] += t.normal[2];
-        }
-        double n = 1.0/triangles.size();
-        result[0] *= n;
-        result[1] *= n;
-        result[2] *= n;
-        double norm = Vector3DOps.normalize(result);
-
-        if(norm==0){
-            result[0] = 0;
-            result[1] = 0;
-            result[2] = 0;
+        if(geometry == null){
+            geometry = id.getGeometry();
         }
-
-        return norm;
-
+        return geometry.getNodeNormal(i, result);
     }
 
 
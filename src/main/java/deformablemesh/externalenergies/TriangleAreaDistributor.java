@@ -42,7 +42,7 @@ import java.util.List;
 /**
  * Created by msmith on 2/26/16.
  */
-public class TriangleAreaDistributor implements ExternalEnergy{
+public class TriangleAreaDistributor implements ParallelExternalEnergy{
     List<Triangle3D> triangles;
     double ds;
     double weight;
@@ -55,22 +55,26 @@ public class TriangleAreaDistributor implements ExternalEnergy{
         this.mesh =mesh;
     }
     final static double areaFactor = Math.sqrt(4/Math.sqrt(3));
+    double anot;
+
+    /**
+     * Finds the target edge length from the average triangle area, the items are the triangles.
+     */
     @Override
-    public void updateForces(double[] positions, double[] fx, double[] fy, double[] fz) {
-        double ave = 0;
-        for(Triangle3D triangle: triangles){
-            triangle.update();
-            ave += triangle.area;
-        }
-        ave = ave/triangles.size();
-        double anot = areaFactor*Math.sqrt(ave);
+    public int prepare(double[] positions){
+        double ave = mesh.getGeometry().getTotalArea()/triangles.size();
+        anot = areaFactor*Math.sqrt(ave);
+        return triangles.size();
+    }
 
+    @Override
+    public void updateForces(double[] positions, int start, int end, double[] fx, double[] fy, double[] fz) {
         double[] s = new double[3];
         double[] f1=new double[3], f2=new double[3], f3 = new double[3];
         int[] i = new int[3];
         double r, force;
-        for(Triangle3D triangle: triangles){
-            triangle.getIndices(i);
+        for(int t = start; t<end; t++){
+            triangles.get(t).getIndices(i);
 
             //b to a
             s[0] = positions[3*i[0]] - positions[3*i[1]];
@@ -269,7 +269,17 @@ public class ConnectionRemesher {
 
         //System.out.println( "after: " + connections.size());
 
-        return new DeformableMesh3D(positions, connection_indexes, triangle_indexes);
+        //nodes created while remeshing have an index after the original nodes.
+        int originalCount = original.nodes.size();
+        int[] origins = new int[nodes.size()];
+        for(int i = 0; i<nodes.size(); i++){
+            int index = nodes.get(i).index;
+            origins[i] = index < originalCount ? index : -1;
+        }
+
+        DeformableMesh3D remeshed = new DeformableMesh3D(positions, connection_indexes, triangle_indexes);
+        remeshed.setPredecessor(unmodified, origins);
+        return remeshed;
 
 
     }
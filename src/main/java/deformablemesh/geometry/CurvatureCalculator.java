@@ -50,7 +50,7 @@ import java.util.stream.Collectors;
  */
 public class CurvatureCalculator {
     DeformableMesh3D mesh;
-    Map<Node3D, List<Triangle3D>> node_to_triangle = new HashMap<>();
+    MeshTopology topology;
     double min_curv = -1;
     double max_curv = -1;
 
@@ -62,17 +62,15 @@ public class CurvatureCalculator {
     public void prepareMap(){
         for(Triangle3D tri: mesh.triangles){
             tri.update();
-            addNode(tri.A, tri, node_to_triangle);
-            addNode(tri.B, tri, node_to_triangle);
-            addNode(tri.C, tri, node_to_triangle);
         }
+        topology = mesh.getTopology();
     }
 
-    private void addNode(Node3D n, Triangle3D t, Map<Node3D, List<Triangle3D>> map){
-        if(!map.containsKey(n)){
-            map.put(n,new ArrayList<>());
-        }
-        map.get(n).add(t);
+    /**
+     * @return a new list of the triangles touching the node, null if there are none.
+     */
+    List<Triangle3D> getTriangles(Node3D node){
+        return topology.getTriangles(node.index, mesh.triangles);
     }
 
     /**
@@ -156,7 +154,7 @@ public class CurvatureCalculator {
      */
     public double[] getNormal(int index){
         Node3D node = mesh.nodes.get(index);
-        return calculateMeanNormal(node, node_to_triangle.get(node));
+        return calculateMeanNormal(node, getTriangles(node));
     }
 
 
@@ -323,14 +321,14 @@ public class CurvatureCalculator {
     }
     public double calculateMixedArea(Node3D node){
 
-        List<Triangle3D> triangles = node_to_triangle.get(node);
+        List<Triangle3D> triangles = getTriangles(node);
         return calculateMixedArea(node, triangles);
 
     }
 
     public Set<Node3D> getNeighbors(Node3D node){
         //neighbors = new HashMap<Node3D, Set<Node3D>>();
-        List<Triangle3D> triangles = node_to_triangle.get(node);
+        List<Triangle3D> triangles = getTriangles(node);
         Set<Node3D> neighbors = new HashSet<>();
         neighbors.add(node);
         for(Triangle3D t: triangles){
@@ -352,12 +350,12 @@ public class CurvatureCalculator {
         Node3D node = mesh.nodes.get(i);
         Set<Node3D> neighbors = getNeighbors(node);
 
-        double[] k1 = calculateMeanCurvatureNormal(node, node_to_triangle.get(node));
+        double[] k1 = calculateMeanCurvatureNormal(node, getTriangles(node));
         double kh = Vector3DOps.normalize(k1)/2;
         double[] k2 = new double[k1.length];
         double kneighbors = 0;
         for(Node3D neighbor: neighbors){
-            double[] ki = calculateMeanCurvatureNormal(node, node_to_triangle.get(node));
+            double[] ki = calculateMeanCurvatureNormal(node, getTriangles(node));
 
         }
 
@@ -455,7 +453,7 @@ public class CurvatureCalculator {
 
 
         for(Node3D node: mesh.nodes){
-            List<Triangle3D> t_angles = node_to_triangle.get(node);
+            List<Triangle3D> t_angles = getTriangles(node);
             //all touching triangles.
             if(t_angles==null) continue;
 
@@ -25,20 +25,21 @@
  */
 package deformablemesh.geometry;
 
-import Jama.LUDecomposition;
-import Jama.Matrix;
 import deformablemesh.DeformableMesh3DTools;
 import deformablemesh.MeshImageStack;
 import deformablemesh.externalenergies.ExternalEnergy;
+import deformablemesh.externalenergies.ForceAccumulator;
+import deformablemesh.geometry.solvers.ConjugateGradientSolver;
+import deformablemesh.geometry.solvers.ConnectionStiffnessOperator;
+import deformablemesh.geometry.solvers.SolverType;
+import deformablemesh.geometry.solvers.SparseMatrix;
+import deformablemesh.geometry.solvers.StiffnessSolver;
 import deformablemesh.meshview.DeformableMeshDataObject;
+import deformablemesh.util.DeformationScheduler;
 import deformablemesh.util.Vector3DOps;
 
 import java.awt.Color;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -55,7 +56,13 @@ public class DeformableMesh3D{
     public double GAMMA;
     public double ALPHA;
     public double BETA;
-    LUDecomposition decomp;
+    StiffnessSolver solver;
+    SolverType solverType = SolverType.Sparse;
+    double solverTolerance = ConjugateGradientSolver.DEFAULT_TOLERANCE;
+    int solverMaxIterations = ConjugateGradientSolver.DEFAULT_MAX_ITERATIONS;
+    //solver of the mesh this mesh was re-meshed from.
+    StiffnessSolver predecessor;
+    int[] nodeOrigins;
 
     List<ExternalEnergy> energies = new ArrayList<>();
 
@@ -65,9 +72,12 @@ public class DeformableMesh3D{
     public double[] positions;
     public int[] connection_index;
     public int[] triangle_index;
+    private volatile MeshTopology topology;
+    private final MeshGeometry geometry = new MeshGeometry();
+    private volatile MeshGeometry stepGeometry;
+    private final ForceAccumulator forces = new ForceAccumulator();
 
     public DeformableMeshDataObject data_object;
-    private final static ExecutorService pool = Executors.newFixedThreadPool(3);
     public static final double[] ORIGIN = {0,0,0};
 
     private boolean showSurface;
@@ -186,6 +196,7 @@ public class DeformableMesh3D{
             connection_index[2*i] = con.A.index;
             connection_index[2*i+1] = con.B.index;
         }
+        topology = null;
 
 
     }
@@ -202,7 +213,22 @@ public class DeformableMesh3D{
             triangle_index[3*i+1] = t.B.index;
             triangle_index[3*i+2] = t.C.index;
         }
+        topology = null;
+    }
 
+    /**
+     * The adjacency of the nodes, connections and triangles. It is created once and shared until the connections or
+     * triangles change, which is detected by the sync methods or a change in the number of elements.
+     *
+     * @return the current topology of this mesh.
+     */
+    public MeshTopology getTopology(){
+        MeshTopology t = topology;
+        if(t == null || !t.matches(this)){
+            t = new MeshTopology(this);
+            topology = t;
+        }
+        return t;
     }
     public void create3DObject(){
         data_object = new DeformableMeshDataObject(nodes, connections, triangles, positions, connection_index, triangle_index);
@@ -212,7 +238,65 @@ public class DeformableMesh3D{
     }
 
     public void reshape(){
-        double[][] data = new double[nodes.size()][nodes.size()];
+        StiffnessSolver s = solverType.createSolver();
+        if(s instanceof ConjugateGradientSolver){
+            ConjugateGradientSolver cg = (ConjugateGradientSolver)s;
+            cg.setTolerance(solverTolerance);
+            cg.setMaxIterations(solverMaxIterations);
+            if(BETA==0){
+                cg.setOperator(createStiffnessOperator());
+                solver = cg;
+                return;
+            }
+        }
+
+        SparseMatrix stiffness = createStiffnessMatrix();
+        if(predecessor!=null){
+            StiffnessSolver updated = predecessor.update(stiffness, nodeOrigins);
+            predecessor = null;
+            nodeOrigins = null;
+            if(updated!=null){
+                solver = updated;
+                return;
+            }
+        }
+        SolverType type = solverType;
+        while(true){
+            try{
+                s.factor(stiffness);
+                break;
+            } catch(ArithmeticException e){
+                type = type.getFallback();
+                if(type==null){
+                    throw e;
+                }
+                System.err.println(e.getMessage() + ", using " + type);
+                s = type.createSolver();
+            }
+        }
+        solver = s;
+    }
+
+    /**
+     * Creates a matrix free operator for the ALPHA and GAMMA terms using the connection indexes.
+     *
+     * @return the stiffness operator without a BETA contribution.
+     */
+    public ConnectionStiffnessOperator createStiffnessOperator(){
+        double[] gamma = new double[nodes.size()];
+        for(Node3D n: nodes){
+            gamma[n.index] = n.getGamma(GAMMA);
+        }
+        return new ConnectionStiffnessOperator(connection_index, ALPHA, gamma);
+    }
+
+    /**
+     * Assembles the stiffness matrix from the ALPHA, BETA and GAMMA terms. Only neighboring nodes are coupled.
+     *
+     * @return a sparse matrix with the same number of rows as there are nodes.
+     */
+    public SparseMatrix createStiffnessMatrix(){
+        SparseMatrix.Builder data = new SparseMatrix.Builder(nodes.size());
         if(BETA>0){
             updateBetaMatrix(data);
         }
@@ -221,58 +305,121 @@ public class DeformableMesh3D{
 
             c.update();
             int[] dex = c.getIndices();
-            data[dex[0]][dex[0]] += ALPHA;
-            data[dex[0]][dex[1]] += -ALPHA;
-            data[dex[1]][dex[0]] += -ALPHA;
-            data[dex[1]][dex[1]] += ALPHA;
+            data.add(dex[0], dex[0], ALPHA);
+            data.add(dex[0], dex[1], -ALPHA);
+            data.add(dex[1], dex[0], -ALPHA);
+            data.add(dex[1], dex[1], ALPHA);
 
         }
 
 
         for(Node3D n: nodes){
-            data[n.index][n.index] += n.getGamma(GAMMA);
+            data.add(n.index, n.index, n.getGamma(GAMMA));
         }
 
-        Matrix M = new Matrix(data);
+        return data.build();
+    }
 
-        decomp = M.lu();
+    /**
+     * Sets the backend used for solving the stiffness matrix. The mesh will be reshaped on the next update, and a
+     * solver from {@link #setPredecessor(DeformableMesh3D, int[])} is discarded because it is the previous type.
+     *
+     * @param type
+     */
+    public void setSolverType(SolverType type){
+        if(type != solverType){
+            solverType = type;
+            invalidateSolver();
+        }
     }
 
-    private void updateBetaMatrix(double[][] data){
-        Map<Node3D, List<Connection3D>> noder = getCurvatureMap();
-        Map<Connection3D, Set<Connection3D>> conner = getAdjacencyMap(noder);
-        for(Node3D n: nodes){
-            List<Connection3D> cons = noder.get(n);
+    /**
+     * The next reshape starts a new solver.
+     */
+    private void invalidateSolver(){
+        solver = null;
+        predecessor = null;
+        nodeOrigins = null;
+    }
+
+    public SolverType getSolverType(){
+        return solverType;
+    }
+
+    /**
+     * Parameters used by the iterative solver, the mesh will be reshaped on the next update.
+     *
+     * @param tolerance relative residual for a solve to be considered converged.
+     * @param maxIterations maximum number of iterations per solve.
+     */
+    public void setIterativeSolverParameters(double tolerance, int maxIterations){
+        if(tolerance != solverTolerance || maxIterations != solverMaxIterations){
+            solverTolerance = tolerance;
+            solverMaxIterations = maxIterations;
+            if(solverType == SolverType.ConjugateGradient){
+                invalidateSolver();
+            }
+        }
+    }
+
+    /**
+     * For meshes that are created by modifying the topology of another mesh, eg re-meshing. The next reshape
+     * will update the solver of the original mesh, when possible, instead of starting over.
+     *
+     * @param previous the mesh that was modified.
+     * @param origins for each node of this mesh, the index of the corresponding node in the previous mesh or -1
+     *                for nodes that were added.
+     */
+    public void setPredecessor(DeformableMesh3D previous, int[] origins){
+        if(origins.length != nodes.size()){
+            throw new IllegalArgumentException("There must be one origin for each node: " + origins.length + ", " + nodes.size());
+        }
+        solverType = previous.solverType;
+        solverTolerance = previous.solverTolerance;
+        solverMaxIterations = previous.solverMaxIterations;
+        predecessor = previous.solver;
+        nodeOrigins = predecessor == null ? null : origins;
+    }
+
+    /**
+     * @return the solver used by the most recent update, null if the mesh needs to be reshaped.
+     */
+    public StiffnessSolver getSolver(){
+        return solver;
+    }
+
+    private void updateBetaMatrix(SparseMatrix.Builder data){
+        MeshTopology topo = getTopology();
+        if(topo.getMissingEdges() > 0){
+            throw new RuntimeException("BROKEN ADJACENCY MAP: " + topo.getMissingEdges() + " triangle edges without connections");
+        }
+        for(int n = 0; n<nodes.size(); n++){
+            int count = topo.getNeighbourCount(n);
             double small_factor = 1.0;
-            for(int i = 0; i<cons.size(); i++){
-                Connection3D a = cons.get(i);
-                Node3D other = a.A.equals(n)?a.B:a.A;
-                Set<Connection3D> adjacent = conner.get(a);
-                for(int j = i+1; j<cons.size(); j++){
-                    //pairs of first order connections.
-                    Connection3D b = cons.get(j);
-                    if(adjacent.contains(b)){
+            for(int i = 0; i<count; i++){
+                int other = topo.getNeighbour(n, i);
+                for(int j = i+1; j<count; j++){
+                    //pairs of first order connections, connections sharing a triangle are skipped.
+                    int another = topo.getNeighbour(n, j);
+                    if(topo.hasTriangle(n, other, another)){
                         continue;
                     }
-                    Node3D another = b.A.equals(n)?b.B:b.A;
 
-                    data[n.index][another.index] += -BETA*small_factor;
-                    data[n.index][other.index] += -BETA*small_factor;
-                    data[n.index][n.index] += 2*BETA*small_factor;
+                    data.add(n, another, -BETA*small_factor);
+                    data.add(n, other, -BETA*small_factor);
+                    data.add(n, n, 2*BETA*small_factor);
                 }
 
-                List<Connection3D> secondOrder = noder.get(other);
-
-
                 double f = 1.0;
-                for(Connection3D con: secondOrder){
-                    if(con.equals(a) || adjacent.contains(con)){
+                int secondOrder = topo.getNeighbourCount(other);
+                for(int k = 0; k<secondOrder; k++){
+                    int another = topo.getNeighbour(other, k);
+                    if(another == n || topo.hasTriangle(n, other, another)){
                         continue;
                     }
-                    Node3D another = con.A.equals(other)?con.B:con.A;
-                    data[n.index][n.index] += BETA*f;
-                    data[n.index][another.index] += BETA*f;
-                    data[n.index][other.index] -= 2*BETA*f;
+                    data.add(n, n, BETA*f);
+                    data.add(n, another, BETA*f);
+                    data.add(n, other, -2*BETA*f);
                 }
 
 
@@ -287,7 +434,7 @@ public class DeformableMesh3D{
      * @return
      */
     public Runnable partialUpdate(){
-        if(decomp==null){
+        if(solver==null){
             reshape();
         }
 
@@ -305,21 +452,19 @@ public class DeformableMesh3D{
             fz[n.index] += gamma*pt[2];
         }
 
-        for(ExternalEnergy external: energies) {
-            external.updateForces(positions, fx, fy, fz);
-        }
-
-        final Matrix FX = new Matrix(fx,nodes.size());
-        Matrix deltax = decomp.solve(FX);
-        double[] nx = deltax.getRowPackedCopy();
-
-        final Matrix FY = new Matrix(fy,nodes.size());
-        Matrix deltay = decomp.solve(FY);
-        double[] ny = deltay.getRowPackedCopy();
-
-        final Matrix FZ = new Matrix(fz,nodes.size());
-        Matrix deltaz = decomp.solve(FZ);
-        double[] nz = deltaz.getRowPackedCopy();
+        applyExternalEnergies(fx, fy, fz);
+
+        final double[] nx = new double[nodes.size()];
+        final double[] ny = new double[nodes.size()];
+        final double[] nz = new double[nodes.size()];
+        copyCoordinates(nx, ny, nz);
+        final StiffnessSolver s = solver;
+        s.startStep();
+        DeformationScheduler.getShared().invokeAll(Arrays.asList(
+                () -> s.solve(fx, nx),
+                () -> s.solve(fy, ny),
+                () -> s.solve(fz, nz)
+        ));
         return ()-> {
             for (int i = 0; i < nodes.size(); i++) {
                 positions[3 * i] = nx[i];
@@ -336,68 +481,45 @@ public class DeformableMesh3D{
 
 
     public void update(){
-        if(decomp==null){
-            reshape();
-        }
-
-        final double[] fx = new double[nodes.size()];
-        final double[] fy = new double[nodes.size()];
-        final double[] fz = new double[nodes.size()];
-
-        double[] pt;
-        for(Node3D n: nodes){
-            n.update();
-            pt = n.getCoordinates();
-            double gamma = n.getGamma(GAMMA);
-            fx[n.index] += gamma*pt[0];
-            fy[n.index] += gamma*pt[1];
-            fz[n.index] += gamma*pt[2];
-        }
+        partialUpdate().run();
+    }
 
-        for(ExternalEnergy external: energies) {
-            external.updateForces(positions, fx, fy, fz);
+    /**
+     * Calculates the geometry of the current positions once, then adds the forces of each external energy. Energies
+     * that implement {@link deformablemesh.externalenergies.ParallelExternalEnergy} are evaluated on the shared
+     * scheduler, see {@link ForceAccumulator}.
+     */
+    protected void applyExternalEnergies(double[] fx, double[] fy, double[] fz){
+        stepGeometry = geometry.update(this);
+        try{
+            forces.apply(energies, positions, fx, fy, fz);
+        } finally{
+            stepGeometry = null;
         }
+    }
 
-        Future<double[]> xfuture = pool.submit(() -> {
-            final Matrix FX = new Matrix(fx,nodes.size());
-            Matrix deltax = decomp.solve(FX);
-            return deltax.getRowPackedCopy();
-        });
-
-        Future<double[]> yfuture = pool.submit(() -> {
-            final Matrix FY = new Matrix(fy,nodes.size());
-            Matrix deltay = decomp.solve(FY);
-            return deltay.getRowPackedCopy();
-        });
-
-        Future<double[]> zfuture = pool.submit(() -> {
-            final Matrix FZ = new Matrix(fz,nodes.size());
-            Matrix deltaz = decomp.solve(FZ);
-            return deltaz.getRowPackedCopy();
-        });
-
-
-        try {
-            double[] nx = xfuture.get();
-            double[] ny = yfuture.get();
-            double[] nz = zfuture.get();
-            for(int i = 0; i<nodes.size(); i++){
-                positions[3*i] = nx[i];
-                positions[3*i+1] = ny[i];
-                positions[3*i+2] = nz[i];
-
-            }
-
-        } catch (InterruptedException e) {
-            System.err.println("Program was interrupted during calculations!");
-            e.printStackTrace();
-        } catch (ExecutionException e) {
-            System.err.println("Exception Occurred During update");
-            e.printStackTrace();
+    /**
+     * The normals and areas of the current positions. While the external energies are being applied this is the
+     * geometry calculated for the step, otherwise it is calculated when called.
+     *
+     * @return geometry of the current positions.
+     */
+    public MeshGeometry getGeometry(){
+        MeshGeometry g = stepGeometry;
+        if(g != null && g.matches(this)){
+            return g;
         }
+        return new MeshGeometry().update(this);
+    }
 
-        if(data_object!=null){
-            data_object.updateGeometry(positions);
+    /**
+     * Copies the current positions into separate coordinate arrays.
+     */
+    void copyCoordinates(double[] x, double[] y, double[] z){
+        for(int i = 0; i<x.length; i++){
+            x[i] = positions[3*i];
+            y[i] = positions[3*i + 1];
+            z[i] = positions[3*i + 2];
         }
     }
 
@@ -436,12 +558,27 @@ public class DeformableMesh3D{
         int[] count = new int[positions.length/3];
         float[] colors = new float[positions.length];
         double max = 0.0;
+
+        //sample all of the triangles in one pass.
+        double[] points = new double[3*steps*triangles.size()];
+        double[] samples = new double[steps*triangles.size()];
+        int p = 0;
         for(Triangle3D tri: triangles){
             tri.update();
+            for(int i = 0; i<steps; i++){
+                points[p++] = tri.center[0]-ds*i*tri.normal[0];
+                points[p++] = tri.center[1]-ds*i*tri.normal[1];
+                points[p++] = tri.center[2]-ds*i*tri.normal[2];
+            }
+        }
+        stack.getInterpolatedValues(points, samples.length, samples, null);
+
+        int t = 0;
+        for(Triangle3D tri: triangles){
             double s = 0;
             double mx = 0;
             for(int i = 0; i<steps; i++){
-                double px = stack.getInterpolatedValue(tri.center[0]-ds*i*tri.normal[0], tri.center[1]-ds*i*tri.normal[1], tri.center[2]-ds*i*tri.normal[2]);
+                double px = samples[t*steps + i];
                 s += px;
                 if(px>mx)mx = px;
             }
@@ -461,6 +598,7 @@ public class DeformableMesh3D{
 
             double[] v = new double[] {tri.center[0], tri.center[1], tri.center[2], intensity};
             values.add(v);
+            t++;
         }
         max = max>0?max:1;
         for(int i = 0; i<count.length; i++){
@@ -525,22 +663,17 @@ public class DeformableMesh3D{
     }
 
     public List<double[]> calculateCurvature(){
-        Map<Node3D, List<Triangle3D>> node_to_triangle = new HashMap<>();
+        MeshTopology topo = getTopology();
         List<double[]> values = new ArrayList<>();
         for(Triangle3D tri: triangles){
             tri.update();
-            addNode(tri.A, tri, node_to_triangle);
-            addNode(tri.B, tri, node_to_triangle);
-            addNode(tri.C, tri, node_to_triangle);
-
-
         }
 
         float[] colors = new float[nodes.size()*3];
         float pmax = -Float.MAX_VALUE;
         float nmax = -Float.MAX_VALUE;
         for(Node3D node: nodes){
-            List<Triangle3D> t_angles = node_to_triangle.get(node);
+            List<Triangle3D> t_angles = topo.getTriangles(node.index, triangles);
             float positive = 0.0f;
             float negative = 0.0f;
             int count = t_angles.size();
@@ -696,13 +829,6 @@ public class DeformableMesh3D{
     }
 
 
-    private void addNode(Node3D n, Triangle3D t, Map<Node3D, List<Triangle3D>> map){
-        if(!map.containsKey(n)){
-            map.put(n,new ArrayList<>());
-        }
-        map.get(n).add(t);
-    }
-
 
 
     /**
@@ -32,7 +32,8 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 /**
- * For performing Ray Casting on a deformable mesh.
+ * For performing Ray Casting on a deformable mesh. The triangles are captured when this is created, and for larger
+ * meshes a bounding volume hierarchy is built so each ray only tests the triangles it might cross.
  *
  * Created by msmith on 2/9/16.
  */
@@ -42,6 +43,8 @@ public class InterceptingMesh3D implements Interceptable{
     List<InterceptingTriangle3D> triangles;
     double[] center;
     Box3D bounds;
+    TriangleBoundingVolumeHierarchy hierarchy;
+
     public InterceptingMesh3D(DeformableMesh3D mesh){
         mesh.triangles.forEach(Triangle3D::update);
         this.mesh = mesh;
@@ -82,6 +85,14 @@ public class InterceptingMesh3D implements Interceptable{
             center[1] *= f;
             center[2] *= f;
         }
+
+        if(triangles.size() > 2*TriangleBoundingVolumeHierarchy.LEAF_SIZE){
+            double size = Math.max(
+                    bounds.high[0] - bounds.low[0],
+                    Math.max(bounds.high[1] - bounds.low[1], bounds.high[2] - bounds.low[2])
+            );
+            hierarchy = new TriangleBoundingVolumeHierarchy(triangles, 1e-6*size + 1e-12);
+        }
     }
 
     /**
@@ -93,20 +104,25 @@ public class InterceptingMesh3D implements Interceptable{
     public boolean boundsContains(double[] pt){
         return bounds.contains(pt);
     }
+    /**
+     * Finds all of the intersections of the line passing through origin along direction. The intersections are in
+     * the order of the mesh triangles, whether or not the bounding volume hierarchy is used.
+     *
+     * @param origin a point on the line.
+     * @param direction direction of the line.
+     * @return intersections with the surface of the mesh.
+     */
     @Override
     public List<Intersection> getIntersections(double[] origin, double[] direction) {
         List<Intersection> sections = new ArrayList<>();
+        if(hierarchy != null){
+            for(int i: hierarchy.getCandidates(origin, direction)){
+                triangles.get(i).getIntersection(origin, direction, sections);
+            }
+            return sections;
+        }
         for(InterceptingTriangle3D triangle: triangles){
-            List<Intersection> old = new ArrayList(sections);
             triangle.getIntersection(origin, direction, sections);
-            /*for(int j = 0; j<old.size(); j++) {
-                for (int i = old.size(); i < sections.size(); i++) {
-                    double m = Vector3DOps.mag(Vector3DOps.difference(sections.get(i).location, sections.get(j).location));
-                    if (m <= 0) {
-                        System.out.println("borked " + m);
-                    }
-                }
-            }*/
         }
         return sections;
     }
@@ -0,0 +1,211 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry;
+
+import java.util.List;
+
+/**
+ * Geometry derived from the node positions of a mesh: triangle normals, areas and centers, node normals and the
+ * centroid. {@link DeformableMesh3D#partialUpdate()} calculates it once before the external energies are applied, and
+ * the energies read it through {@link DeformableMesh3D#getGeometry()} instead of updating the triangles themselves.
+ *
+ * The triangles of the mesh are updated at the same time, so code using {@link Triangle3D#normal} and
+ * {@link Triangle3D#area} sees the same values.
+ */
+public class MeshGeometry {
+    int triangleCount;
+    int nodeCount;
+    MeshTopology topology;
+
+    double[] triangleNormals = new double[0];
+    double[] triangleAreas = new double[0];
+    double[] nodeNormals = new double[0];
+    double[] nodeNormalLengths = new double[0];
+    final double[] centroid = new double[3];
+    double totalArea;
+
+    /**
+     * Recalculates everything from the current positions, the arrays are only reallocated when the size of the mesh
+     * changes.
+     *
+     * @param mesh the mesh to calculate the geometry of.
+     * @return this geometry.
+     */
+    public MeshGeometry update(DeformableMesh3D mesh){
+        topology = mesh.getTopology();
+        List<Triangle3D> triangles = mesh.triangles;
+        double[] positions = mesh.positions;
+        triangleCount = triangles.size();
+        nodeCount = mesh.nodes.size();
+        if(triangleAreas.length != triangleCount){
+            triangleNormals = new double[3*triangleCount];
+            triangleAreas = new double[triangleCount];
+        }
+        if(nodeNormalLengths.length != nodeCount){
+            nodeNormals = new double[3*nodeCount];
+            nodeNormalLengths = new double[nodeCount];
+        }
+
+        totalArea = 0;
+        for(int t = 0; t<triangleCount; t++){
+            Triangle3D triangle = triangles.get(t);
+            update(triangle, positions);
+            triangleAreas[t] = triangle.area;
+            totalArea += triangle.area;
+            //the triangle normal is scaled by 2.
+            triangleNormals[3*t] = 0.5*triangle.normal[0];
+            triangleNormals[3*t + 1] = 0.5*triangle.normal[1];
+            triangleNormals[3*t + 2] = 0.5*triangle.normal[2];
+        }
+
+        for(int n = 0; n<nodeCount; n++){
+            double x = 0;
+            double y = 0;
+            double z = 0;
+            int count = topology.getTriangleCount(n);
+            for(int i = 0; i<count; i++){
+                int t = 3*topology.getTriangle(n, i);
+                x += triangleNormals[t];
+                y += triangleNormals[t + 1];
+                z += triangleNormals[t + 2];
+            }
+            double length = 0;
+            if(count > 0){
+                double f = 1.0/count;
+                x *= f;
+                y *= f;
+                z *= f;
+                length = Math.sqrt(x*x + y*y + z*z);
+            }
+            if(length == 0){
+                x = y = z = 0;
+            } else{
+                x = x/length;
+                y = y/length;
+                z = z/length;
+            }
+            nodeNormals[3*n] = x;
+            nodeNormals[3*n + 1] = y;
+            nodeNormals[3*n + 2] = z;
+            nodeNormalLengths[n] = length;
+        }
+
+        centroid[0] = 0;
+        centroid[1] = 0;
+        centroid[2] = 0;
+        for(int n = 0; n<nodeCount; n++){
+            centroid[0] += positions[3*n];
+            centroid[1] += positions[3*n + 1];
+            centroid[2] += positions[3*n + 2];
+        }
+        if(nodeCount > 0){
+            centroid[0] /= nodeCount;
+            centroid[1] /= nodeCount;
+            centroid[2] /= nodeCount;
+        }
+        return this;
+    }
+
+    /**
+     * The same as {@link Triangle3D#update()} reading the positions directly.
+     */
+    static void update(Triangle3D triangle, double[] positions){
+        int a = 3*triangle.A.index;
+        int b = 3*triangle.B.index;
+        int c = 3*triangle.C.index;
+        double abx = positions[b] - positions[a];
+        double aby = positions[b + 1] - positions[a + 1];
+        double abz = positions[b + 2] - positions[a + 2];
+        double acx = positions[c] - positions[a];
+        double acy = positions[c + 1] - positions[a + 1];
+        double acz = positions[c + 2] - positions[a + 2];
+
+        double[] normal = triangle.normal;
+        normal[0] = (aby*acz - abz*acy);
+        normal[1] = (abz*acx - abx*acz);
+        normal[2] = (abx*acy - aby*acx);
+
+        double area = 0.5*Math.sqrt(normal[0]*normal[0] + normal[1]*normal[1] + normal[2]*normal[2]);
+        triangle.area = area;
+        if(area>0){
+            double[] center = triangle.center;
+            for(int i = 0; i<3; i++){
+                normal[i] = normal[i]/area;
+                center[i] = (positions[a + i] + positions[b + i] + positions[c + i])*Triangle3D.one_third;
+            }
+        }
+    }
+
+    /**
+     * @return true if this was calculated with the current topology of the mesh.
+     */
+    boolean matches(DeformableMesh3D mesh){
+        return topology != null && topology == mesh.getTopology();
+    }
+
+    public MeshTopology getTopology(){
+        return topology;
+    }
+
+    /**
+     * @param triangle index of the triangle.
+     * @param result where the unit normal is written.
+     */
+    public void getTriangleNormal(int triangle, double[] result){
+        result[0] = triangleNormals[3*triangle];
+        result[1] = triangleNormals[3*triangle + 1];
+        result[2] = triangleNormals[3*triangle + 2];
+    }
+
+    public double getTriangleArea(int triangle){
+        return triangleAreas[triangle];
+    }
+
+    public double getTotalArea(){
+        return totalArea;
+    }
+
+    /**
+     * The normalized average of the normals of the triangles touching the node.
+     *
+     * @param node index of the node.
+     * @param result where the normal is written, 0 when the node doesn't have a normal.
+     * @return length of the average before it was normalized, 0 if the node doesn't have a normal.
+     */
+    public double getNodeNormal(int node, double[] result){
+        result[0] = nodeNormals[3*node];
+        result[1] = nodeNormals[3*node + 1];
+        result[2] = nodeNormals[3*node + 2];
+        return nodeNormalLengths[node];
+    }
+
+    /**
+     * @return the average position of the nodes, this array is overwritten by the next update.
+     */
+    public double[] getCentroid(){
+        return centroid;
+    }
+}
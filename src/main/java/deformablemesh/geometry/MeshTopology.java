@@ -0,0 +1,320 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry;
+
+import deformablemesh.util.Vector3DOps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable adjacency of a mesh stored as compressed rows of indexes: the triangles touching each node, the
+ * connections and neighbouring nodes of each node, and the triangles on each connection. It only depends on the
+ * connections and triangles, so it stays valid while the nodes move and is shared by everything that uses the same
+ * mesh, see {@link DeformableMesh3D#getTopology()}.
+ *
+ * The connections and triangles of a node are in the same order as they appear in the mesh.
+ */
+public class MeshTopology {
+    final int nodeCount;
+    final int triangleCount;
+    final int connectionCount;
+
+    final int[] nodeTriangleOffsets;
+    final int[] nodeTriangles;
+
+    final int[] nodeConnectionOffsets;
+    final int[] nodeConnections;
+    final int[] neighbours;
+
+    final int[] triangleNodes;
+    final int[] triangleEdges;
+    final int[] edgeTriangleOffsets;
+    final int[] edgeTriangles;
+    final int missingEdges;
+
+    /**
+     * @param nodeCount number of nodes.
+     * @param connectionIndex pairs of node indexes.
+     * @param triangleIndex triplets of node indexes.
+     */
+    public MeshTopology(int nodeCount, int[] connectionIndex, int[] triangleIndex){
+        this.nodeCount = nodeCount;
+        connectionCount = connectionIndex.length/2;
+        triangleCount = triangleIndex.length/3;
+        triangleNodes = triangleIndex.clone();
+
+        nodeTriangleOffsets = new int[nodeCount + 1];
+        nodeTriangles = new int[3*triangleCount];
+        for(int dex: triangleIndex){
+            nodeTriangleOffsets[dex + 1]++;
+        }
+        accumulate(nodeTriangleOffsets);
+        int[] fill = new int[nodeCount];
+        for(int t = 0; t<triangleCount; t++){
+            for(int k = 0; k<3; k++){
+                int n = triangleIndex[3*t + k];
+                nodeTriangles[nodeTriangleOffsets[n] + fill[n]++] = t;
+            }
+        }
+
+        nodeConnectionOffsets = new int[nodeCount + 1];
+        nodeConnections = new int[2*connectionCount];
+        neighbours = new int[2*connectionCount];
+        for(int dex: connectionIndex){
+            nodeConnectionOffsets[dex + 1]++;
+        }
+        accumulate(nodeConnectionOffsets);
+        fill = new int[nodeCount];
+        for(int c = 0; c<connectionCount; c++){
+            int a = connectionIndex[2*c];
+            int b = connectionIndex[2*c + 1];
+            int i = nodeConnectionOffsets[a] + fill[a]++;
+            nodeConnections[i] = c;
+            neighbours[i] = b;
+            int j = nodeConnectionOffsets[b] + fill[b]++;
+            nodeConnections[j] = c;
+            neighbours[j] = a;
+        }
+
+        //the edges of triangle t are a-b, b-c and c-a, -1 when there is not a connection.
+        triangleEdges = new int[3*triangleCount];
+        edgeTriangleOffsets = new int[connectionCount + 1];
+        int missing = 0;
+        for(int t = 0; t<triangleCount; t++){
+            for(int k = 0; k<3; k++){
+                int e = findConnection(triangleIndex[3*t + k], triangleIndex[3*t + (k + 1)%3]);
+                triangleEdges[3*t + k] = e;
+                if(e < 0){
+                    missing++;
+                } else{
+                    edgeTriangleOffsets[e + 1]++;
+                }
+            }
+        }
+        missingEdges = missing;
+        accumulate(edgeTriangleOffsets);
+        edgeTriangles = new int[edgeTriangleOffsets[connectionCount]];
+        fill = new int[connectionCount];
+        for(int t = 0; t<triangleCount; t++){
+            for(int k = 0; k<3; k++){
+                int e = triangleEdges[3*t + k];
+                if(e >= 0){
+                    edgeTriangles[edgeTriangleOffsets[e] + fill[e]++] = t;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the topology from the connections and triangles of the mesh.
+     */
+    public MeshTopology(DeformableMesh3D mesh){
+        this(mesh.nodes.size(), connectionIndexes(mesh.connections), triangleIndexes(mesh.triangles));
+    }
+
+    static int[] connectionIndexes(List<Connection3D> connections){
+        int[] index = new int[2*connections.size()];
+        for(int i = 0; i<connections.size(); i++){
+            Connection3D c = connections.get(i);
+            index[2*i] = c.A.index;
+            index[2*i + 1] = c.B.index;
+        }
+        return index;
+    }
+
+    static int[] triangleIndexes(List<Triangle3D> triangles){
+        int[] index = new int[3*triangles.size()];
+        for(int i = 0; i<triangles.size(); i++){
+            Triangle3D t = triangles.get(i);
+            index[3*i] = t.A.index;
+            index[3*i + 1] = t.B.index;
+            index[3*i + 2] = t.C.index;
+        }
+        return index;
+    }
+
+    static void accumulate(int[] offsets){
+        for(int i = 1; i<offsets.length; i++){
+            offsets[i] += offsets[i - 1];
+        }
+    }
+
+    /**
+     * @return the first connection between the two nodes, or -1.
+     */
+    public int findConnection(int a, int b){
+        for(int i = nodeConnectionOffsets[a]; i<nodeConnectionOffsets[a + 1]; i++){
+            if(neighbours[i] == b){
+                return nodeConnections[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if there is a triangle with the three nodes, in any order.
+     */
+    public boolean hasTriangle(int a, int b, int c){
+        for(int i = nodeTriangleOffsets[a]; i<nodeTriangleOffsets[a + 1]; i++){
+            int t = 3*nodeTriangles[i];
+            boolean hasB = false;
+            boolean hasC = false;
+            for(int k = 0; k<3; k++){
+                hasB |= triangleNodes[t + k] == b;
+                hasC |= triangleNodes[t + k] == c;
+            }
+            if(hasB && hasC){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the connections and triangles have the same sizes as the mesh.
+     */
+    boolean matches(DeformableMesh3D mesh){
+        return nodeCount == mesh.nodes.size()
+                && connectionCount == mesh.connections.size()
+                && triangleCount == mesh.triangles.size();
+    }
+
+    public int getNodeCount(){
+        return nodeCount;
+    }
+
+    public int getTriangleCount(int node){
+        return nodeTriangleOffsets[node + 1] - nodeTriangleOffsets[node];
+    }
+
+    /**
+     * @param node index of the node.
+     * @param i from 0 to {@link #getTriangleCount(int)}
+     * @return index of the triangle.
+     */
+    public int getTriangle(int node, int i){
+        return nodeTriangles[nodeTriangleOffsets[node] + i];
+    }
+
+    /**
+     * @return a new list with the triangles touching the node, null if there are none.
+     */
+    public List<Triangle3D> getTriangles(int node, List<Triangle3D> triangles){
+        int start = nodeTriangleOffsets[node];
+        int end = nodeTriangleOffsets[node + 1];
+        if(start == end){
+            return null;
+        }
+        List<Triangle3D> result = new ArrayList<>(end - start);
+        for(int i = start; i<end; i++){
+            result.add(triangles.get(nodeTriangles[i]));
+        }
+        return result;
+    }
+
+    public int getNeighbourCount(int node){
+        return nodeConnectionOffsets[node + 1] - nodeConnectionOffsets[node];
+    }
+
+    /**
+     * @param node index of the node.
+     * @param i from 0 to {@link #getNeighbourCount(int)}
+     * @return index of the node at the other end of the i'th connection.
+     */
+    public int getNeighbour(int node, int i){
+        return neighbours[nodeConnectionOffsets[node] + i];
+    }
+
+    /**
+     * @param node index of the node.
+     * @param i from 0 to {@link #getNeighbourCount(int)}
+     * @return index of the i'th connection of the node.
+     */
+    public int getConnection(int node, int i){
+        return nodeConnections[nodeConnectionOffsets[node] + i];
+    }
+
+    public int getEdgeTriangleCount(int connection){
+        return edgeTriangleOffsets[connection + 1] - edgeTriangleOffsets[connection];
+    }
+
+    public int getEdgeTriangle(int connection, int i){
+        return edgeTriangles[edgeTriangleOffsets[connection] + i];
+    }
+
+    /**
+     * @param triangle index of the triangle.
+     * @param i 0 for a-b, 1 for b-c and 2 for c-a.
+     * @return index of the connection or -1 if the mesh doesn't have it.
+     */
+    public int getTriangleEdge(int triangle, int i){
+        return triangleEdges[3*triangle + i];
+    }
+
+    /**
+     * @return number of triangle edges without a connection, 0 for a well formed mesh.
+     */
+    public int getMissingEdges(){
+        return missingEdges;
+    }
+
+    /**
+     * Averages the normals of the triangles touching the node, the triangle normals need to be up to date.
+     *
+     * @param node index of the node.
+     * @param triangles triangles of the mesh.
+     * @param result where the normalized normal is written.
+     * @return magnitude of the average normal, when 0 the result is 0.
+     */
+    public double meanNormal(int node, List<Triangle3D> triangles, double[] result){
+        result[0] = 0;
+        result[1] = 0;
+        result[2] = 0;
+        int start = nodeTriangleOffsets[node];
+        int end = nodeTriangleOffsets[node + 1];
+        if(start == end){
+            return 0;
+        }
+        for(int i = start; i<end; i++){
+            double[] normal = triangles.get(nodeTriangles[i]).normal;
+            result[0] += normal[0];
+            result[1] += normal[1];
+            result[2] += normal[2];
+        }
+        double n = 1.0/(end - start);
+        result[0] *= n;
+        result[1] *= n;
+        result[2] *= n;
+        double norm = Vector3DOps.normalize(result);
+        if(norm==0){
+            result[0] = 0;
+            result[1] = 0;
+            result[2] = 0;
+        }
+        return norm;
+    }
+}
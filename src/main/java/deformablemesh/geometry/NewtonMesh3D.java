@@ -25,13 +25,9 @@
  */
 package deformablemesh.geometry;
 
-import deformablemesh.externalenergies.ExternalEnergy;
 import deformablemesh.util.Vector3DOps;
 
 import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * Created by msmith on 3/4/16.
@@ -48,27 +44,22 @@ public class NewtonMesh3D extends DeformableMesh3D {
         super(mesh.positions, mesh.connection_index, mesh.triangle_index);
     }
 
-    private Map<Node3D, List<Connection3D>> noder;
-    private Map<Connection3D, Set<Connection3D>> conner;
+    /**
+     * There is no stiffness matrix, the topology is taken from {@link #getTopology()} on each update.
+     */
     @Override
     public void reshape(){
-        noder = getCurvatureMap();
-        conner = getAdjacencyMap(noder);
     }
 
     @Override
     public void update(){
-        if(decomp==null){
-            reshape();
-        }
+        MeshTopology topology = getTopology();
 
         final double[] fx = new double[nodes.size()];
         final double[] fy = new double[nodes.size()];
         final double[] fz = new double[nodes.size()];
 
-        for(ExternalEnergy external: energies) {
-            external.updateForces(positions, fx, fy, fz);
-        }
+        applyExternalEnergies(fx, fy, fz);
         if(ALPHA!=0) {
             for (Connection3D c : connections) {
 
@@ -94,18 +85,15 @@ public class NewtonMesh3D extends DeformableMesh3D {
 
         if(BETA!=0){
             for(Node3D n: nodes){
-                List<Connection3D> cons = noder.get(n);
-                for(int i = 0; i<cons.size(); i++){
-                    Connection3D a = cons.get(i);
-                    Node3D other = a.A.equals(n)?a.B:a.A;
-                    Set<Connection3D> adjacent = conner.get(a);
-                    for(int j = i+1; j<cons.size(); j++){
-                        //pairs of first order connections.
-                        Connection3D b = cons.get(j);
-                        if(adjacent.contains(b)){
+                int count = topology.getNeighbourCount(n.index);
+                for(int i = 0; i<count; i++){
+                    Node3D other = nodes.get(topology.getNeighbour(n.index, i));
+                    for(int j = i+1; j<count; j++){
+                        //pairs of first order connections, connections sharing a triangle are skipped.
+                        Node3D another = nodes.get(topology.getNeighbour(n.index, j));
+                        if(topology.hasTriangle(n.index, other.index, another.index)){
                             continue;
                         }
-                        Node3D another = b.A.equals(n)?b.B:b.A;
                         double[] s1 = Vector3DOps.difference(n.getCoordinates(), other.getCoordinates());
                         double l1 = Vector3DOps.normalize(s1);
 
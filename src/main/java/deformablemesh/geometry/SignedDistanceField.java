@@ -0,0 +1,327 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry;
+
+import deformablemesh.util.Vector3DOps;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Narrow band signed distance field of a mesh sampled on a regular grid. Distances are negative inside of the mesh and
+ * positive outside, values further from the surface than the band are clamped to the band. The field is sampled
+ * using trilinear interpolation, which also provides the gradient, pointing away from the mesh.
+ *
+ * The field is a snapshot of the mesh positions when it was last calculated, {@link #update()} only recalculates the
+ * field if a node has moved further than the tolerance.
+ */
+public class SignedDistanceField {
+    final DeformableMesh3D mesh;
+    final double spacing;
+    final double band;
+    final double tolerance;
+
+    double[] origin = new double[3];
+    int nx, ny, nz;
+    float[] values = new float[0];
+    double[] snapshot;
+
+    /**
+     * Creates and calculates the field.
+     *
+     * @param mesh the shape being represented.
+     * @param spacing distance between grid points.
+     * @param band distance from the surface that is resolved.
+     * @param tolerance how far a node can move before the field is recalculated.
+     */
+    public SignedDistanceField(DeformableMesh3D mesh, double spacing, double band, double tolerance){
+        this.mesh = mesh;
+        this.spacing = spacing;
+        this.band = band;
+        this.tolerance = tolerance;
+        calculate();
+    }
+
+    /**
+     * Creates a field using a grid spacing of the mean connection length, a band of three grid spacings, and a
+     * tolerance of half a grid spacing.
+     *
+     * @param mesh the shape being represented.
+     */
+    public SignedDistanceField(DeformableMesh3D mesh){
+        this(mesh, meanConnectionLength(mesh), 3*meanConnectionLength(mesh), 0.5*meanConnectionLength(mesh));
+    }
+
+    static double meanConnectionLength(DeformableMesh3D mesh){
+        double sum = 0;
+        int[] con = mesh.connection_index;
+        double[] pos = mesh.positions;
+        for(int i = 0; i<con.length; i += 2){
+            int a = 3*con[i];
+            int b = 3*con[i + 1];
+            double dx = pos[a] - pos[b];
+            double dy = pos[a + 1] - pos[b + 1];
+            double dz = pos[a + 2] - pos[b + 2];
+            sum += Math.sqrt(dx*dx + dy*dy + dz*dz);
+        }
+        return con.length == 0 ? 1 : 2*sum/con.length;
+    }
+
+    /**
+     * Recalculates the field if any node has moved further than the tolerance since the last calculation.
+     *
+     * @return true if the field was recalculated.
+     */
+    public boolean update(){
+        double[] pos = mesh.positions;
+        boolean moved = pos.length != snapshot.length;
+        double t2 = tolerance*tolerance;
+        for(int i = 0; i<pos.length && !moved; i += 3){
+            double dx = pos[i] - snapshot[i];
+            double dy = pos[i + 1] - snapshot[i + 1];
+            double dz = pos[i + 2] - snapshot[i + 2];
+            moved = dx*dx + dy*dy + dz*dz > t2;
+        }
+        if(moved){
+            calculate();
+        }
+        return moved;
+    }
+
+    /**
+     * Calculates the field for the current positions of the mesh.
+     */
+    public void calculate(){
+        snapshot = Arrays.copyOf(mesh.positions, mesh.positions.length);
+        Box3D box = mesh.getBoundingBox();
+        int[] n = new int[3];
+        for(int k = 0; k<3; k++){
+            origin[k] = box.low[k] - band - spacing;
+            n[k] = (int)Math.ceil((box.high[k] - box.low[k] + 2*band + 2*spacing)/spacing) + 1;
+        }
+        nx = n[0];
+        ny = n[1];
+        nz = n[2];
+        int total = nx*ny*nz;
+        if(values.length != total){
+            values = new float[total];
+        }
+        Arrays.fill(values, (float)band);
+
+        double[] pos = snapshot;
+        int[] tri = mesh.triangle_index;
+        double[] a = new double[3];
+        double[] b = new double[3];
+        double[] c = new double[3];
+        double[] p = new double[3];
+        for(int t = 0; t<tri.length; t += 3){
+            System.arraycopy(pos, 3*tri[t], a, 0, 3);
+            System.arraycopy(pos, 3*tri[t + 1], b, 0, 3);
+            System.arraycopy(pos, 3*tri[t + 2], c, 0, 3);
+            int[] lo = new int[3];
+            int[] hi = new int[3];
+            for(int k = 0; k<3; k++){
+                double min = Math.min(a[k], Math.min(b[k], c[k])) - band;
+                double max = Math.max(a[k], Math.max(b[k], c[k])) + band;
+                lo[k] = Math.max(0, (int)Math.floor((min - origin[k])/spacing));
+                hi[k] = Math.min(n[k] - 1, (int)Math.ceil((max - origin[k])/spacing));
+            }
+            for(int k = lo[2]; k<=hi[2]; k++){
+                p[2] = origin[2] + k*spacing;
+                for(int j = lo[1]; j<=hi[1]; j++){
+                    p[1] = origin[1] + j*spacing;
+                    int offset = (k*ny + j)*nx;
+                    for(int i = lo[0]; i<=hi[0]; i++){
+                        p[0] = origin[0] + i*spacing;
+                        double d = distanceToTriangle(p, a, b, c);
+                        if(d < values[offset + i]){
+                            values[offset + i] = (float)d;
+                        }
+                    }
+                }
+            }
+        }
+
+        //scan along x to find which grid points are inside.
+        InterceptingMesh3D intercepting = new InterceptingMesh3D(mesh);
+        for(int k = 0; k<nz; k++){
+            p[2] = origin[2] + k*spacing;
+            for(int j = 0; j<ny; j++){
+                p[1] = origin[1] + j*spacing;
+                p[0] = origin[0];
+                List<Intersection> sections = intercepting.getIntersections(p, Vector3DOps.xhat);
+                if(sections.isEmpty()){
+                    continue;
+                }
+                sections.sort((s0, s1) -> Double.compare(s0.location[0], s1.location[0]));
+                int offset = (k*ny + j)*nx;
+                int next = 0;
+                boolean inside = false;
+                for(int i = 0; i<nx; i++){
+                    double x = origin[0] + i*spacing;
+                    while(next < sections.size() && sections.get(next).location[0] <= x){
+                        //surfaces facing -x are entered, surfaces facing +x are exited.
+                        inside = sections.get(next).surfaceNormal[0] < 0;
+                        next++;
+                    }
+                    if(inside){
+                        values[offset + i] = -values[offset + i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Samples the field.
+     *
+     * @param pt location being sampled.
+     * @param gradient if not null, the gradient of the field is placed here.
+     * @return the signed distance, or the band if pt is outside of the grid.
+     */
+    public double sample(double[] pt, double[] gradient){
+        double fx = (pt[0] - origin[0])/spacing;
+        double fy = (pt[1] - origin[1])/spacing;
+        double fz = (pt[2] - origin[2])/spacing;
+        if(!(fx >= 0 && fy >= 0 && fz >= 0 && fx < nx - 1 && fy < ny - 1 && fz < nz - 1)){
+            if(gradient != null){
+                gradient[0] = 0;
+                gradient[1] = 0;
+                gradient[2] = 0;
+            }
+            return band;
+        }
+        int i = (int)fx;
+        int j = (int)fy;
+        int k = (int)fz;
+        double u = fx - i;
+        double v = fy - j;
+        double w = fz - k;
+
+        int o = (k*ny + j)*nx + i;
+        int sy = nx;
+        int sz = nx*ny;
+        double c000 = values[o];
+        double c100 = values[o + 1];
+        double c010 = values[o + sy];
+        double c110 = values[o + sy + 1];
+        double c001 = values[o + sz];
+        double c101 = values[o + sz + 1];
+        double c011 = values[o + sz + sy];
+        double c111 = values[o + sz + sy + 1];
+
+        double c00 = c000 + (c100 - c000)*u;
+        double c10 = c010 + (c110 - c010)*u;
+        double c01 = c001 + (c101 - c001)*u;
+        double c11 = c011 + (c111 - c011)*u;
+        double c0 = c00 + (c10 - c00)*v;
+        double c1 = c01 + (c11 - c01)*v;
+
+        if(gradient != null){
+            double dx0 = (c100 - c000)*(1 - v) + (c110 - c010)*v;
+            double dx1 = (c101 - c001)*(1 - v) + (c111 - c011)*v;
+            gradient[0] = (dx0*(1 - w) + dx1*w)/spacing;
+            gradient[1] = ((c10 - c00)*(1 - w) + (c11 - c01)*w)/spacing;
+            gradient[2] = (c1 - c0)/spacing;
+        }
+
+        return c0 + (c1 - c0)*w;
+    }
+
+    /**
+     * @return the grid spacing.
+     */
+    public double getSpacing(){
+        return spacing;
+    }
+
+    /**
+     * Distance from the point p to the closest point on the triangle abc.
+     *
+     * cite:
+     *    Ericson, Christer. "Real-Time Collision Detection." 5.1.5 Closest Point on Triangle to Point (2005).
+     */
+    static double distanceToTriangle(double[] p, double[] a, double[] b, double[] c){
+        double abx = b[0] - a[0], aby = b[1] - a[1], abz = b[2] - a[2];
+        double acx = c[0] - a[0], acy = c[1] - a[1], acz = c[2] - a[2];
+        double apx = p[0] - a[0], apy = p[1] - a[1], apz = p[2] - a[2];
+
+        double d1 = abx*apx + aby*apy + abz*apz;
+        double d2 = acx*apx + acy*apy + acz*apz;
+        if(d1 <= 0 && d2 <= 0){
+            return distance(p, a[0], a[1], a[2]);
+        }
+
+        double bpx = p[0] - b[0], bpy = p[1] - b[1], bpz = p[2] - b[2];
+        double d3 = abx*bpx + aby*bpy + abz*bpz;
+        double d4 = acx*bpx + acy*bpy + acz*bpz;
+        if(d3 >= 0 && d4 <= d3){
+            return distance(p, b[0], b[1], b[2]);
+        }
+
+        double vc = d1*d4 - d3*d2;
+        if(vc <= 0 && d1 >= 0 && d3 <= 0){
+            double s = d1/(d1 - d3);
+            return distance(p, a[0] + s*abx, a[1] + s*aby, a[2] + s*abz);
+        }
+
+        double cpx = p[0] - c[0], cpy = p[1] - c[1], cpz = p[2] - c[2];
+        double d5 = abx*cpx + aby*cpy + abz*cpz;
+        double d6 = acx*cpx + acy*cpy + acz*cpz;
+        if(d6 >= 0 && d5 <= d6){
+            return distance(p, c[0], c[1], c[2]);
+        }
+
+        double vb = d5*d2 - d1*d6;
+        if(vb <= 0 && d2 >= 0 && d6 <= 0){
+            double s = d2/(d2 - d6);
+            return distance(p, a[0] + s*acx, a[1] + s*acy, a[2] + s*acz);
+        }
+
+        double va = d3*d6 - d5*d4;
+        if(va <= 0 && (d4 - d3) >= 0 && (d5 - d6) >= 0){
+            double s = (d4 - d3)/((d4 - d3) + (d5 - d6));
+            return distance(p, b[0] + s*(c[0] - b[0]), b[1] + s*(c[1] - b[1]), b[2] + s*(c[2] - b[2]));
+        }
+
+        double denom = 1.0/(va + vb + vc);
+        double v = vb*denom;
+        double w = vc*denom;
+        return distance(
+                p,
+                a[0] + abx*v + acx*w,
+                a[1] + aby*v + acy*w,
+                a[2] + abz*v + acz*w
+        );
+    }
+
+    static double distance(double[] p, double x, double y, double z){
+        double dx = p[0] - x;
+        double dy = p[1] - y;
+        double dz = p[2] - z;
+        return Math.sqrt(dx*dx + dy*dy + dz*dz);
+    }
+}
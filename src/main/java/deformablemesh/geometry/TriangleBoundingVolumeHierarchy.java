@@ -0,0 +1,234 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy of axis aligned boxes for finding the triangles that a line might intersect. The tree is
+ * built once for a fixed set of triangles, the nodes are stored in flat arrays and a query doesn't modify the tree,
+ * so it can be shared between threads.
+ *
+ * Queries treat the ray as a line, extending in both directions, to match
+ * {@link InterceptingTriangle3D#getIntersection(double[], double[], List)}.
+ */
+class TriangleBoundingVolumeHierarchy {
+    final static int LEAF_SIZE = 4;
+
+    //low x,y,z high x,y,z for each node
+    final double[] bounds;
+    //index of the first child, the second child is first + 1. -1 for leaves.
+    final int[] children;
+    //leaves contain the triangles order[start, start + count)
+    final int[] start;
+    final int[] count;
+    final int[] order;
+    int nodes = 0;
+
+    private final double[] centroids;
+    private final double[] triangleBounds;
+
+    /**
+     * Creates the hierarchy.
+     *
+     * @param triangles the triangles are referred to by their index in this list.
+     * @param padding amount each triangle bounding box is expanded by, so that intersections within the
+     *                tolerance of the triangle edges are not missed.
+     */
+    TriangleBoundingVolumeHierarchy(List<InterceptingTriangle3D> triangles, double padding){
+        int n = triangles.size();
+        order = new int[n];
+        centroids = new double[3*n];
+        triangleBounds = new double[6*n];
+        for(int i = 0; i<n; i++){
+            order[i] = i;
+            InterceptingTriangle3D t = triangles.get(i);
+            for(int k = 0; k<3; k++){
+                double lo = Math.min(t.a[k], Math.min(t.b[k], t.c[k]));
+                double hi = Math.max(t.a[k], Math.max(t.b[k], t.c[k]));
+                triangleBounds[6*i + k] = lo - padding;
+                triangleBounds[6*i + k + 3] = hi + padding;
+                centroids[3*i + k] = (t.a[k] + t.b[k] + t.c[k])/3;
+            }
+        }
+
+        int maxNodes = Math.max(1, 2*n);
+        bounds = new double[6*maxNodes];
+        children = new int[maxNodes];
+        start = new int[maxNodes];
+        count = new int[maxNodes];
+        nodes = 1;
+        build(0, 0, n);
+    }
+
+    private void build(int node, int lo, int hi){
+        double[] cLow = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        double[] cHigh = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        int b = 6*node;
+        for(int k = 0; k<3; k++){
+            bounds[b + k] = Double.MAX_VALUE;
+            bounds[b + k + 3] = -Double.MAX_VALUE;
+        }
+        for(int i = lo; i<hi; i++){
+            int t = order[i];
+            for(int k = 0; k<3; k++){
+                bounds[b + k] = Math.min(bounds[b + k], triangleBounds[6*t + k]);
+                bounds[b + k + 3] = Math.max(bounds[b + k + 3], triangleBounds[6*t + k + 3]);
+                cLow[k] = Math.min(cLow[k], centroids[3*t + k]);
+                cHigh[k] = Math.max(cHigh[k], centroids[3*t + k]);
+            }
+        }
+
+        if(hi - lo <= LEAF_SIZE){
+            children[node] = -1;
+            start[node] = lo;
+            count[node] = hi - lo;
+            return;
+        }
+
+        int axis = 0;
+        for(int k = 1; k<3; k++){
+            if(cHigh[k] - cLow[k] > cHigh[axis] - cLow[axis]){
+                axis = k;
+            }
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+
+        int first = nodes;
+        nodes += 2;
+        children[node] = first;
+        build(first, lo, mid);
+        build(first + 1, mid, hi);
+    }
+
+    /**
+     * Partially sorts order[lo, hi] so that the triangle at k has the kth centroid along the axis.
+     */
+    private void select(int lo, int hi, int k, int axis){
+        while(hi > lo){
+            double pivot = centroids[3*order[(lo + hi) >>> 1] + axis];
+            int i = lo;
+            int j = hi;
+            while(i <= j){
+                while(centroids[3*order[i] + axis] < pivot) i++;
+                while(centroids[3*order[j] + axis] > pivot) j--;
+                if(i <= j){
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if(k <= j){
+                hi = j;
+            } else if(k >= i){
+                lo = i;
+            } else{
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks if the line origin + s*direction passes through the box of the node.
+     */
+    boolean lineIntersects(int node, double[] origin, double[] direction){
+        double tmin = Double.NEGATIVE_INFINITY;
+        double tmax = Double.POSITIVE_INFINITY;
+        int b = 6*node;
+        for(int k = 0; k<3; k++){
+            double lo = bounds[b + k];
+            double hi = bounds[b + k + 3];
+            if(direction[k] == 0){
+                if(origin[k] < lo || origin[k] > hi){
+                    return false;
+                }
+            } else{
+                double t1 = (lo - origin[k])/direction[k];
+                double t2 = (hi - origin[k])/direction[k];
+                if(t1 > t2){
+                    double swap = t1;
+                    t1 = t2;
+                    t2 = swap;
+                }
+                tmin = Math.max(tmin, t1);
+                tmax = Math.min(tmax, t2);
+                if(tmin > tmax){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the triangles whose bounding boxes are crossed by the line.
+     *
+     * @param origin a point on the line.
+     * @param direction direction of the line.
+     * @return indexes of the candidate triangles, in increasing order.
+     */
+    int[] getCandidates(double[] origin, double[] direction){
+        int[] found = new int[16];
+        int n = 0;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        while(top > 0){
+            int node = stack[--top];
+            if(!lineIntersects(node, origin, direction)){
+                continue;
+            }
+            int first = children[node];
+            if(first < 0){
+                if(n + count[node] > found.length){
+                    found = Arrays.copyOf(found, Math.max(2*found.length, n + count[node]));
+                }
+                System.arraycopy(order, start[node], found, n, count[node]);
+                n += count[node];
+            } else{
+                if(top + 2 > stack.length){
+                    stack = Arrays.copyOf(stack, 2*stack.length);
+                }
+                stack[top++] = first + 1;
+                stack[top++] = first;
+            }
+        }
+        int[] candidates = Arrays.copyOf(found, n);
+        Arrays.sort(candidates);
+        return candidates;
+    }
+
+    /**
+     * @return number of nodes in the tree.
+     */
+    int getNodeCount(){
+        return nodes;
+    }
+}
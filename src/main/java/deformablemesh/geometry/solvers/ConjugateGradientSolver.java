@@ -0,0 +1,192 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry.solvers;
+
+/**
+ * Jacobi preconditioned conjugate gradient. The solve starts from the values provided in x, for a mesh these
+ * are the current positions, and since each step only moves the nodes a small amount it usually converges in a
+ * few iterations. There is no factorization so re-meshing only requires a new operator.
+ *
+ * Only valid for symmetric positive definite operators, factor will throw an ArithmeticException if the
+ * provided matrix is not symmetric.
+ */
+public class ConjugateGradientSolver implements StiffnessSolver{
+    public final static double DEFAULT_TOLERANCE = 1e-8;
+    public final static int DEFAULT_MAX_ITERATIONS = 500;
+
+    LinearOperator operator;
+    double[] inverseDiagonal;
+    double tolerance = DEFAULT_TOLERANCE;
+    int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+    //statistics for the current step, the largest value of the x, y and z solves.
+    double stepResidual;
+    int stepIterations;
+
+    public ConjugateGradientSolver(){
+
+    }
+
+    /**
+     * @param tolerance relative residual |f - K x|/|f| when the solve is considered converged.
+     * @param maxIterations maximum number of iterations for each solve.
+     */
+    public ConjugateGradientSolver(double tolerance, int maxIterations){
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+    }
+
+    @Override
+    public void factor(SparseMatrix stiffness) {
+        if(!stiffness.isSymmetric(SparseEnvelopeSolver.SYMMETRY_TOLERANCE)){
+            throw new ArithmeticException("Conjugate gradient requires a symmetric stiffness matrix.");
+        }
+        setOperator(stiffness);
+    }
+
+    /**
+     * Sets the operator and calculates the preconditioner.
+     *
+     * @param operator symmetric positive definite operator.
+     */
+    public void setOperator(LinearOperator operator){
+        this.operator = operator;
+        double[] diagonal = operator.getDiagonal();
+        inverseDiagonal = new double[diagonal.length];
+        for(int i = 0; i<diagonal.length; i++){
+            if(!(diagonal[i] > 0)){
+                throw new ArithmeticException("Conjugate gradient requires a positive diagonal, row: " + i);
+            }
+            inverseDiagonal[i] = 1.0/diagonal[i];
+        }
+    }
+
+    @Override
+    public void solve(double[] f, double[] x) {
+        int n = f.length;
+        double[] r = new double[n];
+        double[] z = new double[n];
+        double[] p = new double[n];
+        double[] q = new double[n];
+
+        double fNorm = 0;
+        for(int i = 0; i<n; i++){
+            fNorm += f[i]*f[i];
+        }
+        fNorm = Math.sqrt(fNorm);
+        if(fNorm == 0){
+            for(int i = 0; i<n; i++){
+                x[i] = 0;
+            }
+            recordStep(0, 0);
+            return;
+        }
+
+        operator.multiply(x, q);
+        double rz = 0;
+        double rr = 0;
+        for(int i = 0; i<n; i++){
+            r[i] = f[i] - q[i];
+            z[i] = r[i]*inverseDiagonal[i];
+            p[i] = z[i];
+            rz += r[i]*z[i];
+            rr += r[i]*r[i];
+        }
+
+        double limit = tolerance*fNorm;
+        int iterations = 0;
+        while(Math.sqrt(rr) > limit && iterations < maxIterations){
+            operator.multiply(p, q);
+            double pq = 0;
+            for(int i = 0; i<n; i++){
+                pq += p[i]*q[i];
+            }
+            if(pq <= 0){
+                //not positive definite, or converged to round off.
+                break;
+            }
+            double a = rz/pq;
+            double rzNext = 0;
+            rr = 0;
+            for(int i = 0; i<n; i++){
+                x[i] += a*p[i];
+                r[i] -= a*q[i];
+                z[i] = r[i]*inverseDiagonal[i];
+                rzNext += r[i]*z[i];
+                rr += r[i]*r[i];
+            }
+            double b = rzNext/rz;
+            rz = rzNext;
+            for(int i = 0; i<n; i++){
+                p[i] = z[i] + b*p[i];
+            }
+            iterations++;
+        }
+
+        recordStep(Math.sqrt(rr)/fNorm, iterations);
+    }
+
+    private synchronized void recordStep(double residual, int iterations){
+        stepResidual = Math.max(stepResidual, residual);
+        stepIterations = Math.max(stepIterations, iterations);
+    }
+
+    @Override
+    public synchronized void startStep(){
+        stepResidual = 0;
+        stepIterations = 0;
+    }
+
+    /**
+     * @return the largest relative residual of the solves since the step started.
+     */
+    public synchronized double getStepResidual(){
+        return stepResidual;
+    }
+
+    /**
+     * @return the largest number of iterations used by a solve since the step started.
+     */
+    public synchronized int getStepIterations(){
+        return stepIterations;
+    }
+
+    public void setTolerance(double tolerance){
+        this.tolerance = tolerance;
+    }
+
+    public double getTolerance(){
+        return tolerance;
+    }
+
+    public void setMaxIterations(int maxIterations){
+        this.maxIterations = maxIterations;
+    }
+
+    public int getMaxIterations(){
+        return maxIterations;
+    }
+}
@@ -0,0 +1,83 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry.solvers;
+
+/**
+ * Matrix free stiffness operator for meshes without a bending (BETA) term. Each connection acts as a spring of
+ * stiffness ALPHA and each node has a drag gamma, so
+ *
+ *   (K x)_i = gamma_i x_i + ALPHA sum_j (x_i - x_j)
+ *
+ * where j are the nodes connected to i. Only references the connection index, so changing the topology only
+ * requires creating a new operator.
+ */
+public class ConnectionStiffnessOperator implements LinearOperator{
+    final int[] connectionIndex;
+    final double alpha;
+    final double[] gamma;
+
+    /**
+     *
+     * @param connectionIndex pairs of connected node indexes.
+     * @param alpha spring stiffness.
+     * @param gamma drag of each node.
+     */
+    public ConnectionStiffnessOperator(int[] connectionIndex, double alpha, double[] gamma){
+        this.connectionIndex = connectionIndex;
+        this.alpha = alpha;
+        this.gamma = gamma;
+    }
+
+    @Override
+    public int getSize() {
+        return gamma.length;
+    }
+
+    @Override
+    public void multiply(double[] x, double[] y) {
+        for(int i = 0; i<gamma.length; i++){
+            y[i] = gamma[i]*x[i];
+        }
+        for(int c = 0; c<connectionIndex.length; c += 2){
+            int a = connectionIndex[c];
+            int b = connectionIndex[c + 1];
+            double d = alpha*(x[a] - x[b]);
+            y[a] += d;
+            y[b] -= d;
+        }
+    }
+
+    @Override
+    public double[] getDiagonal() {
+        double[] d = new double[gamma.length];
+        System.arraycopy(gamma, 0, d, 0, d.length);
+        for(int c = 0; c<connectionIndex.length; c += 2){
+            d[connectionIndex[c]] += alpha;
+            d[connectionIndex[c + 1]] += alpha;
+        }
+        return d;
+    }
+}
@@ -23,45 +23,29 @@
  * THE SOFTWARE.
  * #L%
  */
-package deformablemesh.util.connectedcomponents;
+package deformablemesh.geometry.solvers;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import Jama.LUDecomposition;
+import Jama.Matrix;
 
-public class PixelSet{
-    Set<Pixel> pixels = new HashSet<>();
-    List<int[]> original = new ArrayList<>();
-    PixelSet(){
+/**
+ * The original dense solver using a Jama LU decomposition. The memory scales as N^2 and factoring as N^3 so this
+ * is only practical for small meshes, it is kept as a reference for the sparse solvers.
+ */
+public class DenseLUSolver implements StiffnessSolver{
+    LUDecomposition decomp;
 
-    }
-    boolean add(int[] xyz){
-        if(pixels.add(new Pixel(xyz))){
-            original.add(xyz);
-            return true;
-        }
-        return false;
-    }
-    static class Pixel{
-        final int x, y, z;
-        public Pixel(int[] xyz){
-            x = xyz[0];
-            y = xyz[1];
-            z = xyz[2];
-        }
-        @Override
-        public int hashCode(){
-            return x + y + z;
-        }
-        @Override
-        public boolean equals(Object o){
-            if(o instanceof Pixel){
-                Pixel op = (Pixel)o;
-                return op.x==x && op.y==y && op.z == z;
-            }
-            return false;
-        }
+    @Override
+    public void factor(SparseMatrix stiffness) {
+        Matrix M = new Matrix(stiffness.toDense());
+        decomp = M.lu();
     }
 
+    @Override
+    public void solve(double[] f, double[] x) {
+        Matrix F = new Matrix(f, f.length);
+        Matrix delta = decomp.solve(F);
+        double[] result = delta.getRowPackedCopy();
+        System.arraycopy(result, 0, x, 0, x.length);
+    }
 }
@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry.solvers;
+
+/**
+ * The available backends for solving the stiffness matrix of a DeformableMesh3D.
+ */
+public enum SolverType {
+    Dense("Dense LU"), Sparse("Sparse Direct"), ConjugateGradient("Conjugate Gradient");
+
+    String title;
+    SolverType(String t){
+        title = t;
+    }
+
+    public StiffnessSolver createSolver(){
+        switch(this){
+            case Dense:
+                return new DenseLUSolver();
+            case ConjugateGradient:
+                return new ConjugateGradientSolver();
+            case Sparse:
+            default:
+                return new SparseEnvelopeSolver();
+        }
+    }
+
+    /**
+     * The solver to try when this solver cannot handle a stiffness matrix.
+     *
+     * @return the next solver type or null if there isn't one.
+     */
+    public SolverType getFallback(){
+        switch(this){
+            case ConjugateGradient:
+                return Sparse;
+            case Sparse:
+                return Dense;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString(){
+        return title;
+    }
+}
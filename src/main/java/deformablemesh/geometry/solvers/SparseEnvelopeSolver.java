@@ -0,0 +1,507 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry.solvers;
+
+import java.util.Arrays;
+
+/**
+ * Direct sparse solver. The matrix is re-ordered with reverse Cuthill-McKee to reduce the envelope, which is
+ * the only place fill-in can occur, and then factored in the envelope.
+ *
+ * Symmetric matrices, eg. when BETA is 0, use an LDL^T (square root free Cholesky) factorization. Otherwise an
+ * LU factorization without pivoting is used, which is stable for the diagonally dominant matrices produced by a
+ * positive GAMMA. If a pivot vanishes an ArithmeticException is thrown.
+ */
+public class SparseEnvelopeSolver implements StiffnessSolver{
+    final static double SYMMETRY_TOLERANCE = 1e-12;
+    final static double PIVOT_TOLERANCE = 1e-14;
+    /** An incremental update is abandoned if the envelope grows by more than this factor. */
+    final static double ENVELOPE_GROWTH_LIMIT = 1.5;
+
+    int n;
+    /** permutation[i] is the original index of the i-th re-ordered row. */
+    int[] permutation;
+    /** the first column of the envelope for each re-ordered row. */
+    int[] first;
+    int[] ptr;
+    /** L(i, j) for first[i] <= j < i, stored by row. */
+    double[] lower;
+    /** U(j, i) for first[i] <= j < i, stored by column. Not used for symmetric matrices. */
+    double[] upper;
+    double[] diagonal;
+    boolean symmetric;
+    /** the matrix that was factored, kept to find which rows change after a re-mesh. */
+    SparseMatrix matrix;
+    int refactoredRows;
+
+    @Override
+    public void factor(SparseMatrix stiffness) {
+        symmetric = stiffness.isSymmetric(SYMMETRY_TOLERANCE);
+        factor(stiffness, reverseCuthillMcKee(stiffness), null, 0);
+    }
+
+    /**
+     * Factors the matrix using the provided ordering. Rows before start are copied from the previous solver,
+     * which needs to have the same ordering and values for those rows.
+     */
+    private void factor(SparseMatrix stiffness, int[] ordering, SparseEnvelopeSolver previous, int start){
+        n = stiffness.n;
+        matrix = stiffness;
+        permutation = ordering;
+        int[] inverse = new int[n];
+        for(int i = 0; i<n; i++){
+            inverse[permutation[i]] = i;
+        }
+
+        first = computeEnvelope(stiffness, inverse);
+        ptr = new int[n + 1];
+        for(int i = 0; i<n; i++){
+            ptr[i+1] = ptr[i] + i - first[i];
+        }
+
+        lower = new double[ptr[n]];
+        upper = symmetric ? null : new double[ptr[n]];
+        diagonal = new double[n];
+        if(previous != null){
+            System.arraycopy(previous.lower, 0, lower, 0, ptr[start]);
+            if(!symmetric){
+                System.arraycopy(previous.upper, 0, upper, 0, ptr[start]);
+            }
+            System.arraycopy(previous.diagonal, 0, diagonal, 0, start);
+        }
+
+        for(int r = 0; r<n; r++){
+            for(int k = stiffness.rowPtr[r]; k<stiffness.rowPtr[r+1]; k++){
+                int i = inverse[r];
+                int j = inverse[stiffness.columns[k]];
+                if(Math.max(i, j) < start){
+                    continue;
+                }
+                double v = stiffness.values[k];
+                if(i == j){
+                    diagonal[i] += v;
+                } else if(j < i){
+                    lower[ptr[i] + j - first[i]] += v;
+                } else if(!symmetric){
+                    upper[ptr[j] + i - first[j]] += v;
+                }
+            }
+        }
+        double maxDiagonal = 0;
+        for(int r = 0; r<n; r++){
+            maxDiagonal = Math.max(maxDiagonal, Math.abs(stiffness.get(r, r)));
+        }
+
+        if(symmetric){
+            factorLDLT(start);
+        } else{
+            factorLU(start);
+        }
+        refactoredRows = n - start;
+
+        double minPivot = PIVOT_TOLERANCE*maxDiagonal;
+        for(int i = 0; i<n; i++){
+            if(!(Math.abs(diagonal[i]) > minPivot)){
+                throw new ArithmeticException("Stiffness matrix is singular, or requires pivoting, at row " + permutation[i]);
+            }
+        }
+    }
+
+    /**
+     * Creates a solver for the stiffness matrix of a re-meshed mesh. The ordering of the surviving nodes is kept
+     * and new nodes are placed at the end, so the factorization of all the rows before the first modified row
+     * is re-used, and only the remaining rows are re-factored.
+     *
+     * @param stiffness the new stiffness matrix.
+     * @param origins for each node of the new matrix, the index of the node in the previous matrix or -1 if
+     *                the node was added.
+     * @return a factored solver, or null if the change is too large to be updated.
+     */
+    @Override
+    public StiffnessSolver update(SparseMatrix stiffness, int[] origins){
+        if(matrix == null || origins.length != stiffness.n){
+            return null;
+        }
+        boolean sym = stiffness.isSymmetric(SYMMETRY_TOLERANCE);
+        if(sym != symmetric){
+            return null;
+        }
+
+        int m = stiffness.n;
+        int[] current = new int[matrix.n];
+        Arrays.fill(current, -1);
+        for(int i = 0; i<m; i++){
+            if(origins[i] >= 0){
+                current[origins[i]] = i;
+            }
+        }
+
+        //keep the previous order for surviving nodes, and add the new nodes at the end.
+        int[] ordering = new int[m];
+        int count = 0;
+        int start = -1;
+        for(int p = 0; p<n; p++){
+            int node = current[permutation[p]];
+            if(node < 0){
+                if(start < 0){
+                    start = count;
+                }
+                continue;
+            }
+            if(start < 0 && !sameRow(stiffness, node, origins)){
+                start = count;
+            }
+            ordering[count++] = node;
+        }
+        if(start < 0){
+            start = count;
+        }
+        for(int i = 0; i<m; i++){
+            if(origins[i] < 0){
+                ordering[count++] = i;
+            }
+        }
+        if(count != m){
+            return null;
+        }
+
+        SparseEnvelopeSolver updated = new SparseEnvelopeSolver();
+        updated.symmetric = symmetric;
+        int[] inverse = new int[m];
+        for(int i = 0; i<m; i++){
+            inverse[ordering[i]] = i;
+        }
+        int[] env = computeEnvelope(stiffness, inverse);
+        long envelope = 0;
+        for(int i = 0; i<m; i++){
+            envelope += i - env[i];
+        }
+        if(envelope > ENVELOPE_GROWTH_LIMIT*getEnvelopeSize()*m/n + m){
+            return null;
+        }
+
+        updated.factor(stiffness, ordering, this, start);
+        return updated;
+    }
+
+    /**
+     * Checks if the row of the new matrix has the same values as the row of the previously factored matrix.
+     */
+    private boolean sameRow(SparseMatrix stiffness, int row, int[] origins){
+        int old = origins[row];
+        int lo = stiffness.rowPtr[row];
+        int hi = stiffness.rowPtr[row + 1];
+        if(hi - lo != matrix.rowPtr[old + 1] - matrix.rowPtr[old]){
+            return false;
+        }
+        for(int k = lo; k<hi; k++){
+            int c = origins[stiffness.columns[k]];
+            if(c < 0 || matrix.get(old, c) != stiffness.values[k]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int[] computeEnvelope(SparseMatrix stiffness, int[] inverse){
+        int n = stiffness.n;
+        int[] first = new int[n];
+        for(int i = 0; i<n; i++){
+            first[i] = i;
+        }
+        for(int r = 0; r<n; r++){
+            for(int k = stiffness.rowPtr[r]; k<stiffness.rowPtr[r+1]; k++){
+                int i = inverse[r];
+                int j = inverse[stiffness.columns[k]];
+                int lo = Math.min(i, j);
+                int hi = Math.max(i, j);
+                if(lo < first[hi]){
+                    first[hi] = lo;
+                }
+            }
+        }
+        return first;
+    }
+
+    /**
+     * In place LDL^T of the envelope. Row i of lower temporarily holds L(i,j)*D(j) while it is being processed.
+     */
+    private void factorLDLT(int start){
+        for(int i = start; i<n; i++){
+            int fi = first[i];
+            int oi = ptr[i] - fi;
+            for(int j = fi; j<i; j++){
+                int fj = first[j];
+                int oj = ptr[j] - fj;
+                double s = lower[oi + j];
+                for(int k = Math.max(fi, fj); k<j; k++){
+                    s -= lower[oi + k]*lower[oj + k];
+                }
+                lower[oi + j] = s;
+            }
+            double d = diagonal[i];
+            for(int j = fi; j<i; j++){
+                double u = lower[oi + j];
+                double l = u/diagonal[j];
+                lower[oi + j] = l;
+                d -= u*l;
+            }
+            diagonal[i] = d;
+        }
+    }
+
+    /**
+     * In place Doolittle LU of the envelope, L has a unit diagonal and the diagonal of U is stored in diagonal.
+     */
+    private void factorLU(int start){
+        for(int i = start; i<n; i++){
+            int fi = first[i];
+            int oi = ptr[i] - fi;
+            for(int j = fi; j<i; j++){
+                int fj = first[j];
+                int oj = ptr[j] - fj;
+                int k0 = Math.max(fi, fj);
+                double l = lower[oi + j];
+                double u = upper[oi + j];
+                for(int k = k0; k<j; k++){
+                    l -= lower[oi + k]*upper[oj + k];
+                    u -= lower[oj + k]*upper[oi + k];
+                }
+                lower[oi + j] = l/diagonal[j];
+                upper[oi + j] = u;
+            }
+            double d = diagonal[i];
+            for(int j = fi; j<i; j++){
+                d -= lower[oi + j]*upper[oi + j];
+            }
+            diagonal[i] = d;
+        }
+    }
+
+    /**
+     * @return the number of rows that were factored by the most recent factor or update.
+     */
+    public int getRefactoredRows(){
+        return refactoredRows;
+    }
+
+    @Override
+    public void solve(double[] f, double[] x) {
+        double[] y = new double[n];
+        for(int i = 0; i<n; i++){
+            y[i] = f[permutation[i]];
+        }
+
+        //L y = f
+        for(int i = 0; i<n; i++){
+            int oi = ptr[i] - first[i];
+            double s = y[i];
+            for(int k = first[i]; k<i; k++){
+                s -= lower[oi + k]*y[k];
+            }
+            y[i] = s;
+        }
+
+        //U x = y
+        for(int i = n-1; i>=0; i--){
+            int oi = ptr[i] - first[i];
+            double xi = y[i]/diagonal[i];
+            y[i] = xi;
+            if(symmetric){
+                for(int k = first[i]; k<i; k++){
+                    y[k] -= diagonal[k]*lower[oi + k]*xi;
+                }
+            } else{
+                for(int k = first[i]; k<i; k++){
+                    y[k] -= upper[oi + k]*xi;
+                }
+            }
+        }
+
+        for(int i = 0; i<n; i++){
+            x[permutation[i]] = y[i];
+        }
+    }
+
+    /**
+     * @return the number of values stored in the envelope, excluding the diagonal.
+     */
+    public int getEnvelopeSize(){
+        return ptr == null ? 0 : ptr[n];
+    }
+
+    /**
+     * Creates the reverse Cuthill-McKee ordering using the symmetric non-zero structure of the matrix.
+     * Each connected component is started from a pseudo-peripheral node.
+     *
+     * @param matrix
+     * @return permutation where permutation[i] is the original index that will be placed at i.
+     */
+    static int[] reverseCuthillMcKee(SparseMatrix matrix){
+        int n = matrix.n;
+        int[][] adjacency = symmetricAdjacency(matrix);
+        int[] order = new int[n];
+        boolean[] visited = new boolean[n];
+        int[] level = new int[n];
+        int placed = 0;
+        for(int s = 0; s<n; s++){
+            if(visited[s]){
+                continue;
+            }
+            int root = pseudoPeripheral(s, adjacency, level);
+            visited[root] = true;
+            int head = placed;
+            order[placed++] = root;
+            while(head < placed){
+                int current = order[head++];
+                int levelStart = placed;
+                for(int nb: adjacency[current]){
+                    if(!visited[nb]){
+                        visited[nb] = true;
+                        order[placed++] = nb;
+                    }
+                }
+                sortByDegree(order, levelStart, placed, adjacency);
+            }
+        }
+
+        int[] reversed = new int[n];
+        for(int i = 0; i<n; i++){
+            reversed[i] = order[n - 1 - i];
+        }
+        return reversed;
+    }
+
+    static int[][] symmetricAdjacency(SparseMatrix matrix){
+        int n = matrix.n;
+        int[] degree = new int[n];
+        for(int i = 0; i<n; i++){
+            for(int k = matrix.rowPtr[i]; k<matrix.rowPtr[i+1]; k++){
+                int j = matrix.columns[k];
+                if(i != j){
+                    degree[i]++;
+                    degree[j]++;
+                }
+            }
+        }
+        int[][] adjacency = new int[n][];
+        for(int i = 0; i<n; i++){
+            adjacency[i] = new int[degree[i]];
+            degree[i] = 0;
+        }
+        for(int i = 0; i<n; i++){
+            for(int k = matrix.rowPtr[i]; k<matrix.rowPtr[i+1]; k++){
+                int j = matrix.columns[k];
+                if(i != j){
+                    adjacency[i][degree[i]++] = j;
+                    adjacency[j][degree[j]++] = i;
+                }
+            }
+        }
+        //remove duplicates, which occur when both M_ij and M_ji are stored.
+        for(int i = 0; i<n; i++){
+            int[] row = adjacency[i];
+            Arrays.sort(row);
+            int unique = 0;
+            for(int k = 0; k<row.length; k++){
+                if(unique == 0 || row[unique - 1] != row[k]){
+                    row[unique++] = row[k];
+                }
+            }
+            if(unique != row.length){
+                adjacency[i] = Arrays.copyOf(row, unique);
+            }
+        }
+        return adjacency;
+    }
+
+    /**
+     * George-Liu search for a node that is approximately the furthest away from all other nodes in its
+     * component.
+     */
+    static int pseudoPeripheral(int start, int[][] adjacency, int[] level){
+        int root = start;
+        int eccentricity = levelStructure(root, adjacency, level);
+        while(true){
+            int candidate = -1;
+            for(int i = 0; i<level.length; i++){
+                if(level[i] == eccentricity){
+                    if(candidate < 0 || adjacency[i].length < adjacency[candidate].length){
+                        candidate = i;
+                    }
+                }
+            }
+            if(candidate < 0 || candidate == root){
+                return root;
+            }
+            int e = levelStructure(candidate, adjacency, level);
+            if(e <= eccentricity){
+                return root;
+            }
+            root = candidate;
+            eccentricity = e;
+        }
+    }
+
+    /**
+     * Breadth first search recording the level of each node reached from root, unreached nodes are -1.
+     *
+     * @return the largest level.
+     */
+    static int levelStructure(int root, int[][] adjacency, int[] level){
+        Arrays.fill(level, -1);
+        int[] queue = new int[level.length];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = root;
+        level[root] = 0;
+        int max = 0;
+        while(head < tail){
+            int current = queue[head++];
+            for(int nb: adjacency[current]){
+                if(level[nb] < 0){
+                    level[nb] = level[current] + 1;
+                    max = level[nb];
+                    queue[tail++] = nb;
+                }
+            }
+        }
+        return max;
+    }
+
+    static void sortByDegree(int[] order, int lo, int hi, int[][] adjacency){
+        for(int i = lo + 1; i<hi; i++){
+            int v = order[i];
+            int d = adjacency[v].length;
+            int j = i - 1;
+            while(j >= lo && adjacency[order[j]].length > d){
+                order[j+1] = order[j];
+                j--;
+            }
+            order[j+1] = v;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry.solvers;
+
+import java.util.Arrays;
+
+/**
+ * Square matrix stored in compressed sparse row (CSR) format. The stiffness matrix of a mesh only couples
+ * nodes that are neighbors, so the number of non-zero values grows linearly with the number of nodes.
+ *
+ * Matrices are created with a {@link Builder}, which sums any duplicate entries.
+ */
+public class SparseMatrix implements LinearOperator{
+    final int n;
+    final int[] rowPtr;
+    final int[] columns;
+    final double[] values;
+
+    SparseMatrix(int n, int[] rowPtr, int[] columns, double[] values){
+        this.n = n;
+        this.rowPtr = rowPtr;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /**
+     * @return number of rows/columns.
+     */
+    @Override
+    public int getSize(){
+        return n;
+    }
+
+    /**
+     * @return number of stored, non-zero, values.
+     */
+    public int getNonZeroCount(){
+        return rowPtr[n];
+    }
+
+    /**
+     * Finds the value at the provided location.
+     *
+     * @param row
+     * @param column
+     * @return the value, or 0 if the value is not stored.
+     */
+    public double get(int row, int column){
+        int dex = Arrays.binarySearch(columns, rowPtr[row], rowPtr[row + 1], column);
+        return dex < 0 ? 0 : values[dex];
+    }
+
+    /**
+     * Calculates y = M x.
+     *
+     * @param x vector of length n.
+     * @param y result, vector of length n, will be over written.
+     */
+    @Override
+    public void multiply(double[] x, double[] y){
+        for(int i = 0; i<n; i++){
+            double s = 0;
+            for(int k = rowPtr[i]; k<rowPtr[i+1]; k++){
+                s += values[k]*x[columns[k]];
+            }
+            y[i] = s;
+        }
+    }
+
+    /**
+     * @return the diagonal values of this matrix.
+     */
+    @Override
+    public double[] getDiagonal(){
+        double[] d = new double[n];
+        for(int i = 0; i<n; i++){
+            d[i] = get(i, i);
+        }
+        return d;
+    }
+
+    /**
+     * Checks if the matrix is symmetric.
+     *
+     * @param tolerance relative difference allowed between M_ij and M_ji
+     * @return true if all of the values are within the tolerance.
+     */
+    public boolean isSymmetric(double tolerance){
+        for(int i = 0; i<n; i++){
+            for(int k = rowPtr[i]; k<rowPtr[i+1]; k++){
+                int j = columns[k];
+                if(j <= i){
+                    continue;
+                }
+                double a = values[k];
+                double b = get(j, i);
+                double scale = Math.max(Math.abs(a), Math.abs(b));
+                if(Math.abs(a - b) > tolerance*scale){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the full dense representation, only used as a reference for small meshes.
+     *
+     * @return n x n array with all values.
+     */
+    public double[][] toDense(){
+        double[][] data = new double[n][n];
+        for(int i = 0; i<n; i++){
+            for(int k = rowPtr[i]; k<rowPtr[i+1]; k++){
+                data[i][columns[k]] = values[k];
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Accumulates entries, which can be added in any order, and can be repeated. Repeated entries are summed.
+     */
+    public static class Builder{
+        final int n;
+        int count = 0;
+        int[] rows;
+        int[] cols;
+        double[] vals;
+
+        public Builder(int n){
+            this.n = n;
+            int capacity = 8*n + 8;
+            rows = new int[capacity];
+            cols = new int[capacity];
+            vals = new double[capacity];
+        }
+
+        public void add(int row, int column, double value){
+            if(count == rows.length){
+                int capacity = 2*count;
+                rows = Arrays.copyOf(rows, capacity);
+                cols = Arrays.copyOf(cols, capacity);
+                vals = Arrays.copyOf(vals, capacity);
+            }
+            rows[count] = row;
+            cols[count] = column;
+            vals[count] = value;
+            count++;
+        }
+
+        public int getSize(){
+            return n;
+        }
+
+        /**
+         * Creates the CSR matrix. The columns within each row are sorted, and duplicates are summed.
+         *
+         * @return a new sparse matrix.
+         */
+        public SparseMatrix build(){
+            //bucket the triplets by row.
+            int[] start = new int[n + 1];
+            for(int i = 0; i<count; i++){
+                start[rows[i] + 1]++;
+            }
+            for(int i = 0; i<n; i++){
+                start[i+1] += start[i];
+            }
+            int[] fill = Arrays.copyOf(start, n);
+            int[] bucketCols = new int[count];
+            double[] bucketVals = new double[count];
+            for(int i = 0; i<count; i++){
+                int dex = fill[rows[i]]++;
+                bucketCols[dex] = cols[i];
+                bucketVals[dex] = vals[i];
+            }
+
+            //sort each row and merge duplicates.
+            int[] rowPtr = new int[n + 1];
+            int[] columns = new int[count];
+            double[] values = new double[count];
+            int nnz = 0;
+            for(int i = 0; i<n; i++){
+                int lo = start[i];
+                int hi = start[i+1];
+                sortRow(bucketCols, bucketVals, lo, hi);
+                for(int k = lo; k<hi; k++){
+                    if(nnz > rowPtr[i] && columns[nnz - 1] == bucketCols[k]){
+                        values[nnz - 1] += bucketVals[k];
+                    } else{
+                        columns[nnz] = bucketCols[k];
+                        values[nnz] = bucketVals[k];
+                        nnz++;
+                    }
+                }
+                rowPtr[i+1] = nnz;
+            }
+
+            return new SparseMatrix(n, rowPtr, Arrays.copyOf(columns, nnz), Arrays.copyOf(values, nnz));
+        }
+
+        /**
+         * Insertion sort, rows only contain a handful of values.
+         */
+        static void sortRow(int[] cols, double[] vals, int lo, int hi){
+            for(int i = lo + 1; i<hi; i++){
+                int c = cols[i];
+                double v = vals[i];
+                int j = i - 1;
+                while(j >= lo && cols[j] > c){
+                    cols[j+1] = cols[j];
+                    vals[j+1] = vals[j];
+                    j--;
+                }
+                cols[j+1] = c;
+                vals[j+1] = v;
+            }
+        }
+    }
+}
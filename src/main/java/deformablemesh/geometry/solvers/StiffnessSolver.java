@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry.solvers;
+
+/**
+ * Solves the linear system K x = f that is used to update the positions of a mesh. The solver is prepared once
+ * with {@link #factor(SparseMatrix)}, after which {@link #solve(double[], double[])} is called for each
+ * coordinate direction. Solve needs to be safe to call from multiple threads at the same time.
+ */
+public interface StiffnessSolver {
+
+    /**
+     * Prepares this solver for the provided stiffness matrix.
+     *
+     * @param stiffness square matrix.
+     * @throws ArithmeticException if the matrix cannot be factored by this solver.
+     */
+    void factor(SparseMatrix stiffness);
+
+    /**
+     * Solves K x = f.
+     *
+     * @param f right hand side.
+     * @param x result. On input this contains the current value, which can be used as an initial guess.
+     */
+    void solve(double[] f, double[] x);
+
+    /**
+     * Called before the solves of each deformation step, so that per-step statistics can be recorded.
+     */
+    default void startStep(){
+
+    }
+
+    /**
+     * Creates a solver for a modified stiffness matrix, eg. after re-meshing, re-using as much of this solver's
+     * work as possible.
+     *
+     * @param stiffness the new matrix.
+     * @param origins for each row of the new matrix, the corresponding row of the matrix used by this solver, or
+     *                -1 for new rows.
+     * @return a prepared solver or null if this solver cannot be updated.
+     */
+    default StiffnessSolver update(SparseMatrix stiffness, int[] origins){
+        return null;
+    }
+
+}
@@ -1005,6 +1005,16 @@ public class ControlFrame implements ReadyObserver, FrameListener {
             finished();
         });
 
+        JCheckBoxMenuItem lazyLoading = new JCheckBoxMenuItem("load meshes when used");
+        lazyLoading.setToolTipText("Large mesh files are read one mesh at a time, as the frames are visited.");
+        lazyLoading.setSelected(segmentationController.getLazyMeshLoading() > 0);
+        file.add(lazyLoading);
+        lazyLoading.addActionListener(evt->{
+            segmentationController.setLazyMeshLoading(
+                    lazyLoading.isSelected() ? SegmentationController.LAZY_INFLATED_MESHES : 0
+            );
+        });
+
         JMenuItem saveParameters = new JMenuItem("Save parameters");
         file.add(saveParameters);
         saveParameters.addActionListener(evt->{
@@ -26,6 +26,8 @@
 package deformablemesh.gui;
 
 import deformablemesh.SegmentationController;
+import deformablemesh.SegmentationModel;
+import deformablemesh.geometry.solvers.SolverType;
 import deformablemesh.meshview.MeshFrame3D;
 
 import javax.swing.JFrame;
@@ -69,6 +71,17 @@ public class PropertySaver {
      * @throws IOException
      */
     static public void loadProperties(SegmentationController control, File props) throws IOException {
+        loadProperties(control.getModel(), props);
+    }
+
+    /**
+     * Reads the constants from a properties file directly into a model, for use without a controller.
+     *
+     * @param model where the values go.
+     * @param props file properties will be loaded from.
+     * @throws IOException
+     */
+    static public void loadProperties(SegmentationModel model, File props) throws IOException {
         //try to read them properties.
         List<String> lines = Files.readAllLines(props.toPath(), StandardCharsets.UTF_8);
         for(String line: lines){
@@ -76,25 +89,40 @@ public class PropertySaver {
             try {
                 switch (pair[0]) {
                     case "gamma":
-                        control.setGamma(Double.parseDouble(pair[1]));
+                        model.setGamma(Double.parseDouble(pair[1]));
                         break;
                     case "pressure":
-                        control.setPressure(Double.parseDouble(pair[1]));
+                        model.setPressure(Double.parseDouble(pair[1]));
                         break;
                     case "image-weight":
-                        control.setWeight(Double.parseDouble(pair[1]));
+                        model.setWeight(Double.parseDouble(pair[1]));
                         break;
                     case "alpha":
-                        control.setAlpha(Double.parseDouble(pair[1]));
+                        model.setAlpha(Double.parseDouble(pair[1]));
                         break;
                     case "divisions":
-                        control.setDivisions(Integer.parseInt(pair[1]));
+                        model.setDivisions(Integer.parseInt(pair[1]));
                         break;
                     case "beta":
-                        control.setBeta(Double.parseDouble(pair[1]));
+                        model.setBeta(Double.parseDouble(pair[1]));
                         break;
                     case "steric-weight":
-                        control.setStericNeighborWeight(Double.parseDouble(pair[1]));
+                        model.setStericNeighborWeight(Double.parseDouble(pair[1]));
+                        break;
+                    case "steric-sdf":
+                        model.setStericDistanceField(Boolean.parseBoolean(pair[1]));
+                        break;
+                    case "cached-image-energy":
+                        model.setCachedImageEnergy(Boolean.parseBoolean(pair[1]));
+                        break;
+                    case "solver":
+                        model.setSolverType(SolverType.valueOf(pair[1]));
+                        break;
+                    case "solver-tolerance":
+                        model.setIterativeSolverParameters(Double.parseDouble(pair[1]), model.getSolverMaxIterations());
+                        break;
+                    case "solver-iterations":
+                        model.setIterativeSolverParameters(model.getSolverTolerance(), Integer.parseInt(pair[1]));
                         break;
                     default:
                         System.out.println("skipping: " + pair[0]);
@@ -127,8 +155,13 @@ public class PropertySaver {
             writer.write(String.format("%s\t%s\n","image-weight", Double.toHexString(control.getImageWeight())));
             writer.write(String.format("%s\t%s\n","alpha", Double.toHexString(control.getAlpha())));
             writer.write(String.format("%s\t%s\n","steric-weight", Double.toHexString(control.getStericNeighborWeight())));
+            writer.write(String.format("%s\t%s\n","steric-sdf", control.isStericDistanceField()));
+            writer.write(String.format("%s\t%s\n","cached-image-energy", control.isCachedImageEnergy()));
             writer.write(String.format("%s\t%d\n","divisions", control.getDivisions()));
             writer.write(String.format("%s\t%s\n","beta", Double.toHexString(control.getBeta())));
+            writer.write(String.format("%s\t%s\n","solver", control.getSolverType().name()));
+            writer.write(String.format("%s\t%s\n","solver-tolerance", Double.toHexString(control.getSolverTolerance())));
+            writer.write(String.format("%s\t%d\n","solver-iterations", control.getSolverMaxIterations()));
         } catch(IOException exc){
             canSave = false;
             throw new IOException(exc);
@@ -0,0 +1,358 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.io;
+
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.track.LazyMeshMap;
+import deformablemesh.track.Track;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Random access to the meshes of a mesh file. Files saved with an index, see
+ * {@link MeshWriter#saveMeshes(File, deformablemesh.track.MeshTracker)}, are opened by reading the index at the end
+ * of the file. Older files are indexed by skipping from mesh header to mesh header, which does not read the positions.
+ *
+ * Each mesh is read with a single positional read of its bytes, so loading a single mesh is independent of the size
+ * of the file and no file mappings are created.
+ */
+public class IndexedMeshReader implements Closeable {
+    final File input;
+    final FileChannel channel;
+    final long limit;
+    final List<String> names = new ArrayList<>();
+    final List<TrackIndex> index = new ArrayList<>();
+    boolean indexed;
+
+    /**
+     * Location of each mesh in a track, sorted by frame.
+     */
+    static class TrackIndex{
+        final int[] frames;
+        final long[] offsets;
+        final int[] lengths;
+
+        TrackIndex(int n){
+            frames = new int[n];
+            offsets = new long[n];
+            lengths = new int[n];
+        }
+
+        int find(int frame){
+            int i = Arrays.binarySearch(frames, frame);
+            return i < 0 ? -1 : i;
+        }
+
+        /**
+         * Legacy files can have meshes out of order.
+         */
+        void sort(){
+            Integer[] order = new Integer[frames.length];
+            for(int i = 0; i<order.length; i++){
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(frames[a], frames[b]));
+            int[] f = frames.clone();
+            long[] o = offsets.clone();
+            int[] l = lengths.clone();
+            for(int i = 0; i<order.length; i++){
+                frames[i] = f[order[i]];
+                offsets[i] = o[order[i]];
+                lengths[i] = l[order[i]];
+            }
+        }
+    }
+
+    public IndexedMeshReader(File input) throws IOException{
+        this.input = input;
+        channel = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+        limit = channel.size();
+        try{
+            indexed = readIndex();
+            if(!indexed){
+                scan();
+            }
+        } catch(IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the index from the end of the file.
+     *
+     * @return false if the file does not have an index.
+     */
+    boolean readIndex() throws IOException{
+        if(limit < 20){
+            return false;
+        }
+        ByteBuffer trailer = read(limit - 12, 12);
+        long start = trailer.getLong();
+        int magic = trailer.getInt();
+        if(magic != MeshWriter.INDEX_MAGIC || start < 8 || start > limit - 20){
+            return false;
+        }
+        ByteBuffer footer = read(start, (int)(limit - 12 - start));
+        byte[] bytes = new byte[footer.remaining()];
+        footer.get(bytes);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+        int version = dis.readInt();
+        if(version != MeshWriter.INDEX_VERSION){
+            throw new IOException("Unsupported index version: " + version);
+        }
+        int tracks = dis.readInt();
+        for(int i = 0; i<tracks; i++){
+            names.add(dis.readUTF());
+            int n = checkCount(dis.readInt(), 16, bytes.length);
+            TrackIndex ti = new TrackIndex(n);
+            for(int j = 0; j<n; j++){
+                ti.frames[j] = dis.readInt();
+                ti.offsets[j] = dis.readLong();
+                ti.lengths[j] = dis.readInt();
+                if(ti.offsets[j] < 0 || ti.offsets[j] + ti.lengths[j] > start){
+                    throw new IOException("Broken index, mesh outside of file: " + ti.offsets[j]);
+                }
+            }
+            ti.sort();
+            index.add(ti);
+        }
+        return true;
+    }
+
+    /**
+     * Creates the index of a file without one, by reading the header of each mesh and skipping the data.
+     */
+    void scan() throws IOException{
+        long pos = 0;
+        int version = read(pos, 4).getInt();
+        pos += 4;
+        if(version > 0){
+            names.add("legacy");
+            TrackIndex ti = new TrackIndex(checkCount(version, 16, limit - pos));
+            pos = scanMeshes(ti, pos);
+            index.add(ti);
+        } else if(version == -1){
+            int tracks = read(pos, 4).getInt();
+            pos += 4;
+            for(int i = 0; i<tracks; i++){
+                int length = read(pos, 2).getShort() & 0xffff;
+                byte[] utf = new byte[length + 2];
+                read(pos, length + 2).get(utf);
+                names.add(new DataInputStream(new ByteArrayInputStream(utf)).readUTF());
+                pos += length + 2;
+                int n = checkCount(read(pos, 4).getInt(), 16, limit - pos);
+                pos += 4;
+                TrackIndex ti = new TrackIndex(n);
+                pos = scanMeshes(ti, pos);
+                index.add(ti);
+            }
+        } else{
+            throw new IOException("Unsupported Version");
+        }
+    }
+
+    long scanMeshes(TrackIndex ti, long pos) throws IOException{
+        for(int j = 0; j<ti.frames.length; j++){
+            long start = pos;
+            ti.frames[j] = read(pos, 4).getInt();
+            pos += 4;
+            int positions = checkCount(read(pos, 4).getInt(), Double.BYTES, limit - pos);
+            pos += 4 + Double.BYTES*(long)positions;
+            int connections = checkCount(read(pos, 4).getInt(), Integer.BYTES, limit - pos);
+            pos += 4 + Integer.BYTES*(long)connections;
+            int triangles = checkCount(read(pos, 4).getInt(), Integer.BYTES, limit - pos);
+            pos += 4 + Integer.BYTES*(long)triangles;
+            ti.offsets[j] = start;
+            ti.lengths[j] = (int)(pos - start);
+        }
+        ti.sort();
+        return pos;
+    }
+
+    ByteBuffer read(long position, int length) throws IOException{
+        if(position < 0 || position + length > limit){
+            throw new IOException("Read outside of file: " + position + " + " + length + ", file size " + limit);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, position + buffer.position()) < 0){
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static int checkCount(int count, int dataWidth, long remaining) throws IOException{
+        if(count < 0 || ((long)count)*dataWidth > remaining){
+            throw new IOException("invalid count variable: " + count + ", remaining bytes " + remaining);
+        }
+        return count;
+    }
+
+    /**
+     * @return true if the file had an index, false if the index was created by scanning the file.
+     */
+    public boolean isIndexed(){
+        return indexed;
+    }
+
+    public int getTrackCount(){
+        return names.size();
+    }
+
+    public String getTrackName(int track){
+        return names.get(track);
+    }
+
+    /**
+     * @param track index of the track in the file.
+     * @return the frames that the track has a mesh for, in increasing order.
+     */
+    public List<Integer> getFrames(int track){
+        int[] frames = index.get(track).frames;
+        List<Integer> result = new ArrayList<>(frames.length);
+        for(int f: frames){
+            result.add(f);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    public boolean hasMesh(int track, int frame){
+        return index.get(track).find(frame) >= 0;
+    }
+
+    /**
+     * Reads the bytes of the mesh and creates it.
+     *
+     * @param track index of the track in the file.
+     * @param frame frame of the mesh.
+     * @return the mesh, or null if the track doesn't have a mesh at the frame.
+     * @throws IOException if the mesh cannot be read.
+     */
+    public DeformableMesh3D loadMesh(int track, int frame) throws IOException{
+        TrackIndex ti = index.get(track);
+        int i = ti.find(frame);
+        if(i < 0){
+            return null;
+        }
+        ByteBuffer buffer = read(ti.offsets[i], ti.lengths[i]);
+        buffer.getInt();
+        double[] positions = new double[checkCount(buffer.getInt(), Double.BYTES, buffer.remaining())];
+        buffer.asDoubleBuffer().get(positions);
+        buffer.position(buffer.position() + Double.BYTES*positions.length);
+        int[] connections = new int[checkCount(buffer.getInt(), Integer.BYTES, buffer.remaining())];
+        buffer.asIntBuffer().get(connections);
+        buffer.position(buffer.position() + Integer.BYTES*connections.length);
+        int[] triangles = new int[checkCount(buffer.getInt(), Integer.BYTES, buffer.remaining())];
+        buffer.asIntBuffer().get(triangles);
+        return DeformableMesh3D.loadMesh(positions, connections, triangles);
+    }
+
+    /**
+     * Loads the meshes of every track at the frame.
+     *
+     * @param frame time point.
+     * @return track index to mesh, for the tracks with a mesh at the frame.
+     * @throws IOException if a mesh cannot be read.
+     */
+    public Map<Integer, DeformableMesh3D> loadFrame(int frame) throws IOException{
+        Map<Integer, DeformableMesh3D> meshes = new TreeMap<>();
+        for(int i = 0; i<index.size(); i++){
+            DeformableMesh3D mesh = loadMesh(i, frame);
+            if(mesh != null){
+                meshes.put(i, mesh);
+            }
+        }
+        return meshes;
+    }
+
+    /**
+     * Loads every mesh of the track.
+     *
+     * @param track index of the track in the file.
+     * @return a new track with the name of the track.
+     * @throws IOException if a mesh cannot be read.
+     */
+    public Track loadTrack(int track) throws IOException{
+        Map<Integer, DeformableMesh3D> map = new TreeMap<>();
+        for(int frame: index.get(track).frames){
+            map.put(frame, loadMesh(track, frame));
+        }
+        Track t = new Track(names.get(track));
+        t.setData(map);
+        return t;
+    }
+
+    /**
+     * @return all of the tracks, the same as {@link MeshReader#loadMeshes(File)}
+     * @throws IOException if a mesh cannot be read.
+     */
+    public List<Track> loadTracks() throws IOException{
+        List<Track> tracks = new ArrayList<>();
+        for(int i = 0; i<index.size(); i++){
+            tracks.add(loadTrack(i));
+        }
+        return tracks;
+    }
+
+    /**
+     * Creates tracks that only read a mesh when it is used, see {@link LazyMeshMap}. This reader needs to stay open
+     * while the tracks are being used.
+     *
+     * @param inflated number of meshes each track keeps inflated.
+     * @return all of the tracks in the file.
+     */
+    public List<Track> loadLazyTracks(int inflated){
+        List<Track> tracks = new ArrayList<>();
+        for(int i = 0; i<index.size(); i++){
+            final int track = i;
+            Track t = new Track(names.get(track));
+            t.setStorage(new LazyMeshMap(getFrames(track), frame -> loadMesh(track, frame), inflated));
+            tracks.add(t);
+        }
+        return tracks;
+    }
+
+    @Override
+    public void close() throws IOException{
+        channel.close();
+    }
+}
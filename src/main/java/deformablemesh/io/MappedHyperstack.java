@@ -0,0 +1,198 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.io;
+
+import deformablemesh.volume.MappedVolume;
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Locates the images of an uncompressed TIFF or raw hyperstack in its file, so a frame and channel can be accessed as
+ * a {@link MappedVolume} without reading the file. Images are expected in the ImageJ order, channels then slices then
+ * frames.
+ */
+public class MappedHyperstack {
+    final Path path;
+    final long[] offsets;
+    final int width, height;
+    final int channels, slices, frames;
+    final MappedVolume.Type type;
+    final ByteOrder order;
+
+    /**
+     * @param path file containing the images.
+     * @param channels channels in the hyperstack.
+     * @param slices slices in the hyperstack.
+     * @param frames frames in the hyperstack.
+     * @param info either a description of each image, or of the first image when the later images follow it
+     *             separated by the gap between images.
+     * @throws IOException if the images cannot be mapped.
+     */
+    public MappedHyperstack(Path path, int channels, int slices, int frames, FileInfo... info) throws IOException{
+        this.path = path;
+        this.channels = channels;
+        this.slices = slices;
+        this.frames = frames;
+        FileInfo first = info[0];
+        width = first.width;
+        height = first.height;
+        type = getType(first);
+        order = first.intelByteOrder ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+
+        int n = channels*slices*frames;
+        long imageBytes = ((long)width)*height*type.getBytes();
+        offsets = new long[n];
+        if(info.length == 1){
+            checkContiguous(first, imageBytes);
+            for(int i = 0; i<n; i++){
+                offsets[i] = first.getOffset() + i*(imageBytes + first.gapBetweenImages);
+            }
+        } else{
+            if(info.length < n){
+                throw new IOException("Expected " + n + " images but the file contains " + info.length);
+            }
+            for(int i = 0; i<n; i++){
+                if(info[i].width != width || info[i].height != height || getType(info[i]) != type){
+                    throw new IOException("Image " + i + " has a different size or type than the first image.");
+                }
+                checkContiguous(info[i], imageBytes);
+                offsets[i] = info[i].getOffset();
+            }
+        }
+
+        long size = path.toFile().length();
+        if(n > 0 && offsets[n - 1] + imageBytes > size){
+            throw new IOException("File " + path + " is shorter than the images it describes.");
+        }
+    }
+
+    static MappedVolume.Type getType(FileInfo info) throws IOException{
+        if(info.compression > FileInfo.COMPRESSION_NONE){
+            throw new IOException("Compressed images cannot be mapped.");
+        }
+        switch(info.fileType){
+            case FileInfo.GRAY8:
+                return MappedVolume.Type.UnsignedByte;
+            case FileInfo.GRAY16_UNSIGNED:
+                return MappedVolume.Type.UnsignedShort;
+            case FileInfo.GRAY32_FLOAT:
+                return MappedVolume.Type.Float;
+            default:
+                throw new IOException("Unsupported pixel type: " + info.fileType);
+        }
+    }
+
+    /**
+     * Images stored in strips can only be mapped if the strips follow each other.
+     */
+    static void checkContiguous(FileInfo info, long imageBytes) throws IOException{
+        if(info.stripOffsets == null || info.stripOffsets.length < 2){
+            return;
+        }
+        long next = info.stripOffsets[0];
+        for(int i = 0; i<info.stripOffsets.length; i++){
+            if(info.stripOffsets[i] != next){
+                throw new IOException("Image strips are not contiguous.");
+            }
+            next += info.stripLengths[i];
+        }
+        if(next - info.stripOffsets[0] < imageBytes){
+            throw new IOException("Image strips are shorter than the image.");
+        }
+    }
+
+    /**
+     * Creates a hyperstack for an image that was opened as a virtual stack from an uncompressed TIFF or raw file.
+     *
+     * @param plus virtual stack, with the original file info.
+     * @return the mapped hyperstack.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public static MappedHyperstack open(ImagePlus plus) throws IOException{
+        FileInfo info = plus.getOriginalFileInfo();
+        if(info == null || info.fileName == null || info.directory == null){
+            throw new IOException("Image was not opened from a file.");
+        }
+        if(plus.getCalibration().calibrated()){
+            throw new IOException("Calibrated pixel values cannot be mapped.");
+        }
+        Path path = new File(info.directory, info.fileName).toPath();
+        FileInfo[] infos;
+        if(info.fileFormat == FileInfo.TIFF){
+            infos = new TiffDecoder(info.directory, info.fileName).getTiffInfo();
+            if(infos == null || infos.length == 0){
+                throw new IOException("No images found in " + path);
+            }
+        } else if(info.fileFormat == FileInfo.RAW){
+            infos = new FileInfo[]{info};
+        } else{
+            throw new IOException("Only TIFF and raw files can be mapped.");
+        }
+        return new MappedHyperstack(path, plus.getNChannels(), plus.getNSlices(), plus.getNFrames(), infos);
+    }
+
+    /**
+     * Maps the slices of a frame and channel. Only address space is reserved, voxels are read as they are used.
+     *
+     * @param frame 0 based frame.
+     * @param channel 0 based channel.
+     * @return volume backed by the file.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public MappedVolume getVolume(int frame, int channel) throws IOException{
+        long imageBytes = ((long)width)*height*type.getBytes();
+        ByteBuffer[] buffers = new ByteBuffer[slices];
+        //mappings stay valid after the channel is closed.
+        try(FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)){
+            for(int z = 0; z<slices; z++){
+                int n = frame*channels*slices + z*channels + channel;
+                buffers[z] = fc.map(FileChannel.MapMode.READ_ONLY, offsets[n], imageBytes).order(order);
+            }
+        }
+        return new MappedVolume(buffers, width, height, type);
+    }
+
+    public int getNChannels(){
+        return channels;
+    }
+
+    public int getNSlices(){
+        return slices;
+    }
+
+    public int getNFrames(){
+        return frames;
+    }
+}
@@ -33,6 +33,7 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
@@ -59,6 +60,15 @@ public class MeshReader {
             pos++;
             return src.read();
         }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int r = src.read(b, off, len);
+            if(r > 0){
+                pos += r;
+            }
+            return r;
+        }
         @Override
         public void close() throws IOException {
             src.close();
@@ -134,28 +144,31 @@ public class MeshReader {
 
         int pos_count = checkCount(dis.readInt(), Double.BYTES);
         double[] positions = new double[pos_count];
-        for (int j = 0; j < pos_count; j++) {
-            positions[j] = dis.readDouble();
-        }
+        readBlock(dis, pos_count*Double.BYTES).asDoubleBuffer().get(positions);
 
         int con_count = checkCount(dis.readInt(), Integer.BYTES);
         int[] connection_indices = new int[con_count];
-        for (int j = 0; j < con_count; j++) {
-            connection_indices[j] = dis.readInt();
-        }
+        readBlock(dis, con_count*Integer.BYTES).asIntBuffer().get(connection_indices);
 
         int tri_count = checkCount(dis.readInt(), Integer.BYTES);
         int[] triangle_indices = new int[tri_count];
-
-        for (int j = 0; j < tri_count; j++) {
-            triangle_indices[j] = dis.readInt();
-        }
+        readBlock(dis, tri_count*Integer.BYTES).asIntBuffer().get(triangle_indices);
 
         DeformableMesh3D mesh = DeformableMesh3D.loadMesh(positions, connection_indices, triangle_indices);
         map.put(current, mesh);
 
     }
 
+    /**
+     * Reads the bytes of an array in one go, instead of value by value. The buffer is big endian, the same as
+     * DataOutputStream.
+     */
+    private ByteBuffer readBlock(DataInputStream dis, int bytes) throws IOException {
+        byte[] block = new byte[bytes];
+        dis.readFully(block);
+        return ByteBuffer.wrap(block);
+    }
+
     private Track loadTrack() throws IOException {
         String name = dis.readUTF();
 
@@ -35,7 +35,10 @@ import java.awt.Color;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
 
@@ -48,8 +51,38 @@ import java.util.*;
  * To change this template use File | Settings | File Templates.
  */
 public class MeshWriter {
+    /**
+     * Version of the index written after the tracks.
+     */
+    public static final int INDEX_VERSION = 1;
+    /**
+     * Last 4 bytes of a file with an index, "BMIX".
+     */
+    public static final int INDEX_MAGIC = 0x424d4958;
     File output;
 
+    /**
+     * Keeps track of the position in the file, DataOutputStream#size is limited to 2GB.
+     */
+    static class CountingOutputStream extends FilterOutputStream{
+        long count;
+        CountingOutputStream(OutputStream out){
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
     public MeshWriter(File output){
         this.output = output;
     }
@@ -200,34 +233,95 @@ public class MeshWriter {
         saveMeshes(output, tracker);
     }
 
+    /**
+     * Saves the tracks in the version -1 format followed by an index of where each mesh starts, so a single mesh can
+     * be read without reading the whole file. Readers that do not know about the index stop after the last track.
+     *
+     * The index is: int INDEX_VERSION, int track count, then for each track its UTF name, int mesh count and for each
+     * mesh an int frame, long offset and int length in bytes. The file ends with the long offset of the index and the
+     * int INDEX_MAGIC.
+     *
+     * The meshes are written to a temporary file that replaces the output when it is complete, because tracks loaded
+     * lazily from the output still read their meshes from it while they are being saved.
+     *
+     * @param output file that will be written, or overwritten.
+     * @param tracker contains the tracks that are saved.
+     * @throws IOException
+     */
     static public void saveMeshes(File output, MeshTracker tracker) throws IOException {
-        try(DataOutputStream dos = new DataOutputStream(
+        Path target = output.toPath().toAbsolutePath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try{
+            writeIndexedMeshes(temporary, tracker);
+            try{
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException e){
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally{
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    static void writeIndexedMeshes(Path output, MeshTracker tracker) throws IOException {
+        try(CountingOutputStream counting = new CountingOutputStream(
                 new BufferedOutputStream(
-                        Files.newOutputStream( output.toPath(), StandardOpenOption.CREATE
+                        Files.newOutputStream( output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING
                     )
-                )
-        )){
+                ));
+            DataOutputStream dos = new DataOutputStream(counting)
+        ){
             dos.writeInt(-1); //new version of the mesh writing.
 
             List<Track> tracks = tracker.getAllMeshTracks();
             dos.writeInt(tracks.size());
+            List<int[]> frames = new ArrayList<>();
+            List<long[]> offsets = new ArrayList<>();
+            List<int[]> lengths = new ArrayList<>();
             for(Track track: tracks){
 
                 dos.writeUTF(track.getName());
-                Map<Integer, DeformableMesh3D> map = track.getTrack();
-
-                dos.writeInt(map.size());
-                for(Integer i: map.keySet()){
-                    writeMesh(dos, map.get(i), i);
+                //one mesh at a time, so a lazy track doesn't load every mesh at once.
+                List<Integer> keys = track.getFrames();
+
+                dos.writeInt(keys.size());
+                int[] trackFrames = new int[keys.size()];
+                long[] trackOffsets = new long[keys.size()];
+                int[] trackLengths = new int[keys.size()];
+                int j = 0;
+                for(Integer i: keys){
+                    trackFrames[j] = i;
+                    trackOffsets[j] = counting.count;
+                    writeMesh(dos, track.getMesh(i), i);
+                    trackLengths[j] = (int)(counting.count - trackOffsets[j]);
+                    j++;
                 }
-
+                frames.add(trackFrames);
+                offsets.add(trackOffsets);
+                lengths.add(trackLengths);
             }
 
+            long indexOffset = counting.count;
+            dos.writeInt(INDEX_VERSION);
+            dos.writeInt(tracks.size());
+            for(int k = 0; k<tracks.size(); k++){
+                dos.writeUTF(tracks.get(k).getName());
+                int[] trackFrames = frames.get(k);
+                dos.writeInt(trackFrames.length);
+                for(int j = 0; j<trackFrames.length; j++){
+                    dos.writeInt(trackFrames[j]);
+                    dos.writeLong(offsets.get(k)[j]);
+                    dos.writeInt(lengths.get(k)[j]);
+                }
+            }
+            dos.writeLong(indexOffset);
+            dos.writeInt(INDEX_MAGIC);
         }catch(IOException exc){
             throw new IOException(exc);
         }
 
     }
+
     static public void writeMesh(DataOutput dos, DeformableMesh3D mesh, int frame) throws IOException {
         dos.writeInt(frame);
         int pos_count = mesh.positions.length;
@@ -53,9 +53,7 @@ public class DistanceTransform_Plugin implements PlugInFilter {
             stack.setFrame(i);
             ImagePlus frame = stack.getCurrentFrame();
             DistanceTransformMosaicImage dtmi = new DistanceTransformMosaicImage(frame);
-            dtmi.findBlobs();
-            dtmi.createCascades();
-            ImageStack frames = dtmi.createLabeledImage().getStack();
+            ImageStack frames = dtmi.createDistanceImage().getStack();
             for(int j = 1; j<=frames.getSize(); j++){
                 result.addSlice(frames.getSliceLabel(j), frames.getProcessor(j));
             }
@@ -174,6 +174,48 @@ public class FrameToFrameDisplacement {
         return ftf;
     }
 
+    /**
+     * Links the tracks that end at the provided frame to the tracks that start at the next frame, without a
+     * controller or undo history. When two tracks are linked, the starting track is merged into the entering
+     * track.
+     *
+     * @param tracks all of the tracks, linked tracks are modified.
+     * @param frame the tracks ending at this frame are continued.
+     * @return the tracks remaining after linking, in their original order.
+     */
+    public static List<Track> trackFrameForward(List<Track> tracks, int frame){
+        List<Track> entering = new ArrayList<>();
+        List<Track> starting = new ArrayList<>();
+
+        for(Track track: tracks){
+            if(track.getLastFrame() == frame){
+                entering.add(track);
+            } else if( track.getFirstFrame() == frame + 1){
+                starting.add(track);
+            }
+        }
+
+        List<DeformableMesh3D> enteringMeshes = entering.stream().map(t->t.getMesh(frame)).collect(Collectors.toList());
+        List<DeformableMesh3D> startingMeshes = starting.stream().map(t->t.getMesh(frame + 1)).collect(Collectors.toList());
+
+        FrameToFrameDisplacement ftf = new FrameToFrameDisplacement(frame);
+        ftf.calculateCenterOfMass(tracks);
+
+        Set<Track> removing = new HashSet<>();
+        for(Mapping map: ftf.getAvailableMappings(enteringMeshes, startingMeshes)){
+            Track destination = entering.get(map.a);
+            Track origin = starting.get(map.b);
+            Map<Integer, DeformableMesh3D> modified = destination.getTrack();
+            modified.putAll(origin.getTrack());
+            destination.setData(modified);
+            removing.add(origin);
+        }
+
+        List<Track> updated = new ArrayList<>(tracks);
+        updated.removeIf(removing::contains);
+        return updated;
+    }
+
 
     /**
      * Reduces the number of mappings. This is the tracking algorithm! A list of mappings is created
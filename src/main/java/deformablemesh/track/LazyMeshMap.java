@@ -0,0 +1,363 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.track;
+
+import deformablemesh.geometry.DeformableMesh3D;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Storage for the meshes of a {@link Track} that only keeps the full object graph, nodes, connections and triangles,
+ * for the most recently used frames. A released frame keeps its position and index arrays until nothing else holds
+ * its mesh, then frames that can be read by the loader and have not been changed are dropped back to the loader, so
+ * the memory used doesn't grow with the number of frames visited. Frames that were changed, or that were added without
+ * a loader, keep their arrays.
+ *
+ * A mesh that is released is still returned while anything else holds a reference to it, so a mesh from
+ * {@link #get(Object)} is the same object on the next call as long as it is being used. Once nothing holds it, the
+ * next call creates a new mesh from the arrays. The arrays are shared with the mesh, so changes to the positions are
+ * kept.
+ *
+ * The iteration order is by frame, the same as a TreeMap.
+ */
+public class LazyMeshMap extends AbstractMap<Integer, DeformableMesh3D> {
+    /**
+     * Reads a mesh that has not been loaded yet.
+     */
+    public interface MeshLoader{
+        DeformableMesh3D load(int frame) throws IOException;
+    }
+
+    /**
+     * The state of one frame, either inflated, released with arrays, or not loaded.
+     */
+    static class Entry{
+        DeformableMesh3D mesh;
+        Released released;
+        double[] positions;
+        int[] connections;
+        int[] triangles;
+        /**
+         * True when the loader can read this frame.
+         */
+        boolean stored;
+        /**
+         * Hash of the arrays when the mesh was read by the loader.
+         */
+        long loadedHash;
+
+        DeformableMesh3D live(){
+            if(mesh != null){
+                return mesh;
+            }
+            return released == null ? null : released.get();
+        }
+
+        /**
+         * Keeps the arrays, the mesh can still be changed by anything that holds it.
+         */
+        void release(ReferenceQueue<DeformableMesh3D> queue){
+            positions = mesh.positions;
+            connections = mesh.connection_index;
+            triangles = mesh.triangle_index;
+            released = new Released(mesh, this, queue);
+            mesh = null;
+        }
+
+        /**
+         * Called once the released mesh is unreachable. The arrays of an unchanged mesh are dropped, so it is read
+         * from the loader again.
+         */
+        void collected(){
+            released = null;
+            if(positions == null){
+                return;
+            }
+            if(stored && hash(positions, connections, triangles) == loadedHash){
+                positions = null;
+                connections = null;
+                triangles = null;
+            } else{
+                stored = false;
+            }
+        }
+    }
+
+    /**
+     * Reference to a released mesh that knows its entry.
+     */
+    static class Released extends WeakReference<DeformableMesh3D>{
+        final Entry entry;
+        Released(DeformableMesh3D mesh, Entry entry, ReferenceQueue<DeformableMesh3D> queue){
+            super(mesh, queue);
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Hash of the positions and indexes of a mesh, used to check if a mesh has been changed since it was loaded.
+     */
+    static long hash(DeformableMesh3D mesh){
+        return hash(mesh.positions, mesh.connection_index, mesh.triangle_index);
+    }
+
+    static long hash(double[] positions, int[] connections, int[] triangles){
+        long h = 1125899906842597L;
+        for(double d: positions){
+            h = 31*h + Double.doubleToLongBits(d);
+        }
+        for(int i: connections){
+            h = 31*h + i;
+        }
+        for(int i: triangles){
+            h = 31*h + i;
+        }
+        return h;
+    }
+
+    final TreeMap<Integer, Entry> entries = new TreeMap<>();
+    final LinkedHashMap<Integer, Entry> inflated;
+    final ReferenceQueue<DeformableMesh3D> queue = new ReferenceQueue<>();
+    final MeshLoader loader;
+    Consumer<DeformableMesh3D> prepare = m -> {};
+
+    /**
+     * Meshes that have not been loaded.
+     *
+     * @param frames frames that the loader can read.
+     * @param loader reads the mesh of a frame, when it is first used.
+     * @param capacity number of meshes that are kept inflated.
+     */
+    public LazyMeshMap(Collection<Integer> frames, MeshLoader loader, int capacity){
+        this.loader = loader;
+        inflated = new LinkedHashMap<Integer, Entry>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest){
+                if(size() > capacity){
+                    eldest.getValue().release(queue);
+                    return true;
+                }
+                return false;
+            }
+        };
+        for(Integer frame: frames){
+            Entry entry = new Entry();
+            entry.stored = true;
+            entries.put(frame, entry);
+        }
+    }
+
+    /**
+     * Meshes that are already in memory, the most recently added ones stay inflated.
+     *
+     * @param meshes frame to mesh.
+     * @param capacity number of meshes that are kept inflated.
+     */
+    public LazyMeshMap(Map<Integer, DeformableMesh3D> meshes, int capacity){
+        this(Collections.emptyList(), frame -> {
+            throw new IOException("No mesh stored for frame " + frame);
+        }, capacity);
+        putAll(meshes);
+    }
+
+    /**
+     * Called on each mesh when it is inflated, so it gets the properties of the track.
+     */
+    void setPrepare(Consumer<DeformableMesh3D> prepare){
+        this.prepare = prepare;
+    }
+
+    /**
+     * Checks the released meshes that are no longer referenced.
+     */
+    void purge(){
+        Released ref;
+        while((ref = (Released)queue.poll()) != null){
+            if(ref.entry.released == ref){
+                ref.entry.collected();
+            }
+        }
+    }
+
+    @Override
+    public synchronized DeformableMesh3D get(Object key){
+        purge();
+        Entry entry = entries.get(key);
+        if(entry == null){
+            return null;
+        }
+        Integer frame = (Integer)key;
+        if(entry.mesh != null){
+            inflated.get(frame);
+            return entry.mesh;
+        }
+        DeformableMesh3D mesh = entry.live();
+        if(mesh == null){
+            if(entry.positions != null){
+                mesh = DeformableMesh3D.loadMesh(entry.positions, entry.connections, entry.triangles);
+            } else{
+                try{
+                    mesh = loader.load(frame);
+                } catch(IOException e){
+                    throw new UncheckedIOException(e);
+                }
+                entry.loadedHash = hash(mesh);
+            }
+            prepare.accept(mesh);
+        }
+        entry.mesh = mesh;
+        entry.released = null;
+        inflated.put(frame, entry);
+        return mesh;
+    }
+
+    /**
+     * @return the mesh that was at the frame, if it is still in memory.
+     */
+    @Override
+    public synchronized DeformableMesh3D put(Integer frame, DeformableMesh3D mesh){
+        purge();
+        Entry entry = new Entry();
+        entry.mesh = mesh;
+        Entry old = entries.put(frame, entry);
+        inflated.remove(frame);
+        inflated.put(frame, entry);
+        return old == null ? null : old.live();
+    }
+
+    /**
+     * @return the mesh that was at the frame, if it is still in memory.
+     */
+    @Override
+    public synchronized DeformableMesh3D remove(Object key){
+        Entry old = entries.remove(key);
+        inflated.remove(key);
+        return old == null ? null : old.live();
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key){
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Only checks the meshes in memory, a mesh that isn't in memory cannot be referenced.
+     */
+    @Override
+    public boolean containsValue(Object value){
+        return getLoaded().containsValue(value);
+    }
+
+    @Override
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void clear(){
+        entries.clear();
+        inflated.clear();
+    }
+
+    @Override
+    public synchronized Set<Integer> keySet(){
+        return Collections.unmodifiableSet(entries.navigableKeySet());
+    }
+
+    /**
+     * @return the meshes that are currently in memory, without loading any.
+     */
+    public synchronized Map<Integer, DeformableMesh3D> getLoaded(){
+        Map<Integer, DeformableMesh3D> loaded = new TreeMap<>();
+        for(Map.Entry<Integer, Entry> e: entries.entrySet()){
+            DeformableMesh3D mesh = e.getValue().live();
+            if(mesh != null){
+                loaded.put(e.getKey(), mesh);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * @return number of meshes that are held inflated.
+     */
+    public synchronized int getInflatedCount(){
+        return inflated.size();
+    }
+
+    /**
+     * Iterating inflates one mesh at a time, a mesh that is not referenced can be released before the iteration
+     * finishes.
+     */
+    @Override
+    public Set<Map.Entry<Integer, DeformableMesh3D>> entrySet(){
+        return new AbstractSet<Map.Entry<Integer, DeformableMesh3D>>(){
+            @Override
+            public Iterator<Map.Entry<Integer, DeformableMesh3D>> iterator(){
+                Iterator<Integer> keys;
+                synchronized(LazyMeshMap.this){
+                    keys = new TreeMap<>(entries).keySet().iterator();
+                }
+                return new Iterator<Map.Entry<Integer, DeformableMesh3D>>(){
+                    Integer last;
+                    @Override
+                    public boolean hasNext(){
+                        return keys.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<Integer, DeformableMesh3D> next(){
+                        last = keys.next();
+                        return new SimpleImmutableEntry<>(last, get(last));
+                    }
+
+                    @Override
+                    public void remove(){
+                        LazyMeshMap.this.remove(last);
+                    }
+                };
+            }
+
+            @Override
+            public int size(){
+                return LazyMeshMap.this.size();
+            }
+        };
+    }
+}
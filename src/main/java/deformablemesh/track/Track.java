@@ -29,6 +29,7 @@ import deformablemesh.geometry.DeformableMesh3D;
 import deformablemesh.util.ColorSuggestions;
 
 import java.awt.Color;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -58,6 +59,56 @@ public class Track {
         this.color = ColorSuggestions.fromNameOrSuggestion(name);
     }
 
+    /**
+     * Switches the storage of this track to a {@link LazyMeshMap}, only the most recently used meshes are kept as
+     * full meshes and the rest are kept as arrays.
+     *
+     * @param inflated number of meshes kept inflated.
+     */
+    public void useLazyStorage(int inflated){
+        if(track instanceof LazyMeshMap){
+            return;
+        }
+        setStorage(new LazyMeshMap(track, inflated));
+    }
+
+    /**
+     * Uses the provided storage for the meshes of this track, for example a {@link LazyMeshMap} backed by a file.
+     *
+     * @param storage replaces the current meshes.
+     */
+    public void setStorage(LazyMeshMap storage){
+        storage.setPrepare(this::prepare);
+        track = storage;
+    }
+
+    /**
+     * Gives the mesh the properties of this track.
+     */
+    private void prepare(DeformableMesh3D mesh){
+        mesh.setColor(color);
+        mesh.setShowSurface(showSurface);
+        mesh.setSelected(selected);
+    }
+
+    /**
+     * The meshes that are in memory. For a lazy track the meshes that are not in memory can't be referenced, so they
+     * don't need to be updated or searched.
+     */
+    private Map<Integer, DeformableMesh3D> loaded(){
+        if(track instanceof LazyMeshMap){
+            return ((LazyMeshMap)track).getLoaded();
+        }
+        return track;
+    }
+
+    /**
+     * @return the frames with a mesh, in increasing order, without loading any meshes.
+     */
+    public List<Integer> getFrames(){
+        return new ArrayList<>(track.keySet());
+    }
+
     public void addMesh(Integer i, DeformableMesh3D mesh){
         mesh.setColor(color);
         mesh.setShowSurface(showSurface);
@@ -74,7 +125,8 @@ public class Track {
     }
 
     /**
-     * Legacy method that returns a duplicate map that represents the time vs. track.
+     * Legacy method that returns a duplicate map that represents the time vs. track. This loads every mesh, for a lazy
+     * track use {@link #getFrames()} and {@link #getMesh(Integer)}.
      * @return TreeMap
      */
     public Map<Integer, DeformableMesh3D> getTrack(){
@@ -91,8 +143,9 @@ public class Track {
 
     public void remove(DeformableMesh3D mesh) {
         Integer found = -1;
-        for(Integer i: track.keySet()){
-            if(track.get(i)==mesh){
+        Map<Integer, DeformableMesh3D> loaded = loaded();
+        for(Integer i: loaded.keySet()){
+            if(loaded.get(i)==mesh){
                 found = i;
                 break;
             }
@@ -122,8 +175,9 @@ public class Track {
     }
 
     public int getFrame(DeformableMesh3D mesh){
-        for(Integer i: track.keySet()){
-            if(track.get(i)==mesh){
+        Map<Integer, DeformableMesh3D> loaded = loaded();
+        for(Integer i: loaded.keySet()){
+            if(loaded.get(i)==mesh){
                 return i;
             };
         }
@@ -135,7 +189,7 @@ public class Track {
     }
 
     public boolean containsMesh(DeformableMesh3D mesh) {
-        return track.values().contains(mesh);
+        return loaded().values().contains(mesh);
     }
 
 
@@ -165,7 +219,7 @@ public class Track {
     }
     public void setColor(Color c){
         if (!color.equals(c)) {
-            for(DeformableMesh3D mesh: track.values()){
+            for(DeformableMesh3D mesh: loaded().values()){
                 mesh.setColor(c);
             }
         }
@@ -173,7 +227,7 @@ public class Track {
     }
 
     public void setSelected(boolean selected) {
-        for(DeformableMesh3D mesh: track.values()){
+        for(DeformableMesh3D mesh: loaded().values()){
             mesh.setSelected(selected);
         }
 
@@ -182,7 +236,7 @@ public class Track {
 
     public void setShowSurface(boolean show){
         showSurface = show;
-        for(DeformableMesh3D mesh: track.values()){
+        for(DeformableMesh3D mesh: loaded().values()){
             mesh.setShowSurface(show);
         }
     }
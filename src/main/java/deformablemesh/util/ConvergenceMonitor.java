@@ -0,0 +1,210 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.util;
+
+import deformablemesh.externalenergies.ExternalEnergy;
+import deformablemesh.geometry.DeformableMesh3D;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides when a mesh has stopped deforming. After each step the displacement of every node since the previous step
+ * is measured, and optionally the relative change of the total external energy. A mesh has converged once all of
+ * the enabled criteria have been satisfied for a number of consecutive steps.
+ *
+ * Each mesh is tracked independently, so a deformation of several meshes can stop working on the meshes that have
+ * settled while the others continue.
+ */
+public class ConvergenceMonitor {
+    public static final int DEFAULT_WINDOW = 3;
+
+    final double maxDisplacement;
+    final double rmsDisplacement;
+    final double energyChange;
+    final int window;
+    final Map<DeformableMesh3D, State> states = new IdentityHashMap<>();
+
+    /**
+     * The progress of one mesh.
+     */
+    static class State{
+        double[] previous;
+        double energy;
+        int steps;
+        int quiet;
+        boolean converged;
+        double max;
+        double rms;
+    }
+
+    /**
+     * A criterion is disabled when its tolerance is not greater than 0.
+     *
+     * @param maxDisplacement largest distance any node can move in one step.
+     * @param rmsDisplacement root mean square distance the nodes can move in one step.
+     * @param energyChange relative change of the total external energy in one step.
+     * @param window number of consecutive steps the criteria need to be satisfied.
+     */
+    public ConvergenceMonitor(double maxDisplacement, double rmsDisplacement, double energyChange, int window){
+        this.maxDisplacement = maxDisplacement;
+        this.rmsDisplacement = rmsDisplacement;
+        this.energyChange = energyChange;
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * @return true if at least one of the criteria is enabled, otherwise no mesh ever converges.
+     */
+    public boolean isEnabled(){
+        return maxDisplacement > 0 || rmsDisplacement > 0 || energyChange > 0;
+    }
+
+    /**
+     * Records the starting positions of the mesh, any previous progress is discarded.
+     *
+     * @param mesh mesh that is about to be deformed.
+     */
+    public void start(DeformableMesh3D mesh){
+        State state = new State();
+        state.previous = mesh.positions.clone();
+        if(energyChange > 0){
+            state.energy = getTotalEnergy(mesh);
+        }
+        states.put(mesh, state);
+    }
+
+    /**
+     * Measures the step that was just applied to the mesh.
+     *
+     * @param mesh a mesh that has been started.
+     * @return true if the mesh has converged.
+     */
+    public boolean update(DeformableMesh3D mesh){
+        State state = states.get(mesh);
+        if(state == null){
+            start(mesh);
+            state = states.get(mesh);
+        }
+        state.steps++;
+        double[] positions = mesh.positions;
+        if(state.previous.length != positions.length){
+            //the nodes changed, so the step cannot be measured.
+            state.previous = positions.clone();
+            state.quiet = 0;
+            return state.converged;
+        }
+
+        double max = 0;
+        double sum = 0;
+        double[] previous = state.previous;
+        for(int i = 0; i<positions.length; i += 3){
+            double dx = positions[i] - previous[i];
+            double dy = positions[i + 1] - previous[i + 1];
+            double dz = positions[i + 2] - previous[i + 2];
+            double d2 = dx*dx + dy*dy + dz*dz;
+            sum += d2;
+            if(d2 > max){
+                max = d2;
+            }
+        }
+        System.arraycopy(positions, 0, previous, 0, positions.length);
+        int n = positions.length/3;
+        state.max = Math.sqrt(max);
+        state.rms = n > 0 ? Math.sqrt(sum/n) : 0;
+
+        boolean settled = isEnabled();
+        if(maxDisplacement > 0 && state.max > maxDisplacement){
+            settled = false;
+        }
+        if(rmsDisplacement > 0 && state.rms > rmsDisplacement){
+            settled = false;
+        }
+        if(energyChange > 0){
+            double energy = getTotalEnergy(mesh);
+            double change = Math.abs(energy - state.energy);
+            if(change > energyChange*Math.abs(state.energy)){
+                settled = false;
+            }
+            state.energy = energy;
+        }
+
+        state.quiet = settled ? state.quiet + 1 : 0;
+        if(state.quiet >= window){
+            state.converged = true;
+        }
+        return state.converged;
+    }
+
+    public boolean isConverged(DeformableMesh3D mesh){
+        State state = states.get(mesh);
+        return state != null && state.converged;
+    }
+
+    /**
+     * @return number of steps measured for the mesh since it was started.
+     */
+    public int getSteps(DeformableMesh3D mesh){
+        State state = states.get(mesh);
+        return state == null ? 0 : state.steps;
+    }
+
+    /**
+     * @return the largest node displacement of the most recent step.
+     */
+    public double getMaxDisplacement(DeformableMesh3D mesh){
+        State state = states.get(mesh);
+        return state == null ? 0 : state.max;
+    }
+
+    /**
+     * @return the root mean square node displacement of the most recent step.
+     */
+    public double getRmsDisplacement(DeformableMesh3D mesh){
+        State state = states.get(mesh);
+        return state == null ? 0 : state.rms;
+    }
+
+    /**
+     * The sum of {@link ExternalEnergy#getEnergy(double[])} over every node and every energy of the mesh.
+     */
+    public static double getTotalEnergy(DeformableMesh3D mesh){
+        List<ExternalEnergy> energies = mesh.getExternalEnergies();
+        double[] positions = mesh.positions;
+        double[] pt = new double[3];
+        double total = 0;
+        for(int i = 0; i<positions.length; i += 3){
+            pt[0] = positions[i];
+            pt[1] = positions[i + 1];
+            pt[2] = positions[i + 2];
+            for(ExternalEnergy energy: energies){
+                total += energy.getEnergy(pt);
+            }
+        }
+        return total;
+    }
+}
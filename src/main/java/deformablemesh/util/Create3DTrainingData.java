@@ -166,14 +166,8 @@ abstract public class Create3DTrainingData {
         ImagePlus container = original.createImagePlus();
         container.setStack(mosaic);
         DistanceTransformMosaicImage dtmi = new DistanceTransformMosaicImage(container);
-        dtmi.findBlobs();
-        int scale = (int)relativeDepth;
-        if(scale < 1){
-            scale = 1;
-        }
-        dtmi.createScaledCascades(scale); //TODO make this non-fixed.
         System.out.println("Creating image!");
-        ImagePlus plus = dtmi.createLabeledImage();
+        ImagePlus plus = dtmi.createDistanceImage(new double[]{1, 1, relativeDepth});
         System.out.println("Image Created");
         return plus.getStack();
     }
@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.util;
+
+import deformablemesh.geometry.DeformableMesh3D;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Work stealing scheduler shared by all mesh deformations. Independent meshes are deformed concurrently, and the
+ * x, y and z solves of each mesh are forked onto the same pool, so a single large mesh and many small meshes
+ * both keep the cores busy.
+ *
+ * A step is performed in two phases: every mesh calculates its next positions from the current state, using
+ * {@link DeformableMesh3D#partialUpdate()}, then all of the new positions are applied. This keeps the steric
+ * interactions between meshes consistent because no mesh moves while the others are calculating their forces.
+ */
+public class DeformationScheduler {
+    private static DeformationScheduler shared;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism number of worker threads.
+     */
+    public DeformationScheduler(int parallelism){
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * The scheduler used by the meshes, initially one thread per available processor.
+     *
+     * @return the shared scheduler.
+     */
+    public static synchronized DeformationScheduler getShared(){
+        if(shared == null){
+            shared = new DeformationScheduler(Runtime.getRuntime().availableProcessors());
+        }
+        return shared;
+    }
+
+    /**
+     * Replaces the shared scheduler. Work already submitted to the previous scheduler is allowed to finish.
+     *
+     * @param parallelism number of worker threads, values less than 1 use the number of processors.
+     */
+    public static synchronized void setParallelism(int parallelism){
+        if(parallelism < 1){
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        if(shared != null){
+            if(shared.getParallelism() == parallelism){
+                return;
+            }
+            shared.pool.shutdown();
+        }
+        shared = new DeformationScheduler(parallelism);
+    }
+
+    public int getParallelism(){
+        return pool.getParallelism();
+    }
+
+    /**
+     * Runs all of the tasks and waits for them to finish. When called from one of the worker threads the tasks
+     * are forked so the current thread helps, otherwise they are submitted to the pool.
+     *
+     * @param tasks independent tasks.
+     */
+    public void invokeAll(List<Runnable> tasks){
+        List<ForkJoinTask<?>> forks = new ArrayList<>(tasks.size());
+        for(Runnable r: tasks){
+            forks.add(ForkJoinTask.adapt(r));
+        }
+        if(ForkJoinTask.getPool() == pool){
+            ForkJoinTask.invokeAll(forks);
+        } else{
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(forks)));
+        }
+    }
+
+    /**
+     * Performs a single deformation step for all of the meshes. The new positions are calculated concurrently
+     * and then applied in order.
+     *
+     * @param meshes meshes to be deformed.
+     * @param stopped checked before each mesh starts, if it returns true the remaining meshes are skipped and
+     *                no positions are changed.
+     * @return false if the step was stopped.
+     */
+    public boolean step(List<DeformableMesh3D> meshes, BooleanSupplier stopped){
+        Runnable[] updates = new Runnable[meshes.size()];
+        List<Runnable> tasks = new ArrayList<>(meshes.size());
+        for(int i = 0; i<meshes.size(); i++){
+            final int index = i;
+            final DeformableMesh3D mesh = meshes.get(i);
+            tasks.add(() -> {
+                if(!stopped.getAsBoolean()){
+                    updates[index] = mesh.partialUpdate();
+                }
+            });
+        }
+        if(tasks.size() == 1){
+            //a single mesh runs on the calling thread so its forces can still be split across the pool.
+            tasks.get(0).run();
+        } else{
+            invokeAll(tasks);
+        }
+
+        for(Runnable update: updates){
+            if(update == null){
+                return false;
+            }
+        }
+        for(Runnable update: updates){
+            update.run();
+        }
+        return true;
+    }
+
+}
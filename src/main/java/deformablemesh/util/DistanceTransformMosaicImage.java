@@ -25,8 +25,10 @@
  */
 package deformablemesh.util;
 
+import deformablemesh.volume.VoxelSet;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.measure.Calibration;
 import ij.process.ImageProcessor;
 import ij.process.ShortProcessor;
 
@@ -143,8 +145,53 @@ public class DistanceTransformMosaicImage {
 
     }
 
+    /**
+     * Labels each voxel with its distance to the closest voxel of a different label, using an exact euclidean
+     * distance transform that accounts for the voxel size. The levels are the same as the cascades, an edge voxel is
+     * 0, and the blobs do not need to be found first.
+     *
+     * @return an image with the same format as {@link #createLabeledImage()}
+     */
+    public ImagePlus createDistanceImage(){
+        Calibration cal = mosaic.getCalibration();
+        double[] spacing = {1, cal.pixelHeight/cal.pixelWidth, cal.pixelDepth/cal.pixelWidth};
+        return createDistanceImage(spacing);
+    }
+
+    /**
+     * @param spacing size of a voxel relative to the x size.
+     * @return an image with the same format as {@link #createLabeledImage()}
+     */
+    public ImagePlus createDistanceImage(double[] spacing){
+        ImageStack mosStack = mosaic.getStack();
+        EuclideanDistanceTransform edt = new EuclideanDistanceTransform(mosStack, spacing).calculate();
+        int w = mosStack.getWidth();
+        int h = mosStack.getHeight();
+        int maxLevel = 32;
+        ImageStack stack = new ImageStack(w, h);
+        for(int z = 0; z<mosStack.size(); z++){
+            ShortProcessor proc = new ShortProcessor(w, h);
+            for(int y = 0; y<h; y++){
+                for(int x = 0; x<w; x++){
+                    if(edt.getLabel(x, y, z) == 0 && !fullTransform){
+                        continue;
+                    }
+                    double d = edt.getDistance(x, y, z);
+                    int level = d > maxLevel ? maxLevel : (int)d - 1;
+                    proc.set(x, y, level < 0 ? 0 : level);
+                }
+            }
+            stack.addSlice(proc);
+        }
+
+        ImagePlus plus = mosaic.createImagePlus();
+        plus.setStack(stack, 1, mosaic.getNSlices(), mosaic.getNFrames());
+        plus.setOpenAsHyperStack(true);
+        return plus;
+    }
+
     static class Blob{
-        List<int[]> points = new ArrayList<>();
+        VoxelSet points = new VoxelSet();
         int lx = 0;
         int ly = 0;
         int lz = 0;
@@ -158,7 +205,7 @@ public class DistanceTransformMosaicImage {
         int maxLevel = 32;
         int labels = 32;
         int imageWidth, imageHeight, imageDepth;
-        Map<Integer, List<int[]>> cascade = new TreeMap<>();
+        Map<Integer, VoxelSet> cascade = new TreeMap<>();
 
         Blob(int label){
 
@@ -183,17 +230,17 @@ public class DistanceTransformMosaicImage {
 
                 //distanceLabel = 1 << (a);
                 distanceLabel = a;
-                List<int[]> level = cascade.get(i);
-                Collections.sort(level, (p1, p2)->Integer.compare(p1[2], p2[2]));
-                int lastSlice = -1;
-                ImageProcessor proc = null;
-                for(int[] pt: level){
-                    if(pt[2] != lastSlice){
-                        proc = stack.getProcessor(pt[2]);
-                        lastSlice=pt[2];
+                VoxelSet level = cascade.get(i);
+                //voxels are ordered by slice.
+                int[] lastSlice = {-1};
+                ImageProcessor[] proc = {null};
+                level.forEach((x, y, z) -> {
+                    if(z != lastSlice[0]){
+                        proc[0] = stack.getProcessor(z);
+                        lastSlice[0] = z;
                     }
-                    proc.set(pt[0], pt[1], distanceLabel);
-                }
+                    proc[0].set(x, y, distanceLabel);
+                });
 
             }
 
@@ -201,21 +248,17 @@ public class DistanceTransformMosaicImage {
         }
 
         public void createGrowingCascade(int scale){
-            List<int[]> full = new ArrayList<>(points);
-
             w = hx - lx + 1;
             h = hy - ly + 1;
             d = hz - lz + 1;
             System.out.println("creating stack");
             stack = new byte[w*h*d];
-            for(int[] f: full){
-                set(f, (byte)1);
-            }
+            points.forEach((x, y, z) -> set(x, y, z, (byte)1));
 
             int level = 0;
-            List<int[]> current = new ArrayList<>();
-            List<int[]> replacements = new ArrayList<>();
-            for(int[] pt: full) {
+            VoxelSet current = new VoxelSet();
+            VoxelSet replacements = new VoxelSet();
+            for(int[] pt: points) {
                 if (!touchesBoundary(pt) && edgePoint(pt)){
                     current.add(pt);
                 } else{
@@ -224,90 +267,71 @@ public class DistanceTransformMosaicImage {
             }
             System.out.println("separated out pixels.");
 
-            for(int[] pt: current){
-                set(pt, (byte)0);
-            }
-            full = replacements;
+            current.forEach((x, y, z) -> set(x, y, z, (byte)0));
+            VoxelSet full = replacements;
             level++;
 
             while(level<maxLevel) {
-                List<int[]> next = new ArrayList<>();
+                VoxelSet next = new VoxelSet();
                 if((level +1)%scale == 0){
-                    for(int[] pt: current) {
-                        List<int[]> pts = neighbors(pt);
-                        for(int[] p: pts){
-                            set(p, (byte)0);
-                            next.add(p);
-                        }
-                    }
+                    current.forEach((x, y, z) -> takeNeighbors(x, y, z, next));
                 } else{
-                    for(int[] pt: current) {
-                        List<int[]> pts = neighbors2D(pt);
-                        for(int[] p: pts){
-                            set(p, (byte)0);
-                            next.add(p);
-                        }
-                    }
+                    current.forEach((x, y, z) -> takeNeighbors2D(x, y, z, next));
                 }
                 cascade.put(level, next);
                 level++;
                 current = next;
             }
-            List<int[]> maxed = new ArrayList<>(full.size());
-            for(int[] pt: full){
-                if(get(pt) == 1){
-                    maxed.add(pt);
+            VoxelSet maxed = new VoxelSet();
+            full.forEach((x, y, z) -> {
+                if(get(x, y, z) == 1){
+                    maxed.add(x, y, z);
                 }
-            }
+            });
             cascade.put(level, maxed);
 
         }
 
-
-        List<int[]> neighbors(int[] pt){
-            List<int[]> neighs = new ArrayList<>(8);
+        /**
+         * Moves the remaining neighbors of the voxel, including diagonals, into the next set.
+         */
+        void takeNeighbors(int x, int y, int z, VoxelSet next){
             for(int i = -1; i<=1; i++){
                 for(int j = -1; j<=1; j++){
                     for(int k = -1; k<=1; k++){
-                        if(get(pt[0] + i, pt[1] + j, pt[2] +k)!=0){
-                            neighs.add(new int[]{pt[0] + i, pt[1] + j, pt[2] +k});
+                        if(get(x + i, y + j, z + k)!=0){
+                            set(x + i, y + j, z + k, (byte)0);
+                            next.add(x + i, y + j, z + k);
                         }
                     }
                 }
             }
-            return neighs;
-
         }
 
-        List<int[]> neighbors2D(int[] pt){
-            List<int[]> neighs = new ArrayList<>(8);
+        void takeNeighbors2D(int x, int y, int z, VoxelSet next){
             for(int i = -1; i<=1; i++){
                 for(int j = -1; j<=1; j++){
-                    if(get(pt[0] + i, pt[1] + j, pt[2])!=0){
-                        neighs.add(new int[]{pt[0] + i, pt[1] + j, pt[2]});
+                    if(get(x + i, y + j, z)!=0){
+                        set(x + i, y + j, z, (byte)0);
+                        next.add(x + i, y + j, z);
                     }
                 }
             }
-            return neighs;
-
         }
 
-
         public void createScaledCascade(int scale){
-            List<int[]> full = new ArrayList<>(points);
+            VoxelSet full = new VoxelSet(points);
 
             w = hx - lx + 1;
             h = hy - ly + 1;
             d = hz - lz + 1;
             stack = new byte[w*h*d];
-            for(int[] f: full){
-                set(f, (byte)1);
-            }
+            full.forEach((x, y, z) -> set(x, y, z, (byte)1));
 
             int level = 0;
             while(full.size()>0){
 
-                List<int[]> region = new ArrayList<>();
+                VoxelSet region = new VoxelSet();
 
                 if(level==maxLevel){
                     region.addAll(full);
@@ -338,19 +362,16 @@ public class DistanceTransformMosaicImage {
         }
 
         void createCascade(){
-            List<int[]> full = new ArrayList<>(points);
+            VoxelSet full = new VoxelSet(points);
 
             w = hx - lx + 1;
             h = hy - ly + 1;
             d = hz - lz + 1;
             stack = new byte[w*h*d];
-            double start = points.size();
 
             long time = System.currentTimeMillis();
 
-            for(int[] f: full){
-                set(f, (byte)1);
-            }
+            full.forEach((x, y, z) -> set(x, y, z, (byte)1));
 
             System.out.println( ((System.currentTimeMillis() - time)/1000.0) + " seconds");
             time = System.currentTimeMillis();
@@ -360,8 +381,8 @@ public class DistanceTransformMosaicImage {
                     cascade.get(maxLevel).addAll(full);
                     break;
                 }
-                List<int[]> region = new ArrayList<>();
-                List<int[]> next = new ArrayList<>(full.size());
+                VoxelSet region = new VoxelSet();
+                VoxelSet next = new VoxelSet();
                 for(int[] pt: full){
                     if (edgePoint(pt)){
                         region.add(pt);
@@ -376,9 +397,7 @@ public class DistanceTransformMosaicImage {
                     region.addAll(full);
                 }
 
-                for(int[] pt: region){
-                    set(pt, (byte)0);
-                }
+                region.forEach((x, y, z) -> set(x, y, z, (byte)0));
 
                 cascade.put(level, region);
                 level++;
@@ -397,10 +416,14 @@ public class DistanceTransformMosaicImage {
         }
 
         void set(int[] xyz, byte v){
+            set(xyz[0], xyz[1], xyz[2], v);
+        }
+
+        void set(int x, int y, int z, byte v){
             stack[
-                                ( xyz[0] - lx )
-                          + w * ( xyz[1] - ly )
-                  + ( w * h ) * ( xyz[2] - lz )
+                                ( x - lx )
+                          + w * ( y - ly )
+                  + ( w * h ) * ( z - lz )
             ] = v;
         }
 
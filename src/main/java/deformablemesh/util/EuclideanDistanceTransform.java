@@ -0,0 +1,292 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.util;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exact euclidean distance transform of a label mosaic. Every voxel gets the distance to the nearest voxel with a
+ * different label, so touching blobs are separated the same as blobs surrounded by background. Voxels outside of the
+ * image are not considered, a blob touching the edge of the image is not closer to anything because of it.
+ *
+ * The transform is separable: the distances along x are found for each row, then the lower envelope of parabolas
+ * (Felzenszwalb and Huttenlocher) is applied along y and along z, restricted to the runs of voxels with the same label.
+ * Each pass is linear in the number of voxels and the rows of a pass are independent, so they are processed in
+ * parallel.
+ */
+public class EuclideanDistanceTransform {
+    final int width, height, depth;
+    final int[] labels;
+    final double[] spacing;
+    final float[] squared;
+
+    /**
+     * @param labels label of each voxel, x fastest then y then z.
+     * @param width number of voxels along x.
+     * @param height number of voxels along y.
+     * @param depth number of voxels along z.
+     * @param spacing size of a voxel along x, y and z.
+     */
+    public EuclideanDistanceTransform(int[] labels, int width, int height, int depth, double[] spacing){
+        this.labels = labels;
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.spacing = spacing;
+        squared = new float[labels.length];
+    }
+
+    /**
+     * Reads the labels of a mosaic stack.
+     *
+     * @param mosaic each slice is a label image.
+     * @param spacing size of a voxel along x, y and z.
+     */
+    public EuclideanDistanceTransform(ImageStack mosaic, double[] spacing){
+        this(readLabels(mosaic), mosaic.getWidth(), mosaic.getHeight(), mosaic.getSize(), spacing);
+    }
+
+    static int[] readLabels(ImageStack mosaic){
+        int plane = mosaic.getWidth()*mosaic.getHeight();
+        int[] labels = new int[plane*mosaic.getSize()];
+        for(int z = 0; z<mosaic.getSize(); z++){
+            ImageProcessor proc = mosaic.getProcessor(z + 1);
+            for(int i = 0; i<plane; i++){
+                labels[z*plane + i] = (int)proc.getf(i);
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Calculates the distances, blocks until finished.
+     *
+     * @return this transform.
+     */
+    public EuclideanDistanceTransform calculate(){
+        List<Runnable> tasks = new ArrayList<>();
+        for(int z = 0; z<depth; z++){
+            final int slice = z;
+            tasks.add(() -> {
+                for(int y = 0; y<height; y++){
+                    rowPass(slice, y);
+                }
+            });
+        }
+        DeformationScheduler.getShared().invokeAll(tasks);
+
+        tasks.clear();
+        for(int z = 0; z<depth; z++){
+            final int slice = z;
+            tasks.add(() -> {
+                Envelope envelope = new Envelope(height);
+                for(int x = 0; x<width; x++){
+                    envelope.apply(slice*width*height + x, width, height, spacing[1]);
+                }
+            });
+        }
+        DeformationScheduler.getShared().invokeAll(tasks);
+
+        if(depth > 1){
+            tasks.clear();
+            for(int y = 0; y<height; y++){
+                final int row = y;
+                tasks.add(() -> {
+                    Envelope envelope = new Envelope(depth);
+                    for(int x = 0; x<width; x++){
+                        envelope.apply(row*width + x, width*height, depth, spacing[2]);
+                    }
+                });
+            }
+            DeformationScheduler.getShared().invokeAll(tasks);
+        }
+        return this;
+    }
+
+    /**
+     * Distance along x to the closest voxel with a different label.
+     */
+    void rowPass(int z, int y){
+        int o = (z*height + y)*width;
+        double wx = spacing[0];
+        int x = 0;
+        while(x < width){
+            int label = labels[o + x];
+            int start = x;
+            while(x < width && labels[o + x] == label){
+                x++;
+            }
+            int end = x;
+            for(int i = start; i<end; i++){
+                double d = Double.POSITIVE_INFINITY;
+                if(start > 0){
+                    d = i - start + 1;
+                }
+                if(end < width){
+                    d = Math.min(d, end - i);
+                }
+                squared[o + i] = (float)(d*wx*d*wx);
+            }
+        }
+    }
+
+    /**
+     * Lower envelope of parabolas along one line of the volume, reused for every line processed by a task.
+     */
+    class Envelope{
+        final double[] f;
+        final int[] lab;
+        final int[] v;
+        final double[] fv;
+        final double[] z;
+        final double[] result;
+
+        Envelope(int n){
+            f = new double[n];
+            lab = new int[n];
+            v = new int[n + 2];
+            fv = new double[n + 2];
+            z = new double[n + 3];
+            result = new double[n];
+        }
+
+        /**
+         * @param offset index of the first voxel of the line.
+         * @param stride distance between consecutive voxels of the line.
+         * @param n number of voxels in the line.
+         * @param w spacing along the line.
+         */
+        void apply(int offset, int stride, int n, double w){
+            for(int i = 0; i<n; i++){
+                f[i] = squared[offset + i*stride];
+                lab[i] = labels[offset + i*stride];
+            }
+            int i = 0;
+            while(i < n){
+                int start = i;
+                while(i < n && lab[i] == lab[start]){
+                    i++;
+                }
+                segment(start, i, n, w);
+            }
+            for(i = 0; i<n; i++){
+                squared[offset + i*stride] = (float)result[i];
+            }
+        }
+
+        /**
+         * The voxels just outside of the segment have a different label, so they are at distance 0.
+         */
+        void segment(int start, int end, int n, double w){
+            int k = -1;
+            double w2 = w*w;
+            for(int q = start - 1; q<=end; q++){
+                double fq;
+                if(q == start - 1 || q == end){
+                    if(q < 0 || q >= n){
+                        continue;
+                    }
+                    fq = 0;
+                } else{
+                    fq = f[q];
+                    if(fq == Double.POSITIVE_INFINITY){
+                        continue;
+                    }
+                }
+                if(k < 0){
+                    k = 0;
+                    v[0] = q;
+                    fv[0] = fq;
+                    z[0] = Double.NEGATIVE_INFINITY;
+                    z[1] = Double.POSITIVE_INFINITY;
+                    continue;
+                }
+                double s = intersection(q, fq, v[k], fv[k], w2);
+                while(s <= z[k]){
+                    k--;
+                    if(k < 0){
+                        break;
+                    }
+                    s = intersection(q, fq, v[k], fv[k], w2);
+                }
+                k++;
+                v[k] = q;
+                fv[k] = fq;
+                z[k] = k == 0 ? Double.NEGATIVE_INFINITY : s;
+                z[k + 1] = Double.POSITIVE_INFINITY;
+            }
+
+            if(k < 0){
+                for(int q = start; q<end; q++){
+                    result[q] = Double.POSITIVE_INFINITY;
+                }
+                return;
+            }
+            int j = 0;
+            for(int q = start; q<end; q++){
+                while(z[j + 1] < q){
+                    j++;
+                }
+                double d = q - v[j];
+                result[q] = w2*d*d + fv[j];
+            }
+        }
+    }
+
+    /**
+     * Position where the parabola from q becomes lower than the parabola from p.
+     */
+    static double intersection(int q, double fq, int p, double fp, double w2){
+        return ((fq + w2*q*q) - (fp + w2*p*p))/(2*w2*(q - p));
+    }
+
+    /**
+     * @return distance of the voxel to the nearest voxel with a different label, infinite if there isn't one.
+     */
+    public double getDistance(int x, int y, int z){
+        return Math.sqrt(squared[(z*height + y)*width + x]);
+    }
+
+    public int getLabel(int x, int y, int z){
+        return labels[(z*height + y)*width + x];
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public int getDepth(){
+        return depth;
+    }
+}
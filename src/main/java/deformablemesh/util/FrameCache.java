@@ -0,0 +1,367 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.function.ToLongFunction;
+
+/**
+ * Least recently used cache of decoded frames, keyed by frame and channel, limited by a memory budget. Frames can be
+ * prefetched on a background thread, a request for a frame that is still being prefetched waits for it to finish
+ * instead of loading it again.
+ *
+ * Several caches can share a {@link Budget}, then the least recently used frame of all of the caches is evicted
+ * first, so the memory used is bounded no matter how many caches are created. The most recently requested frame of
+ * each cache is always kept, even if it alone is larger than the budget.
+ *
+ * @param <V> the decoded frame.
+ */
+public class FrameCache<V> {
+    private static ExecutorService prefetcher;
+
+    /**
+     * Decodes a frame, called without any locks held.
+     */
+    public interface Loader<V>{
+        V load(int frame, int channel);
+    }
+
+    /**
+     * Maximum number of bytes of frames kept by all of the caches that share it. The caches are only weakly
+     * referenced, a cache that is no longer used stops counting once it has been collected.
+     */
+    public static class Budget{
+        private final long bytes;
+        private final List<WeakReference<FrameCache<?>>> caches = new ArrayList<>();
+        private long clock = 0;
+
+        public Budget(long bytes){
+            this.bytes = bytes;
+        }
+
+        public long getBytes(){
+            return bytes;
+        }
+
+        synchronized void register(FrameCache<?> cache){
+            caches.add(new WeakReference<>(cache));
+        }
+
+        /**
+         * @return bytes used by the loaded frames of all of the caches.
+         */
+        public synchronized long getSizeInBytes(){
+            long total = 0;
+            for(FrameCache<?> cache: live()){
+                total += cache.getSizeInBytes();
+            }
+            return total;
+        }
+
+        private List<FrameCache<?>> live(){
+            List<FrameCache<?>> live = new ArrayList<>(caches.size());
+            Iterator<WeakReference<FrameCache<?>>> iter = caches.iterator();
+            while(iter.hasNext()){
+                FrameCache<?> cache = iter.next().get();
+                if(cache == null){
+                    iter.remove();
+                } else{
+                    live.add(cache);
+                }
+            }
+            return live;
+        }
+
+        /**
+         * Removes the least recently used loaded frames of all of the caches until they are within budget.
+         */
+        private void evict(){
+            List<FrameCache<?>> live = live();
+            long total = 0;
+            for(FrameCache<?> cache: live){
+                total += cache.getSizeInBytes();
+            }
+            while(total > bytes){
+                FrameCache<?> oldest = null;
+                long key = 0;
+                long stamp = Long.MAX_VALUE;
+                for(FrameCache<?> cache: live){
+                    for(Map.Entry<Long, ? extends Entry<?>> e: cache.entries.entrySet()){
+                        Entry<?> entry = e.getValue();
+                        if(e.getKey() == cache.current || entry.size < 0 || entry.stamp >= stamp){
+                            continue;
+                        }
+                        oldest = cache;
+                        key = e.getKey();
+                        stamp = entry.stamp;
+                    }
+                }
+                if(oldest == null){
+                    return;
+                }
+                total -= oldest.entries.remove(key).size;
+            }
+        }
+    }
+
+    private final Loader<V> loader;
+    private final ToLongFunction<V> sizer;
+    private final Budget budget;
+    private final Map<Long, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long current = -1;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param budget maximum number of bytes of frames that are kept by this cache alone.
+     * @param loader decodes frames that are not in the cache.
+     * @param sizer number of bytes used by a frame.
+     */
+    public FrameCache(long budget, Loader<V> loader, ToLongFunction<V> sizer){
+        this(new Budget(budget), loader, sizer);
+    }
+
+    /**
+     * @param budget shared with the other caches using it.
+     * @param loader decodes frames that are not in the cache.
+     * @param sizer number of bytes used by a frame.
+     */
+    public FrameCache(Budget budget, Loader<V> loader, ToLongFunction<V> sizer){
+        this.budget = budget;
+        this.loader = loader;
+        this.sizer = sizer;
+        budget.register(this);
+    }
+
+    static class Entry<V>{
+        final FutureTask<V> task;
+        long size = -1;
+        long stamp;
+        Entry(FutureTask<V> task){
+            this.task = task;
+        }
+    }
+
+    private static synchronized ExecutorService getPrefetcher(){
+        if(prefetcher == null){
+            prefetcher = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "frame-prefetch");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return prefetcher;
+    }
+
+    static long key(int frame, int channel){
+        return (((long)frame) << 32) | (channel & 0xffffffffL);
+    }
+
+    /**
+     * Gets a frame, loading it on the calling thread if it isn't cached or being prefetched.
+     *
+     * @param frame 0 based frame.
+     * @param channel 0 based channel.
+     * @return the decoded frame.
+     */
+    public V get(int frame, int channel){
+        long key = key(frame, channel);
+        Entry<V> entry;
+        boolean load = false;
+        synchronized(budget){
+            current = key;
+            entry = entries.get(key);
+            if(entry == null){
+                entry = new Entry<>(new FutureTask<>(() -> loader.load(frame, channel)));
+                entries.put(key, entry);
+                misses++;
+                load = true;
+            } else{
+                hits++;
+            }
+            entry.stamp = ++budget.clock;
+        }
+        if(load){
+            entry.task.run();
+        }
+        return finish(key, entry);
+    }
+
+    /**
+     * Starts loading a frame in the background, if it isn't already cached and there is room in the budget for it
+     * along side of the current frame. The loader is called on the prefetch thread, so it has to be safe to call
+     * while other threads use the source of the frames.
+     *
+     * @param frame 0 based frame.
+     * @param channel 0 based channel.
+     */
+    public void prefetch(int frame, int channel){
+        long key = key(frame, channel);
+        Entry<V> entry;
+        synchronized(budget){
+            if(entries.containsKey(key)){
+                return;
+            }
+            Entry<V> last = current < 0 ? null : getQuietly(current);
+            if(last == null || last.size < 0 || 2*last.size > budget.bytes){
+                return;
+            }
+            entry = new Entry<>(new FutureTask<>(() -> loader.load(frame, channel)));
+            entry.stamp = ++budget.clock;
+            entries.put(key, entry);
+        }
+        final Entry<V> prefetched = entry;
+        getPrefetcher().submit(() -> {
+            prefetched.task.run();
+            try{
+                finish(key, prefetched);
+            } catch(RuntimeException e){
+                //the failure is reported if the frame is requested.
+            }
+        });
+    }
+
+    /**
+     * Gets an entry without changing the access order.
+     */
+    private Entry<V> getQuietly(long key){
+        for(Map.Entry<Long, Entry<V>> e: entries.entrySet()){
+            if(e.getKey() == key){
+                return e.getValue();
+            }
+        }
+        return null;
+    }
+
+    private V finish(long key, Entry<V> entry){
+        V value;
+        try{
+            value = entry.task.get();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch(ExecutionException e){
+            synchronized(budget){
+                if(getQuietly(key) == entry){
+                    entries.remove(key);
+                }
+            }
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        synchronized(budget){
+            if(entry.size < 0){
+                entry.size = sizer.applyAsLong(value);
+            }
+            budget.evict();
+        }
+        return value;
+    }
+
+    /**
+     * Removes a frame, so the next request loads it again.
+     */
+    public void invalidate(int frame, int channel){
+        synchronized(budget){
+            entries.remove(key(frame, channel));
+        }
+    }
+
+    public void clear(){
+        synchronized(budget){
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return bytes used by the loaded frames of this cache.
+     */
+    public long getSizeInBytes(){
+        synchronized(budget){
+            long total = 0;
+            for(Entry<V> entry: entries.values()){
+                if(entry.size > 0){
+                    total += entry.size;
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * @return maximum bytes of frames, shared with any other caches using the same {@link Budget}.
+     */
+    public long getBudget(){
+        return budget.bytes;
+    }
+
+    public Budget getSharedBudget(){
+        return budget;
+    }
+
+    /**
+     * @return number of requests for frames that were cached or being prefetched.
+     */
+    public long getHits(){
+        synchronized(budget){
+            return hits;
+        }
+    }
+
+    /**
+     * @return number of requests that loaded the frame on the calling thread.
+     */
+    public long getMisses(){
+        synchronized(budget){
+            return misses;
+        }
+    }
+
+    /**
+     * @return frame, channel pairs of the cached frames from least to most recently used.
+     */
+    public List<int[]> getCachedFrames(){
+        synchronized(budget){
+            List<int[]> frames = new ArrayList<>();
+            for(Long key: entries.keySet()){
+                frames.add(new int[]{(int)(key >> 32), (int)(long)key});
+            }
+            return frames;
+        }
+    }
+}
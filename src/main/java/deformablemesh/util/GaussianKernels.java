@@ -48,6 +48,17 @@ public class GaussianKernels {
 
 
     public static double[] firstDerivative1DKernel() {
+        return firstDerivative1DKernel(sigma, width);
+    }
+
+    /**
+     * Derivative of a gaussian sampled at integer steps, normalized so the absolute values sum to 1.
+     *
+     * @param sigma width of the gaussian in steps.
+     * @param width number of steps on each side of the center.
+     * @return kernel with 2*width + 1 values.
+     */
+    public static double[] firstDerivative1DKernel(double sigma, int width) {
         double[] kernel1 = new double[2*width + 1];
         double s = 1.0/sigma/sigma/2;
         double factor = -1/Math.sqrt(2*Math.PI)/sigma;
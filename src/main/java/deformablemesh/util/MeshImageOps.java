@@ -256,9 +256,7 @@ public class MeshImageOps {
     MeshImageStack distanceTransformBinaryImage(ImagePlus stack){
 
             DistanceTransformMosaicImage dtmi = new DistanceTransformMosaicImage(stack);
-            dtmi.findBlobs();
-            dtmi.createCascades();
-            return new MeshImageStack(dtmi.createLabeledImage());
+            return new MeshImageStack(dtmi.createDistanceImage());
 
     }
 
@@ -0,0 +1,393 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.util;
+
+import deformablemesh.MeshImageStack;
+import deformablemesh.geometry.DeformableMesh3D;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scanline rasterisation of closed meshes into an image stack. All of the meshes added are drawn in one sweep over the
+ * slices, and the slices are drawn in parallel.
+ *
+ * Each slice of a mesh is the polygon formed by cutting the triangles with the plane of the slice. The polygon is
+ * filled row by row using the crossings of its edges with the row, a pixel is inside when the winding number is
+ * positive. A voxel (x, y, z) is filled when the mesh contains the point (x, y, z) in image coordinates, which is the
+ * same sampling as ray casting along x for each row. Meshes are drawn in the order they are added, so later meshes
+ * overwrite earlier meshes.
+ *
+ * The output is written directly into the pixel arrays of the stack, byte, short, int and float processors are
+ * supported.
+ */
+public class MeshRasterizer {
+    final MeshImageStack geometry;
+    final List<Shape> shapes = new ArrayList<>();
+
+    /**
+     * @param geometry used to transform mesh coordinates to image coordinates.
+     */
+    public MeshRasterizer(MeshImageStack geometry){
+        this.geometry = geometry;
+    }
+
+    /**
+     * Adds a mesh to be drawn with the provided value. The positions are copied, so the mesh can be changed after it
+     * has been added.
+     *
+     * @param mesh closed mesh with outward facing triangles.
+     * @param value written to each voxel inside of the mesh.
+     */
+    public void add(DeformableMesh3D mesh, int value){
+        shapes.add(new Shape(mesh, value));
+    }
+
+    public void clear(){
+        shapes.clear();
+    }
+
+    /**
+     * Draws all of the meshes that have been added, blocks until every slice is finished.
+     *
+     * @param out the stack that will be drawn to, the number of slices can be fewer than the original image.
+     */
+    public void rasterize(ImageStack out){
+        int w = out.getWidth();
+        int h = out.getHeight();
+        List<Runnable> tasks = new ArrayList<>();
+        for(int z = 0; z<out.getSize(); z++){
+            final int slice = z;
+            boolean present = false;
+            for(Shape shape: shapes){
+                if(shape.crosses(slice)){
+                    present = true;
+                    break;
+                }
+            }
+            if(!present){
+                continue;
+            }
+            ImageProcessor proc = out.getProcessor(slice + 1);
+            Object pixels = proc.getPixels();
+            tasks.add(() -> {
+                Scanlines scan = new Scanlines(w, h, pixels);
+                for(Shape shape: shapes){
+                    if(shape.crosses(slice)){
+                        scan.draw(shape, slice);
+                    }
+                }
+            });
+        }
+        DeformationScheduler.getShared().invokeAll(tasks);
+    }
+
+    /**
+     * Triangles of a mesh in image coordinates, with the triangles bucketed by the slices they cross.
+     */
+    class Shape{
+        final double[] positions;
+        final int[] triangles;
+        //+1 if the triangle faces -x, so crossing it going along x enters the mesh.
+        final byte[] winding;
+        final int value;
+        int lowSlice, highSlice;
+        int[] sliceStart;
+        int[] sliceTriangles;
+
+        Shape(DeformableMesh3D mesh, int value){
+            this.value = value;
+            int n = mesh.positions.length/3;
+            positions = new double[3*n];
+            double[] r = new double[3];
+            for(int i = 0; i<n; i++){
+                System.arraycopy(mesh.positions, 3*i, r, 0, 3);
+                double[] img = geometry.getImageCoordinates(r);
+                System.arraycopy(img, 0, positions, 3*i, 3);
+            }
+            triangles = mesh.triangle_index.clone();
+            int t = triangles.length/3;
+            winding = new byte[t];
+
+            double low = Double.MAX_VALUE;
+            double high = -Double.MAX_VALUE;
+            for(int i = 0; i<t; i++){
+                int a = 3*triangles[3*i];
+                int b = 3*triangles[3*i + 1];
+                int c = 3*triangles[3*i + 2];
+                double aby = positions[b + 1] - positions[a + 1];
+                double abz = positions[b + 2] - positions[a + 2];
+                double acy = positions[c + 1] - positions[a + 1];
+                double acz = positions[c + 2] - positions[a + 2];
+                double nx = aby*acz - abz*acy;
+                winding[i] = (byte)(nx < 0 ? 1 : nx > 0 ? -1 : 0);
+                for(int k: new int[]{a, b, c}){
+                    low = Math.min(low, positions[k + 2]);
+                    high = Math.max(high, positions[k + 2]);
+                }
+            }
+            if(t == 0){
+                lowSlice = 0;
+                highSlice = -1;
+                return;
+            }
+            //a triangle crosses the slices s with zmin < s <= zmax.
+            lowSlice = (int)Math.floor(low) + 1;
+            highSlice = (int)Math.floor(high);
+            int slices = highSlice - lowSlice + 1;
+            if(slices <= 0){
+                return;
+            }
+            sliceStart = new int[slices + 1];
+            //triangles parallel to x are never crossed by a row, so they are left out.
+            for(int i = 0; i<t; i++){
+                if(winding[i] == 0){
+                    continue;
+                }
+                int[] range = sliceRange(i);
+                for(int s = range[0]; s<=range[1]; s++){
+                    sliceStart[s - lowSlice + 1]++;
+                }
+            }
+            for(int s = 0; s<slices; s++){
+                sliceStart[s + 1] += sliceStart[s];
+            }
+            sliceTriangles = new int[sliceStart[slices]];
+            int[] filled = new int[slices];
+            for(int i = 0; i<t; i++){
+                if(winding[i] == 0){
+                    continue;
+                }
+                int[] range = sliceRange(i);
+                for(int s = range[0]; s<=range[1]; s++){
+                    int k = s - lowSlice;
+                    sliceTriangles[sliceStart[k] + filled[k]++] = i;
+                }
+            }
+        }
+
+        int[] sliceRange(int triangle){
+            double low = Double.MAX_VALUE;
+            double high = -Double.MAX_VALUE;
+            for(int k = 0; k<3; k++){
+                double z = positions[3*triangles[3*triangle + k] + 2];
+                low = Math.min(low, z);
+                high = Math.max(high, z);
+            }
+            return new int[]{(int)Math.floor(low) + 1, (int)Math.floor(high)};
+        }
+
+        boolean crosses(int slice){
+            return slice >= lowSlice && slice <= highSlice && sliceStart[slice - lowSlice + 1] > sliceStart[slice - lowSlice];
+        }
+    }
+
+    /**
+     * Working buffers for drawing the meshes in one slice.
+     */
+    static class Scanlines{
+        final int width, height;
+        final Object pixels;
+
+        //segments of the cut polygon: x0, y0, x1, y1.
+        double[] segments = new double[64];
+        byte[] segmentWinding = new byte[16];
+        int[] rowStart;
+        double[] crossings = new double[16];
+        byte[] crossingWinding = new byte[16];
+        int[] rowFilled;
+
+        Scanlines(int width, int height, Object pixels){
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+            rowStart = new int[height + 1];
+            rowFilled = new int[height];
+        }
+
+        void draw(Shape shape, int slice){
+            int k = slice - shape.lowSlice;
+            int n = 0;
+            for(int i = shape.sliceStart[k]; i<shape.sliceStart[k + 1]; i++){
+                if(cut(shape, shape.sliceTriangles[i], slice, n)){
+                    n++;
+                }
+            }
+
+            //rows touched by this mesh, a segment crosses the rows y with ymin < y <= ymax.
+            int rowLow = height;
+            int rowHigh = -1;
+            for(int i = 0; i<n; i++){
+                rowLow = Math.min(rowLow, Math.max(firstRow(i), 0));
+                rowHigh = Math.max(rowHigh, Math.min(lastRow(i), height - 1));
+            }
+            if(rowHigh < rowLow){
+                return;
+            }
+
+            //count the crossings of each row.
+            Arrays.fill(rowStart, rowLow, rowHigh + 2, 0);
+            for(int i = 0; i<n; i++){
+                int lo = Math.max(firstRow(i), 0);
+                int hi = Math.min(lastRow(i), height - 1);
+                for(int y = lo; y<=hi; y++){
+                    rowStart[y + 1]++;
+                }
+            }
+            for(int y = rowLow; y<=rowHigh; y++){
+                rowStart[y + 1] += rowStart[y];
+            }
+            int total = rowStart[rowHigh + 1];
+            if(crossings.length < total){
+                crossings = new double[2*total];
+                crossingWinding = new byte[2*total];
+            }
+            Arrays.fill(rowFilled, rowLow, rowHigh + 1, 0);
+            for(int i = 0; i<n; i++){
+                int lo = Math.max(firstRow(i), 0);
+                int hi = Math.min(lastRow(i), height - 1);
+                double x0 = segments[4*i];
+                double y0 = segments[4*i + 1];
+                double x1 = segments[4*i + 2];
+                double y1 = segments[4*i + 3];
+                double slope = (x1 - x0)/(y1 - y0);
+                for(int y = lo; y<=hi; y++){
+                    int index = rowStart[y] + rowFilled[y]++;
+                    crossings[index] = x0 + (y - y0)*slope;
+                    crossingWinding[index] = segmentWinding[i];
+                }
+            }
+
+            for(int y = rowLow; y<=rowHigh; y++){
+                int start = rowStart[y];
+                int end = rowStart[y + 1];
+                if(end > start){
+                    fillRow(y, start, end, shape.value);
+                }
+            }
+        }
+
+        int firstRow(int segment){
+            double lo = Math.min(segments[4*segment + 1], segments[4*segment + 3]);
+            return (int)Math.floor(lo) + 1;
+        }
+
+        int lastRow(int segment){
+            double hi = Math.max(segments[4*segment + 1], segments[4*segment + 3]);
+            return (int)Math.floor(hi);
+        }
+
+        /**
+         * Cuts the triangle with the plane of the slice, a vertex is above the plane when z >= slice.
+         *
+         * @return true if a segment was added.
+         */
+        boolean cut(Shape shape, int triangle, int slice, int n){
+            if(segments.length < 4*(n + 1)){
+                segments = Arrays.copyOf(segments, 8*(n + 1));
+                segmentWinding = Arrays.copyOf(segmentWinding, 2*(n + 1));
+            }
+            double[] p = shape.positions;
+            int found = 0;
+            for(int e = 0; e<3; e++){
+                int a = 3*shape.triangles[3*triangle + e];
+                int b = 3*shape.triangles[3*triangle + (e + 1)%3];
+                if(a > b){
+                    //the neighboring triangle cuts the shared edge at exactly the same point.
+                    int swap = a;
+                    a = b;
+                    b = swap;
+                }
+                double za = p[a + 2];
+                double zb = p[b + 2];
+                if((za >= slice) != (zb >= slice)){
+                    double t = (slice - za)/(zb - za);
+                    segments[4*n + 2*found] = p[a] + t*(p[b] - p[a]);
+                    segments[4*n + 2*found + 1] = p[a + 1] + t*(p[b + 1] - p[a + 1]);
+                    found++;
+                    if(found == 2){
+                        break;
+                    }
+                }
+            }
+            if(found < 2 || segments[4*n + 1] == segments[4*n + 3]){
+                return false;
+            }
+            segmentWinding[n] = shape.winding[triangle];
+            return true;
+        }
+
+        /**
+         * Sorts the crossings of the row and fills the pixels p with entry < p <= exit.
+         */
+        void fillRow(int y, int start, int end, int value){
+            for(int i = start + 1; i<end; i++){
+                double x = crossings[i];
+                byte wi = crossingWinding[i];
+                int j = i - 1;
+                while(j >= start && crossings[j] > x){
+                    crossings[j + 1] = crossings[j];
+                    crossingWinding[j + 1] = crossingWinding[j];
+                    j--;
+                }
+                crossings[j + 1] = x;
+                crossingWinding[j + 1] = wi;
+            }
+            int offset = y*width;
+            int count = 0;
+            for(int i = start; i<end - 1; i++){
+                count += crossingWinding[i];
+                if(count <= 0){
+                    continue;
+                }
+                int lo = (int)Math.floor(crossings[i]) + 1;
+                int hi = (int)Math.floor(crossings[i + 1]);
+                lo = lo < 0 ? 0 : lo;
+                hi = hi >= width ? width - 1 : hi;
+                if(hi >= lo){
+                    fill(offset + lo, offset + hi + 1, value);
+                }
+            }
+        }
+
+        void fill(int from, int to, int value){
+            if(pixels instanceof int[]){
+                Arrays.fill((int[])pixels, from, to, value);
+            } else if(pixels instanceof short[]){
+                Arrays.fill((short[])pixels, from, to, (short)value);
+            } else if(pixels instanceof byte[]){
+                Arrays.fill((byte[])pixels, from, to, (byte)value);
+            } else if(pixels instanceof float[]){
+                Arrays.fill((float[])pixels, from, to, value);
+            } else{
+                throw new IllegalArgumentException("Cannot rasterize to pixels of type: " + pixels.getClass());
+            }
+        }
+    }
+}
@@ -149,23 +149,18 @@ public class BoxRegionConnectedComponents {
 
         for (Region region : regions) {
             Integer key = region.getLabel();
-            List<int[]> points = region.getPoints();
+            int count = region.calculateVolume();
 
-
-            if (points.size() < cutoff) {
+            if (count < cutoff) {
                 small++;
                 toRemove.add(region);
-                for (int[] pt : points) {
-                    pixels[pt[2] - 1][pt[0] + pt[1]*width] = 0;
-                }
+                region.getVoxels().forEach((x, y, z) -> pixels[z - 1][x + y*width] = 0);
             } else {
-                for (int[] pt : points) {
-                    pixels[pt[2] - 1][pt[0] + pt[1]*width] = (short)key.shortValue();
-                }
+                region.getVoxels().forEach((x, y, z) -> pixels[z - 1][x + y*width] = key.shortValue());
             }
 
-            if (points.size() > size) {
-                size = points.size();
+            if (count > size) {
+                size = count;
                 biggest = key;
             }
         }
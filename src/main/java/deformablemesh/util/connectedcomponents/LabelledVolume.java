@@ -0,0 +1,417 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.util.connectedcomponents;
+
+import deformablemesh.util.DeformationScheduler;
+import deformablemesh.volume.VoxelSet;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 3D connected components of a thresholded stack, stored as one int label per voxel. Any non-zero voxel is foreground
+ * and voxels are connected to their six face neighbors, the same as {@link ConnectedComponents3D}.
+ *
+ * The stack is split into slabs of slices that are labelled concurrently with a primitive union find, then the labels
+ * are merged across the slab boundaries. The size, bounds and centroid of each region are collected in a single pass
+ * over the labels, so the voxels of a region are only listed when they are requested.
+ *
+ * Labels go from 1 to {@link #getRegionCount()} in the order the regions are first encountered, 0 is background.
+ * Coordinates use the same convention as {@link Region}, x, y and the 1 based slice.
+ */
+public class LabelledVolume {
+    final int width, height, depth;
+    final int[] labels;
+    int regions;
+
+    int[] counts;
+    //lx, ly, lz, hx, hy, hz for each region, inclusive.
+    int[] bounds;
+    //x, y, z sums for each region.
+    double[] sums;
+
+    LabelledVolume(int width, int height, int depth){
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        long n = ((long)width)*height*depth;
+        if(n > Integer.MAX_VALUE - 8){
+            throw new IllegalArgumentException("Stack of " + n + " voxels is too large to label.");
+        }
+        labels = new int[(int)n];
+    }
+
+    /**
+     * Labels the stack, which is not modified.
+     *
+     * @param threshed thresholded stack, non-zero values are foreground.
+     * @return the labelled volume.
+     */
+    public static LabelledVolume label(ImageStack threshed){
+        LabelledVolume volume = new LabelledVolume(threshed.getWidth(), threshed.getHeight(), threshed.getSize());
+        volume.process(threshed, DeformationScheduler.getShared().getParallelism());
+        return volume;
+    }
+
+    /**
+     * Provisional labels of a range of slices, numbered from 1 within the slab.
+     */
+    static class Slab{
+        final int z0, z1;
+        int[] parent = new int[64];
+        int next = 1;
+        int offset;
+        Slab(int z0, int z1){
+            this.z0 = z0;
+            this.z1 = z1;
+        }
+
+        int create(){
+            if(next == parent.length){
+                int[] grown = new int[2*parent.length];
+                System.arraycopy(parent, 0, grown, 0, parent.length);
+                parent = grown;
+            }
+            parent[next] = next;
+            return next++;
+        }
+    }
+
+    void process(ImageStack threshed, int parallelism){
+        int nSlabs = Math.max(1, Math.min(parallelism, depth));
+        List<Slab> slabs = new ArrayList<>(nSlabs);
+        for(int i = 0; i<nSlabs; i++){
+            slabs.add(new Slab(i*depth/nSlabs, (i + 1)*depth/nSlabs));
+        }
+
+        List<Runnable> tasks = new ArrayList<>(nSlabs);
+        for(Slab slab: slabs){
+            tasks.add(() -> firstPass(threshed, slab));
+        }
+        run(tasks);
+
+        //global provisional label is the slab label plus the slab offset.
+        int total = 1;
+        for(Slab slab: slabs){
+            slab.offset = total - 1;
+            total += slab.next - 1;
+        }
+        int[] parent = new int[total];
+        for(Slab slab: slabs){
+            for(int i = 1; i<slab.next; i++){
+                parent[i + slab.offset] = slab.parent[i] + slab.offset;
+            }
+        }
+
+        int plane = width*height;
+        for(int s = 1; s<slabs.size(); s++){
+            Slab below = slabs.get(s - 1);
+            Slab above = slabs.get(s);
+            if(above.z0 == above.z1 || below.z0 == below.z1){
+                continue;
+            }
+            int a = above.z0*plane;
+            int b = a - plane;
+            for(int i = 0; i<plane; i++){
+                if(labels[a + i] != 0 && labels[b + i] != 0){
+                    union(parent, labels[b + i] + below.offset, labels[a + i] + above.offset);
+                }
+            }
+        }
+
+        //final label of every provisional label, in the order the regions were created.
+        int[] compact = new int[total];
+        regions = 0;
+        for(int i = 1; i<total; i++){
+            int root = find(parent, i);
+            if(root == i){
+                compact[i] = ++regions;
+            } else{
+                compact[i] = compact[root];
+            }
+        }
+
+        tasks.clear();
+        for(Slab slab: slabs){
+            tasks.add(() -> relabel(slab, compact));
+        }
+        run(tasks);
+
+        collectStatistics();
+    }
+
+    static void run(List<Runnable> tasks){
+        if(tasks.size() == 1){
+            tasks.get(0).run();
+        } else{
+            DeformationScheduler.getShared().invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Raster scan of the slab, connecting each foreground voxel to the previous voxel in x, y and z.
+     */
+    void firstPass(ImageStack threshed, Slab slab){
+        int plane = width*height;
+        for(int z = slab.z0; z<slab.z1; z++){
+            Object pixels = threshed.getPixels(z + 1);
+            int o = z*plane;
+            for(int y = 0; y<height; y++){
+                for(int x = 0; x<width; x++){
+                    int p = y*width + x;
+                    if(!isForeground(pixels, p)){
+                        continue;
+                    }
+                    int i = o + p;
+                    int label = 0;
+                    if(x > 0 && labels[i - 1] != 0){
+                        label = labels[i - 1];
+                    }
+                    if(y > 0 && labels[i - width] != 0){
+                        label = label == 0 ? labels[i - width] : union(slab.parent, label, labels[i - width]);
+                    }
+                    if(z > slab.z0 && labels[i - plane] != 0){
+                        label = label == 0 ? labels[i - plane] : union(slab.parent, label, labels[i - plane]);
+                    }
+                    labels[i] = label == 0 ? slab.create() : label;
+                }
+            }
+        }
+    }
+
+    static boolean isForeground(Object pixels, int i){
+        if(pixels instanceof byte[]){
+            return ((byte[])pixels)[i] != 0;
+        } else if(pixels instanceof short[]){
+            return ((short[])pixels)[i] != 0;
+        } else if(pixels instanceof float[]){
+            return ((float[])pixels)[i] != 0;
+        } else{
+            return ((int[])pixels)[i] != 0;
+        }
+    }
+
+    /**
+     * Replaces the provisional labels with the final labels.
+     */
+    void relabel(Slab slab, int[] compact){
+        int end = slab.z1*width*height;
+        for(int i = slab.z0*width*height; i<end; i++){
+            int l = labels[i];
+            if(l == 0){
+                continue;
+            }
+            labels[i] = compact[l + slab.offset];
+        }
+    }
+
+    void collectStatistics(){
+        counts = new int[regions + 1];
+        bounds = new int[6*(regions + 1)];
+        sums = new double[3*(regions + 1)];
+        for(int i = 1; i<=regions; i++){
+            bounds[6*i] = bounds[6*i + 1] = bounds[6*i + 2] = Integer.MAX_VALUE;
+            bounds[6*i + 3] = bounds[6*i + 4] = bounds[6*i + 5] = -1;
+        }
+        int i = 0;
+        for(int slice = 1; slice<=depth; slice++){
+            for(int y = 0; y<height; y++){
+                for(int x = 0; x<width; x++){
+                    int l = labels[i++];
+                    if(l == 0){
+                        continue;
+                    }
+                    counts[l]++;
+                    int b = 6*l;
+                    if(x < bounds[b]) bounds[b] = x;
+                    if(y < bounds[b + 1]) bounds[b + 1] = y;
+                    if(slice < bounds[b + 2]) bounds[b + 2] = slice;
+                    if(x > bounds[b + 3]) bounds[b + 3] = x;
+                    if(y > bounds[b + 4]) bounds[b + 4] = y;
+                    if(slice > bounds[b + 5]) bounds[b + 5] = slice;
+                    sums[3*l] += x;
+                    sums[3*l + 1] += y;
+                    sums[3*l + 2] += slice;
+                }
+            }
+        }
+    }
+
+    static int find(int[] parent, int i){
+        while(parent[i] != i){
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Joins the two sets, the smaller label becomes the root.
+     *
+     * @return the root of the joined set.
+     */
+    static int union(int[] parent, int a, int b){
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if(ra < rb){
+            parent[rb] = ra;
+            return ra;
+        } else{
+            parent[ra] = rb;
+            return rb;
+        }
+    }
+
+    /**
+     * @return number of regions, labels go from 1 to the count inclusive.
+     */
+    public int getRegionCount(){
+        return regions;
+    }
+
+    /**
+     * @param x 0 based
+     * @param y 0 based
+     * @param slice 1 based
+     * @return label of the voxel, 0 for background.
+     */
+    public int getLabel(int x, int y, int slice){
+        return labels[((slice - 1)*height + y)*width + x];
+    }
+
+    public int getVoxelCount(int label){
+        return counts[label];
+    }
+
+    /**
+     * @return smallest x, y and slice of the region.
+     */
+    public int[] getLowCorner(int label){
+        return new int[]{bounds[6*label], bounds[6*label + 1], bounds[6*label + 2]};
+    }
+
+    /**
+     * @return largest x, y and slice of the region, inclusive.
+     */
+    public int[] getHighCorner(int label){
+        return new int[]{bounds[6*label + 3], bounds[6*label + 4], bounds[6*label + 5]};
+    }
+
+    public double[] getCentroid(int label){
+        double n = counts[label];
+        return new double[]{sums[3*label]/n, sums[3*label + 1]/n, sums[3*label + 2]/n};
+    }
+
+    /**
+     * Collects the voxels of a region as runs, only the bounding box of the region is scanned.
+     *
+     * @return x, y, slice of each voxel.
+     */
+    public VoxelSet getVoxels(int label){
+        VoxelSet voxels = new VoxelSet();
+        int plane = width*height;
+        int x0 = bounds[6*label];
+        int x1 = bounds[6*label + 3];
+        for(int slice = bounds[6*label + 2]; slice<=bounds[6*label + 5]; slice++){
+            for(int y = bounds[6*label + 1]; y<=bounds[6*label + 4]; y++){
+                int o = (slice - 1)*plane + y*width;
+                int start = -1;
+                for(int x = x0; x<=x1; x++){
+                    if(labels[o + x] == label){
+                        if(start < 0){
+                            start = x;
+                        }
+                    } else if(start >= 0){
+                        voxels.addRun(start, x, y, slice);
+                        start = -1;
+                    }
+                }
+                if(start >= 0){
+                    voxels.addRun(start, x1 + 1, y, slice);
+                }
+            }
+        }
+        return voxels;
+    }
+
+    /**
+     * @return a new list with the x, y, slice of each voxel.
+     */
+    public List<int[]> getPoints(int label){
+        return getVoxels(label).toList();
+    }
+
+    public Region getRegion(int label){
+        return new Region(label, getVoxels(label));
+    }
+
+    /**
+     * Creates regions for all of the labels with at least the minimum number of voxels.
+     *
+     * @param minSize smallest region that is included.
+     * @return regions ordered by label.
+     */
+    public List<Region> getRegions(int minSize){
+        List<Region> result = new ArrayList<>();
+        for(int i = 1; i<=regions; i++){
+            if(counts[i] >= minSize){
+                result.add(getRegion(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the values of the stack with the labels, labels that are too large for the stack type are clamped.
+     *
+     * @param stack same dimensions as the labelled stack.
+     */
+    public void writeLabels(ImageStack stack){
+        int plane = width*height;
+        for(int z = 0; z<depth; z++){
+            ImageProcessor proc = stack.getProcessor(z + 1);
+            double max = proc.maxValue();
+            for(int i = 0; i<plane; i++){
+                int l = labels[z*plane + i];
+                proc.setf(i, (float)(l > max ? max : l));
+            }
+        }
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public int getDepth(){
+        return depth;
+    }
+}
@@ -30,6 +30,7 @@ import deformablemesh.gui.Drawable;
 import deformablemesh.meshview.DataObject;
 import deformablemesh.meshview.VolumeDataObject;
 import deformablemesh.util.ColorSuggestions;
+import deformablemesh.volume.VoxelSet;
 import ij.ImageStack;
 import ij.process.ShortProcessor;
 
@@ -42,7 +43,7 @@ import java.util.List;
 
 public class Region {
     public static Drawable misses = g2d->{};
-    List<int[]> pts = new ArrayList<>();
+    VoxelSet voxels;
     int lx = Integer.MAX_VALUE;
     int ly = lx;
     int lz = lx;
@@ -54,28 +55,28 @@ public class Region {
     boolean selected = false;
     int label;
     Region(int label, List<int[]> pts) {
+        this(label, new VoxelSet(pts));
+    }
+
+    Region(int label, VoxelSet voxels){
         this.label= label;
         c = ColorSuggestions.getSuggestion();
-        for(int[] pt: pts){
-            lx = pt[0]<lx?pt[0]:lx;
-            ly = pt[1]<ly?pt[1]:ly;
-            lz = pt[2]<lz?pt[2]:lz;
-
-            hx = pt[0]>hx?pt[0]:hx;
-            hy = pt[1]>hy?pt[1]:hy;
-            hz = pt[2]>hz?pt[2]:hz;
-            center[0] += pt[0];
-            center[1] += pt[1];
-            center[2] += pt[2];
+        if(voxels.size() > 0){
+            int[] low = voxels.getLowCorner();
+            int[] high = voxels.getHighCorner();
+            lx = low[0];
+            ly = low[1];
+            lz = low[2];
+            hx = high[0];
+            hy = high[1];
+            hz = high[2];
         }
-        center[0] = center[0]/pts.size();
-        center[1] = center[1]/pts.size();
-        center[2] = center[2]/pts.size();
+        center = voxels.getCentroid();
 
         hx = hx+1;
         hy = hy+1;
         hz = hz+1;
-        this.pts = pts;
+        this.voxels = voxels;
     }
 
     public double[] getSize(){
@@ -96,7 +97,7 @@ public class Region {
     public DataObject getDataObject(MeshImageStack stack){
         if(dataObject==null){
             dataObject = new VolumeDataObject(c);
-            dataObject.setTextureData(stack, pts);
+            dataObject.setTextureData(stack, voxels.toList());
             double[] corner = stack.getNormalizedCoordinate(new double[]{lx-stack.offsets[0]*0.5, ly-stack.offsets[0]*0.5, lz-stack.offsets[0]*0.5});
             dataObject.setPosition(corner[0], corner[1], corner[2]);
         }
@@ -114,11 +115,7 @@ public class Region {
         lz += dz;
         hz += dz;
 
-        for(int[] pt: pts){
-            pt[0] += dx;
-            pt[1] += dy;
-            pt[2] += dz;
-        }
+        voxels.translate(dx, dy, dz);
         center[0] += dx;
         center[1] += dy;
         center[2] += dz;
@@ -137,17 +134,14 @@ public class Region {
         int lowy = hy;
         int highy = ly;
 
-        for(int[] p: pts){
-            if(p[2]!=z){
-                continue;
-            }
+        voxels.forEachInSlice(z, (x, y, sz) -> plane.add(new int[]{x, y, sz}));
+        for(int[] p: plane){
             int x = p[0];
             int y = p[1];
             lowx = x<lowx?x: lowx;
             highx = x>highx?x: highx;
             lowy = y<lowy?y: lowy;
             highy = y>highy?y: highy;
-            plane.add(p);
         }
 
         if(plane.size()==0){
@@ -200,7 +194,7 @@ public class Region {
         int lowy = hy;
         int highy = ly;
 
-        for(int[] p: pts){
+        for(int[] p: voxels){
             if(p[0]!=x){
                 continue;
             }
@@ -257,7 +251,7 @@ public class Region {
         int lowz = hz;
         int highz = lz;
 
-        for(int[] p: pts){
+        for(int[] p: voxels){
             if(p[1]!=y){
                 continue;
             }
@@ -358,7 +352,7 @@ public class Region {
     }
 
     public int calculateVolume() {
-        return pts.size();
+        return voxels.size();
     }
 
     public int calculateSlices(){
@@ -368,8 +362,15 @@ public class Region {
     public double[] getCenter() {
         return center;
     }
+    /**
+     * @return a new list of the voxels, changes to the list do not change the region.
+     */
     public List<int[]> getPoints(){
-        return pts;
+        return voxels.toList();
+    }
+
+    public VoxelSet getVoxels(){
+        return voxels;
     }
 
     ImageStack getLocalBinaryPixels(){
@@ -379,9 +380,7 @@ public class Region {
         for(int i = 0; i<sizes[2]; i++){
             stack.addSlice(new ShortProcessor(sizes[0], sizes[1]));
         }
-        for(int[] pt: pts){
-            stack.getProcessor(pt[2] - lz + 1).set(pt[0]-lx, pt[1]-ly, 1);
-        }
+        voxels.forEach((x, y, z) -> stack.getProcessor(z - lz + 1).set(x - lx, y - ly, 1));
         return stack;
     }
     public List<Region> split(){
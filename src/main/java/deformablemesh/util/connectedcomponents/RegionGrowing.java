@@ -25,13 +25,13 @@
  */
 package deformablemesh.util.connectedcomponents;
 
+import deformablemesh.volume.VoxelSet;
 import ij.ImageStack;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 public class RegionGrowing{
     final List<short[]> labelPixels;
@@ -40,7 +40,7 @@ public class RegionGrowing{
     final int height;
     final int slices;
     List<Region> regions;
-    Map<Integer, List<int[]>> frontiers;
+    Map<Integer, VoxelSet> frontiers;
 
     public RegionGrowing(ImageStack labels, ImageStack constraints){
         width = labels.getWidth();
@@ -59,13 +59,12 @@ public class RegionGrowing{
         frontiers = new HashMap<>();
         for(Region region: regions){
             Integer key = region.getLabel();
-            List<int[]> points = region.getPoints();
-            List<int[]> frontier = new ArrayList<>();
-            for(int[] pt: points){
-                if(isFrontier(key, pt)){
-                    frontier.add(pt);
+            VoxelSet frontier = new VoxelSet();
+            region.getVoxels().forEach((x, y, z) -> {
+                if(isFrontier(key, x, y, z)){
+                    frontier.add(x, y, z);
                 }
-            }
+            });
             frontiers.put(key, frontier);
         }
     }
@@ -79,14 +78,14 @@ public class RegionGrowing{
     public short[] getLabelPixels(int i){
         return labelPixels.get(i-1);
     }
-    boolean isFrontier(int label, int[] xyz){
+    boolean isFrontier(int label, int x0, int y0, int z0){
         for(int i = -1; i<=1; i++){
-            int z = xyz[2] + i;
+            int z = z0 + i;
             if(z<1 || z>slices){
                 continue;
             }
             for(int j = -1; j<=1; j++){
-                int y = xyz[1] + j;
+                int y = y0 + j;
                 if(y<0 || y>=height){
                     continue;
                 }
@@ -96,7 +95,7 @@ public class RegionGrowing{
                         continue;
                     }
 
-                    int x = xyz[0] + k;
+                    int x = x0 + k;
                     if(x<0 || x>=width){
                         continue;
                     }
@@ -111,15 +110,17 @@ public class RegionGrowing{
         return false;
     }
 
-    List<int[]> possible(int label, int[] front){
-        List<int[]> values = new ArrayList<>();
+    /**
+     * Adds the unlabelled neighbors of the voxel that satisfy the constraint to the set.
+     */
+    void possible(int x0, int y0, int z0, VoxelSet values){
         for(int i = -1; i<=1; i++){
-            int z = front[2] + i;
+            int z = z0 + i;
             if(z<1 || z>slices){
                 continue;
             }
             for(int j = -1; j<=1; j++){
-                int y = front[1] + j;
+                int y = y0 + j;
                 if(y<0 || y>=height){
                     continue;
                 }
@@ -129,19 +130,18 @@ public class RegionGrowing{
                         continue;
                     }
 
-                    int x = front[0] + k;
+                    int x = x0 + k;
                     if(x<0 || x>=width){
                         continue;
                     }
                     int l = getLabel(x, y, z);
                     if( l == 0 && isValid(x, y, z)){
-                        values.add(new int[]{x, y, z});
+                        values.add(x, y, z);
                     }
 
                 }
             }
         }
-        return values;
     }
     public Region getRegion(Integer label){
         for(Region region: regions){
@@ -153,30 +153,23 @@ public class RegionGrowing{
     }
     public void step(){
         for(Integer key: frontiers.keySet()){
-            PixelSet set = new PixelSet();
-            List<int[]> frontier = frontiers.get(key);
-            for(int[] px: frontier){
-                List<int[]> candidates = possible(key, px);
-                for(int[] n: candidates){
-                    set.add(n);
-                }
-            }
-            frontier.clear();
-            List<int[]> region = getRegion(key).getPoints();
-            for(int[] px: set.original){
-                setLabel(px, key);
-                frontier.add(px);
-                region.add(px);
-            }
-
+            VoxelSet set = new VoxelSet();
+            VoxelSet frontier = frontiers.get(key);
+            frontier.forEach((x, y, z) -> possible(x, y, z, set));
+            set.forEach((x, y, z) -> setLabel(x, y, z, key));
+            getRegion(key).getVoxels().addAll(set);
+            frontiers.put(key, set);
         }
     }
 
     public int getFrontierSize(){
-        return frontiers.values().stream().mapToInt(List::size).sum();
+        return frontiers.values().stream().mapToInt(VoxelSet::size).sum();
+    }
+    public void setLabel(int x, int y, int z, int label){
+        labelPixels.get(z-1)[x + width*y] = (short)label;
     }
     public void setLabel(int[] xyz, int label){
-        labelPixels.get(xyz[2]-1)[xyz[0] + width*xyz[1]] = (short)label;
+        setLabel(xyz[0], xyz[1], xyz[2], label);
     }
     boolean isValid(int x, int y, int z){
         return constraintPixels.get(z-1)[x + y*width] != 0;
@@ -25,24 +25,23 @@
  */
 package deformablemesh.util.connectedcomponents;
 
+import deformablemesh.volume.VoxelSet;
+
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class ShrinkRegion {
     byte[] volume;
     int[] dim;
     int[] org;
     int label;
-    List<int[]> points = new ArrayList<>();
+    VoxelSet points;
     public ShrinkRegion(Region r){
-        points = new ArrayList<>(r.getPoints());
+        points = new VoxelSet(r.getVoxels());
         dim = new int[] {r.hx - r.lx, r.hy - r.ly, r.hz - r.lz};
         org = new int[] {r.lx, r.ly, r.lz};
         volume = new byte[r.hx*r.hy*r.hz];
-        for(int[] pt: points){
-            volume[getIndex(pt)] = 1;
-        }
+        points.forEach((x, y, z) -> volume[getIndex(x, y, z)] = 1);
         label = r.label;
     }
     int getIndex(int[] xyz){
@@ -84,7 +83,12 @@ public class ShrinkRegion {
         return false;
     }
     public void step(){
-        List<int[]> removing = points.stream().filter(this::isEdge).collect(Collectors.toList());
+        List<int[]> removing = new ArrayList<>();
+        for(int[] pt: points){
+            if(isEdge(pt)){
+                removing.add(pt);
+            }
+        }
         System.out.println("removing: " + removing.size() + "of" + points.size() + " pixels");
         removing.forEach(this::remove);
     }
@@ -94,6 +98,6 @@ public class ShrinkRegion {
         volume[getIndex(xyz)] = 0;
     }
     public Region generateRegion(){
-        return new Region(label, points);
+        return new Region(label, new VoxelSet(points));
     }
 }
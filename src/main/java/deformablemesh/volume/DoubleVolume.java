@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.volume;
+
+/**
+ * Voxels stored as double[slice][row][column], the original storage of {@link deformablemesh.MeshImageStack}.
+ */
+public class DoubleVolume implements VoxelVolume{
+    final double[][][] data;
+
+    public DoubleVolume(int width, int height, int depth){
+        this(new double[depth][height][width]);
+    }
+
+    /**
+     * Wraps existing data without copying it.
+     *
+     * @param data indexed [z][y][x].
+     */
+    public DoubleVolume(double[][][] data){
+        this.data = data;
+    }
+
+    @Override
+    public int getWidth(){
+        return data[0][0].length;
+    }
+
+    @Override
+    public int getHeight(){
+        return data[0].length;
+    }
+
+    @Override
+    public int getDepth(){
+        return data.length;
+    }
+
+    @Override
+    public double getValue(int x, int y, int z){
+        return data[z][y][x];
+    }
+
+    @Override
+    public void setValue(int x, int y, int z, double v){
+        data[z][y][x] = v;
+    }
+
+    @Override
+    public long getSizeInBytes(){
+        return 8L*getWidth()*getHeight()*getDepth();
+    }
+}
@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.volume;
+
+/**
+ * Voxels stored in a single flat float array. ImageJ pixel values are at most floats, so this is lossless for any
+ * ImagePlus at half the memory of {@link DoubleVolume}.
+ */
+public class FloatVolume implements VoxelVolume{
+    final int width, height, depth;
+    final float[] values;
+
+    public FloatVolume(int width, int height, int depth){
+        long n = ((long)width)*height*depth;
+        if(n > VolumeStorage.MAX_ARRAY_VOXELS){
+            throw new IllegalArgumentException("Volume of " + n + " voxels is too large for an array, use off heap storage.");
+        }
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        values = new float[(int)n];
+    }
+
+    @Override
+    public int getWidth(){
+        return width;
+    }
+
+    @Override
+    public int getHeight(){
+        return height;
+    }
+
+    @Override
+    public int getDepth(){
+        return depth;
+    }
+
+    @Override
+    public double getValue(int x, int y, int z){
+        return values[(z*height + y)*width + x];
+    }
+
+    @Override
+    public void setValue(int x, int y, int z, double v){
+        values[(z*height + y)*width + x] = (float)v;
+    }
+
+    @Override
+    public long getSizeInBytes(){
+        return 4L*values.length;
+    }
+}
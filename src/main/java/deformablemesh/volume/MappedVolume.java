@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.volume;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read only voxels backed by memory mapped slices of a file. Nothing is read when the volume is created, the pages
+ * of a slice are loaded by the operating system as voxels are sampled, so only the regions that are used are read.
+ */
+public class MappedVolume implements VoxelVolume{
+    /**
+     * How the voxels are encoded in the file.
+     */
+    public enum Type{
+        UnsignedByte(1), UnsignedShort(2), Float(4);
+
+        final int bytes;
+        Type(int bytes){
+            this.bytes = bytes;
+        }
+
+        public int getBytes(){
+            return bytes;
+        }
+    }
+
+    final int width, height;
+    final ByteBuffer[] slices;
+    final Type type;
+
+    /**
+     * @param slices one buffer per slice with the byte order of the file set.
+     * @param width pixels per row.
+     * @param height rows per slice.
+     * @param type encoding of the voxels.
+     */
+    public MappedVolume(ByteBuffer[] slices, int width, int height, Type type){
+        this.slices = slices;
+        this.width = width;
+        this.height = height;
+        this.type = type;
+    }
+
+    @Override
+    public int getWidth(){
+        return width;
+    }
+
+    @Override
+    public int getHeight(){
+        return height;
+    }
+
+    @Override
+    public int getDepth(){
+        return slices.length;
+    }
+
+    @Override
+    public double getValue(int x, int y, int z){
+        int i = y*width + x;
+        switch(type){
+            case UnsignedByte:
+                return slices[z].get(i) & 0xff;
+            case UnsignedShort:
+                return slices[z].getShort(2*i) & 0xffff;
+            case Float:
+            default:
+                return slices[z].getFloat(4*i);
+        }
+    }
+
+    public Type getType(){
+        return type;
+    }
+
+    /**
+     * The file is mapped read only, check {@link #isWritable()} before writing.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void setValue(int x, int y, int z, double v){
+        throw new UnsupportedOperationException("Mapped volumes are read only.");
+    }
+
+    @Override
+    public boolean isWritable(){
+        return false;
+    }
+
+    /**
+     * @return 0, the voxels are paged from the file and not stored on the heap.
+     */
+    @Override
+    public long getSizeInBytes(){
+        return 0;
+    }
+}
@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.volume;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Voxels stored as floats in direct buffers outside of the java heap, one buffer per slice, so volumes larger than
+ * the maximum array size can be used and the heap doesn't need to be sized for the image.
+ */
+public class OffHeapFloatVolume implements VoxelVolume{
+    final int width, height, depth;
+    final FloatBuffer[] slices;
+
+    public OffHeapFloatVolume(int width, int height, int depth){
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        slices = new FloatBuffer[depth];
+        for(int z = 0; z<depth; z++){
+            slices[z] = ByteBuffer.allocateDirect(4*width*height).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
+
+    @Override
+    public int getWidth(){
+        return width;
+    }
+
+    @Override
+    public int getHeight(){
+        return height;
+    }
+
+    @Override
+    public int getDepth(){
+        return depth;
+    }
+
+    @Override
+    public double getValue(int x, int y, int z){
+        return slices[z].get(y*width + x);
+    }
+
+    @Override
+    public void setValue(int x, int y, int z, double v){
+        slices[z].put(y*width + x, (float)v);
+    }
+
+    @Override
+    public long getSizeInBytes(){
+        return 4L*width*height*depth;
+    }
+}
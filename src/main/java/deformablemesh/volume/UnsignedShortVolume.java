@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.volume;
+
+/**
+ * Voxels stored as unsigned 16 bit integers in a flat short array. Lossless for uncalibrated 8 and 16 bit images, at a
+ * quarter of the memory of {@link DoubleVolume}. Values are rounded and clamped to [0, 65535].
+ */
+public class UnsignedShortVolume implements VoxelVolume{
+    final int width, height, depth;
+    final short[] values;
+
+    public UnsignedShortVolume(int width, int height, int depth){
+        long n = ((long)width)*height*depth;
+        if(n > VolumeStorage.MAX_ARRAY_VOXELS){
+            throw new IllegalArgumentException("Volume of " + n + " voxels is too large for an array, use off heap storage.");
+        }
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        values = new short[(int)n];
+    }
+
+    @Override
+    public int getWidth(){
+        return width;
+    }
+
+    @Override
+    public int getHeight(){
+        return height;
+    }
+
+    @Override
+    public int getDepth(){
+        return depth;
+    }
+
+    @Override
+    public double getValue(int x, int y, int z){
+        return values[(z*height + y)*width + x] & 0xffff;
+    }
+
+    @Override
+    public void setValue(int x, int y, int z, double v){
+        long i = Math.round(v);
+        if(i < 0){
+            i = 0;
+        } else if(i > 0xffff){
+            i = 0xffff;
+        }
+        values[(z*height + y)*width + x] = (short)i;
+    }
+
+    @Override
+    public long getSizeInBytes(){
+        return 2L*values.length;
+    }
+}
@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.volume;
+
+/**
+ * The ways voxel data can be stored.
+ */
+public enum VolumeStorage {
+    /**
+     * Unsigned shorts for uncalibrated 8 and 16 bit images, otherwise floats. Frames with more voxels than fit in an
+     * array are stored off heap.
+     */
+    Automatic,
+    Double,
+    Float,
+    UnsignedShort,
+    OffHeapFloat;
+
+    /**
+     * Largest number of voxels that can be stored in a single array.
+     */
+    public static final long MAX_ARRAY_VOXELS = Integer.MAX_VALUE - 8;
+
+    /**
+     * Creates an empty volume using this storage.
+     *
+     * @param lossless16 true if the values are integers that fit in 16 bits, used by Automatic.
+     */
+    public VoxelVolume create(int width, int height, int depth, boolean lossless16){
+        switch(resolve(width, height, depth, lossless16)){
+            case Double:
+                return new DoubleVolume(width, height, depth);
+            case UnsignedShort:
+                return new UnsignedShortVolume(width, height, depth);
+            case OffHeapFloat:
+                return new OffHeapFloatVolume(width, height, depth);
+            case Float:
+            default:
+                return new FloatVolume(width, height, depth);
+        }
+    }
+
+    /**
+     * @return the storage that is used for a volume of this size, only Automatic depends on the volume.
+     */
+    public VolumeStorage resolve(int width, int height, int depth, boolean lossless16){
+        if(this != Automatic){
+            return this;
+        }
+        if(((long)width)*height*depth > MAX_ARRAY_VOXELS){
+            return OffHeapFloat;
+        }
+        return lossless16 ? UnsignedShort : Float;
+    }
+}
@@ -0,0 +1,487 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.volume;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * A set of voxels stored as runs along x for each y, z row. A row of a compact region is a single pair of ints, so a
+ * region uses a small fraction of the memory of one int[] per voxel, and the voxels are iterated in z, y, x order.
+ *
+ * The coordinates are whatever the owner uses, eg {@link deformablemesh.util.connectedcomponents.Region} uses 1 based
+ * slices.
+ */
+public class VoxelSet implements Iterable<int[]>{
+    /**
+     * Receives the coordinates of a voxel, so they can be iterated without creating an array for each voxel.
+     */
+    public interface VoxelConsumer{
+        void accept(int x, int y, int z);
+    }
+
+    //start and end (exclusive) of each run, ordered and never touching. The arrays are replaced instead of modified
+    //so sets can share them.
+    final TreeMap<Long, int[]> rows = new TreeMap<>();
+    int size;
+
+    public VoxelSet(){
+
+    }
+
+    /**
+     * @param points x, y, z of each voxel, duplicates are only included once.
+     */
+    public VoxelSet(Iterable<int[]> points){
+        for(int[] pt: points){
+            add(pt[0], pt[1], pt[2]);
+        }
+    }
+
+    public VoxelSet(VoxelSet other){
+        for(Map.Entry<Long, int[]> row: other.rows.entrySet()){
+            rows.put(row.getKey(), row.getValue());
+        }
+        size = other.size;
+    }
+
+    static long key(int y, int z){
+        return (((long)z) << 32) + ((long)y - Integer.MIN_VALUE);
+    }
+
+    static int rowY(long key){
+        return (int)((key & 0xffffffffL) + Integer.MIN_VALUE);
+    }
+
+    static int rowZ(long key){
+        return (int)(key >> 32);
+    }
+
+    /**
+     * @return index of the first run that ends after x.
+     */
+    static int search(int[] runs, int x){
+        int lo = 0;
+        int hi = runs.length/2;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(runs[2*mid + 1] <= x){
+                lo = mid + 1;
+            } else{
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public boolean contains(int x, int y, int z){
+        int[] runs = rows.get(key(y, z));
+        if(runs == null){
+            return false;
+        }
+        int i = search(runs, x);
+        return i < runs.length/2 && runs[2*i] <= x;
+    }
+
+    public boolean add(int[] xyz){
+        return add(xyz[0], xyz[1], xyz[2]);
+    }
+
+    /**
+     * @return true if the voxel was not already in the set.
+     */
+    public boolean add(int x, int y, int z){
+        if(x == Integer.MAX_VALUE){
+            throw new IllegalArgumentException("x coordinate out of range: " + x);
+        }
+        return addRun(x, x + 1, y, z) == 1;
+    }
+
+    /**
+     * Adds the voxels from x0 to x1, exclusive, of a row.
+     *
+     * @return the number of voxels that were not already in the set.
+     */
+    public int addRun(int x0, int x1, int y, int z){
+        if(x1 <= x0){
+            return 0;
+        }
+        long key = key(y, z);
+        int[] runs = rows.get(key);
+        if(runs == null){
+            rows.put(key, new int[]{x0, x1});
+            size += x1 - x0;
+            return x1 - x0;
+        }
+        int n = runs.length/2;
+        //runs from the first that ends at or after x0 to the last that starts at or before x1 touch the new run.
+        int first = 0;
+        while(first < n && runs[2*first + 1] < x0){
+            first++;
+        }
+        int last = first;
+        int covered = 0;
+        int start = x0;
+        int end = x1;
+        while(last < n && runs[2*last] <= x1){
+            start = Math.min(start, runs[2*last]);
+            end = Math.max(end, runs[2*last + 1]);
+            covered += runs[2*last + 1] - runs[2*last];
+            last++;
+        }
+        int added = (end - start) - covered;
+        if(added == 0 && last - first == 1){
+            return 0;
+        }
+        int[] replaced = new int[runs.length - 2*(last - first) + 2];
+        System.arraycopy(runs, 0, replaced, 0, 2*first);
+        replaced[2*first] = start;
+        replaced[2*first + 1] = end;
+        System.arraycopy(runs, 2*last, replaced, 2*first + 2, runs.length - 2*last);
+        rows.put(key, replaced);
+        size += added;
+        return added;
+    }
+
+    public boolean remove(int[] xyz){
+        return remove(xyz[0], xyz[1], xyz[2]);
+    }
+
+    /**
+     * @return true if the voxel was in the set.
+     */
+    public boolean remove(int x, int y, int z){
+        long key = key(y, z);
+        int[] runs = rows.get(key);
+        if(runs == null){
+            return false;
+        }
+        int i = search(runs, x);
+        if(i == runs.length/2 || runs[2*i] > x){
+            return false;
+        }
+        int start = runs[2*i];
+        int end = runs[2*i + 1];
+        int[] replaced;
+        if(start == x && end == x + 1){
+            if(runs.length == 2){
+                rows.remove(key);
+                size--;
+                return true;
+            }
+            replaced = new int[runs.length - 2];
+            System.arraycopy(runs, 0, replaced, 0, 2*i);
+            System.arraycopy(runs, 2*i + 2, replaced, 2*i, runs.length - 2*i - 2);
+        } else if(start == x || end == x + 1){
+            replaced = runs.clone();
+            if(start == x){
+                replaced[2*i] = x + 1;
+            } else{
+                replaced[2*i + 1] = x;
+            }
+        } else{
+            replaced = new int[runs.length + 2];
+            System.arraycopy(runs, 0, replaced, 0, 2*i + 1);
+            replaced[2*i + 1] = x;
+            replaced[2*i + 2] = x + 1;
+            System.arraycopy(runs, 2*i + 1, replaced, 2*i + 3, runs.length - 2*i - 1);
+        }
+        rows.put(key, replaced);
+        size--;
+        return true;
+    }
+
+    /**
+     * Adds all of the voxels of the other set to this set.
+     */
+    public void addAll(VoxelSet other){
+        for(Map.Entry<Long, int[]> row: other.rows.entrySet()){
+            long key = row.getKey();
+            int[] runs = row.getValue();
+            if(!rows.containsKey(key)){
+                rows.put(key, runs);
+                size += count(runs);
+                continue;
+            }
+            int y = rowY(key);
+            int z = rowZ(key);
+            for(int i = 0; i<runs.length; i += 2){
+                addRun(runs[i], runs[i + 1], y, z);
+            }
+        }
+    }
+
+    /**
+     * @return a new set with the voxels that are in either set.
+     */
+    public VoxelSet union(VoxelSet other){
+        VoxelSet result = new VoxelSet(this);
+        result.addAll(other);
+        return result;
+    }
+
+    /**
+     * @return a new set with the voxels that are in both sets.
+     */
+    public VoxelSet intersection(VoxelSet other){
+        VoxelSet result = new VoxelSet();
+        TreeMap<Long, int[]> smaller = rows.size() < other.rows.size() ? rows : other.rows;
+        TreeMap<Long, int[]> larger = smaller == rows ? other.rows : rows;
+        for(Map.Entry<Long, int[]> row: smaller.entrySet()){
+            int[] b = larger.get(row.getKey());
+            if(b == null){
+                continue;
+            }
+            int[] a = row.getValue();
+            int[] overlap = new int[a.length + b.length];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while(i < a.length && j < b.length){
+                int start = Math.max(a[i], b[j]);
+                int end = Math.min(a[i + 1], b[j + 1]);
+                if(start < end){
+                    overlap[n++] = start;
+                    overlap[n++] = end;
+                }
+                if(a[i + 1] < b[j + 1]){
+                    i += 2;
+                } else{
+                    j += 2;
+                }
+            }
+            if(n > 0){
+                int[] runs = Arrays.copyOf(overlap, n);
+                result.rows.put(row.getKey(), runs);
+                result.size += count(runs);
+            }
+        }
+        return result;
+    }
+
+    static int count(int[] runs){
+        int c = 0;
+        for(int i = 0; i<runs.length; i += 2){
+            c += runs[i + 1] - runs[i];
+        }
+        return c;
+    }
+
+    /**
+     * Moves all of the voxels.
+     */
+    public void translate(int dx, int dy, int dz){
+        List<Map.Entry<Long, int[]>> old = new ArrayList<>(rows.entrySet());
+        rows.clear();
+        for(Map.Entry<Long, int[]> row: old){
+            int[] runs = row.getValue().clone();
+            for(int i = 0; i<runs.length; i++){
+                runs[i] += dx;
+            }
+            rows.put(key(rowY(row.getKey()) + dy, rowZ(row.getKey()) + dz), runs);
+        }
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public int getRowCount(){
+        return rows.size();
+    }
+
+    public void clear(){
+        rows.clear();
+        size = 0;
+    }
+
+    /**
+     * @return smallest x, y, z of the voxels, or null if the set is empty.
+     */
+    public int[] getLowCorner(){
+        if(size == 0){
+            return null;
+        }
+        int lx = Integer.MAX_VALUE;
+        int ly = Integer.MAX_VALUE;
+        for(Map.Entry<Long, int[]> row: rows.entrySet()){
+            lx = Math.min(lx, row.getValue()[0]);
+            ly = Math.min(ly, rowY(row.getKey()));
+        }
+        return new int[]{lx, ly, rowZ(rows.firstKey())};
+    }
+
+    /**
+     * @return largest x, y, z of the voxels, inclusive, or null if the set is empty.
+     */
+    public int[] getHighCorner(){
+        if(size == 0){
+            return null;
+        }
+        int hx = Integer.MIN_VALUE;
+        int hy = Integer.MIN_VALUE;
+        for(Map.Entry<Long, int[]> row: rows.entrySet()){
+            int[] runs = row.getValue();
+            hx = Math.max(hx, runs[runs.length - 1] - 1);
+            hy = Math.max(hy, rowY(row.getKey()));
+        }
+        return new int[]{hx, hy, rowZ(rows.lastKey())};
+    }
+
+    /**
+     * @return average x, y, z of the voxels.
+     */
+    public double[] getCentroid(){
+        double sx = 0;
+        double sy = 0;
+        double sz = 0;
+        for(Map.Entry<Long, int[]> row: rows.entrySet()){
+            int[] runs = row.getValue();
+            for(int i = 0; i<runs.length; i += 2){
+                long n = runs[i + 1] - runs[i];
+                //sum of x from start to end - 1.
+                sx += (runs[i] + runs[i + 1] - 1)*n/2.0;
+                sy += n*rowY(row.getKey());
+                sz += n*rowZ(row.getKey());
+            }
+        }
+        return new double[]{sx/size, sy/size, sz/size};
+    }
+
+    public void forEach(VoxelConsumer consumer){
+        for(Map.Entry<Long, int[]> row: rows.entrySet()){
+            forEach(row.getKey(), row.getValue(), consumer);
+        }
+    }
+
+    /**
+     * Visits only the voxels with the provided z coordinate.
+     */
+    public void forEachInSlice(int z, VoxelConsumer consumer){
+        for(Map.Entry<Long, int[]> row: rows.subMap(key(Integer.MIN_VALUE, z), true, key(Integer.MAX_VALUE, z), true).entrySet()){
+            forEach(row.getKey(), row.getValue(), consumer);
+        }
+    }
+
+    static void forEach(long key, int[] runs, VoxelConsumer consumer){
+        int y = rowY(key);
+        int z = rowZ(key);
+        for(int i = 0; i<runs.length; i += 2){
+            for(int x = runs[i]; x<runs[i + 1]; x++){
+                consumer.accept(x, y, z);
+            }
+        }
+    }
+
+    /**
+     * @return a new list with a new array for each voxel.
+     */
+    public List<int[]> toList(){
+        List<int[]> points = new ArrayList<>(size);
+        forEach((x, y, z) -> points.add(new int[]{x, y, z}));
+        return points;
+    }
+
+    /**
+     * Iterates over the voxels in z, y, x order. Each voxel is a new array, modifying the set while iterating is not
+     * supported.
+     */
+    @Override
+    public Iterator<int[]> iterator(){
+        final Iterator<Map.Entry<Long, int[]>> rowIterator = rows.entrySet().iterator();
+        return new Iterator<int[]>(){
+            int[] runs = new int[0];
+            int y, z;
+            int run = 0;
+            int x = 0;
+
+            @Override
+            public boolean hasNext(){
+                return run < runs.length || rowIterator.hasNext();
+            }
+
+            @Override
+            public int[] next(){
+                if(run >= runs.length){
+                    if(!rowIterator.hasNext()){
+                        throw new NoSuchElementException();
+                    }
+                    Map.Entry<Long, int[]> row = rowIterator.next();
+                    runs = row.getValue();
+                    y = rowY(row.getKey());
+                    z = rowZ(row.getKey());
+                    run = 0;
+                    x = runs[0];
+                }
+                int[] pt = {x, y, z};
+                x++;
+                if(x == runs[run + 1]){
+                    run += 2;
+                    if(run < runs.length){
+                        x = runs[run];
+                    }
+                }
+                return pt;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(!(o instanceof VoxelSet)){
+            return false;
+        }
+        VoxelSet other = (VoxelSet)o;
+        if(other.size != size || other.rows.size() != rows.size()){
+            return false;
+        }
+        for(Map.Entry<Long, int[]> row: rows.entrySet()){
+            if(!Arrays.equals(row.getValue(), other.rows.get(row.getKey()))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode(){
+        int h = size;
+        for(Map.Entry<Long, int[]> row: rows.entrySet()){
+            h = 31*h + Long.hashCode(row.getKey());
+            h = 31*h + Arrays.hashCode(row.getValue());
+        }
+        return h;
+    }
+}
@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.volume;
+
+/**
+ * Storage for a single channel and frame of voxel data, indexed x, y, z in pixels and slices. Implementations trade
+ * precision and memory, see {@link VolumeStorage}.
+ */
+public interface VoxelVolume {
+    int getWidth();
+    int getHeight();
+    int getDepth();
+
+    /**
+     * Gets the value at the index, no bounds checking is performed.
+     */
+    double getValue(int x, int y, int z);
+
+    /**
+     * Sets the value at the index, the value is converted to the storage type.
+     */
+    void setValue(int x, int y, int z, double v);
+
+    /**
+     * @return false if {@link #setValue(int, int, int, double)} is not supported, the values need to be copied into
+     * another volume to be changed.
+     */
+    default boolean isWritable(){
+        return true;
+    }
+
+    /**
+     * @return approximate number of bytes used to store the voxels.
+     */
+    long getSizeInBytes();
+
+    /**
+     * Copies all of the values from a volume with the same dimensions.
+     *
+     * @param other source of the values.
+     */
+    default void copy(VoxelVolume other){
+        for(int z = 0; z<getDepth(); z++){
+            for(int y = 0; y<getHeight(); y++){
+                for(int x = 0; x<getWidth(); x++){
+                    setValue(x, y, z, other.getValue(x, y, z));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param other volume to compare with.
+     * @return true if the other volume has the same width, height and depth.
+     */
+    default boolean sameDimensions(VoxelVolume other){
+        return other.getWidth() == getWidth() && other.getHeight() == getHeight() && other.getDepth() == getDepth();
+    }
+}
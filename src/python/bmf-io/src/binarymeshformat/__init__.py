@@ -47,6 +47,9 @@
     is a list of Track, and filename is a string path to the file to save.
     
     loadMeshTracks( filename ); Returns a list of tracks.
+    
+    IndexedMeshReader( filename ) for reading single meshes or frames
+    from a file saved with an index, without reading the whole file.
  
  ===
  Modules
@@ -58,7 +61,7 @@
 
 
 from .writer import saveMeshTracks
-from .reader import loadMeshTracks
+from .reader import loadMeshTracks, IndexedMeshReader
 
 from .meshdata import Track, Mesh 
 
@@ -26,9 +26,10 @@
 # #L%
 ###
 
-import struct
+import struct, mmap
 
 from .meshdata import Track, Mesh
+from .writer import INDEX_VERSION, INDEX_MAGIC
 
 class MeshReader:
     """
@@ -122,6 +123,101 @@ class MeshReader:
         """
         return self.tracks
 
+class IndexedMeshReader:
+    """
+        Random access to the meshes of a file that was saved with an
+        index. The file is memory mapped and meshes are only read when
+        they are requested.
+        
+        with IndexedMeshReader(filename) as reader:
+            mesh = reader.loadMesh(0, 900)
+    """
+    def __init__(self, filename):
+        self._file = open(str(filename), 'rb')
+        self.bytes = mmap.mmap(self._file.fileno(), 0, access=mmap.ACCESS_READ)
+        self.names = []
+        self.index = []
+        self.readIndex()
+        
+    def readIndex(self):
+        """
+            Reads the index from the end of the file, raises a ValueError if
+            the file does not have an index.
+        """
+        n = len(self.bytes)
+        if n < 20:
+            raise ValueError("file is too short to have an index")
+        start, magic = struct.unpack_from(">qi", self.bytes, n - 12)
+        if magic != INDEX_MAGIC:
+            raise ValueError("file does not have an index, use loadMeshTracks")
+        reader = MeshReader(self.bytes)
+        reader.pos = start
+        version = reader.readInt()
+        if version != INDEX_VERSION:
+            raise ValueError("unsupported index version %d"%version)
+        for i in range(reader.readInt()):
+            self.names.append(reader.readUTFString())
+            entries = {}
+            for j in range(reader.readInt()):
+                frame, offset, length = struct.unpack_from(">iqi", self.bytes, reader.pos)
+                reader.pos += 16
+                entries[frame] = offset
+            self.index.append(entries)
+    
+    def getFrames(self, track):
+        """
+            Sorted list of the frames the track has meshes for.
+        """
+        return sorted(self.index[track])
+    
+    def loadMesh(self, track, frame):
+        """
+            Reads a single mesh.
+            Args:
+                track: index of the track in the file.
+                frame: time point of the mesh.
+            Returns:
+                The Mesh or None if the track has no mesh at that frame.
+        """
+        if frame not in self.index[track]:
+            return None
+        reader = MeshReader(self.bytes)
+        reader.pos = self.index[track][frame] + 4
+        positions = reader.readDoubles(reader.readInt())
+        connections = reader.readInts(reader.readInt())
+        triangles = reader.readInts(reader.readInt())
+        return Mesh(positions, connections, triangles)
+    
+    def loadFrame(self, frame):
+        """
+            Reads the meshes of every track at the frame.
+            Returns:
+                dictionary of track index to Mesh, track names are not
+                unique, use getTrackName for the name.
+        """
+        meshes = {}
+        for i in range(len(self.names)):
+            mesh = self.loadMesh(i, frame)
+            if mesh is not None:
+                meshes[i] = mesh
+        return meshes
+
+    def getTrackName(self, track):
+        """
+            Name of the track at the index.
+        """
+        return self.names[track]
+        
+    def close(self):
+        self.bytes.close()
+        self._file.close()
+        
+    def __enter__(self):
+        return self
+    
+    def __exit__(self, *args):
+        self.close()
+
 def loadMeshTracks(filename):
     """
       For opening mesh files generated by our Deformable Mesh plugin.
@@ -25,11 +25,18 @@
 ###
 import struct, json
 
+INDEX_VERSION = 1
+INDEX_MAGIC = 0x424d4958
+
 class MeshWriter:
     """
         Class for writing meshes. 
         
-        version -1
+        version -1, followed by an index of where each mesh starts. The
+        index is: int version, int track count, then for each track the
+        utf name, int mesh count and for each mesh int frame, long offset
+        and int length. The file ends with the long offset of the index
+        and the int INDEX_MAGIC.
     """
     def __init__(self, tracks):
         """
@@ -48,12 +55,15 @@ class MeshWriter:
         with open(filename, 'wb') as self._out:
             self.writeInt( self.version )
             self.writeInt( len(self.tracks) )
+            index = []
             for track in self.tracks:
                 self.writeUTFString( track.name )
                 mesh_count = len(track.meshes)
                 self.writeInt(mesh_count)
+                entries = []
                 for key in track.meshes:
                     mesh = track.meshes[key]
+                    start = self._out.tell()
                     self.writeInt(key)
                     self.writeInt( len(mesh.positions) )
                     self.writeDoubles( mesh.positions )
@@ -61,6 +71,26 @@ class MeshWriter:
                     self.writeInts(mesh.connections)
                     self.writeInt( len(mesh.triangles) )
                     self.writeInts(mesh.triangles)
+                    entries.append( (key, start, self._out.tell() - start) )
+                index.append( (track.name, entries) )
+            self.writeIndex(index)
+
+    def writeIndex(self, index):
+        """
+            Writes the index after the tracks, so meshes can be read
+            without reading the whole file.
+            Args:
+                index: list of (name, [(frame, offset, length), ...]) for each track.
+        """
+        start = self._out.tell()
+        self.writeInt(INDEX_VERSION)
+        self.writeInt(len(index))
+        for name, entries in index:
+            self.writeUTFString(name)
+            self.writeInt(len(entries))
+            for frame, offset, length in entries:
+                self._out.write(struct.pack(">iqi", frame, offset, length))
+        self._out.write(struct.pack(">qi", start, INDEX_MAGIC))
             
                 
     def writeInt(self, n):
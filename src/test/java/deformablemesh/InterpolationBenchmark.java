@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh;
+
+import deformablemesh.volume.FloatVolume;
+import deformablemesh.volume.VoxelVolume;
+
+import java.util.Random;
+
+/**
+ * Compares sampling a stack one point at a time, with the previous allocating implementation, against the batched
+ * sampler. Run as an application, the times are printed in ns per sample after a warm up.
+ */
+public class InterpolationBenchmark {
+    static final int POINTS = 100000;
+    static final int ROUNDS = 20;
+
+    /**
+     * The implementation of getInterpolatedValue before it was made allocation free.
+     */
+    static double allocating(MeshImageStack stack, double[] xyz){
+        double[] ndex = new double[3];
+        int[] base = new int[3];
+        double[] f = new double[3];
+        for(int i = 0; i<3; i++){
+            ndex[i] = stack.SCALE*(xyz[i] + stack.offsets[i])*stack.scale_values[i];
+            base[i] = (int)ndex[i];
+            if(base[i]<0){
+                base[i] = 0;
+            } else if(base[i]>stack.max_dex[i]){
+                base[i] = stack.max_dex[i];
+            }
+            f[i] = base[i]==stack.max_dex[i]?0:ndex[i] - base[i];
+        }
+        double a = stack.getValue(base[0], base[1], base[2]);
+        if(f[0]>MeshImageStack.min_interp_value){
+            double b = stack.getValue(base[0]+1, base[1], base[2]);
+            a = a + (b-a)*f[0];
+        }
+        if(f[1]>MeshImageStack.min_interp_value){
+            double c = stack.getValue(base[0], base[1]+1, base[2]);
+            if(f[0]>MeshImageStack.min_interp_value){
+                double d = stack.getValue(base[0]+1, base[1]+1, base[2]);
+                c = c + (d-c)*f[0];
+            }
+            a = a + (c-a)*f[1];
+        }
+        double v = a;
+        if(f[2]>MeshImageStack.min_interp_value){
+            a = stack.getValue(base[0], base[1], base[2]+1);
+            if(f[0]>MeshImageStack.min_interp_value){
+                double b = stack.getValue(base[0]+1, base[1], base[2]+1);
+                a = a + (b-a)*f[0];
+            }
+            if(f[1]>MeshImageStack.min_interp_value){
+                double c = stack.getValue(base[0], base[1]+1, base[2]+1);
+                if(f[0]>MeshImageStack.min_interp_value){
+                    double d = stack.getValue(base[0]+1, base[1]+1, base[2]+1);
+                    c = c + (d-c)*f[0];
+                }
+                a = a + (c-a)*f[1];
+            }
+            v = v + (a-v)*f[2];
+        }
+        return v;
+    }
+
+    public static void main(String[] args){
+        Random ng = new Random(1);
+        VoxelVolume volume = new FloatVolume(256, 256, 64);
+        for(int z = 0; z<volume.getDepth(); z++){
+            for(int y = 0; y<volume.getHeight(); y++){
+                for(int x = 0; x<volume.getWidth(); x++){
+                    volume.setValue(x, y, z, ng.nextDouble());
+                }
+            }
+        }
+        MeshImageStack stack = new MeshImageStack(volume);
+        double[] points = new double[3*POINTS];
+        for(int i = 0; i<POINTS; i++){
+            points[3*i] = ng.nextDouble()*255;
+            points[3*i + 1] = ng.nextDouble()*255;
+            points[3*i + 2] = ng.nextDouble()*63;
+        }
+        double[] values = new double[POINTS];
+        double[] gradients = new double[3*POINTS];
+        double[] pt = new double[3];
+
+        for(int pass = 0; pass<2; pass++){
+            boolean report = pass == 1;
+            double sum = 0;
+
+            long start = System.nanoTime();
+            for(int r = 0; r<ROUNDS; r++){
+                for(int i = 0; i<POINTS; i++){
+                    pt[0] = points[3*i];
+                    pt[1] = points[3*i + 1];
+                    pt[2] = points[3*i + 2];
+                    sum += allocating(stack, pt);
+                }
+            }
+            print(report, "allocating", start);
+
+            start = System.nanoTime();
+            for(int r = 0; r<ROUNDS; r++){
+                for(int i = 0; i<POINTS; i++){
+                    sum += stack.getInterpolatedValue(points[3*i], points[3*i + 1], points[3*i + 2]);
+                }
+            }
+            print(report, "single", start);
+
+            start = System.nanoTime();
+            for(int r = 0; r<ROUNDS; r++){
+                stack.getInterpolatedValues(points, POINTS, values, null);
+                sum += values[r];
+            }
+            print(report, "batched", start);
+
+            start = System.nanoTime();
+            for(int r = 0; r<ROUNDS; r++){
+                stack.getInterpolatedValues(points, POINTS, values, gradients);
+                sum += gradients[r];
+            }
+            print(report, "batched with gradient", start);
+
+            if(report){
+                System.out.println("checksum: " + sum);
+            }
+        }
+    }
+
+    static void print(boolean report, String name, long start){
+        if(report){
+            double ns = (System.nanoTime() - start)*1.0/POINTS/ROUNDS;
+            System.out.printf("%s: %.2f ns per sample%n", name, ns);
+        }
+    }
+}
@@ -26,6 +26,10 @@
 package deformablemesh;
 
 import deformablemesh.util.Vector3DOps;
+import deformablemesh.volume.FloatVolume;
+import deformablemesh.volume.MappedVolume;
+import deformablemesh.volume.UnsignedShortVolume;
+import deformablemesh.volume.VoxelVolume;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.io.FileInfo;
@@ -34,6 +38,10 @@ import ij.process.ShortProcessor;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
 /**
  * Created by msmith on 4/21/16.
  */
@@ -90,4 +98,113 @@ public class MeshImageStackTesting {
         Assert.assertEquals(i, v, Vector3DOps.TOL);
     }
 
+    @Test
+    public void batchSampleTest(){
+        MeshImageStack mesh_stack = new MeshImageStack(testStack());
+        Random ng = new Random(1);
+        int n = 500;
+        double[] points = new double[3*n];
+        for(int i = 0; i<points.length; i++){
+            //includes points outside of the image.
+            points[i] = 1.5*(ng.nextDouble() - 0.5);
+        }
+        double[] values = new double[n];
+        double[] gradients = new double[3*n];
+        mesh_stack.getInterpolatedValues(points, n, values, gradients);
+
+        double[] pt = new double[3];
+        for(int i = 0; i<n; i++){
+            System.arraycopy(points, 3*i, pt, 0, 3);
+            Assert.assertEquals(mesh_stack.getInterpolatedValue(pt), values[i], 0);
+        }
+
+        //the test image is linear, so the gradient inside of the image is constant.
+        double[] expected = new double[3];
+        int[] increments = {2, 32, 512};
+        for(int i = 0; i<3; i++){
+            expected[i] = increments[i]*mesh_stack.SCALE*mesh_stack.scale_values[i];
+        }
+        double[] center = {0.01, 0.02, 0.03};
+        mesh_stack.getInterpolatedValues(center, 1, values, gradients);
+        Assert.assertArrayEquals(expected, new double[]{gradients[0], gradients[1], gradients[2]}, 1e-6);
+    }
+
+    @Test
+    public void downsampledStack(){
+        MeshImageStack mesh_stack = new MeshImageStack(testStack());
+        MeshImageStack coarse = mesh_stack.createDownsampled(2);
+
+        //the slices are twice as thick as the pixels, so they are not reduced.
+        Assert.assertEquals(5, coarse.getVolume().getWidth());
+        Assert.assertEquals(15, coarse.getVolume().getHeight());
+        Assert.assertEquals(5, coarse.getVolume().getDepth());
+        Assert.assertEquals(2*mesh_stack.getMinPx(), coarse.getMinPx(), 1e-12);
+        Assert.assertSame(mesh_stack, mesh_stack.createDownsampled(1));
+
+        //the image is linear, so away from the edges the coarse values are the same.
+        Random ng = new Random(2);
+        double[] pt = new double[3];
+        double[] limits = {7, 27, 3};
+        for(int i = 0; i<100; i++){
+            double[] px = new double[3];
+            for(int j = 0; j<3; j++){
+                px[j] = 0.5 + limits[j]*ng.nextDouble();
+            }
+            double[] r = mesh_stack.getNormalizedCoordinate(px);
+            System.arraycopy(r, 0, pt, 0, 3);
+            Assert.assertEquals(mesh_stack.getInterpolatedValue(pt), coarse.getInterpolatedValue(pt), 1e-2);
+        }
+    }
+
+
+    @Test
+    public void substituteFloatValues(){
+        MeshImageStack stack = new MeshImageStack(new UnsignedShortVolume(3, 1, 1));
+        FloatVolume prediction = new FloatVolume(3, 1, 1);
+        prediction.setValue(0, 0, 0, 0.25);
+        prediction.setValue(1, 0, 0, -1.5);
+        prediction.setValue(2, 0, 0, 0.75);
+        stack.copyValues(new MeshImageStack(prediction));
+        Assert.assertEquals(0.25, stack.getVolume().getValue(0, 0, 0), 0);
+        Assert.assertEquals(-1.5, stack.getVolume().getValue(1, 0, 0), 0);
+        Assert.assertEquals(0.75, stack.getVolume().getValue(2, 0, 0), 0);
+
+        UnsignedShortVolume counts = new UnsignedShortVolume(3, 1, 1);
+        counts.setValue(1, 0, 0, 1000);
+        MeshImageStack shorts = new MeshImageStack(new UnsignedShortVolume(3, 1, 1));
+        VoxelVolume backend = shorts.getVolume();
+        shorts.copyValues(new MeshImageStack(counts));
+        Assert.assertSame(backend, shorts.getVolume());
+        Assert.assertEquals(1000, backend.getValue(1, 0, 0), 0);
+    }
+
+    @Test
+    public void substituteMappedValues(){
+        ByteBuffer slice = ByteBuffer.allocate(3).order(ByteOrder.nativeOrder());
+        MappedVolume mapped = new MappedVolume(new ByteBuffer[]{slice}, 3, 1, MappedVolume.Type.UnsignedByte);
+        MeshImageStack stack = new MeshImageStack(mapped);
+        FloatVolume prediction = new FloatVolume(3, 1, 1);
+        prediction.setValue(2, 0, 0, 0.5);
+        stack.copyValues(new MeshImageStack(prediction));
+        Assert.assertNotSame(mapped, stack.getVolume());
+        Assert.assertEquals(0.5, stack.getVolume().getValue(2, 0, 0), 0);
+        Assert.assertEquals(0, slice.get(2));
+    }
+
+    @Test
+    public void substitutedFrameIsKept(){
+        MeshImageStack stack = new MeshImageStack(testStack());
+        FloatVolume prediction = new FloatVolume(10, 30, 5);
+        prediction.setValue(3, 4, 2, 0.5);
+        stack.copyValues(new MeshImageStack(prediction));
+        Assert.assertEquals(0.5, stack.getVolume().getValue(3, 4, 2), 0);
+
+        //the cached frame is reloaded from the image, the substituted values are kept.
+        if(stack.getFrameCache() != null){
+            stack.getFrameCache().clear();
+        }
+        stack.copyValues();
+        Assert.assertEquals(0.5, stack.getVolume().getValue(3, 4, 2), 0);
+        Assert.assertEquals(0, stack.getVolume().getValue(2, 4, 2), 0);
+    }
 }
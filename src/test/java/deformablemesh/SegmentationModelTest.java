@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh;
+
+import deformablemesh.externalenergies.ImageEnergyType;
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.geometry.RayCastMesh;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class SegmentationModelTest {
+    static final int SIZE = 48;
+    static final double RADIUS = 0.2;
+
+    /**
+     * A bright spherical shell, centered in the image, with a radius of RADIUS in normalized coordinates.
+     */
+    static ImagePlus shell(){
+        ImageStack stack = new ImageStack(SIZE, SIZE);
+        double c = 0.5*SIZE;
+        double r = RADIUS*SIZE;
+        for(int z = 0; z<SIZE; z++){
+            FloatProcessor proc = new FloatProcessor(SIZE, SIZE);
+            for(int y = 0; y<SIZE; y++){
+                for(int x = 0; x<SIZE; x++){
+                    double d = Math.sqrt((x - c)*(x - c) + (y - c)*(y - c) + (z - c)*(z - c)) - r;
+                    proc.setf(x, y, (float)Math.exp(-d*d/4));
+                }
+            }
+            stack.addSlice(proc);
+        }
+        return new ImagePlus("shell", stack);
+    }
+
+    static DeformableMesh3D sphere(int divisions, double radius){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(divisions);
+        mesh.scale(radius, new double[]{0, 0, 0});
+        return mesh;
+    }
+
+    static SegmentationModel model(){
+        SegmentationModel model = new SegmentationModel();
+        model.setOriginalPlus(shell(), 0, 0);
+        model.setImageEnergyType(ImageEnergyType.PerpendicularIntensity);
+        model.setWeight(0.05);
+        model.setGamma(100);
+        model.setAlpha(1);
+        return model;
+    }
+
+    static double meanRadius(DeformableMesh3D mesh){
+        double sum = 0;
+        int n = mesh.positions.length/3;
+        for(int i = 0; i<n; i++){
+            double x = mesh.positions[3*i];
+            double y = mesh.positions[3*i + 1];
+            double z = mesh.positions[3*i + 2];
+            sum += Math.sqrt(x*x + y*y + z*z);
+        }
+        return sum/n;
+    }
+
+    @Test
+    public void subdivisionThreshold(){
+        DeformableMesh3D mesh = sphere(1, 0.1);
+        double length = SegmentationModel.meanConnectionLength(mesh);
+        Assert.assertTrue(SegmentationModel.needsSubdivision(mesh, length/2));
+        Assert.assertFalse(SegmentationModel.needsSubdivision(mesh, length/2*1.001));
+    }
+
+    @Test
+    public void coarseToFine(){
+        SegmentationModel model = model();
+        double px = model.stack.getMinPx();
+
+        //long connections are subdivided before the full resolution pass.
+        DeformableMesh3D coarse = sphere(0, 0.17);
+        int before = coarse.nodes.size();
+        Assert.assertTrue(SegmentationModel.needsSubdivision(coarse, px));
+        model.deformMeshesMultiresolution(Collections.singletonList(coarse), 2, 20, 20);
+        Assert.assertSame(model.stack, model.lastSource);
+        Assert.assertTrue(coarse.nodes.size() > before);
+        Assert.assertEquals(model.getDeformationCount(), model.getMeshSteps(coarse));
+
+        //short connections are not.
+        DeformableMesh3D fine = sphere(3, 0.17);
+        DeformableMesh3D single = sphere(3, 0.17);
+        before = fine.nodes.size();
+        Assert.assertFalse(SegmentationModel.needsSubdivision(fine, px));
+        model.deformMeshesMultiresolution(Collections.singletonList(fine), 2, 20, 20);
+        Assert.assertSame(model.stack, model.lastSource);
+        Assert.assertEquals(before, fine.nodes.size());
+
+        model.deformMeshes(Collections.singletonList(single), 40);
+        Assert.assertEquals(meanRadius(single), meanRadius(fine), 2*px);
+    }
+}
@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.batch;
+
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.geometry.RayCastMesh;
+import deformablemesh.track.Track;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ShardedBatchSegmentationTest {
+
+    static DeformableMesh3D sphere(double x, double y, double z){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(2);
+        mesh.scale(0.1, new double[]{0, 0, 0});
+        mesh.translate(new double[]{x, y, z});
+        return mesh;
+    }
+
+    /**
+     * Creates a track with a sphere at each frame, moving along x.
+     */
+    static Track movingSphere(String name, int first, int last, double y){
+        Track track = new Track(name);
+        for(int i = first; i <= last; i++){
+            track.addMesh(i, sphere(-0.2 + 0.01*i, y, 0));
+        }
+        return track;
+    }
+
+    @Test
+    public void planShards(){
+        List<int[]> ranges = ShardedBatchSegmentation.planShards(0, 100, 4);
+        Assert.assertEquals(4, ranges.size());
+        Assert.assertEquals(0, ranges.get(0)[0]);
+        Assert.assertEquals(100, ranges.get(3)[1]);
+        for(int i = 1; i < ranges.size(); i++){
+            Assert.assertEquals(ranges.get(i - 1)[1], ranges.get(i)[0]);
+        }
+
+        ranges = ShardedBatchSegmentation.planShards(5, 7, 10);
+        Assert.assertEquals(2, ranges.size());
+        Assert.assertArrayEquals(new int[]{5, 6}, ranges.get(0));
+        Assert.assertArrayEquals(new int[]{6, 7}, ranges.get(1));
+    }
+
+    @Test
+    public void mergeOverlappingShards(){
+        List<Track> early = new ArrayList<>(Arrays.asList(
+                movingSphere("red", 0, 5, -0.2),
+                movingSphere("blue", 0, 5, 0.2)
+        ));
+        //same cells, reversed order and new names, plus a cell that appears at the boundary.
+        List<Track> late = new ArrayList<>(Arrays.asList(
+                movingSphere("green", 5, 10, 0.2),
+                movingSphere("yellow", 5, 10, -0.2),
+                movingSphere("red", 5, 10, 0.0)
+        ));
+        DeformableMesh3D boundary = early.get(0).getMesh(5);
+        List<Track> earlyCopy = copy(early);
+        List<Track> lateCopy = copy(late);
+
+        //the order the shards are provided shouldn't matter.
+        List<Track> merged = ShardedBatchSegmentation.merge(Arrays.asList(late, early));
+
+        Assert.assertEquals(3, merged.size());
+        Track red = merged.get(0);
+        Track blue = merged.get(1);
+        Assert.assertEquals("red", red.getName());
+        Assert.assertEquals(0, red.getFirstFrame().intValue());
+        Assert.assertEquals(10, red.getLastFrame().intValue());
+        Assert.assertSame(boundary, red.getMesh(5));
+        Assert.assertSame(late.get(1).getMesh(6), red.getMesh(6));
+        Assert.assertSame(late.get(0).getMesh(10), blue.getMesh(10));
+
+        Track added = merged.get(2);
+        Assert.assertEquals("red-1", added.getName());
+        Assert.assertEquals(5, added.getFirstFrame().intValue());
+
+        //merging modifies the tracks, so the other order uses copies made before the first merge.
+        List<Track> reversed = ShardedBatchSegmentation.merge(Arrays.asList(earlyCopy, lateCopy));
+        Assert.assertEquals(merged.size(), reversed.size());
+        for(int i = 0; i < merged.size(); i++){
+            Track expected = merged.get(i);
+            Track actual = reversed.get(i);
+            Assert.assertEquals(expected.getName(), actual.getName());
+            Assert.assertEquals(expected.getTrack().keySet(), actual.getTrack().keySet());
+            for(Integer frame: expected.getTrack().keySet()){
+                Assert.assertSame(expected.getMesh(frame), actual.getMesh(frame));
+            }
+        }
+    }
+
+    @Test
+    public void coverage(){
+        List<int[]> ranges = ShardedBatchSegmentation.planShards(0, 10, 2);
+        Assert.assertEquals(5, ranges.get(1)[0]);
+
+        List<Track> covered = Arrays.asList(movingSphere("red", 0, 10, -0.2), movingSphere("blue", 5, 10, 0.2));
+        Assert.assertTrue(ShardedBatchSegmentation.checkCoverage(covered, ranges).isEmpty());
+
+        //only meshes at the first frame, the second shard would not start from the tracked meshes.
+        List<Track> sparse = Arrays.asList(movingSphere("red", 0, 0, -0.2), movingSphere("blue", 0, 3, 0.2));
+        List<String> missing = ShardedBatchSegmentation.checkCoverage(sparse, ranges);
+        Assert.assertEquals(2, missing.size());
+        Assert.assertTrue(missing.get(0).contains("red"));
+    }
+
+    /**
+     * New tracks with the original names and the same mesh objects.
+     */
+    static List<Track> copy(List<Track> tracks){
+        List<Track> copies = new ArrayList<>();
+        for(Track track: tracks){
+            Track copy = new Track(track.getName());
+            for(Integer frame: track.getTrack().keySet()){
+                copy.addMesh(frame, track.getMesh(frame));
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+}
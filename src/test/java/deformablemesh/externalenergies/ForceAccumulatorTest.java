@@ -0,0 +1,209 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.externalenergies;
+
+import deformablemesh.util.DeformationScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ForceAccumulatorTest {
+
+    /**
+     * Each item pushes three nodes, so ranges on different workers add to the same nodes.
+     */
+    static class Scatter implements ParallelExternalEnergy{
+        final int items;
+        Scatter(int items){
+            this.items = items;
+        }
+
+        @Override
+        public int prepare(double[] positions){
+            return items;
+        }
+
+        @Override
+        public void updateForces(double[] positions, int start, int end, double[] fx, double[] fy, double[] fz){
+            int n = fx.length;
+            for(int i = start; i<end; i++){
+                for(int k = 0; k<3; k++){
+                    int node = (i*7 + k*13)%n;
+                    fx[node] += positions[3*node]*0.1 + i;
+                    fy[node] += 1;
+                    fz[node] -= k;
+                }
+            }
+        }
+
+        @Override
+        public double getEnergy(double[] pos){
+            return 0;
+        }
+    }
+
+    /**
+     * Records whether it was ever evaluated in more than one range.
+     */
+    static class Ranges extends Scatter{
+        volatile boolean split;
+        Ranges(int items){
+            super(items);
+        }
+
+        @Override
+        public void updateForces(double[] positions, int start, int end, double[] fx, double[] fy, double[] fz){
+            if(start != 0 || end != items){
+                split = true;
+            }
+            super.updateForces(positions, start, end, fx, fy, fz);
+        }
+    }
+
+    /**
+     * Fails after the range starting at 0 has added its forces.
+     */
+    static class Failing extends Scatter{
+        Failing(int items){
+            super(items);
+        }
+
+        @Override
+        public void updateForces(double[] positions, int start, int end, double[] fx, double[] fy, double[] fz){
+            super.updateForces(positions, start, end, fx, fy, fz);
+            if(start == 0){
+                throw new IllegalStateException("failed");
+            }
+        }
+    }
+
+    static class Constant implements ExternalEnergy{
+        @Override
+        public void updateForces(double[] positions, double[] fx, double[] fy, double[] fz){
+            for(int i = 0; i<fx.length; i++){
+                fx[i] += 0.5;
+            }
+        }
+
+        @Override
+        public double getEnergy(double[] pos){
+            return 0;
+        }
+    }
+
+    @Test
+    public void sameAsSerial(){
+        int n = 5000;
+        double[] positions = new double[3*n];
+        for(int i = 0; i<positions.length; i++){
+            positions[i] = Math.sin(i);
+        }
+        List<ExternalEnergy> energies = new ArrayList<>();
+        energies.add(new Scatter(8*ForceAccumulator.MIN_ITEMS + 17));
+        energies.add(new Constant());
+
+        double[][] expected = new double[3][n];
+        for(ExternalEnergy energy: energies){
+            energy.updateForces(positions, expected[0], expected[1], expected[2]);
+        }
+
+        ForceAccumulator accumulator = new ForceAccumulator(new DeformationScheduler(4));
+        for(int step = 0; step<2; step++){
+            double[][] forces = new double[3][n];
+            accumulator.apply(energies, positions, forces[0], forces[1], forces[2]);
+            for(int i = 0; i<3; i++){
+                Assert.assertArrayEquals(expected[i], forces[i], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void smallMeshSerial(){
+        int n = 10;
+        double[] positions = new double[3*n];
+        List<ExternalEnergy> energies = Arrays.asList(new Scatter(n), new Constant());
+        double[] fx = new double[n];
+        double[] fy = new double[n];
+        double[] fz = new double[n];
+        new ForceAccumulator().apply(energies, positions, fx, fy, fz);
+        double[] ex = new double[n];
+        double[] ey = new double[n];
+        double[] ez = new double[n];
+        for(ExternalEnergy energy: energies){
+            energy.updateForces(positions, ex, ey, ez);
+        }
+        Assert.assertArrayEquals(ex, fx, 0);
+        Assert.assertArrayEquals(ey, fy, 0);
+        Assert.assertArrayEquals(ez, fz, 0);
+    }
+
+    @Test
+    public void failureLeavesNoForces(){
+        int n = 5000;
+        int items = 8*ForceAccumulator.MIN_ITEMS;
+        double[] positions = new double[3*n];
+        ForceAccumulator accumulator = new ForceAccumulator(new DeformationScheduler(4));
+        try{
+            double[][] forces = new double[3][n];
+            accumulator.apply(Collections.singletonList(new Failing(items)), positions, forces[0], forces[1], forces[2]);
+            Assert.fail("energy should have failed");
+        } catch(IllegalStateException e){
+            //expected
+        }
+
+        List<ExternalEnergy> energies = Collections.singletonList(new Scatter(items));
+        double[][] expected = new double[3][n];
+        energies.get(0).updateForces(positions, expected[0], expected[1], expected[2]);
+        double[][] forces = new double[3][n];
+        accumulator.apply(energies, positions, forces[0], forces[1], forces[2]);
+        for(int i = 0; i<3; i++){
+            Assert.assertArrayEquals(expected[i], forces[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void serialInsideWorker(){
+        int n = 5000;
+        double[] positions = new double[3*n];
+        DeformationScheduler scheduler = new DeformationScheduler(4);
+        ForceAccumulator accumulator = new ForceAccumulator(scheduler);
+
+        Ranges outside = new Ranges(8*ForceAccumulator.MIN_ITEMS);
+        double[][] forces = new double[3][n];
+        accumulator.apply(Collections.singletonList(outside), positions, forces[0], forces[1], forces[2]);
+        Assert.assertTrue(outside.split);
+
+        Ranges inside = new Ranges(8*ForceAccumulator.MIN_ITEMS);
+        scheduler.invokeAll(Collections.singletonList(
+                () -> accumulator.apply(Collections.singletonList(inside), positions, forces[0], forces[1], forces[2])
+        ));
+        Assert.assertFalse(inside.split);
+    }
+}
@@ -0,0 +1,88 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.externalenergies;
+
+import deformablemesh.MeshImageStack;
+import deformablemesh.util.GaussianKernels;
+import deformablemesh.volume.FloatVolume;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImageGradientFieldTest {
+
+    /**
+     * A stack created from a volume has unit pixels and no offset, so normalized coordinates are voxel coordinates.
+     */
+    static MeshImageStack rampStack(int n){
+        FloatVolume volume = new FloatVolume(n, n, n);
+        for(int z = 0; z<n; z++){
+            for(int y = 0; y<n; y++){
+                for(int x = 0; x<n; x++){
+                    volume.setValue(x, y, z, 2*x + 3*y - z);
+                }
+            }
+        }
+        return new MeshImageStack(volume);
+    }
+
+    @Test
+    public void linearRamp(){
+        MeshImageStack stack = rampStack(20);
+        ImageGradientField field = new ImageGradientField(stack, ImageGradientField.DEFAULT_SIGMA);
+        double[] kernel = GaussianKernels.firstDerivative1DKernel();
+        double c = 0;
+        for(int i = 0; i<kernel.length; i++){
+            c += kernel[i]*(i - kernel.length/2);
+        }
+        double[] g = new double[3];
+        field.getGradient(10.3, 9.6, 8.2, g);
+        Assert.assertEquals(2*c, g[0], 1e-5);
+        Assert.assertEquals(3*c, g[1], 1e-5);
+        Assert.assertEquals(-c, g[2], 1e-5);
+
+        ImageGradientField central = new ImageGradientField(stack, 0);
+        central.getGradient(4.5, 12.25, 7, g);
+        Assert.assertEquals(4, g[0], 1e-5);
+        Assert.assertEquals(6, g[1], 1e-5);
+        Assert.assertEquals(-2, g[2], 1e-5);
+    }
+
+    @Test
+    public void cachedByFrameAndSigma(){
+        MeshImageStack stack = rampStack(8);
+        ImageGradientFieldCache cache = new ImageGradientFieldCache(2);
+        ImageGradientField field = cache.getField(stack, 2);
+        Assert.assertSame(field, cache.getField(stack, 2));
+        Assert.assertEquals(1, cache.getCalculationCount());
+
+        cache.getField(stack, 0);
+        Assert.assertEquals(2, cache.getCalculationCount());
+        Assert.assertSame(field, cache.getField(stack, 2));
+
+        cache.getField(rampStack(8), 2);
+        Assert.assertEquals(3, cache.getCalculationCount());
+    }
+}
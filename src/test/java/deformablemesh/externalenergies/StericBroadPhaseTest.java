@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.externalenergies;
+
+import deformablemesh.geometry.Box3D;
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.geometry.RayCastMesh;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class StericBroadPhaseTest {
+
+    static int countOverlaps(List<DeformableMesh3D> meshes){
+        int count = 0;
+        for(int i = 0; i<meshes.size(); i++){
+            Box3D a = meshes.get(i).getBoundingBox();
+            for(int j = i + 1; j<meshes.size(); j++){
+                if(a.intersects(meshes.get(j).getBoundingBox())){
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void pairsMatchAllOverlappingBoxes(){
+        Random ng = new Random(3);
+        List<DeformableMesh3D> meshes = new ArrayList<>();
+        for(int i = 0; i<30; i++){
+            DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(1);
+            mesh.scale(0.05, new double[]{0, 0, 0});
+            mesh.translate(new double[]{ng.nextDouble() - 0.5, ng.nextDouble() - 0.5, 0.2*ng.nextDouble()});
+            meshes.add(mesh);
+        }
+
+        StericBroadPhase broadPhase = new StericBroadPhase(meshes, meshes, 1.0, 0);
+        Assert.assertEquals(countOverlaps(meshes), broadPhase.getPairCount());
+
+        for(int step = 0; step<5; step++){
+            for(DeformableMesh3D mesh: meshes){
+                mesh.translate(new double[]{0.05*ng.nextGaussian(), 0.05*ng.nextGaussian(), 0});
+            }
+            broadPhase.update();
+            Assert.assertEquals(countOverlaps(meshes), broadPhase.getPairCount());
+        }
+
+        //every interaction is a neighbor with an overlapping box.
+        for(DeformableMesh3D mesh: meshes){
+            StericBroadPhase.StericNeighbors neighbors = (StericBroadPhase.StericNeighbors)broadPhase.getEnergy(mesh);
+            for(ExternalEnergy energy: neighbors.interactions.values()){
+                SofterStericMesh interaction = (SofterStericMesh)energy;
+                Assert.assertTrue(mesh.getBoundingBox().intersects(interaction.deformableMesh.getBoundingBox()));
+                Assert.assertNotNull(interaction.mesh);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry;
+
+import deformablemesh.externalenergies.ExternalEnergy;
+import deformablemesh.util.DeformationScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeformationSchedulerTest {
+
+    /**
+     * Pushes every node along x and records the positions of another mesh when the forces are evaluated.
+     */
+    static class Watcher implements ExternalEnergy{
+        final DeformableMesh3D other;
+        final List<double[]> seen = new ArrayList<>();
+
+        Watcher(DeformableMesh3D other){
+            this.other = other;
+        }
+
+        @Override
+        public void updateForces(double[] positions, double[] fx, double[] fy, double[] fz){
+            synchronized(seen){
+                seen.add(other.positions.clone());
+            }
+            for(int i = 0; i<fx.length; i++){
+                fx[i] += 1;
+            }
+        }
+
+        @Override
+        public double getEnergy(double[] pos){
+            return 0;
+        }
+    }
+
+    static List<DeformableMesh3D> meshes(int count){
+        List<DeformableMesh3D> meshes = new ArrayList<>();
+        for(int i = 0; i<count; i++){
+            DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(1);
+            mesh.scale(0.1, new double[]{0, 0, 0});
+            mesh.translate(new double[]{0.3*i, 0, 0});
+            meshes.add(mesh);
+        }
+        return meshes;
+    }
+
+    @Test
+    public void forcesSeePreviousPositions(){
+        List<DeformableMesh3D> meshes = meshes(3);
+        List<Watcher> watchers = new ArrayList<>();
+        for(int i = 0; i<meshes.size(); i++){
+            Watcher watcher = new Watcher(meshes.get((i + 1)%meshes.size()));
+            meshes.get(i).addExternalEnergy(watcher);
+            watchers.add(watcher);
+        }
+        DeformationScheduler scheduler = new DeformationScheduler(3);
+        for(int step = 0; step<3; step++){
+            List<double[]> before = new ArrayList<>();
+            for(DeformableMesh3D mesh: meshes){
+                before.add(mesh.positions.clone());
+            }
+            Assert.assertTrue(scheduler.step(meshes, () -> false));
+            for(int i = 0; i<meshes.size(); i++){
+                int other = (i + 1)%meshes.size();
+                Assert.assertArrayEquals(before.get(other), watchers.get(i).seen.get(step), 0);
+                Assert.assertFalse(Arrays.equals(before.get(i), meshes.get(i).positions));
+            }
+        }
+    }
+
+    @Test
+    public void stoppedStepDoesNotMove(){
+        List<DeformableMesh3D> meshes = meshes(3);
+        for(DeformableMesh3D mesh: meshes){
+            mesh.addExternalEnergy(new Watcher(mesh));
+        }
+        List<double[]> before = new ArrayList<>();
+        for(DeformableMesh3D mesh: meshes){
+            before.add(mesh.positions.clone());
+        }
+        DeformationScheduler scheduler = new DeformationScheduler(3);
+
+        Assert.assertFalse(scheduler.step(meshes, () -> true));
+
+        //stopped after the first mesh has calculated its positions.
+        AtomicInteger checks = new AtomicInteger();
+        Assert.assertFalse(scheduler.step(meshes, () -> checks.getAndIncrement() > 0));
+
+        for(int i = 0; i<meshes.size(); i++){
+            Assert.assertArrayEquals(before.get(i), meshes.get(i).positions, 0);
+        }
+    }
+}
@@ -29,7 +29,9 @@ import deformablemesh.util.Vector3DOps;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Created by msmith on 4/21/16.
@@ -58,4 +60,42 @@ public class InterceptionMesh3DTest {
         }
 
     }
+
+    /**
+     * The bounding volume hierarchy should find exactly the same intersections, in the same order, as testing
+     * every triangle.
+     */
+    @Test
+    public void testHierarchyMatchesAllTriangles(){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(3);
+        mesh.scale(0.5, new double[]{0, 0, 0});
+        InterceptingMesh3D ints = new InterceptingMesh3D(mesh);
+        Assert.assertNotNull(ints.hierarchy);
+
+        Random ng = new Random(1);
+        List<double[]> directions = new ArrayList<>();
+        directions.add(Vector3DOps.xhat);
+        directions.add(Vector3DOps.zhat);
+        for(int i = 0; i<50; i++){
+            directions.add(new double[]{ng.nextGaussian(), ng.nextGaussian(), ng.nextGaussian()});
+        }
+        for(double[] direction: directions){
+            for(int j = 0; j<20; j++){
+                //origins inside, outside and on the nodes of the mesh.
+                double[] origin = j%5 == 0 ?
+                        mesh.nodes.get(j).getCoordinates() :
+                        new double[]{ng.nextDouble() - 0.5, ng.nextDouble() - 0.5, ng.nextDouble() - 0.5};
+                List<Intersection> expected = new ArrayList<>();
+                for(InterceptingTriangle3D triangle: ints.triangles){
+                    triangle.getIntersection(origin, direction, expected);
+                }
+                List<Intersection> found = ints.getIntersections(origin, direction);
+                Assert.assertEquals(expected.size(), found.size());
+                for(int k = 0; k<expected.size(); k++){
+                    Assert.assertArrayEquals(expected.get(k).location, found.get(k).location, 0);
+                }
+            }
+        }
+
+    }
 }
@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry;
+
+import deformablemesh.MeshImageStack;
+import deformablemesh.externalenergies.ExternalEnergy;
+import deformablemesh.externalenergies.PerpendicularGradientEnergy;
+import deformablemesh.externalenergies.PerpendicularIntensityEnergy;
+import deformablemesh.externalenergies.StericMesh;
+import deformablemesh.externalenergies.TriangleAreaDistributor;
+import deformablemesh.volume.FloatVolume;
+import deformablemesh.volume.VoxelVolume;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares applying a typical stack of external energies when each energy calculates the normals and areas itself,
+ * which is what happens when the energies are used outside of an update, against sharing the geometry calculated once
+ * for the step. Run as an application, the times are printed in ms per step after a warm up.
+ */
+public class MeshGeometryBenchmark {
+    static final int STEPS = 50;
+
+    public static void main(String[] args){
+        VoxelVolume volume = new FloatVolume(128, 128, 128);
+        for(int z = 0; z<volume.getDepth(); z++){
+            for(int y = 0; y<volume.getHeight(); y++){
+                for(int x = 0; x<volume.getWidth(); x++){
+                    double r = Math.sqrt((x - 64)*(x - 64) + (y - 64)*(y - 64) + (z - 64)*(z - 64));
+                    volume.setValue(x, y, z, r < 40 ? 1 : 0);
+                }
+            }
+        }
+        MeshImageStack stack = new MeshImageStack(volume);
+
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(4);
+        mesh.scale(0.25, DeformableMesh3D.ORIGIN);
+        DeformableMesh3D neighbor = RayCastMesh.sphereRayCastMesh(3);
+        neighbor.scale(0.2, DeformableMesh3D.ORIGIN);
+        neighbor.translate(new double[]{0.35, 0, 0});
+
+        List<ExternalEnergy> energies = Arrays.asList(
+                new PerpendicularGradientEnergy(stack, mesh, 1.0),
+                new PerpendicularIntensityEnergy(stack, mesh, 1.0),
+                new StericMesh(mesh, neighbor, 1.0),
+                new TriangleAreaDistributor(stack, mesh, 1.0)
+        );
+        energies.forEach(mesh::addExternalEnergy);
+
+        int n = mesh.nodes.size();
+        double[] fx = new double[n];
+        double[] fy = new double[n];
+        double[] fz = new double[n];
+
+        for(int pass = 0; pass<2; pass++){
+            boolean report = pass == 1;
+            double sum = 0;
+
+            long start = System.nanoTime();
+            for(int s = 0; s<STEPS; s++){
+                for(ExternalEnergy energy: energies){
+                    energy.updateForces(mesh.positions, fx, fy, fz);
+                }
+                sum += fx[s];
+            }
+            print(report, "geometry per energy", start);
+
+            start = System.nanoTime();
+            for(int s = 0; s<STEPS; s++){
+                mesh.applyExternalEnergies(fx, fy, fz);
+                sum += fx[s];
+            }
+            print(report, "geometry per step", start);
+
+            start = System.nanoTime();
+            for(int s = 0; s<STEPS; s++){
+                sum += new MeshGeometry().update(mesh).getTotalArea();
+            }
+            print(report, "geometry only", start);
+
+            if(report){
+                System.out.println(n + " nodes, " + mesh.triangles.size() + " triangles, checksum: " + sum);
+            }
+        }
+    }
+
+    static void print(boolean report, String name, long start){
+        if(report){
+            double ms = (System.nanoTime() - start)*1e-6/STEPS;
+            System.out.printf("%s: %.3f ms per step%n", name, ms);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry;
+
+import deformablemesh.externalenergies.ExternalEnergy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MeshGeometryTest {
+
+    @Test
+    public void sameAsTriangles(){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(2);
+        mesh.scale(2, DeformableMesh3D.ORIGIN);
+        mesh.translate(new double[]{0.5, -0.25, 1});
+        MeshGeometry geometry = mesh.getGeometry();
+
+        double total = 0;
+        double[] normal = new double[3];
+        for(int i = 0; i<mesh.triangles.size(); i++){
+            Triangle3D t = new Triangle3D(mesh.triangles.get(i).A, mesh.triangles.get(i).B, mesh.triangles.get(i).C);
+            t.update();
+            Assert.assertEquals(t.area, geometry.getTriangleArea(i), 1e-12);
+            geometry.getTriangleNormal(i, normal);
+            for(int k = 0; k<3; k++){
+                Assert.assertEquals(0.5*t.normal[k], normal[k], 1e-12);
+                Assert.assertEquals(t.normal[k], mesh.triangles.get(i).normal[k], 1e-12);
+            }
+            total += t.area;
+        }
+        Assert.assertEquals(total, geometry.getTotalArea(), 1e-12);
+
+        double[] expected = new double[3];
+        for(int i = 0; i<mesh.nodes.size(); i++){
+            Assert.assertTrue(geometry.getNodeNormal(i, normal) > 0);
+            mesh.getTopology().meanNormal(i, mesh.triangles, expected);
+            Assert.assertArrayEquals(expected, normal, 1e-12);
+        }
+        Assert.assertArrayEquals(new double[]{0.5, -0.25, 1}, geometry.getCentroid(), 1e-12);
+    }
+
+    @Test
+    public void sharedDuringStep(){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(1);
+        List<MeshGeometry> seen = new ArrayList<>();
+        ExternalEnergy recorder = new ExternalEnergy(){
+            @Override
+            public void updateForces(double[] positions, double[] fx, double[] fy, double[] fz){
+                seen.add(mesh.getGeometry());
+            }
+
+            @Override
+            public double getEnergy(double[] pos){
+                return 0;
+            }
+        };
+        mesh.addExternalEnergy(recorder);
+        mesh.addExternalEnergy(recorder);
+        int n = mesh.nodes.size();
+        mesh.applyExternalEnergies(new double[n], new double[n], new double[n]);
+
+        Assert.assertEquals(2, seen.size());
+        Assert.assertSame(seen.get(0), seen.get(1));
+        Assert.assertNotSame(seen.get(0), mesh.getGeometry());
+    }
+}
@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MeshTopologyTest {
+
+    @Test
+    public void closedSphere(){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(2);
+        MeshTopology topology = mesh.getTopology();
+
+        Assert.assertEquals(0, topology.getMissingEdges());
+        Assert.assertEquals(mesh.nodes.size(), topology.getNodeCount());
+
+        for(int c = 0; c<mesh.connections.size(); c++){
+            Assert.assertEquals(2, topology.getEdgeTriangleCount(c));
+            Connection3D con = mesh.connections.get(c);
+            for(int i = 0; i<2; i++){
+                Triangle3D t = mesh.triangles.get(topology.getEdgeTriangle(c, i));
+                Assert.assertTrue(t.hasNode(con.A) && t.hasNode(con.B));
+            }
+        }
+
+        int total = 0;
+        for(Node3D node: mesh.nodes){
+            int n = node.index;
+            for(int i = 0; i<topology.getTriangleCount(n); i++){
+                Assert.assertTrue(mesh.triangles.get(topology.getTriangle(n, i)).hasNode(node));
+            }
+            total += topology.getTriangleCount(n);
+            for(int i = 0; i<topology.getNeighbourCount(n); i++){
+                int other = topology.getNeighbour(n, i);
+                Assert.assertEquals(topology.getConnection(n, i), topology.findConnection(other, n));
+            }
+        }
+        Assert.assertEquals(3*mesh.triangles.size(), total);
+
+        Triangle3D t = mesh.triangles.get(0);
+        Assert.assertTrue(topology.hasTriangle(t.C.index, t.A.index, t.B.index));
+    }
+
+    @Test
+    public void meanNormalPointsOut(){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(2);
+        mesh.triangles.forEach(Triangle3D::update);
+        MeshTopology topology = mesh.getTopology();
+        double[] normal = new double[3];
+        for(Node3D node: mesh.nodes){
+            Assert.assertTrue(topology.meanNormal(node.index, mesh.triangles, normal) > 0);
+            double[] r = node.getCoordinates();
+            double dot = normal[0]*r[0] + normal[1]*r[1] + normal[2]*r[2];
+            Assert.assertTrue(dot > 0);
+        }
+    }
+
+    @Test
+    public void sharedUntilTopologyChanges(){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(1);
+        MeshTopology topology = mesh.getTopology();
+        Assert.assertSame(topology, mesh.getTopology());
+
+        RayCastMesh.subDivideMesh(mesh);
+        MeshTopology next = mesh.getTopology();
+        Assert.assertNotSame(topology, next);
+        Assert.assertEquals(mesh.nodes.size(), next.getNodeCount());
+        Assert.assertEquals(0, next.getMissingEdges());
+    }
+}
@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SignedDistanceFieldTest {
+
+    static DeformableMesh3D cube(){
+        double[] positions = {
+                -1, -1, -1, 1, -1, -1, 1, 1, -1, -1, 1, -1,
+                -1, -1, 1, 1, -1, 1, 1, 1, 1, -1, 1, 1
+        };
+        int[] triangles = {
+                0, 2, 1, 0, 3, 2, 4, 5, 6, 4, 6, 7, 0, 1, 5, 0, 5, 4,
+                2, 3, 7, 2, 7, 6, 1, 2, 6, 1, 6, 5, 0, 4, 7, 0, 7, 3
+        };
+        int[] connections = {
+                0, 1, 1, 2, 2, 3, 3, 0, 4, 5, 5, 6, 6, 7, 7, 4, 0, 4, 1, 5, 2, 6, 3, 7
+        };
+        return new DeformableMesh3D(positions, connections, triangles);
+    }
+
+    @Test
+    public void cubeDistances(){
+        SignedDistanceField field = new SignedDistanceField(cube(), 0.1, 0.5, 0.05);
+        double[] gradient = new double[3];
+        for(double x: new double[]{0.55, 0.75, 0.95, 1.05, 1.25, 1.4}){
+            double d = field.sample(new double[]{x, 0.03, 0.01}, gradient);
+            Assert.assertEquals(x - 1, d, 1e-6);
+            Assert.assertEquals(1, gradient[0], 1e-6);
+            Assert.assertEquals(0, gradient[1], 1e-6);
+            Assert.assertEquals(0, gradient[2], 1e-6);
+        }
+        //clamped outside of the band.
+        Assert.assertEquals(-0.5, field.sample(new double[]{0, 0, 0}, null), 1e-6);
+        Assert.assertEquals(0.5, field.sample(new double[]{3, 0, 0}, null), 1e-6);
+    }
+
+    @Test
+    public void updateOnlyAfterMoving(){
+        DeformableMesh3D mesh = cube();
+        SignedDistanceField field = new SignedDistanceField(mesh, 0.1, 0.5, 0.05);
+        Assert.assertFalse(field.update());
+        mesh.positions[0] += 0.01;
+        Assert.assertFalse(field.update());
+        mesh.positions[0] -= 0.2;
+        Assert.assertTrue(field.update());
+    }
+}
@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.geometry.solvers;
+
+import deformablemesh.geometry.ConnectionRemesher;
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.geometry.RayCastMesh;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares the sparse solvers against the dense Jama reference.
+ */
+public class StiffnessSolverTest {
+    final static double TOL = 1e-8;
+
+    static DeformableMesh3D createMesh(double beta){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(2);
+        mesh.ALPHA = 1.0;
+        mesh.BETA = beta;
+        mesh.GAMMA = 500;
+        //break the symmetry so the solution isn't trivial.
+        mesh.positions[0] += 0.1;
+        mesh.positions[4] -= 0.05;
+        return mesh;
+    }
+
+    void compareSolvers(SolverType type, double beta){
+        compareSolvers(type, beta, TOL);
+    }
+
+    void compareSolvers(SolverType type, double beta, double tolerance){
+        DeformableMesh3D reference = createMesh(beta);
+        reference.setSolverType(SolverType.Dense);
+        DeformableMesh3D mesh = createMesh(beta);
+        mesh.setSolverType(type);
+
+        for(int i = 0; i<5; i++){
+            reference.update();
+            mesh.update();
+        }
+
+        Assert.assertArrayEquals(reference.positions, mesh.positions, tolerance);
+    }
+
+    @Test
+    public void sparseSymmetric(){
+        compareSolvers(SolverType.Sparse, 0);
+    }
+
+    @Test
+    public void sparseWithBeta(){
+        compareSolvers(SolverType.Sparse, 0.1);
+    }
+
+    @Test
+    public void conjugateGradient(){
+        compareSolvers(SolverType.ConjugateGradient, 0, 1e-6);
+    }
+
+    @Test
+    public void conjugateGradientFallsBackWithBeta(){
+        compareSolvers(SolverType.ConjugateGradient, 0.1);
+    }
+
+    @Test
+    public void conjugateGradientReportsResidual(){
+        DeformableMesh3D mesh = createMesh(0);
+        mesh.setSolverType(SolverType.ConjugateGradient);
+        mesh.setIterativeSolverParameters(1e-10, 100);
+        mesh.update();
+        ConjugateGradientSolver cg = (ConjugateGradientSolver)mesh.getSolver();
+        Assert.assertTrue(cg.getStepIterations() > 0);
+        Assert.assertTrue(cg.getStepResidual() < 1e-10);
+    }
+
+    @Test
+    public void remeshedSolverMatchesFullFactorization(){
+        DeformableMesh3D mesh = createMesh(0);
+        mesh.update();
+
+        double mean = 0;
+        int nCons = mesh.connection_index.length/2;
+        for(int i = 0; i<nCons; i++){
+            double[] a = mesh.getCoordinates(mesh.connection_index[2*i]);
+            double[] b = mesh.getCoordinates(mesh.connection_index[2*i + 1]);
+            double dx = a[0] - b[0];
+            double dy = a[1] - b[1];
+            double dz = a[2] - b[2];
+            mean += Math.sqrt(dx*dx + dy*dy + dz*dz)/nCons;
+        }
+
+        ConnectionRemesher remesher = new ConnectionRemesher();
+        remesher.setMinAndMaxLengths(0.8*mean, 1.2*mean);
+        DeformableMesh3D remeshed = remesher.remesh(mesh);
+        remeshed.ALPHA = mesh.ALPHA;
+        remeshed.BETA = mesh.BETA;
+        remeshed.GAMMA = mesh.GAMMA;
+
+        DeformableMesh3D reference = new DeformableMesh3D(
+                remeshed.positions.clone(), remeshed.connection_index, remeshed.triangle_index
+        );
+        reference.ALPHA = mesh.ALPHA;
+        reference.BETA = mesh.BETA;
+        reference.GAMMA = mesh.GAMMA;
+        reference.setSolverType(SolverType.Dense);
+
+        remeshed.update();
+        reference.update();
+
+        Assert.assertTrue(remeshed.getSolver() instanceof SparseEnvelopeSolver);
+        Assert.assertArrayEquals(reference.positions, remeshed.positions, TOL);
+    }
+
+    @Test
+    public void solverTypeReplacesPredecessor(){
+        DeformableMesh3D mesh = createMesh(0);
+        mesh.update();
+        DeformableMesh3D copy = new DeformableMesh3D(
+                mesh.positions.clone(), mesh.connection_index, mesh.triangle_index
+        );
+        int[] origins = new int[copy.nodes.size()];
+        for(int i = 0; i<origins.length; i++){
+            origins[i] = i;
+        }
+        copy.setPredecessor(mesh, origins);
+        copy.setSolverType(SolverType.Dense);
+        copy.update();
+        Assert.assertTrue(copy.getSolver() instanceof DenseLUSolver);
+    }
+
+    @Test
+    public void sparseMatrixSumsDuplicates(){
+        SparseMatrix.Builder builder = new SparseMatrix.Builder(3);
+        builder.add(2, 1, 1.0);
+        builder.add(0, 0, 2.0);
+        builder.add(2, 1, 0.5);
+        builder.add(2, 0, -1.0);
+        SparseMatrix m = builder.build();
+
+        Assert.assertEquals(3, m.getNonZeroCount());
+        Assert.assertEquals(1.5, m.get(2, 1), 0);
+        Assert.assertEquals(-1.0, m.get(2, 0), 0);
+        Assert.assertEquals(0, m.get(1, 1), 0);
+    }
+}
@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.io;
+
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.geometry.RayCastMesh;
+import deformablemesh.track.Track;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class IndexedMeshReaderTest {
+
+    static List<Track> createTracks(){
+        List<Track> tracks = new ArrayList<>();
+        for(int i = 0; i<3; i++){
+            Track track = new Track("track-" + i);
+            for(int frame = i; frame<10; frame += i + 1){
+                DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(i);
+                mesh.translate(new double[]{frame, i, 0.5*frame});
+                track.addMesh(frame, mesh);
+            }
+            tracks.add(track);
+        }
+        return tracks;
+    }
+
+    static void assertSameMesh(DeformableMesh3D expected, DeformableMesh3D found){
+        Assert.assertArrayEquals(expected.positions, found.positions, 0);
+        Assert.assertArrayEquals(expected.connection_index, found.connection_index);
+        Assert.assertArrayEquals(expected.triangle_index, found.triangle_index);
+    }
+
+    @Test
+    public void indexedFile() throws IOException {
+        List<Track> tracks = createTracks();
+        File file = Files.createTempFile("indexed", ".bmf").toFile();
+        try{
+            MeshWriter.saveMeshes(file, tracks);
+
+            //the index doesn't change the sequential reading.
+            List<Track> loaded = MeshReader.loadMeshes(file);
+            Assert.assertEquals(tracks.size(), loaded.size());
+
+            try(IndexedMeshReader reader = new IndexedMeshReader(file)){
+                Assert.assertTrue(reader.isIndexed());
+                Assert.assertEquals(tracks.size(), reader.getTrackCount());
+                for(int i = 0; i<tracks.size(); i++){
+                    Track track = tracks.get(i);
+                    Assert.assertEquals(track.getName(), reader.getTrackName(i));
+                    Assert.assertEquals(new ArrayList<>(track.getTrack().keySet()), reader.getFrames(i));
+                    for(Integer frame: track.getTrack().keySet()){
+                        assertSameMesh(track.getMesh(frame), reader.loadMesh(i, frame));
+                        assertSameMesh(track.getMesh(frame), loaded.get(i).getMesh(frame));
+                    }
+                    Assert.assertNull(reader.loadMesh(i, 100));
+                }
+                List<Track> lazy = reader.loadLazyTracks(2);
+                for(int i = 0; i<tracks.size(); i++){
+                    Assert.assertEquals(tracks.get(i).getFrames(), lazy.get(i).getFrames());
+                    for(Integer f: tracks.get(i).getFrames()){
+                        assertSameMesh(tracks.get(i).getMesh(f), lazy.get(i).getMesh(f));
+                    }
+                }
+
+                Map<Integer, DeformableMesh3D> frame = reader.loadFrame(2);
+                Assert.assertEquals(2, frame.size());
+                assertSameMesh(tracks.get(0).getMesh(2), frame.get(0));
+                assertSameMesh(tracks.get(2).getMesh(2), frame.get(2));
+            }
+        } finally{
+            file.delete();
+        }
+    }
+
+    @Test
+    public void legacyFile() throws IOException {
+        Map<Integer, DeformableMesh3D> meshes = new HashMap<>();
+        for(int frame: new int[]{4, 1, 7}){
+            DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(0);
+            mesh.translate(new double[]{frame, 0, 0});
+            meshes.put(frame, mesh);
+        }
+        File file = Files.createTempFile("legacy", ".bmf").toFile();
+        try{
+            MeshWriter.legacySaveMeshes(file, meshes);
+            try(IndexedMeshReader reader = new IndexedMeshReader(file)){
+                Assert.assertFalse(reader.isIndexed());
+                Assert.assertEquals(1, reader.getTrackCount());
+                for(Integer frame: meshes.keySet()){
+                    assertSameMesh(meshes.get(frame), reader.loadMesh(0, frame));
+                }
+            }
+        } finally{
+            file.delete();
+        }
+    }
+}
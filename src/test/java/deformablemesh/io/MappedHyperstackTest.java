@@ -0,0 +1,107 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.io;
+
+import deformablemesh.volume.MappedVolume;
+import ij.io.FileInfo;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MappedHyperstackTest {
+    static int value(int x, int y, int z, int c, int t){
+        return x + 4*y + 12*z + 100*c + 1000*t;
+    }
+
+    @Test
+    public void rawHyperstack() throws IOException {
+        int w = 4, h = 3, slices = 3, channels = 2, frames = 2;
+        int offset = 10;
+        ByteBuffer buffer = ByteBuffer.allocate(offset + w*h*slices*channels*frames*2).order(ByteOrder.BIG_ENDIAN);
+        buffer.position(offset);
+        for(int t = 0; t<frames; t++){
+            for(int z = 0; z<slices; z++){
+                for(int c = 0; c<channels; c++){
+                    for(int y = 0; y<h; y++){
+                        for(int x = 0; x<w; x++){
+                            buffer.putShort((short)value(x, y, z, c, t));
+                        }
+                    }
+                }
+            }
+        }
+        Path path = Files.createTempFile("mapped", ".raw");
+        try{
+            Files.write(path, buffer.array());
+
+            FileInfo info = new FileInfo();
+            info.fileFormat = FileInfo.RAW;
+            info.fileType = FileInfo.GRAY16_UNSIGNED;
+            info.width = w;
+            info.height = h;
+            info.offset = offset;
+            info.intelByteOrder = false;
+            MappedHyperstack stack = new MappedHyperstack(path, channels, slices, frames, info);
+
+            for(int t = 0; t<frames; t++){
+                for(int c = 0; c<channels; c++){
+                    MappedVolume volume = stack.getVolume(t, c);
+                    Assert.assertEquals(slices, volume.getDepth());
+                    for(int z = 0; z<slices; z++){
+                        for(int y = 0; y<h; y++){
+                            for(int x = 0; x<w; x++){
+                                Assert.assertEquals(value(x, y, z, c, t), volume.getValue(x, y, z), 0);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally{
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void fileTooShort() throws IOException {
+        Path path = Files.createTempFile("mapped", ".raw");
+        try{
+            Files.write(path, new byte[16]);
+            FileInfo info = new FileInfo();
+            info.fileFormat = FileInfo.RAW;
+            info.fileType = FileInfo.GRAY8;
+            info.width = 4;
+            info.height = 4;
+            new MappedHyperstack(path, 1, 2, 1, info);
+        } finally{
+            Files.delete(path);
+        }
+    }
+}
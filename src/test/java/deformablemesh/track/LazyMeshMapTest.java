@@ -0,0 +1,142 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.track;
+
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.geometry.RayCastMesh;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LazyMeshMapTest {
+
+    static DeformableMesh3D mesh(int frame){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(0);
+        mesh.translate(new double[]{frame, 0, 0});
+        return mesh;
+    }
+
+    /**
+     * Acts as if the garbage collector had cleared the released meshes, except for the frames that are still held.
+     */
+    static void collect(LazyMeshMap map, int... held){
+        for(Integer frame: map.entries.keySet()){
+            LazyMeshMap.Entry entry = map.entries.get(frame);
+            if(entry.released != null && Arrays.stream(held).noneMatch(h -> h == frame)){
+                entry.released.clear();
+                entry.released.enqueue();
+            }
+        }
+        map.purge();
+    }
+
+    @Test
+    public void loadsOnDemand(){
+        List<Integer> frames = new ArrayList<>();
+        for(int i = 0; i<20; i++){
+            frames.add(i);
+        }
+        int[] loads = {0};
+        LazyMeshMap map = new LazyMeshMap(frames, frame -> {
+            loads[0]++;
+            return mesh(frame);
+        }, 3);
+        Assert.assertEquals(20, map.size());
+        Assert.assertEquals(0, loads[0]);
+
+        DeformableMesh3D held = map.get(5);
+        held.positions[0] = 42;
+        for(Integer frame: frames){
+            Assert.assertNotNull(map.get(frame));
+            Assert.assertTrue(map.getInflatedCount() <= 3);
+        }
+        Assert.assertEquals(20, loads[0]);
+
+        //released meshes only keep their arrays if they were changed or are still held, the others go back to the loader.
+        collect(map, 5);
+        for(Integer frame: frames){
+            LazyMeshMap.Entry entry = map.entries.get(frame);
+            if(entry.mesh == null){
+                Assert.assertEquals(frame == 5, entry.positions != null);
+            }
+        }
+
+        //a mesh that is referenced is the same mesh, and released meshes are recreated.
+        Assert.assertSame(held, map.get(5));
+        double x0 = mesh(0).positions[0];
+        for(Integer frame: frames){
+            double expected = frame == 5 ? 42 : frame + x0;
+            Assert.assertEquals(expected, map.get(frame).positions[0], 1e-12);
+        }
+        Assert.assertNull(map.get(20));
+    }
+
+    @Test
+    public void changesWhileReleased(){
+        List<Integer> frames = Arrays.asList(0, 1, 2);
+        int[] loads = {0};
+        LazyMeshMap map = new LazyMeshMap(frames, frame -> {
+            loads[0]++;
+            return mesh(frame);
+        }, 1);
+
+        DeformableMesh3D held = map.get(0);
+        map.get(1);
+        Assert.assertNull(map.entries.get(0).mesh);
+
+        //changed by whatever holds it after it was released, then let go.
+        held.positions[0] = 42;
+        held = null;
+        collect(map);
+
+        Assert.assertEquals(42, map.get(0).positions[0], 0);
+        Assert.assertEquals(2, loads[0]);
+    }
+
+    @Test
+    public void lazyTrack(){
+        Track track = new Track("lazy");
+        List<DeformableMesh3D> meshes = new ArrayList<>();
+        for(int i = 0; i<10; i++){
+            meshes.add(mesh(i));
+            track.addMesh(i, meshes.get(i));
+        }
+        track.useLazyStorage(2);
+        Assert.assertEquals(10, track.size());
+        for(int i = 0; i<10; i++){
+            Assert.assertSame(meshes.get(i), track.getMesh(i));
+            Assert.assertEquals(i, track.getFrame(meshes.get(i)));
+        }
+        track.remove(meshes.get(4));
+        Assert.assertFalse(track.containsKey(4));
+        Assert.assertEquals(9, track.getTrack().size());
+        Assert.assertEquals(0, (int)track.getFirstFrame());
+        Assert.assertEquals(9, (int)track.getLastFrame());
+    }
+}
@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.util;
+
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.geometry.RayCastMesh;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConvergenceMonitorTest {
+
+    static void shift(DeformableMesh3D mesh, double dx){
+        for(int i = 0; i<mesh.positions.length; i += 3){
+            mesh.positions[i] += dx;
+        }
+    }
+
+    @Test
+    public void displacement(){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(1);
+        ConvergenceMonitor monitor = new ConvergenceMonitor(0.01, 0.005, 0, 2);
+        monitor.start(mesh);
+
+        shift(mesh, 0.1);
+        Assert.assertFalse(monitor.update(mesh));
+        Assert.assertEquals(0.1, monitor.getMaxDisplacement(mesh), 1e-12);
+        Assert.assertEquals(0.1, monitor.getRmsDisplacement(mesh), 1e-12);
+
+        shift(mesh, 0.001);
+        Assert.assertFalse(monitor.update(mesh));
+        shift(mesh, 0.02);
+        Assert.assertFalse(monitor.update(mesh));
+        shift(mesh, 0.001);
+        Assert.assertFalse(monitor.update(mesh));
+        shift(mesh, 0.001);
+        Assert.assertTrue(monitor.update(mesh));
+
+        Assert.assertTrue(monitor.isConverged(mesh));
+        Assert.assertEquals(5, monitor.getSteps(mesh));
+    }
+
+    @Test
+    public void meshesAreIndependent(){
+        DeformableMesh3D still = RayCastMesh.sphereRayCastMesh(1);
+        DeformableMesh3D moving = RayCastMesh.sphereRayCastMesh(1);
+        ConvergenceMonitor monitor = new ConvergenceMonitor(0.01, 0, 0, 1);
+        monitor.start(still);
+        monitor.start(moving);
+        shift(moving, 0.1);
+        Assert.assertTrue(monitor.update(still));
+        Assert.assertFalse(monitor.update(moving));
+        Assert.assertFalse(monitor.isConverged(moving));
+    }
+
+    @Test
+    public void disabled(){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(1);
+        ConvergenceMonitor monitor = new ConvergenceMonitor(0, 0, 0, 1);
+        Assert.assertFalse(monitor.isEnabled());
+        monitor.start(mesh);
+        Assert.assertFalse(monitor.update(mesh));
+    }
+}
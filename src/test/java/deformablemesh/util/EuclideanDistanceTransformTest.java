@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class EuclideanDistanceTransformTest {
+
+    static double bruteForce(int[] labels, int w, int h, int d, double[] spacing, int x, int y, int z){
+        int label = labels[(z*h + y)*w + x];
+        double best = Double.POSITIVE_INFINITY;
+        for(int k = 0; k<d; k++){
+            for(int j = 0; j<h; j++){
+                for(int i = 0; i<w; i++){
+                    if(labels[(k*h + j)*w + i] == label){
+                        continue;
+                    }
+                    double dx = (i - x)*spacing[0];
+                    double dy = (j - y)*spacing[1];
+                    double dz = (k - z)*spacing[2];
+                    best = Math.min(best, dx*dx + dy*dy + dz*dz);
+                }
+            }
+        }
+        return Math.sqrt(best);
+    }
+
+    void compare(int[] labels, int w, int h, int d, double[] spacing){
+        EuclideanDistanceTransform edt = new EuclideanDistanceTransform(labels, w, h, d, spacing).calculate();
+        for(int z = 0; z<d; z++){
+            for(int y = 0; y<h; y++){
+                for(int x = 0; x<w; x++){
+                    double expected = bruteForce(labels, w, h, d, spacing, x, y, z);
+                    double found = edt.getDistance(x, y, z);
+                    if(Double.isInfinite(expected)){
+                        Assert.assertTrue(Double.isInfinite(found));
+                    } else{
+                        Assert.assertEquals(expected, found, 1e-4*expected);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void randomBlobs(){
+        Random ng = new Random(3);
+        int w = 19;
+        int h = 15;
+        int d = 9;
+        for(int trial = 0; trial<4; trial++){
+            //a few overlapping boxes with different labels, some touching the edge of the image.
+            int[] labels = new int[w*h*d];
+            for(int b = 1; b<=5; b++){
+                int x0 = ng.nextInt(w);
+                int y0 = ng.nextInt(h);
+                int z0 = ng.nextInt(d);
+                int x1 = Math.min(w, x0 + 2 + ng.nextInt(10));
+                int y1 = Math.min(h, y0 + 2 + ng.nextInt(10));
+                int z1 = Math.min(d, z0 + 1 + ng.nextInt(5));
+                for(int z = z0; z<z1; z++){
+                    for(int y = y0; y<y1; y++){
+                        for(int x = x0; x<x1; x++){
+                            labels[(z*h + y)*w + x] = b;
+                        }
+                    }
+                }
+            }
+            compare(labels, w, h, d, new double[]{1, 1, 1});
+            compare(labels, w, h, d, new double[]{1, 1.5, 3.7});
+        }
+    }
+
+    @Test
+    public void singleLabel(){
+        int[] labels = new int[4*3*2];
+        EuclideanDistanceTransform edt = new EuclideanDistanceTransform(labels, 4, 3, 2, new double[]{1, 1, 2}).calculate();
+        Assert.assertTrue(Double.isInfinite(edt.getDistance(1, 1, 1)));
+
+        //a single voxel with a different label.
+        labels[(1*3 + 2)*4 + 3] = 1;
+        compare(labels, 4, 3, 2, new double[]{1, 1, 2});
+        edt = new EuclideanDistanceTransform(labels, 4, 3, 2, new double[]{1, 1, 2}).calculate();
+        Assert.assertEquals(Math.sqrt(9 + 4 + 4), edt.getDistance(0, 0, 0), 1e-6);
+    }
+}
@@ -0,0 +1,113 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FrameCacheTest {
+
+    @Test
+    public void leastRecentlyUsedEviction(){
+        AtomicInteger loads = new AtomicInteger();
+        FrameCache<int[]> cache = new FrameCache<>(30, (f, c) -> {
+            loads.incrementAndGet();
+            return new int[]{f, c};
+        }, v -> 10);
+
+        for(int i = 0; i<3; i++){
+            Assert.assertArrayEquals(new int[]{i, 0}, cache.get(i, 0));
+        }
+        Assert.assertEquals(3, loads.get());
+        Assert.assertEquals(30, cache.getSizeInBytes());
+
+        //frame 0 becomes the most recently used, so frame 1 is evicted.
+        cache.get(0, 0);
+        cache.get(3, 0);
+        Assert.assertEquals(4, loads.get());
+        Assert.assertEquals(30, cache.getSizeInBytes());
+        cache.get(0, 0);
+        cache.get(2, 0);
+        Assert.assertEquals(4, loads.get());
+        cache.get(1, 0);
+        Assert.assertEquals(5, loads.get());
+
+        Assert.assertEquals(3, cache.getHits());
+        Assert.assertEquals(5, cache.getMisses());
+    }
+
+    @Test
+    public void currentFrameIsKept(){
+        FrameCache<int[]> cache = new FrameCache<>(5, (f, c) -> new int[]{f, c}, v -> 10);
+        int[] first = cache.get(0, 1);
+        Assert.assertSame(first, cache.get(0, 1));
+        cache.get(1, 1);
+        Assert.assertEquals(1, cache.getCachedFrames().size());
+        Assert.assertArrayEquals(new int[]{1, 1}, cache.getCachedFrames().get(0));
+    }
+
+    @Test
+    public void prefetchedFramesAreHits() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        FrameCache<int[]> cache = new FrameCache<>(100, (f, c) -> {
+            loads.incrementAndGet();
+            return new int[]{f, c};
+        }, v -> 10);
+        cache.get(0, 0);
+        cache.prefetch(1, 0);
+        Assert.assertArrayEquals(new int[]{1, 0}, cache.get(1, 0));
+        Assert.assertEquals(2, loads.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void sharedBudget(){
+        FrameCache.Budget budget = new FrameCache.Budget(30);
+        FrameCache<int[]> a = new FrameCache<>(budget, (f, c) -> new int[]{f, c}, v -> 10);
+        FrameCache<int[]> b = new FrameCache<>(budget, (f, c) -> new int[]{f, c}, v -> 10);
+        a.get(0, 0);
+        a.get(1, 0);
+        b.get(0, 0);
+        Assert.assertEquals(30, budget.getSizeInBytes());
+
+        //the oldest frame of either cache is evicted.
+        b.get(1, 0);
+        Assert.assertEquals(30, budget.getSizeInBytes());
+        Assert.assertEquals(1, a.getCachedFrames().size());
+        Assert.assertArrayEquals(new int[]{1, 0}, a.getCachedFrames().get(0));
+        Assert.assertEquals(2, b.getCachedFrames().size());
+
+        //the current frames are kept even when they alone exceed the budget.
+        FrameCache<int[]> c = new FrameCache<>(budget, (f, ch) -> new int[]{f, ch}, v -> 25);
+        c.get(0, 0);
+        Assert.assertEquals(1, a.getCachedFrames().size());
+        Assert.assertEquals(1, b.getCachedFrames().size());
+        Assert.assertEquals(1, c.getCachedFrames().size());
+    }
+}
@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.util;
+
+import deformablemesh.MeshImageStack;
+import deformablemesh.geometry.DeformableMesh3D;
+import deformablemesh.geometry.RayCastMesh;
+import deformablemesh.volume.FloatVolume;
+import ij.ImageStack;
+import ij.process.ShortProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MeshRasterizerTest {
+
+    static DeformableMesh3D sphere(double radius, double[] center){
+        DeformableMesh3D mesh = RayCastMesh.sphereRayCastMesh(2);
+        mesh.scale(radius, new double[]{0, 0, 0});
+        mesh.translate(center);
+        return mesh;
+    }
+
+    static ImageStack shortStack(int w, int h, int d){
+        ImageStack stack = new ImageStack(w, h);
+        for(int i = 0; i<d; i++){
+            stack.addSlice(new ShortProcessor(w, h));
+        }
+        return stack;
+    }
+
+    /**
+     * The nodes of the mesh are on the sphere, so voxels outside of the sphere are never drawn and voxels well
+     * inside of the sphere are always drawn.
+     */
+    @Test
+    public void spheres(){
+        int n = 40;
+        //a stack backed by a volume has unit pixels, image coordinates are the same as mesh coordinates.
+        MeshImageStack geometry = new MeshImageStack(new FloatVolume(n, n, n));
+        double[][] centers = {{12.3, 14.1, 11.7}, {25.2, 24.6, 27.4}, {-3, 20.5, 20.5}};
+        double[] radii = {8.1, 9.4, 10};
+
+        MeshRasterizer rasterizer = new MeshRasterizer(geometry);
+        for(int i = 0; i<centers.length; i++){
+            rasterizer.add(sphere(radii[i], centers[i]), i + 1);
+        }
+        ImageStack out = shortStack(n, n, n);
+        rasterizer.rasterize(out);
+
+        for(int z = 0; z<n; z++){
+            short[] pixels = (short[])out.getProcessor(z + 1).getPixels();
+            for(int y = 0; y<n; y++){
+                for(int x = 0; x<n; x++){
+                    int expected = 0;
+                    boolean boundary = false;
+                    for(int i = 0; i<centers.length; i++){
+                        double dx = x - centers[i][0];
+                        double dy = y - centers[i][1];
+                        double dz = z - centers[i][2];
+                        double r = Math.sqrt(dx*dx + dy*dy + dz*dz);
+                        if(r < 0.9*radii[i]){
+                            expected = i + 1;
+                        } else if(r < radii[i]){
+                            boundary = true;
+                        }
+                    }
+                    int value = pixels[x + y*n];
+                    if(expected != 0){
+                        Assert.assertEquals(expected, value);
+                    } else if(!boundary){
+                        Assert.assertEquals(0, value);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void laterMeshesOverwrite(){
+        int n = 20;
+        MeshImageStack geometry = new MeshImageStack(new FloatVolume(n, n, n));
+        MeshRasterizer rasterizer = new MeshRasterizer(geometry);
+        double[] center = {9.5, 9.5, 9.5};
+        rasterizer.add(sphere(8, center), 1);
+        rasterizer.add(sphere(4, center), 2);
+        ImageStack out = shortStack(n, n, n);
+        rasterizer.rasterize(out);
+        Assert.assertEquals(2, out.getProcessor(10).get(9, 9));
+        Assert.assertEquals(1, out.getProcessor(10).get(9, 3));
+        Assert.assertEquals(0, out.getProcessor(10).get(0, 0));
+    }
+}
@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.util.connectedcomponents;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+public class LabelledVolumeTest {
+
+    static ImageStack randomStack(int w, int h, int d, double fraction, long seed){
+        Random ng = new Random(seed);
+        ImageStack stack = new ImageStack(w, h);
+        for(int z = 0; z<d; z++){
+            ByteProcessor proc = new ByteProcessor(w, h);
+            for(int i = 0; i<w*h; i++){
+                if(ng.nextDouble() < fraction){
+                    proc.set(i, 255);
+                }
+            }
+            stack.addSlice(proc);
+        }
+        return stack;
+    }
+
+    /**
+     * Flood fills from the voxel, checking every voxel reached has the same label and counting them.
+     */
+    static int floodCount(ImageStack stack, LabelledVolume labelled, boolean[] visited, int x0, int y0, int z0){
+        int w = stack.getWidth();
+        int h = stack.getHeight();
+        int d = stack.getSize();
+        int label = labelled.getLabel(x0, y0, z0 + 1);
+        Deque<int[]> queue = new ArrayDeque<>();
+        queue.add(new int[]{x0, y0, z0});
+        visited[(z0*h + y0)*w + x0] = true;
+        int count = 0;
+        int[][] steps = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+        while(queue.size() > 0){
+            int[] p = queue.poll();
+            Assert.assertEquals(label, labelled.getLabel(p[0], p[1], p[2] + 1));
+            count++;
+            for(int[] s: steps){
+                int x = p[0] + s[0];
+                int y = p[1] + s[1];
+                int z = p[2] + s[2];
+                if(x < 0 || y < 0 || z < 0 || x >= w || y >= h || z >= d){
+                    continue;
+                }
+                int i = (z*h + y)*w + x;
+                if(!visited[i] && stack.getProcessor(z + 1).get(x, y) != 0){
+                    visited[i] = true;
+                    queue.add(new int[]{x, y, z});
+                }
+            }
+        }
+        return count;
+    }
+
+    void checkLabels(ImageStack stack, int slabs){
+        LabelledVolume labelled = new LabelledVolume(stack.getWidth(), stack.getHeight(), stack.getSize());
+        labelled.process(stack, slabs);
+
+        int w = stack.getWidth();
+        int h = stack.getHeight();
+        boolean[] visited = new boolean[w*h*stack.getSize()];
+        boolean[] seen = new boolean[labelled.getRegionCount() + 1];
+        int regions = 0;
+        for(int z = 0; z<stack.getSize(); z++){
+            for(int y = 0; y<h; y++){
+                for(int x = 0; x<w; x++){
+                    int label = labelled.getLabel(x, y, z + 1);
+                    if(stack.getProcessor(z + 1).get(x, y) == 0){
+                        Assert.assertEquals(0, label);
+                        continue;
+                    }
+                    if(visited[(z*h + y)*w + x]){
+                        continue;
+                    }
+                    //each region has a distinct label.
+                    Assert.assertFalse(seen[label]);
+                    seen[label] = true;
+                    regions++;
+                    int count = floodCount(stack, labelled, visited, x, y, z);
+                    Assert.assertEquals(count, labelled.getVoxelCount(label));
+                    Assert.assertEquals(count, labelled.getPoints(label).size());
+                }
+            }
+        }
+        Assert.assertEquals(regions, labelled.getRegionCount());
+    }
+
+    @Test
+    public void randomVolumes(){
+        for(int slabs = 1; slabs<=5; slabs++){
+            checkLabels(randomStack(17, 13, 11, 0.4, slabs), slabs);
+            checkLabels(randomStack(9, 21, 7, 0.6, 10 + slabs), slabs);
+        }
+    }
+
+    @Test
+    public void regionStatistics(){
+        //a u shaped region that is only connected in the last slice, and a single voxel.
+        ImageStack stack = new ImageStack(5, 4);
+        for(int z = 0; z<6; z++){
+            ByteProcessor proc = new ByteProcessor(5, 4);
+            proc.set(0, 1, 1);
+            proc.set(4, 1, 1);
+            if(z == 5){
+                for(int x = 0; x<5; x++){
+                    proc.set(x, 1, 1);
+                }
+            }
+            stack.addSlice(proc);
+        }
+        stack.getProcessor(1).set(2, 3, 1);
+
+        LabelledVolume labelled = new LabelledVolume(5, 4, 6);
+        labelled.process(stack, 3);
+        Assert.assertEquals(2, labelled.getRegionCount());
+
+        int u = labelled.getLabel(0, 1, 1);
+        Assert.assertEquals(u, labelled.getLabel(4, 1, 1));
+        Assert.assertEquals(15, labelled.getVoxelCount(u));
+        Assert.assertArrayEquals(new int[]{0, 1, 1}, labelled.getLowCorner(u));
+        Assert.assertArrayEquals(new int[]{4, 1, 6}, labelled.getHighCorner(u));
+        double[] centroid = labelled.getCentroid(u);
+        Assert.assertEquals(2, centroid[0], 1e-9);
+        Assert.assertEquals(1, centroid[1], 1e-9);
+        Assert.assertEquals((2*(1 + 2 + 3 + 4 + 5 + 6) + 3*6)/15.0, centroid[2], 1e-9);
+
+        int single = labelled.getLabel(2, 3, 1);
+        Assert.assertNotEquals(u, single);
+        Assert.assertEquals(1, labelled.getVoxelCount(single));
+
+        Region region = labelled.getRegion(u);
+        Assert.assertEquals(15, region.calculateVolume());
+    }
+}
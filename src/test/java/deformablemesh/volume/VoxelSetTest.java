@@ -0,0 +1,141 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.volume;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class VoxelSetTest {
+
+    static long key(int x, int y, int z){
+        return ((long)z << 40) + ((long)y << 20) + x;
+    }
+
+    static Set<Long> reference(VoxelSet set){
+        Set<Long> keys = new HashSet<>();
+        set.forEach((x, y, z) -> keys.add(key(x, y, z)));
+        return keys;
+    }
+
+    @Test
+    public void addAndRemove(){
+        Random ng = new Random(1);
+        VoxelSet set = new VoxelSet();
+        Set<Long> expected = new HashSet<>();
+        for(int i = 0; i<20000; i++){
+            int x = ng.nextInt(30);
+            int y = ng.nextInt(4);
+            int z = ng.nextInt(3);
+            if(ng.nextDouble() < 0.6){
+                Assert.assertEquals(expected.add(key(x, y, z)), set.add(x, y, z));
+            } else{
+                Assert.assertEquals(expected.remove(key(x, y, z)), set.remove(x, y, z));
+            }
+            Assert.assertEquals(expected.size(), set.size());
+        }
+        Assert.assertEquals(expected, reference(set));
+        for(int x = 0; x<30; x++){
+            Assert.assertEquals(expected.contains(key(x, 2, 1)), set.contains(x, 2, 1));
+        }
+    }
+
+    @Test
+    public void runsAreMerged(){
+        VoxelSet set = new VoxelSet();
+        set.addRun(0, 5, 1, 1);
+        set.addRun(8, 10, 1, 1);
+        Assert.assertEquals(5, set.addRun(3, 12, 1, 1));
+        Assert.assertEquals(12, set.size());
+        Assert.assertEquals(1, set.getRowCount());
+        Assert.assertTrue(set.remove(6, 1, 1));
+        Assert.assertFalse(set.contains(6, 1, 1));
+        Assert.assertTrue(set.add(6, 1, 1));
+        Assert.assertArrayEquals(new int[]{0, 12}, set.rows.firstEntry().getValue());
+    }
+
+    @Test
+    public void setOperations(){
+        Random ng = new Random(2);
+        VoxelSet a = new VoxelSet();
+        VoxelSet b = new VoxelSet();
+        for(int i = 0; i<2000; i++){
+            a.add(ng.nextInt(20), ng.nextInt(10), ng.nextInt(5));
+            b.add(ng.nextInt(20), ng.nextInt(10), ng.nextInt(5));
+        }
+        Set<Long> union = reference(a);
+        union.addAll(reference(b));
+        Set<Long> intersection = reference(a);
+        intersection.retainAll(reference(b));
+
+        VoxelSet u = a.union(b);
+        VoxelSet n = a.intersection(b);
+        Assert.assertEquals(union, reference(u));
+        Assert.assertEquals(union.size(), u.size());
+        Assert.assertEquals(intersection, reference(n));
+        Assert.assertEquals(intersection.size(), n.size());
+        Assert.assertEquals(u, b.union(a));
+    }
+
+    @Test
+    public void geometry(){
+        List<int[]> points = new ArrayList<>();
+        points.add(new int[]{4, 2, 7});
+        points.add(new int[]{1, 3, 2});
+        points.add(new int[]{2, 3, 2});
+        points.add(new int[]{9, -1, 5});
+        VoxelSet set = new VoxelSet(points);
+
+        Assert.assertArrayEquals(new int[]{1, -1, 2}, set.getLowCorner());
+        Assert.assertArrayEquals(new int[]{9, 3, 7}, set.getHighCorner());
+        double[] centroid = set.getCentroid();
+        Assert.assertEquals(16/4.0, centroid[0], 1e-12);
+        Assert.assertEquals(7/4.0, centroid[1], 1e-12);
+        Assert.assertEquals(16/4.0, centroid[2], 1e-12);
+
+        //iterated in z, y, x order.
+        List<int[]> ordered = set.toList();
+        List<int[]> iterated = new ArrayList<>();
+        for(int[] pt: set){
+            iterated.add(pt);
+        }
+        Assert.assertEquals(4, iterated.size());
+        int[][] expected = {{1, 3, 2}, {2, 3, 2}, {9, -1, 5}, {4, 2, 7}};
+        for(int i = 0; i<expected.length; i++){
+            Assert.assertArrayEquals(expected[i], ordered.get(i));
+            Assert.assertArrayEquals(expected[i], iterated.get(i));
+        }
+
+        set.translate(1, 2, -1);
+        Assert.assertArrayEquals(new int[]{2, 1, 1}, set.getLowCorner());
+        Assert.assertTrue(set.contains(3, 5, 1));
+    }
+}
@@ -0,0 +1,93 @@
+/*-
+ * #%L
+ * Triangulated surface for deforming in 3D.
+ * %%
+ * Copyright (C) 2013 - 2023 University College London
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package deformablemesh.volume;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VoxelVolumeTest {
+
+    @Test
+    public void storedValuesMatch(){
+        for(VolumeStorage storage: VolumeStorage.values()){
+            VoxelVolume volume = storage.create(7, 5, 3, true);
+            Assert.assertEquals(7, volume.getWidth());
+            Assert.assertEquals(5, volume.getHeight());
+            Assert.assertEquals(3, volume.getDepth());
+            for(int z = 0; z<3; z++){
+                for(int y = 0; y<5; y++){
+                    for(int x = 0; x<7; x++){
+                        volume.setValue(x, y, z, x + 7*y + 35*z + 60000);
+                    }
+                }
+            }
+            DoubleVolume copy = new DoubleVolume(7, 5, 3);
+            copy.copy(volume);
+            for(int z = 0; z<3; z++){
+                for(int y = 0; y<5; y++){
+                    for(int x = 0; x<7; x++){
+                        Assert.assertEquals(x + 7*y + 35*z + 60000, copy.getValue(x, y, z), 0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void unsignedShortRange(){
+        UnsignedShortVolume volume = new UnsignedShortVolume(3, 1, 1);
+        volume.setValue(0, 0, 0, -5);
+        volume.setValue(1, 0, 0, 65535);
+        volume.setValue(2, 0, 0, 70000);
+        Assert.assertEquals(0, volume.getValue(0, 0, 0), 0);
+        Assert.assertEquals(65535, volume.getValue(1, 0, 0), 0);
+        Assert.assertEquals(65535, volume.getValue(2, 0, 0), 0);
+        Assert.assertEquals(6, volume.getSizeInBytes());
+    }
+
+    @Test
+    public void automaticStorage(){
+        Assert.assertTrue(VolumeStorage.Automatic.create(2, 2, 2, true) instanceof UnsignedShortVolume);
+        Assert.assertTrue(VolumeStorage.Automatic.create(2, 2, 2, false) instanceof FloatVolume);
+    }
+
+    @Test
+    public void automaticOversized(){
+        //more voxels than fit in an array, the volumes are not created so nothing is allocated.
+        int side = 1300;
+        Assert.assertTrue(((long)side)*side*side > VolumeStorage.MAX_ARRAY_VOXELS);
+        Assert.assertEquals(VolumeStorage.OffHeapFloat, VolumeStorage.Automatic.resolve(side, side, side, true));
+        Assert.assertEquals(VolumeStorage.OffHeapFloat, VolumeStorage.Automatic.resolve(side, side, side, false));
+        Assert.assertEquals(VolumeStorage.UnsignedShort, VolumeStorage.Automatic.resolve(side, side, 1, true));
+        Assert.assertEquals(VolumeStorage.Float, VolumeStorage.Float.resolve(side, side, side, true));
+        try{
+            new FloatVolume(side, side, side);
+            Assert.fail("array volume larger than an array");
+        } catch(IllegalArgumentException e){
+            //expected
+        }
+    }
+}